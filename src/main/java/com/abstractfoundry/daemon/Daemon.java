@@ -4,12 +4,16 @@
 
 package com.abstractfoundry.daemon;
 
+import com.abstractfoundry.daemon.store.MetadataCache;
 import com.abstractfoundry.daemon.store.Store;
 import com.abstractfoundry.daemon.script.ScriptExecutor;
+import com.abstractfoundry.daemon.audio.MicrophoneSubscriber;
 import com.abstractfoundry.daemon.audio.SpeakerThread;
 import com.abstractfoundry.daemon.audio.VirtualMicrophone;
 import com.abstractfoundry.daemon.common.FluentThreadFactory;
 import com.abstractfoundry.daemon.heartbeat.Heartbeat;
+import com.abstractfoundry.daemon.loopback.LoopbackNode;
+import com.abstractfoundry.daemon.loopback.SimulatedModule;
 import com.abstractfoundry.daemon.python.service.GlobalPythonService;
 import com.abstractfoundry.daemon.redis.RedisLauncher;
 import com.abstractfoundry.daemon.server.DomainSocketServer;
@@ -17,8 +21,14 @@ import com.abstractfoundry.daemon.server.GenericSocketClientHandler;
 import com.abstractfoundry.daemon.server.GenericSocketClientHandlerSupplier;
 import com.abstractfoundry.daemon.server.TcpSocketServer;
 import com.abstractfoundry.daemon.server.WebServer;
+import com.abstractfoundry.daemon.settings.AbstractFoundryDirectory;
+import com.abstractfoundry.daemon.uavcan.AllocationTable;
+import com.abstractfoundry.daemon.uavcan.Node;
 import com.abstractfoundry.daemon.uavcan.SerialConnectedNode;
-import com.abstractfoundry.daemon.utility.BroadcastHandler;
+import com.abstractfoundry.daemon.uavcan.TypeId;
+import com.abstractfoundry.daemon.utility.BroadcastBus;
+import com.abstractfoundry.daemon.utility.NodeStatusSubscriber;
+import java.io.File;
 import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -35,6 +45,11 @@ public class Daemon implements Runnable {
 	private static final Path DAEMON_SOCKET_PATH = Path.of("/", "tmp", "foundry_daemon.sock");
 	private static final Path GLOBAL_PYTHON_SERVICE_PATH = Path.of("/", "tmp", "foundry_python_service.sock");
 	
+	private static final int NODE_OFFLINE_THRESHOLD = Integer.getInteger("foundry.node.offlineThreshold", 5000); // Milliseconds without a NODE_STATUS before a node is evicted.
+	private static final String ALLOCATION_TABLE_FILENAME = "allocations.txt"; // Within the daemon directory.
+	private static final boolean LOOPBACK = Boolean.getBoolean("foundry.loopback"); // Connect to simulated modules instead of the serial port (for load-testing).
+	private static final int LOOPBACK_LATENCY = Integer.getInteger("foundry.loopback.latency", 0); // Microseconds before a simulated module responds.
+
 	private static final String REDIS_HOST = "127.0.0.1";
 	private static final int REDIS_PORT = 6380;
 
@@ -45,8 +60,8 @@ public class Daemon implements Runnable {
 	private final RedisLauncher redisLauncher;
 	private final Store store;
 	private final VirtualMicrophone virtualMicrophone;
-	private final BroadcastHandler broadcastHandler;
-	private final SerialConnectedNode daemonNode;
+	private final BroadcastBus broadcastBus;
+	private final Node daemonNode;
 	private final GlobalPythonService globalPythonService;
 	private final ScriptExecutor scriptExecutor;
 	private final Heartbeat heartbeat;
@@ -67,11 +82,20 @@ public class Daemon implements Runnable {
 		redisLauncher = new RedisLauncher(REDIS_PORT);
 		store = new Store(REDIS_HOST, REDIS_PORT);
 		virtualMicrophone = new VirtualMicrophone();
-		broadcastHandler = new BroadcastHandler(store, virtualMicrophone);
-		daemonNode = new SerialConnectedNode(daemonId, globalPool, broadcastHandler::handle, devicePath);
+		broadcastBus = new BroadcastBus(store);
+		var allocationTable = LOOPBACK ? new AllocationTable() : new AllocationTable(new File(AbstractFoundryDirectory.probeDaemonDirectory(), ALLOCATION_TABLE_FILENAME)); // The simulated modules have fixed IDs.
+		broadcastBus.subscribe(BroadcastBus.ANY_SOURCE, TypeId.NODE_STATUS, BroadcastBus.Mode.INLINE, new NodeStatusSubscriber(store, allocationTable));
+		broadcastBus.subscribeFields("microphone", "data", BroadcastBus.Mode.OFFLOADED, true, new MicrophoneSubscriber(virtualMicrophone)); // Pushing to the virtual microphone blocks. Note: Exclusive, so the samples are never stored (the store receives no fields until it resolves).
+		broadcastBus.subscribeFields(BroadcastBus.ANY_SOURCE, 0, Integer.MAX_VALUE, BroadcastBus.Mode.INLINE, false, store::putLatestFields);
+		if (LOOPBACK) {
+			daemonNode = new LoopbackNode(daemonId, broadcastBus, SimulatedModule.lumicube(125), LOOPBACK_LATENCY);
+		} else {
+			daemonNode = new SerialConnectedNode(daemonId, broadcastBus, allocationTable, devicePath);
+		}
 		globalPythonService = new GlobalPythonService(globalPool, GLOBAL_PYTHON_SERVICE_PATH);
 		scriptExecutor = new ScriptExecutor(globalPool, store, globalPythonService);
-		heartbeat = new Heartbeat(daemonNode, store, scriptExecutor);
+		var metadataCache = LOOPBACK ? new MetadataCache() : new MetadataCache(AbstractFoundryDirectory.probeDaemonMetadataDirectory());
+		heartbeat = new Heartbeat(daemonNode, store, metadataCache, scriptExecutor, globalPool, NODE_OFFLINE_THRESHOLD);
 		handlerSupplier = () -> new GenericSocketClientHandler(daemonNode, globalPool, store, globalPythonService); // One for each client.
 		domainSocketServer = new DomainSocketServer(daemonNode, DAEMON_SOCKET_PATH, handlerSupplier);
 		tcpSocketServer = new TcpSocketServer(daemonNode, DAEMON_SOCKET_PORT, handlerSupplier);
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.audio;
+
+import com.abstractfoundry.daemon.utility.BroadcastBus;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offloaded subscriber to the microphone's published samples, which pushes them into the virtual microphone.
+ */
+public class MicrophoneSubscriber implements BroadcastBus.FieldSubscriber {
+
+	private static final Logger logger = LoggerFactory.getLogger(MicrophoneSubscriber.class);
+
+	private static final int MAX_SAMPLES = 256;
+
+	private final VirtualMicrophone virtualMicrophone;
+	private final ByteBuffer samples = ByteBuffer.allocate(2 * MAX_SAMPLES);
+
+	public MicrophoneSubscriber(VirtualMicrophone virtualMicrophone) {
+		this.virtualMicrophone = virtualMicrophone;
+		samples.order(ByteOrder.LITTLE_ENDIAN); // The virtual microphone consumes "s16le" samples.
+	}
+
+	@Override
+	public void handle(int sourceId, int[] keys, int[] values, byte[] types, int offset, int count) { // Note: Called from the subscriber's own thread, so may block.
+		samples.clear();
+		for (var index = offset; index < offset + Math.min(count, MAX_SAMPLES); index++) {
+			samples.putShort((short) values[index]);
+		}
+		try {
+			virtualMicrophone.push(samples.array(), 0, samples.position());
+		} catch (IOException exception) {
+			logger.error("Error pushing data to virtual microphone.", exception);
+		}
+	}
+
+}
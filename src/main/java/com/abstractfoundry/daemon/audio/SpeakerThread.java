@@ -5,8 +5,8 @@
 package com.abstractfoundry.daemon.audio;
 
 import com.abstractfoundry.daemon.store.Store;
-import com.abstractfoundry.daemon.bus.FlatDictionary;
-import com.abstractfoundry.daemon.bus.Metadata;
+import com.abstractfoundry.daemon.bus.CachedModule;
+import com.abstractfoundry.daemon.bus.SerialisationPlan;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
 import com.abstractfoundry.daemon.uavcan.Node;
 import com.abstractfoundry.daemon.uavcan.NullContinuation;
@@ -41,8 +41,8 @@ public class SpeakerThread extends Thread {
 
 	private boolean emit = false;
 	private int destinationId;
-	private Metadata cachedMetadata = null;
-	private int floorKey = -1;
+	private SerialisationPlan cachedPlan = null; // Note: Every batch has the same layout.
+	private final CachedModule cachedModule = new CachedModule("speaker");
 
 	public SpeakerThread(Node daemonNode, Store store) {
 		super("Foundry Speaker");
@@ -83,26 +83,27 @@ public class SpeakerThread extends Thread {
 				stream.readNBytes(scratchpad.array(), 0, read);
 				scratchpad.limit(read);
 				scratchpad.position(0);
-				if (!emit) {
-					// (2) Attempt to fetch and cache the destination, metadata etc.
-					var module = store.getNamespace().getModule("speaker");
-					if (module != null) {
-						destinationId = module.getId();
-						cachedMetadata = module.getMetadata();
-						floorKey = module.getKey("data");
-						emit = true;
-					} else {
-						LockSupport.parkNanos(1_000_000_000L); // Wait for the speaker to become available.
+				// (2) Attempt to fetch and cache the destination, metadata etc.
+				if (cachedModule.revalidate(store.getNamespace())) {
+					var module = cachedModule.get();
+					destinationId = module.getId();
+					var floorKey = module.getKey("data");
+					for (var index = 0; index < keys.length; index++) {
+						keys[index] = index + floorKey;
 					}
+					cachedPlan = SerialisationPlan.compile(module.getMetadata(), keys, 0, keys.length);
+				}
+				emit = cachedModule.isAvailable();
+				if (!emit) {
+					LockSupport.parkNanos(1_000_000_000L); // Wait for the speaker to become available.
 				}
 				if (emit) {
 					// (3) Serialise the batches.
 					for (var batchNumber = 0; batchNumber < BATCH_COUNT; batchNumber++) {
 						for (var index = 0; index < samples.length; index++) {
-							keys[index] = index + floorKey;
 							samples[index] = scratchpad.getShort() / VOLUME_REDUCTION;
 						}
-						var length = FlatDictionary.serialise(buffers[batchNumber].array(), 0, keys, samples, 0, samples.length, cachedMetadata);
+						var length = cachedPlan.serialise(buffers[batchNumber].array(), 0, samples, 0);
 						buffers[batchNumber].limit(length);
 						buffers[batchNumber].position(0);
 					}
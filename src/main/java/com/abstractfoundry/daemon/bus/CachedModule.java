@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+/**
+ * Resolution of a named module, held by a caller across invocations (along
+ * with whatever keys and serialisation plans it derives from the module), and
+ * revalidated against each namespace by epoch. Not thread-safe.
+ */
+public class CachedModule {
+
+	private final String name;
+	private long namespaceEpoch = -1;
+	private Namespace.Module module = null;
+
+	public CachedModule(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Revalidate the resolution against the given namespace, at the cost of a
+	 * single comparison unless the namespace has been updated since.
+	 *
+	 * @return True if the module is available and has changed since the last
+	 * call, in which case the caller must derive its keys (and plans) again.
+	 */
+	public boolean revalidate(Namespace namespace) {
+		if (namespace.getEpoch() == namespaceEpoch) {
+			return false;
+		}
+		namespaceEpoch = namespace.getEpoch();
+		var previous = module;
+		module = namespace.getModule(name);
+		return module != null && (previous == null || module.getEpoch() != previous.getEpoch()); // Note: The epoch of a module is only renewed when its node is updated.
+	}
+
+	public boolean isAvailable() {
+		return module != null;
+	}
+
+	/**
+	 * @return The module, or NULL if unavailable.
+	 */
+	public Namespace.Module get() {
+		return module;
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Metadata compiled into primitive arrays, such that the lookups made for
+ * every block of a flat dictionary (floor, span, type and size) are array
+ * accesses, rather than tree map lookups and unboxing.
+ * <p>
+ * The floor of each key is tabulated up to the end of the last field, so the
+ * table is sized by the key space rather than the number of fields.
+ */
+public class CompiledMetadata implements Metadata { // Note: Immutable.
+
+	private static final byte DEBUG_FLAG = 0x01;
+	private static final byte SYSTEM_FLAG = 0x02;
+
+	private final int[] fieldByKey; // Index of the floor field of each key, or -1 if there is none.
+	private final int[] keys; // Per field, in ascending order.
+	private final int[] types;
+	private final int[] sizes;
+	private final int[] spans;
+	private final byte[] flags;
+	private final String[] names;
+	private final String[] modules;
+	private final Metadata[] submetadata; // Note: NULL unless the field is a dictionary.
+	private final Set<Integer> keySet;
+
+	private CompiledMetadata(Metadata source, Collection<Integer> included) {
+		var sorted = new TreeSet<Integer>(included);
+		var count = sorted.size();
+		keys = new int[count];
+		types = new int[count];
+		sizes = new int[count];
+		spans = new int[count];
+		flags = new byte[count];
+		names = new String[count];
+		modules = new String[count];
+		submetadata = new Metadata[count];
+		var index = 0;
+		for (var key : sorted) {
+			keys[index] = key;
+			types[index] = source.type(key);
+			sizes[index] = source.size(key);
+			spans[index] = source.span(key);
+			flags[index] = (byte) ((source.debug(key) ? DEBUG_FLAG : 0) | (source.system(key) ? SYSTEM_FLAG : 0));
+			names[index] = source.name(key);
+			modules[index] = source.module(key);
+			if (types[index] == FieldType.DICTIONARY) {
+				try {
+					submetadata[index] = source.metadata(key);
+				} catch (RuntimeException exception) {
+					submetadata[index] = null; // Unsupported by the source.
+				}
+			}
+			index++;
+		}
+		var limit = count > 0 ? keys[count - 1] + Math.max(1, spans[count - 1]) : 0;
+		fieldByKey = new int[limit];
+		var field = -1;
+		for (var key = 0; key < limit; key++) {
+			if (field + 1 < count && keys[field + 1] == key) {
+				field++;
+			}
+			fieldByKey[key] = field;
+		}
+		keySet = Collections.unmodifiableSet(sorted);
+	}
+
+	/**
+	 * @return The given metadata compiled (or itself, if already compiled).
+	 */
+	public static CompiledMetadata compile(Metadata source) {
+		if (source instanceof CompiledMetadata) {
+			return (CompiledMetadata) source;
+		}
+		return new CompiledMetadata(source, source.keys());
+	}
+
+	/**
+	 * @return The given metadata compiled, pruned to the given fields (for example those of one module of a node).
+	 */
+	public static CompiledMetadata compile(Metadata source, Collection<Integer> keys) {
+		return new CompiledMetadata(source, keys);
+	}
+
+	private int index(int key) {
+		if (key < 0) {
+			throw new IllegalArgumentException("Invalid key.");
+		}
+		var field = key < fieldByKey.length ? fieldByKey[key] : keys.length - 1; // Beyond the last field, its floor is the last field.
+		if (field < 0) {
+			throw new NoSuchElementException("No field at or below key: " + key);
+		}
+		return field;
+	}
+
+	@Override
+	public String name(int key) {
+		return names[index(key)];
+	}
+
+	@Override
+	public int type(int key) {
+		return types[index(key)];
+	}
+
+	@Override
+	public int size(int key) {
+		return sizes[index(key)];
+	}
+
+	@Override
+	public int span(int key) {
+		return spans[index(key)];
+	}
+
+	@Override
+	public boolean debug(int key) {
+		return (flags[index(key)] & DEBUG_FLAG) != 0;
+	}
+
+	@Override
+	public boolean system(int key) {
+		return (flags[index(key)] & SYSTEM_FLAG) != 0;
+	}
+
+	@Override
+	public String module(int key) {
+		return modules[index(key)];
+	}
+
+	@Override
+	public int floor(int key) {
+		return keys[index(key)];
+	}
+
+	@Override
+	public Metadata metadata(int key) {
+		var result = submetadata[index(key)];
+		if (result == null) {
+			throw new UnsupportedOperationException("Unsupported operation.");
+		}
+		return result;
+	}
+
+	@Override
+	public Set<Integer> keys() {
+		return keySet;
+	}
+
+}
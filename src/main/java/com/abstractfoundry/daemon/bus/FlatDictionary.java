@@ -86,8 +86,21 @@ public class FlatDictionary { // TODO: Common up some logic with RecursiveDictio
 		return cursor;
 	}
 
+	/**
+	 * Deserialise the fields into the given key and value arrays, with any floating-point values rounded to the nearest integer.
+	 */
 	public static int deserialise(byte[] buffer, int offset, int length, int[] keys, int[] values, int cursor, Metadata metadata) {
-		if (keys.length != values.length) {
+		return deserialise(buffer, offset, length, keys, values, null, cursor, metadata);
+	}
+
+	/**
+	 * Deserialise the fields into the given key, value and type columns, each value being the raw 32-bit word of its
+	 * type (so floating-point values are their bits, see {@link #doubleValue}), and each UTF-8 character its own field.
+	 * If the type column is NULL, then floating-point values are instead rounded to the nearest integer.
+	 * Note: Integers wider than 32 bits (and variable-size strings) have no flat representation, so are skipped.
+	 */
+	public static int deserialise(byte[] buffer, int offset, int length, int[] keys, int[] values, byte[] types, int cursor, Metadata metadata) {
+		if (keys.length != values.length || (types != null && types.length != keys.length)) {
 			throw new IllegalArgumentException("Mismatched arrays.");
 		} else if (offset < 0 || length < 0 || offset + length > buffer.length) {
 			throw new IllegalArgumentException("Invalid offset or length.");
@@ -114,35 +127,75 @@ public class FlatDictionary { // TODO: Common up some logic with RecursiveDictio
 						var metadataSpan = metadata.span(metadataFloor);
 						var metadataType = metadata.type(metadataFloor);
 						var metadataSize = metadata.size(metadataFloor);
-						var isSigned = metadataType > 1 && metadataType < 8 && metadataType != 4;
+						var isSigned = isSigned(metadataType);
 						var blockLength = Integer.min(runCountdown, metadataFloor + metadataSpan - keyAccumulator); // Homogeneously typed block of values.
-						if (metadataType > 0 && metadataType < 6 && metadataSize > 0) { // Fixed-size integral types.
-							var signExtensionBound = 1 << (8 * metadataSize - 1);
+						if (metadataType > 0 && metadataType < 6 && metadataSize >= 0) { // Fixed-/variable-size integral types.
 							for (var index = 0; index < blockLength; index++) {
+								var thisSize = metadataSize;
+								if (thisSize == 0) { // Variable-size, so prefixed with its size.
+									thisSize = 0;
+									for (var counter = 0; ; counter++) {
+										var prefix = buffer[offset++] & 0xFF;
+										thisSize |= (prefix & 0x7F) << (counter * 7);
+										if (prefix < 128) {
+											break;
+										}
+									}
+								}
+								if (thisSize > 4) { // Wider than a word, so has no flat representation.
+									offset += thisSize; // Skip, such that the following fields are still deserialised.
+									continue;
+								}
 								var value = 0;
-								for (var shift = 0; shift < metadataSize; shift++) {
+								for (var shift = 0; shift < thisSize; shift++) {
 									value |= (buffer[offset++] & 0xFF) << 8 * shift;
 								}
-								if (isSigned && value >= signExtensionBound) {
-									value -= 2 * signExtensionBound; // Sign-extend.
+								if (isSigned && thisSize > 0 && thisSize < 4 && value >= 1 << (8 * thisSize - 1)) {
+									value -= 2 << (8 * thisSize - 1); // Sign-extend.
 								}
 								keys[cursor] = keyAccumulator + index;
 								values[cursor] = value;
+								if (types != null) {
+									types[cursor] = (byte) metadataType;
+								}
 								cursor++;
 							}
-						} else if (metadataType == 6 && metadataSize == 4) { // Single-precision floating-point type.
+						} else if (metadataType == FieldType.FLOAT && metadataSize == 4) { // Single-precision floating-point type.
 							for (var index = 0; index < blockLength; index++) {
 								var raw = 0;
 								for (var shift = 0; shift < metadataSize; shift++) {
 									raw |= (buffer[offset++] & 0xFF) << 8 * shift;
 								}
-								var value = Float.intBitsToFloat(raw);
 								keys[cursor] = keyAccumulator + index;
-								values[cursor] = Math.round(value); // TODO: Do not round floating-point values to the nearest integer.
+								if (types != null) {
+									values[cursor] = raw;
+									types[cursor] = (byte) metadataType;
+								} else {
+									values[cursor] = Math.round(Float.intBitsToFloat(raw)); // Integer view, for legacy callers.
+								}
 								cursor++;
 							}
-						} else if (metadataType == 8 && metadataSize == 1) { // UTF-8 strings.
-							offset += blockLength; // TODO: We currently skip over strings, fix this.
+						} else if (metadataType == FieldType.UTF8_CHAR && metadataSize == 1) { // UTF-8 strings, one byte per key.
+							for (var index = 0; index < blockLength; index++) {
+								keys[cursor] = keyAccumulator + index;
+								values[cursor] = buffer[offset++] & 0xFF;
+								if (types != null) {
+									types[cursor] = (byte) metadataType;
+								}
+								cursor++;
+							}
+						} else if (metadataType == FieldType.UTF8_STRING && metadataSize == 0) { // Variable-size strings, which have no flat representation.
+							for (var index = 0; index < blockLength; index++) {
+								var stringSize = 0;
+								for (var counter = 0; ; counter++) {
+									var prefix = buffer[offset++] & 0xFF;
+									stringSize |= (prefix & 0x7F) << (counter * 7);
+									if (prefix < 128) {
+										break;
+									}
+								}
+								offset += stringSize; // Skip, such that the following fields are still deserialised.
+							}
 						} else {
 							throw new IllegalStateException("Unsupported type.");
 						}
@@ -163,4 +216,46 @@ public class FlatDictionary { // TODO: Common up some logic with RecursiveDictio
 		return cursor;
 	}
 
+	private static boolean isSigned(int type) {
+		return type > 1 && type < 8 && type != FieldType.UINT;
+	}
+
+	/**
+	 * @return The deserialised value of the given type as a long (so unsigned 32-bit values are not negative).
+	 * Note: This only widens the 32-bit word, since wider integers are not deserialised.
+	 */
+	public static long longValue(int type, int value) {
+		if (type == FieldType.FLOAT) {
+			return (long) Float.intBitsToFloat(value);
+		} else if (isSigned(type)) {
+			return value;
+		} else {
+			return Integer.toUnsignedLong(value);
+		}
+	}
+
+	/**
+	 * @return The deserialised value of the given type as a double, at full precision.
+	 */
+	public static double doubleValue(int type, int value) {
+		if (type == FieldType.FLOAT) {
+			return Float.intBitsToFloat(value);
+		} else {
+			return longValue(type, value);
+		}
+	}
+
+	/**
+	 * @return The deserialised value of the given type boxed, as an integer where it fits (otherwise a long), or a float.
+	 */
+	public static Object boxedValue(int type, int value) {
+		if (type == FieldType.FLOAT) {
+			return Float.intBitsToFloat(value);
+		} else if (value < 0 && !isSigned(type)) {
+			return Integer.toUnsignedLong(value);
+		} else {
+			return value;
+		}
+	}
+
 }
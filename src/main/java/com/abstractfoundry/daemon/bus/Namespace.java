@@ -8,13 +8,23 @@ import com.abstractfoundry.daemon.uavcan.NodeInfo;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Mapping of module names to the node providing each, and its fields.
+ * <p>
+ * Each change to a node yields a new namespace via {@link #update}, which
+ * shares the modules of every other node, so the namespace can be published
+ * by reference and read without locking.
+ */
 public class Namespace { // Note: Immutable.
 
 	private static final Logger logger = LoggerFactory.getLogger(Namespace.class);
@@ -24,17 +34,26 @@ public class Namespace { // Note: Immutable.
 		private final int id;
 		private final Metadata metadata;
 		private final Map<String, Integer> fields;
+		private final long epoch;
 
-		public Module(int id, Metadata metadata, Map<String, Integer> fields) {
+		public Module(int id, Metadata metadata, Map<String, Integer> fields, long epoch) {
 			this.id = id;
 			this.metadata = metadata;
 			this.fields = Collections.unmodifiableMap(fields);
+			this.epoch = epoch;
 		}
 
 		public int getId() {
 			return id;
 		}
 
+		/**
+		 * @return The epoch of the namespace in which this module was last resolved, which changes whenever its node, metadata or fields may have.
+		 */
+		public long getEpoch() {
+			return epoch;
+		}
+
 		public Metadata getMetadata() {
 			return metadata;
 		}
@@ -60,14 +79,29 @@ public class Namespace { // Note: Immutable.
 
 	}
 
+	private static final AtomicLong epochs = new AtomicLong(0); // Note: Shared by every namespace, such that epochs never repeat, even across full rebuilds.
+
 	public static Namespace EMPTY = new Namespace(
-		Map.of()
+		Map.of(), Map.of(), Set.of(), 0
 	);
 
+	private final long epoch;
 	private final Map<String, Module> entries;
+	private final Map<Integer, List<String>> modulesById; // The names of the modules provided by each node.
+	private final Set<Integer> excludedIds; // Nodes left out of the namespace due to conflicting names.
 
-	private Namespace(Map<String, Module> entries) {
+	private Namespace(Map<String, Module> entries, Map<Integer, List<String>> modulesById, Set<Integer> excludedIds, long epoch) {
+		this.epoch = epoch;
 		this.entries = Collections.unmodifiableMap(entries);
+		this.modulesById = Collections.unmodifiableMap(modulesById);
+		this.excludedIds = Collections.unmodifiableSet(excludedIds);
+	}
+
+	/**
+	 * @return The epoch of this namespace, which increases with every update, such that cached resolutions can be revalidated with a single comparison.
+	 */
+	public long getEpoch() {
+		return epoch;
 	}
 
 	public Module getModule(String name) {
@@ -78,47 +112,76 @@ public class Namespace { // Note: Immutable.
 		return entries.keySet();
 	}
 
-	public static Namespace build(Map<Integer, String> preferredNamesById, Map<Integer, Metadata> metadataById, Map<Integer, NodeInfo> nodeInfoById) { // TODO: Disambiguate conflicting names by appending FNV_1a hash suffix (like the old daemon).
-		var idByModule = new HashMap<String, Integer>();
+	/**
+	 * @return True if any node has been left out of the namespace, as its module or field names conflict.
+	 */
+	public boolean hasExclusions() {
+		return !excludedIds.isEmpty();
+	}
+
+	public static Namespace build(Map<Integer, String> preferredNamesById, Map<Integer, Metadata> metadataById, Map<Integer, NodeInfo> nodeInfoById) {
+		var result = EMPTY;
+		for (var id : new TreeSet<>(preferredNamesById.keySet())) { // Note: In order of ID, such that conflicts are resolved deterministically.
+			result = result.update(id, preferredNamesById.get(id), metadataById.get(id), nodeInfoById.get(id));
+		}
+		return result;
+	}
+
+	/**
+	 * @return A copy of this namespace, with the modules of the given node replaced (or removed, if its name or metadata are NULL),
+	 * leaving those of every other node untouched. If the node's names conflict with those of another node, then it is left out.
+	 */
+	public Namespace update(int id, String preferredName, Metadata metadata, NodeInfo info) { // TODO: Disambiguate conflicting names by appending FNV_1a hash suffix (like the old daemon).
+		// (1) Group the node's fields by module.
 		var fieldsByModule = new HashMap<String, Map<String, Integer>>();
-		for (var preferredNameEntry : preferredNamesById.entrySet()) {
-			var id = preferredNameEntry.getKey();
-			var preferredName = preferredNameEntry.getValue();
-			var metadata = metadataById.get(id);
-			var info = nodeInfoById.get(id);
-			if (preferredName != null && metadata != null) {
-				for (var key : metadata.keys()) {
-					var module = metadata.module(key);
-					var field = metadata.name(key);
-					if (module == null) {
-						module = preferredName; // Without an explicit module name for the field, we default to the preferred name for the node.
-					} else if (info != null && info.getName().equals("com.abstractfoundry.cube") && module.equals("buttons")) { // TODO: Unhack.
-						module = "system_button";
-					}
-					var existingId = idByModule.putIfAbsent(module, id);
-					if (existingId != null && !existingId.equals(id)) {
-						return EMPTY; // TODO: Rather append an FNV_1a hash suffix to the module name if needed for disambiguation.
-					}
-					var fields = fieldsByModule.computeIfAbsent(module, ignored -> new HashMap<>());
-					var existingKey = fields.putIfAbsent(field, key);
-					if (existingKey != null && !existingKey.equals(key)) {
-						logger.error("Conflicting field name: {}, {}, {}.", field, existingKey, key);
-						return EMPTY;
-					}
+		var conflicting = false;
+		if (preferredName != null && metadata != null) {
+			for (var key : metadata.keys()) {
+				var module = metadata.module(key);
+				var field = metadata.name(key);
+				if (module == null) {
+					module = preferredName; // Without an explicit module name for the field, we default to the preferred name for the node.
+				} else if (info != null && info.getName().equals("com.abstractfoundry.cube") && module.equals("buttons")) { // TODO: Unhack.
+					module = "system_button";
+				}
+				var existing = entries.get(module);
+				if (existing != null && existing.id != id) {
+					logger.error("Conflicting module name: {}, {}, {}.", module, existing.id, id);
+					conflicting = true;
+					break;
 				}
+				var fields = fieldsByModule.computeIfAbsent(module, ignored -> new HashMap<>());
+				var existingKey = fields.putIfAbsent(field, key);
+				if (existingKey != null && !existingKey.equals(key)) {
+					logger.error("Conflicting field name: {}, {}, {}.", field, existingKey, key);
+					conflicting = true;
+					break;
+				}
+			}
+		}
+		// (2) Replace the node's previous modules.
+		var epoch = epochs.incrementAndGet();
+		var entries = new HashMap<String, Module>(this.entries);
+		var modulesById = new HashMap<Integer, List<String>>(this.modulesById);
+		var excludedIds = new HashSet<Integer>(this.excludedIds);
+		var previous = modulesById.remove(id);
+		if (previous != null) {
+			for (var module : previous) {
+				entries.remove(module);
 			}
 		}
-		var entries = new HashMap<String, Module>();
-		for (var idEntry : idByModule.entrySet()) {
-			var module = idEntry.getKey();
-			var id = idEntry.getValue();
-			var fields = fieldsByModule.get(module);
-			var metadata = metadataById.get(id); // TODO: Prune the metadata object for this module to consist of only relevant fields (currently it contains all the fields for the entire node).
-			entries.put(module,
-				new Module(id, metadata, fields)
-			);
+		excludedIds.remove(id);
+		if (conflicting) {
+			excludedIds.add(id);
+		} else if (!fieldsByModule.isEmpty()) {
+			for (var moduleEntry : fieldsByModule.entrySet()) {
+				var fields = moduleEntry.getValue();
+				var pruned = CompiledMetadata.compile(metadata, fields.values()); // Pruned to the fields of this module.
+				entries.put(moduleEntry.getKey(), new Module(id, pruned, fields, epoch));
+			}
+			modulesById.put(id, List.copyOf(fieldsByModule.keySet()));
 		}
-		return new Namespace(entries);
+		return new Namespace(entries, modulesById, excludedIds, epoch);
 	}
 
 	public void print() {
@@ -20,46 +20,39 @@ public class QueriedMetadata implements Metadata { // Note: Immutable.
 
 	@Override
 	public String name(int key) {
-		var subdictionary = (RecursiveDictionary) dictionary.get(key);
-		return (String) subdictionary.get(BootstrapMetadata.NAME_KEY);
+		var subdictionary = dictionary.getDictionary(key);
+		return subdictionary.contains(BootstrapMetadata.NAME_KEY) ? subdictionary.getString(BootstrapMetadata.NAME_KEY) : null;
 	}
 
 	@Override
 	public int type(int key) {
-		var subdictionary = (RecursiveDictionary) dictionary.get(key);
-		return (int) subdictionary.get(BootstrapMetadata.TYPE_KEY);
+		return dictionary.getDictionary(key).getInt(BootstrapMetadata.TYPE_KEY);
 	}
 
 	@Override
 	public int size(int key) {
-		var subdictionary = (RecursiveDictionary) dictionary.get(key);
-		return (int) subdictionary.get(BootstrapMetadata.SIZE_KEY);
+		return dictionary.getDictionary(key).getInt(BootstrapMetadata.SIZE_KEY);
 	}
 
 	@Override
 	public int span(int key) {
-		var subdictionary = (RecursiveDictionary) dictionary.get(key);
-		return (int) subdictionary.get(BootstrapMetadata.SPAN_KEY);
+		return dictionary.getDictionary(key).getInt(BootstrapMetadata.SPAN_KEY);
 	}
 
 	@Override
 	public boolean debug(int key) {
-		var subdictionary = (RecursiveDictionary) dictionary.get(key);
-		var result = subdictionary.get(BootstrapMetadata.DEBUG_KEY); // Non-mandatory field, could return NULL.
-		return result != null ? (boolean) result: false;
+		return dictionary.getDictionary(key).getBoolean(BootstrapMetadata.DEBUG_KEY); // Non-mandatory field, false if absent.
 	}
 
 	@Override
 	public boolean system(int key) {
-		var subdictionary = (RecursiveDictionary) dictionary.get(key);
-		var result = subdictionary.get(BootstrapMetadata.SYSTEM_KEY); // Non-mandatory field, could return NULL.
-		return result != null ? (boolean) result: false;
+		return dictionary.getDictionary(key).getBoolean(BootstrapMetadata.SYSTEM_KEY); // Non-mandatory field, false if absent.
 	}
 
 	@Override
 	public String module(int key) {
-		var subdictionary = (RecursiveDictionary) dictionary.get(key);
-		return (String) subdictionary.get(BootstrapMetadata.MODULE_KEY);
+		var subdictionary = dictionary.getDictionary(key);
+		return subdictionary.contains(BootstrapMetadata.MODULE_KEY) ? subdictionary.getString(BootstrapMetadata.MODULE_KEY) : null; // Non-mandatory field.
 	}
 
 	@Override
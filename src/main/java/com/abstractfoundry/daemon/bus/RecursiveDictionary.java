@@ -7,47 +7,209 @@ package com.abstractfoundry.daemon.bus;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.NavigableMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 
+/**
+ * Dictionary of (possibly nested) fields, held as sorted primitive columns
+ * rather than a map of boxed values, since the metadata of every field is
+ * held as one of these for the life of the daemon.
+ * <p>
+ * Strings are held as views over their UTF-8 bytes (when deserialised, over
+ * a copy of the payload) and only materialised when first requested.
+ */
 public class RecursiveDictionary { // Note: Immutable. // TODO: Common up some logic with FlatDictionary into an abstract super class?
 
+	private static final byte NULL = 0; // Kinds of value.
+	private static final byte INTEGER = 1;
+	private static final byte BOOLEAN = 2;
+	private static final byte STRING = 3;
+	private static final byte DICTIONARY = 4;
+
 	protected final Metadata metadata;
-	private final NavigableMap<Integer, Object> fields;
+	private final int[] keys; // In ascending order.
+	private final byte[] kinds;
+	private final int[] values; // Per key, the integer (or boolean) value, or the offset of the string within the text.
+	private final int[] lengths; // Per key, the length of the string (if any).
+	private final byte[] text;
+	private final RecursiveDictionary[] subdictionaries; // Note: NULL unless there are any.
+	private String[] strings; // Note: Materialised lazily, which is a benign race since strings are immutable.
 
-	private RecursiveDictionary(Metadata metadata, NavigableMap<Integer, Object> fields) {
+	private RecursiveDictionary(Metadata metadata, int[] keys, byte[] kinds, int[] values, int[] lengths, byte[] text, RecursiveDictionary[] subdictionaries) {
 		this.metadata = metadata;
-		this.fields = fields;
+		this.keys = keys;
+		this.kinds = kinds;
+		this.values = values;
+		this.lengths = lengths;
+		this.text = text;
+		this.subdictionaries = subdictionaries;
+	}
+
+	private int index(int key) {
+		return Arrays.binarySearch(keys, key);
+	}
+
+	private int require(int key) {
+		var index = index(key);
+		if (index < 0) {
+			throw new NoSuchElementException("No field at key: " + key);
+		}
+		return index;
+	}
+
+	private Object value(int index) {
+		switch (kinds[index]) {
+			case INTEGER:
+				return values[index];
+			case BOOLEAN:
+				return values[index] != 0;
+			case STRING:
+				return string(index);
+			case DICTIONARY:
+				return subdictionaries[index];
+			default:
+				return null;
+		}
 	}
 
+	private String string(int index) {
+		var cache = strings;
+		if (cache == null) {
+			cache = new String[keys.length];
+			strings = cache;
+		}
+		var string = cache[index];
+		if (string == null) {
+			string = new String(text, values[index], lengths[index], StandardCharsets.UTF_8);
+			cache[index] = string;
+		}
+		return string;
+	}
+
+	/**
+	 * @return The value at the given key (boxed), or NULL if there is none.
+	 */
 	public Object get(int key) {
-		return fields.get(key);
+		var index = index(key);
+		return index >= 0 ? value(index) : null;
+	}
+
+	public boolean contains(int key) {
+		return index(key) >= 0;
+	}
+
+	/**
+	 * @return The integer (or boolean, as zero or one) value at the given key, without boxing.
+	 */
+	public int getInt(int key) {
+		var index = require(key);
+		if (kinds[index] != INTEGER && kinds[index] != BOOLEAN) {
+			throw new IllegalStateException("Not an integer.");
+		}
+		return values[index];
+	}
+
+	/**
+	 * @return The boolean (or non-zero integer) value at the given key, or false if there is none.
+	 */
+	public boolean getBoolean(int key) {
+		var index = index(key);
+		return index >= 0 && (kinds[index] == INTEGER || kinds[index] == BOOLEAN) && values[index] != 0;
+	}
+
+	public String getString(int key) {
+		var index = require(key);
+		if (kinds[index] != STRING) {
+			throw new IllegalStateException("Not a string.");
+		}
+		return string(index);
+	}
+
+	public RecursiveDictionary getDictionary(int key) {
+		var index = require(key);
+		if (kinds[index] != DICTIONARY) {
+			throw new IllegalStateException("Not a dictionary.");
+		}
+		return subdictionaries[index];
 	}
 
 	public Set<Integer> keys() {
-		return Collections.unmodifiableSet(
-			fields.keySet()
-		);
+		return new AbstractSet<>() { // Unmodifiable view.
+
+			@Override
+			public int size() {
+				return keys.length;
+			}
+
+			@Override
+			public boolean contains(Object object) {
+				return object instanceof Integer && index((Integer) object) >= 0;
+			}
+
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<>() {
+
+					private int index = 0;
+
+					@Override
+					public boolean hasNext() {
+						return index < keys.length;
+					}
+
+					@Override
+					public Integer next() {
+						if (index >= keys.length) {
+							throw new NoSuchElementException();
+						}
+						return keys[index++];
+					}
+
+				};
+			}
+
+		};
 	}
 
 	public int lastKey() {
-		return fields.lastKey();
+		if (keys.length == 0) {
+			throw new NoSuchElementException("Empty dictionary.");
+		}
+		return keys[keys.length - 1];
 	}
 
 	public int floor(int key) {
-		return fields.floorKey(key);
+		var index = index(key);
+		if (index < 0) {
+			index = -index - 2; // The preceding key, if any.
+		}
+		if (index < 0) {
+			throw new NoSuchElementException("No field at or below key: " + key);
+		}
+		return keys[index];
 	}
 
 	public static RecursiveDictionary deserialise(byte[] buffer, int offset, int length, Metadata metadata) {
-		var wrapped = ByteBuffer.wrap(buffer, offset, length);
+		var source = Arrays.copyOfRange(buffer, offset, offset + length); // The buffer may be reused, whereas the strings are views over the source.
+		var wrapped = ByteBuffer.wrap(source);
 		wrapped.order(ByteOrder.LITTLE_ENDIAN);
-		return deserialise(wrapped, metadata);
+		return deserialise(wrapped, source, metadata);
 	}
 
 	public static RecursiveDictionary deserialise(ByteBuffer buffer, Metadata metadata) {
-		var fields = new TreeMap<Integer, Object>();
+		var source = new byte[buffer.remaining()];
+		buffer.get(source);
+		var wrapped = ByteBuffer.wrap(source);
+		wrapped.order(ByteOrder.LITTLE_ENDIAN);
+		return deserialise(wrapped, source, metadata);
+	}
+
+	private static RecursiveDictionary deserialise(ByteBuffer buffer, byte[] source, Metadata metadata) { // Note: The buffer wraps the whole source, so its position is an offset into the source.
+		var columns = new Columns();
 		var keyAccumulator = 0;
 		while (buffer.position() < buffer.limit()) {
 			var command = buffer.get() & 0xFF;
@@ -72,7 +234,7 @@ public class RecursiveDictionary { // Note: Immutable. // TODO: Common up some l
 						var blockLength = Integer.min(runCountdown, metadataFloor + metadataSpan - keyAccumulator); // Homogeneously typed block of values.
 						if (metadataType == FieldType.NULL && metadataSize > 0) { // Fixed-size NULL block.
 							for (var index = 0; index < blockLength; index++) {
-								fields.put(keyAccumulator + index, null);
+								columns.add(keyAccumulator + index, NULL, 0, 0, null);
 								buffer.position(buffer.position() + metadataSize); // Skip over NULL data.
 							}
 						} else if (metadataType < 6) { // Fixed-/variable-size integral types.
@@ -87,22 +249,23 @@ public class RecursiveDictionary { // Note: Immutable. // TODO: Common up some l
 								if (metadataSigned && value >= signExtensionBound) {
 									value -= 2 * signExtensionBound; // Sign-extend.
 								}
-								fields.put(keyAccumulator + index,
-									metadataType != FieldType.BOOLEAN ? value : value != 0
-								);
+								if (metadataType != FieldType.BOOLEAN) {
+									columns.add(keyAccumulator + index, INTEGER, value, 0, null);
+								} else {
+									columns.add(keyAccumulator + index, BOOLEAN, value != 0 ? 1 : 0, 0, null);
+								}
 							}
 						} else if (metadataType == FieldType.UTF8_STRING && metadataSize == 0) { // Variable size strings.
 							for (var index = 0; index < blockLength; index++) {
 								var stringSize = parseSize(buffer);
-								var string = new String(buffer.array(), buffer.position(), stringSize, StandardCharsets.UTF_8);
-								fields.put(keyAccumulator + index, string);
+								columns.add(keyAccumulator + index, STRING, buffer.position(), stringSize, null); // A view over the source.
 								buffer.position(buffer.position() + stringSize);
 							}
 						} else if (metadataType == FieldType.DICTIONARY && metadataSize == 0) { // Variable size sub-dictionary.
 							var submetadata = metadata.metadata(metadataFloor);
 							for (var index = 0; index < blockLength; index++) {
-								var subdictionary = RecursiveDictionary.deserialise(buffer, submetadata);
-								fields.put(keyAccumulator + index, subdictionary);
+								var subdictionary = deserialise(buffer, source, submetadata);
+								columns.add(keyAccumulator + index, DICTIONARY, 0, 0, subdictionary);
 							}
 						} else {
 							throw new IllegalStateException("Unsupported type.");
@@ -121,30 +284,151 @@ public class RecursiveDictionary { // Note: Immutable. // TODO: Common up some l
 		if (buffer.position() != buffer.limit()) {
 			throw new IllegalStateException("Buffer overflow.");
 		}
-		return new RecursiveDictionary(metadata, fields);
+		return columns.build(metadata, source);
 	}
 
 	public RecursiveDictionary merge(RecursiveDictionary other) { // Note: Recursively merge (values from the second dictionary take precedence).
 		if (metadata != other.metadata) {
 			throw new IllegalArgumentException("Incompatible metadata.");
 		}
-		var fields = new TreeMap<Integer, Object>();
-		fields.putAll(this.fields);
-		for (var entry : other.fields.entrySet()) {
-			var key = entry.getKey();
-			var value = entry.getValue();
-			var existing = fields.putIfAbsent(key, value);
-			if (existing != null) {
-				Object merged;
-				if (existing instanceof RecursiveDictionary && value instanceof RecursiveDictionary) {
-					merged = ((RecursiveDictionary) existing).merge(((RecursiveDictionary) value)); // Recursively merge sub-dictionaries.
+		return new Builder(metadata).merge(this).merge(other).build();
+	}
+
+	/**
+	 * Growable columns, in ascending key order, from which a dictionary is built.
+	 */
+	private static class Columns {
+
+		private int count = 0;
+		private int[] keys = new int[8];
+		private byte[] kinds = new byte[8];
+		private int[] values = new int[8];
+		private int[] lengths = new int[8];
+		private RecursiveDictionary[] subdictionaries = null;
+
+		void add(int key, byte kind, int value, int length, RecursiveDictionary subdictionary) {
+			if (count == keys.length) {
+				var capacity = 2 * count;
+				keys = Arrays.copyOf(keys, capacity);
+				kinds = Arrays.copyOf(kinds, capacity);
+				values = Arrays.copyOf(values, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+			}
+			if (subdictionary != null) {
+				if (subdictionaries == null) {
+					subdictionaries = new RecursiveDictionary[keys.length];
+				} else if (subdictionaries.length < keys.length) {
+					subdictionaries = Arrays.copyOf(subdictionaries, keys.length);
+				}
+				subdictionaries[count] = subdictionary;
+			}
+			keys[count] = key;
+			kinds[count] = kind;
+			values[count] = value;
+			lengths[count] = length;
+			count++;
+		}
+
+		RecursiveDictionary build(Metadata metadata, byte[] text) {
+			return new RecursiveDictionary(metadata,
+				Arrays.copyOf(keys, count),
+				Arrays.copyOf(kinds, count),
+				Arrays.copyOf(values, count),
+				Arrays.copyOf(lengths, count),
+				text,
+				subdictionaries != null ? Arrays.copyOf(subdictionaries, count) : null
+			);
+		}
+
+	}
+
+	/**
+	 * Mutable accumulator for dictionaries received piecemeal (for example the
+	 * pages of a field enumeration), which merges each piece in place, rather
+	 * than copying the whole accumulated dictionary as {@link #merge} does.
+	 * The strings of the built dictionary are packed into a single array.
+	 * <p>
+	 * Caution: Not thread-safe.
+	 */
+	public static class Builder {
+
+		private static final Object NULL_VALUE = new Object();
+
+		private final Metadata metadata;
+		private final TreeMap<Integer, Object> fields = new TreeMap<>(); // Note: Strings are held as their bytes, and sub-dictionaries as builders, until built.
+
+		public Builder(Metadata metadata) {
+			this.metadata = metadata;
+		}
+
+		/**
+		 * Recursively merge the given dictionary into this one (values from the given dictionary take precedence).
+		 */
+		public Builder merge(RecursiveDictionary other) {
+			if (metadata != other.metadata) {
+				throw new IllegalArgumentException("Incompatible metadata.");
+			}
+			for (var index = 0; index < other.keys.length; index++) {
+				var key = other.keys[index];
+				switch (other.kinds[index]) {
+					case DICTIONARY:
+						var subdictionary = other.subdictionaries[index];
+						var existing = fields.get(key);
+						var builder = existing instanceof Builder ? (Builder) existing : new Builder(subdictionary.metadata);
+						fields.put(key, builder.merge(subdictionary));
+						break;
+					case STRING:
+						var start = other.values[index];
+						fields.put(key, Arrays.copyOfRange(other.text, start, start + other.lengths[index]));
+						break;
+					case INTEGER:
+						fields.put(key, other.values[index]);
+						break;
+					case BOOLEAN:
+						fields.put(key, other.values[index] != 0);
+						break;
+					default:
+						fields.put(key, NULL_VALUE); // Other kinds of value are simply "merged" by replacement.
+				}
+			}
+			return this;
+		}
+
+		public boolean isEmpty() {
+			return fields.isEmpty();
+		}
+
+		public RecursiveDictionary build() {
+			var textLength = 0;
+			for (var value : fields.values()) {
+				if (value instanceof byte[]) {
+					textLength += ((byte[]) value).length;
+				}
+			}
+			var text = new byte[textLength];
+			var textCursor = 0;
+			var columns = new Columns();
+			for (var entry : fields.entrySet()) {
+				var key = entry.getKey();
+				var value = entry.getValue();
+				if (value instanceof Builder) {
+					columns.add(key, DICTIONARY, 0, 0, ((Builder) value).build());
+				} else if (value instanceof byte[]) {
+					var bytes = (byte[]) value;
+					System.arraycopy(bytes, 0, text, textCursor, bytes.length);
+					columns.add(key, STRING, textCursor, bytes.length, null);
+					textCursor += bytes.length;
+				} else if (value instanceof Integer) {
+					columns.add(key, INTEGER, (Integer) value, 0, null);
+				} else if (value instanceof Boolean) {
+					columns.add(key, BOOLEAN, (Boolean) value ? 1 : 0, 0, null);
 				} else {
-					merged = value; // Other kinds of value are simply "merged" by replacement.
+					columns.add(key, NULL, 0, 0, null);
 				}
-				fields.put(key, merged);
 			}
+			return columns.build(metadata, text);
 		}
-		return new RecursiveDictionary(metadata, fields);
+
 	}
 
 	private static int parseSize(ByteBuffer buffer) {
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Flat dictionary encoder for a fixed layout of keys, compiled once from the
+ * metadata, such that only the values need be written on each call.
+ * <p>
+ * The layout is divided into segments, each being the (precomputed) skip and
+ * run headers, if any, followed by a homogeneously typed block of values of
+ * the same width. The output is identical to that of
+ * {@link FlatDictionary#serialise} for the same keys.
+ */
+public class SerialisationPlan { // Note: Immutable.
+
+	private final int[] keys; // The layout, in ascending order.
+	private final byte[] headers;
+	private final int[] headerEnds; // Per segment, the end of its headers (the start being the end of the previous segment's).
+	private final int[] counts; // Per segment, the number of values.
+	private final int[] widths; // Per segment, the width of each value in bytes.
+	private final int maximumLength;
+
+	private SerialisationPlan(int[] keys, byte[] headers, int[] headerEnds, int[] counts, int[] widths) {
+		this.keys = keys;
+		this.headers = headers;
+		this.headerEnds = headerEnds;
+		this.counts = counts;
+		this.widths = widths;
+		var length = headers.length;
+		for (var segment = 0; segment < counts.length; segment++) {
+			length += counts[segment] * widths[segment];
+		}
+		this.maximumLength = length;
+	}
+
+	/**
+	 * Compile a plan for the given keys, which must be in ascending order.
+	 */
+	public static SerialisationPlan compile(Metadata metadata, int[] keys, int offset, int count) {
+		if (offset < 0 || count <= 0 || offset + count > keys.length) {
+			throw new IllegalArgumentException("Invalid offset or count.");
+		}
+		var headers = new ByteArrayOutputStream();
+		var headerEnds = new int[count]; // Note: At most one segment per key, trimmed below.
+		var counts = new int[count];
+		var widths = new int[count];
+		var segments = 0;
+		var keyAccumulator = 0;
+		var index = offset;
+		while (index < offset + count) {
+			// (1) Delimit the run of contiguous keys, and write its headers.
+			var runStart = index;
+			var runEnd = index + 1;
+			while (runEnd < offset + count && keys[runEnd] == keys[runEnd - 1] + 1) {
+				runEnd++;
+			}
+			var skipValue = keys[runStart] - keyAccumulator;
+			if (skipValue < 0 || (skipValue == 0 && runStart != offset)) {
+				throw new IllegalArgumentException("Unordered keys.");
+			} else if (skipValue > 0) {
+				writeCommand(headers, 0x10, skipValue);
+			}
+			keyAccumulator += skipValue;
+			writeCommand(headers, 0x00, runEnd - runStart);
+			// (2) Divide the run into homogeneously typed blocks, each a segment.
+			while (index < runEnd) {
+				var key = keys[index];
+				var metadataFloor = metadata.floor(key);
+				var metadataSpan = metadata.span(metadataFloor);
+				var metadataType = metadata.type(metadataFloor);
+				var metadataSize = metadata.size(metadataFloor);
+				var blockLength = Integer.min(runEnd - index, metadataFloor + metadataSpan - key);
+				if (metadataType > 0 && metadataType < 6 && metadataSize > 0) { // Fixed-size integral types.
+					widths[segments] = metadataSize;
+				} else if (metadataType == 8 && metadataSize == 1) { // UTF_8 characters.
+					widths[segments] = 1;
+				} else {
+					throw new IllegalArgumentException("Unsupported type.");
+				}
+				headerEnds[segments] = headers.size();
+				counts[segments] = blockLength;
+				segments++;
+				index += blockLength;
+				keyAccumulator += blockLength;
+			}
+		}
+		return new SerialisationPlan(
+			Arrays.copyOfRange(keys, offset, offset + count),
+			headers.toByteArray(),
+			Arrays.copyOf(headerEnds, segments),
+			Arrays.copyOf(counts, segments),
+			Arrays.copyOf(widths, segments)
+		);
+	}
+
+	private static void writeCommand(ByteArrayOutputStream stream, int discriminator, int parameter) {
+		var width = 4 - (Integer.numberOfLeadingZeros(parameter) / 8);
+		stream.write(discriminator | width);
+		for (var index = 0; index < width; index++) {
+			stream.write((parameter >> 8 * index) & 0xFF);
+		}
+	}
+
+	/**
+	 * @return True if this plan was compiled for exactly the given keys.
+	 */
+	public boolean matches(int[] keys, int offset, int count) {
+		return Arrays.equals(this.keys, 0, this.keys.length, keys, offset, offset + count);
+	}
+
+	/**
+	 * @return The number of values taken.
+	 */
+	public int getCount() {
+		return keys.length;
+	}
+
+	/**
+	 * @return The length of the serialised dictionary.
+	 */
+	public int getLength() {
+		return maximumLength;
+	}
+
+	/**
+	 * Serialise the given values, one per key of the layout, in order.
+	 *
+	 * @return The cursor following the serialised dictionary.
+	 */
+	public int serialise(byte[] buffer, int cursor, int[] values, int offset) {
+		if (offset < 0 || offset + keys.length > values.length) {
+			throw new IllegalArgumentException("Invalid offset.");
+		} else if (cursor < 0 || cursor + maximumLength > buffer.length) {
+			throw new IllegalArgumentException("Insufficient buffer.");
+		}
+		var headerStart = 0;
+		for (var segment = 0; segment < counts.length; segment++) {
+			var headerEnd = headerEnds[segment];
+			for (var index = headerStart; index < headerEnd; index++) {
+				buffer[cursor++] = headers[index];
+			}
+			headerStart = headerEnd;
+			var width = widths[segment];
+			var end = offset + counts[segment];
+			for (; offset < end; offset++) {
+				var value = values[offset];
+				for (var shift = 0; shift < width; shift++) {
+					buffer[cursor++] = (byte) (value >> 8 * shift);
+				}
+			}
+		}
+		return cursor;
+	}
+
+}
@@ -6,13 +6,15 @@ package com.abstractfoundry.daemon.common;
 
 /**
  * Incremental COBS encoder / decoder for buffers up to at most 256 bytes (including COBS overhead byte and NULL delimiter byte).
+ * <p>
+ * Longer buffers are permitted, provided the data contains a zero byte at least
+ * every 254 bytes (otherwise encoding overflows), since each overhead byte must
+ * stand in for a zero byte.
  */
 public class COBS {
 
 	public static int encode(final byte[] buffer, int pointer, final int offset, final int length) {
-		if (buffer.length > 256) {
-			throw new IllegalArgumentException("Illegal buffer length.");
-		} else if (pointer < 0 || offset < 0 || length < 0) {
+		if (pointer < 0 || offset < 0 || length < 0) {
 			throw new IllegalArgumentException("Illegal arguments.");
 		} else if (offset + length > buffer.length) {
 			throw new IllegalArgumentException("Inconsistent arguments.");
@@ -36,9 +38,7 @@ public class COBS {
 	}
 
 	public static int decode(final byte[] buffer, int counter, final int offset, final int length) {
-		if (buffer.length > 256) {
-			throw new IllegalArgumentException("Illegal buffer length.");
-		} else if (counter < 0 || offset < 0 || length < 0) {
+		if (counter < 0 || offset < 0 || length < 0) {
 			throw new IllegalArgumentException("Illegal arguments.");
 		} else if (offset + length > buffer.length) {
 			throw new IllegalArgumentException("Inconsistent arguments.");
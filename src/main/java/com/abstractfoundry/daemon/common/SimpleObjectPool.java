@@ -41,6 +41,8 @@ public class SimpleObjectPool<T> { // TODO: Better to use a free list?
 	private final int[] state;
 	private final Slot[] slots;
 	private final Function<Slot, T> constructor;
+	private long claimCount = 0;
+	private int constructedCount = 0;
 
 	public SimpleObjectPool(int size, Function<Slot, T> constructor) {
 		if (size % 32 != 0) {
@@ -69,12 +71,30 @@ public class SimpleObjectPool<T> { // TODO: Better to use a free list?
 				var instance = constructor.apply(slot);
 				slot.set(instance);
 				slots[key] = slot;
+				constructedCount++;
 			}
+			claimCount++;
 			return slots[key];
 		}
 		throw new PoolExhaustedException();
 	}
 
+	/**
+	 * @return The number of successful claims, each of which reuses an instance unless it had to be constructed.
+	 */
+	@ThreadSafe
+	public synchronized long claimCount() {
+		return claimCount;
+	}
+
+	/**
+	 * @return The number of instances constructed, which stops growing once the pool has warmed up.
+	 */
+	@ThreadSafe
+	public synchronized int constructedCount() {
+		return constructedCount;
+	}
+
 	@ThreadSafe
 	private synchronized void replace(int key) throws SlotUnclaimedException {
 		if (key < 0 || key >= slots.length) {
@@ -4,6 +4,7 @@
 
 package com.abstractfoundry.daemon.heartbeat;
 
+import com.abstractfoundry.daemon.bus.CachedModule;
 import com.abstractfoundry.daemon.script.ScriptExecutor;
 import com.abstractfoundry.daemon.store.Store;
 
@@ -26,6 +27,7 @@ public class DisplayNetworkAddress implements Runnable {
 	private boolean addressWrittenToScreen = false;
 	private int systemButtonCachedId, systemButtonCachedKey, systemButtonPreviousCount;
 	private boolean systemButtonAvailable = false;
+	private final CachedModule systemButton = new CachedModule("system_button");
 
 	DisplayNetworkAddress(ScriptExecutor scriptExecutor, Store store) {
 		this.scriptExecutor = scriptExecutor;
@@ -41,11 +43,16 @@ public class DisplayNetworkAddress implements Runnable {
 				addressWrittenToScreen = true;
 			}
 		}
+		if (systemButton.revalidate(store.getNamespace())) {
+			var module = systemButton.get();
+			systemButtonCachedId = module.getId();
+			systemButtonCachedKey = module.getKey("button_pressed_count");
+			systemButtonAvailable = false; // Read the count afresh.
+		} else if (!systemButton.isAvailable()) {
+			systemButtonAvailable = false;
+		}
 		if (!systemButtonAvailable) {
-			var module = store.getNamespace().getModule("system_button");
-			if (module != null) {
-				systemButtonCachedId = module.getId();
-				systemButtonCachedKey = module.getKey("button_pressed_count");
+			if (systemButton.isAvailable()) {
 				Integer value = (Integer) store.getLatestField(systemButtonCachedId, systemButtonCachedKey);
 				if (value != null) {
 					systemButtonPreviousCount = value;
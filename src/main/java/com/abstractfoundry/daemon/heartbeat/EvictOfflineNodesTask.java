@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.heartbeat;
+
+import com.abstractfoundry.daemon.store.Store;
+
+class EvictOfflineNodesTask implements Runnable {
+
+	private final Store store;
+	private final int threshold; // Milliseconds.
+
+	EvictOfflineNodesTask(Store store, int threshold) {
+		this.store = store;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public void run() {
+		store.evictOfflineIds(threshold);
+	}
+
+}
@@ -5,8 +5,10 @@
 package com.abstractfoundry.daemon.heartbeat;
 
 import com.abstractfoundry.daemon.script.ScriptExecutor;
+import com.abstractfoundry.daemon.store.MetadataCache;
 import com.abstractfoundry.daemon.store.Store;
-import com.abstractfoundry.daemon.uavcan.SerialConnectedNode;
+import com.abstractfoundry.daemon.uavcan.Node;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,14 +18,28 @@ public class Heartbeat {
 
 	private final Runnable[] tasks;
 
-	public Heartbeat(SerialConnectedNode daemonNode, Store store, ScriptExecutor scriptExecutor) {
+	/**
+	 * @param executor Issues the requests prompted by node listener callbacks, which must not block the inbox thread.
+	 * @param offlineThreshold Milliseconds without a NODE_STATUS after which a node is evicted.
+	 */
+	public Heartbeat(Node daemonNode, Store store, MetadataCache metadataCache, ScriptExecutor scriptExecutor, Executor executor, int offlineThreshold) {
+		var subscribeDefaultFieldsTask = new SubscribeDefaultFieldsTask(daemonNode, store, executor, 5);
+		var queryNodeInfoTask = new QueryNodeInfoTask(daemonNode, store, metadataCache, executor);
+		var queryPreferredNamesTask = new QueryPreferredNamesTask(daemonNode, store, executor);
+		var queryMetadataTask = new QueryMetadataTask(daemonNode, store, metadataCache, executor);
+		store.addNodeListener(subscribeDefaultFieldsTask);
+		store.addNodeListener(queryNodeInfoTask);
+		store.addNodeListener(queryPreferredNamesTask);
+		store.addNodeListener(queryMetadataTask);
 		this.tasks = new Runnable[] {
-			new AbortExpiredRequestsTask(daemonNode, 5),
-			new SubscribeDefaultFieldsTask(daemonNode, store, 5),
-			new QueryNodeInfoTask(daemonNode, store),
-			new QueryPreferredNamesTask(daemonNode, store),
-			new QueryMetadataTask(daemonNode, store),
+			new NodeStatisticsTask(daemonNode, 5),
+			new EvictOfflineNodesTask(store, offlineThreshold),
+			subscribeDefaultFieldsTask,
+			queryNodeInfoTask,
+			queryPreferredNamesTask,
+			queryMetadataTask,
 			new PersistStoreTask(store, 120),
+			new PersistAllocationTableTask(daemonNode.getAllocationTable()),
 			new DisplayNetworkAddress(scriptExecutor, store),
 			new SetBrightnessAndGamma(scriptExecutor, store),
 			new StartMainScriptTask(scriptExecutor, store)
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.heartbeat;
+
+import com.abstractfoundry.daemon.loopback.LoopbackNode;
+import com.abstractfoundry.daemon.uavcan.Node;
+import com.abstractfoundry.daemon.uavcan.SerialConnectedNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+class NodeStatisticsTask implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(NodeStatisticsTask.class);
+
+	private final Runtime runtime;
+	private final int cadence;
+	private final Node daemonNode;
+
+	private int counter = 0;
+
+	NodeStatisticsTask(Node daemonNode, int cadence) {
+		this.daemonNode = daemonNode;
+		this.cadence = cadence;
+		this.runtime = Runtime.getRuntime();
+	}
+
+	@Override
+	public void run() {
+		if (counter++ % cadence == 0) {
+			var footprint = runtime.totalMemory() - runtime.freeMemory();
+			var inFlight = daemonNode.outstandingRequests();
+			var timedOut = daemonNode.expiredRequests();
+			var continuationBacklog = daemonNode.continuationBacklog();
+			var continuations = daemonNode.continuationCount();
+			var blockedContinuations = daemonNode.blockedContinuationCount();
+			var refusedRequests = daemonNode.refusedRequestCount();
+			var meanLatency = daemonNode.meanContinuationLatency();
+			var maximumLatency = daemonNode.maximumContinuationLatency();
+			LoggingMethod method = timedOut > 0 ? logger::warn : logger::debug;
+			method.log("Footprint = {} kilobytes.", footprint / 1000);
+			method.log("In-flight = {}.", inFlight);
+			method.log("Timed-out = {}.", timedOut);
+			method.log("Continuation backlog = {}; Continuations = {} ({} blocked); Refused requests = {}; Latency = {} microseconds mean, {} microseconds maximum.", continuationBacklog, continuations, blockedContinuations, refusedRequests, meanLatency, maximumLatency);
+			if (daemonNode instanceof SerialConnectedNode) { // Statistics of the transport.
+				var serialNode = (SerialConnectedNode) daemonNode;
+				method.log("Inbox backlog = {}; Priority inbox backlog = {}; Outbox backlog = {}; Collector backlog = {}.", serialNode.inboxBacklog(), serialNode.priorityInboxBacklog(), serialNode.outboxBacklog(), serialNode.collectorBacklog());
+				method.log("Serial recoveries = {}; Last time-to-recover = {} milliseconds.", serialNode.recoveryCount(), serialNode.lastRecoveryMilliseconds()); // Note: Each recovery is also logged once, as it happens, by the serial link.
+			} else if (daemonNode instanceof LoopbackNode) {
+				method.log("Simulated fields set = {}.", ((LoopbackNode) daemonNode).setCount());
+			}
+		}
+	}
+
+	private static interface LoggingMethod {
+		public void log(String string, Object... objects);
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.heartbeat;
+
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntConsumer;
+
+/**
+ * Node IDs awaiting requests from a heartbeat task, recorded by its listener
+ * callbacks (which are delivered on the inbox disruptor thread, so must never
+ * issue requests themselves), and drained on the given executor such that
+ * they need not wait for the next heartbeat.
+ */
+class PendingNodes {
+
+	private final Executor executor;
+	private final IntConsumer action;
+	private final Set<Integer> ids = new LinkedHashSet<>(); // Note: Guarded by this.
+	private boolean scheduled = false;
+
+	PendingNodes(Executor executor, IntConsumer action) {
+		this.executor = executor;
+		this.action = action;
+	}
+
+	@ThreadSafe
+	void add(int id) {
+		synchronized (this) {
+			ids.add(id);
+			if (scheduled) {
+				return; // The drain already under way will pick it up.
+			}
+			scheduled = true;
+		}
+		try {
+			executor.execute(this::drain);
+		} catch (RejectedExecutionException exception) {
+			synchronized (this) {
+				scheduled = false; // Leave it for the next heartbeat.
+			}
+		}
+	}
+
+	@ThreadSafe
+	synchronized void remove(int id) {
+		ids.remove(id);
+	}
+
+	/**
+	 * Thread-safe method which applies the action to each pending node ID, on
+	 * the calling thread.
+	 */
+	@ThreadSafe
+	void drain() {
+		while (true) {
+			int id;
+			synchronized (this) {
+				var iterator = ids.iterator();
+				if (!iterator.hasNext()) {
+					scheduled = false;
+					return;
+				}
+				id = iterator.next();
+				iterator.remove();
+			}
+			action.accept(id);
+		}
+	}
+
+}
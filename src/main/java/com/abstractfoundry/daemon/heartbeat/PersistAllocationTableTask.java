@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.heartbeat;
+
+import com.abstractfoundry.daemon.uavcan.AllocationTable;
+
+class PersistAllocationTableTask implements Runnable {
+
+	private final AllocationTable allocationTable;
+
+	PersistAllocationTableTask(AllocationTable allocationTable) {
+		this.allocationTable = allocationTable;
+	}
+
+	@Override
+	public void run() {
+		allocationTable.flush(); // Note: Only writes if the bindings have changed.
+	}
+
+}
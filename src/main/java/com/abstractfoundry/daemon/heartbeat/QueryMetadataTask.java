@@ -4,89 +4,227 @@
 
 package com.abstractfoundry.daemon.heartbeat;
 
+import com.abstractfoundry.daemon.store.MetadataCache;
+import com.abstractfoundry.daemon.store.NodeListener;
 import com.abstractfoundry.daemon.store.Store;
 import com.abstractfoundry.daemon.bus.BootstrapMetadata;
 import com.abstractfoundry.daemon.bus.QueriedMetadata;
 import com.abstractfoundry.daemon.bus.RecursiveDictionary;
-import com.abstractfoundry.daemon.common.Pair;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
-import com.abstractfoundry.daemon.uavcan.SerialConnectedNode;
+import com.abstractfoundry.daemon.uavcan.Node;
 import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class QueryMetadataTask implements Runnable {
+/**
+ * Enumerates the metadata of each node's fields.
+ * <p>
+ * Each ENUMERATE_FIELDS response carries a single field, and the key of the
+ * next field is only known once it has been received, so a node's key space
+ * is divided into segments which are walked concurrently, each with one query
+ * in flight. The segments are divided at the keys of any metadata already
+ * known (for example from the cache), and otherwise at guessed boundaries.
+ * A segment is complete once it walks into the next segment (the response
+ * being discarded), so the pipelining costs at most one request per segment.
+ */
+class QueryMetadataTask implements Runnable, NodeListener {
 
 	private static final Logger logger = LoggerFactory.getLogger(QueryMetadataTask.class);
 
-	private final SerialConnectedNode daemonNode;
+	private static final int[] DEFAULT_BOUNDARIES = { 0, 32, 64, 128, 256, 512, 1024, 2048 }; // Note: The last segment is open-ended.
+	private static final int MAXIMUM_SEGMENTS = DEFAULT_BOUNDARIES.length; // Queries in flight per node.
+
+	private final Node daemonNode;
 	private final Store store;
 	private final BootstrapMetadata bootstrapMetadata;
-	private final Map<Integer, Pair<Integer, Integer>> queryKeysById = new HashMap<>();
-	private final Map<Integer, RecursiveDictionary> accumulatedResultsById = new HashMap<>();
+	private final Map<Integer, Enumeration> enumerationsById = new HashMap<>();
+	private final MetadataCache metadataCache;
+	private final PendingNodes pending; // Restarted off the inbox thread.
+
+	private static class Segment {
+
+		final int high; // Key of the first field belonging to the next segment (exclusive).
+		int key0; // Next query.
+		int key1;
+		boolean inFlight = false;
+		boolean complete = false;
+		final List<byte[]> responses = new ArrayList<>(); // Raw responses, to be cached once complete.
+
+		Segment(int low, int high) {
+			this.high = high;
+			this.key0 = low;
+			this.key1 = 0;
+		}
+
+	}
+
+	private class Enumeration {
+
+		final int id;
+		final Segment[] segments;
+		final RecursiveDictionary.Builder builder = new RecursiveDictionary.Builder(bootstrapMetadata);
+		final long startTime = System.nanoTime();
+		int remaining; // Segments incomplete.
+		int requestCount = 0;
+
+		Enumeration(int id, int[] boundaries) {
+			this.id = id;
+			this.segments = new Segment[boundaries.length];
+			for (var index = 0; index < boundaries.length; index++) {
+				var high = index + 1 < boundaries.length ? boundaries[index + 1] : Integer.MAX_VALUE;
+				segments[index] = new Segment(boundaries[index], high);
+			}
+			this.remaining = segments.length;
+		}
+
+		boolean isComplete() {
+			return remaining == 0;
+		}
+
+	}
 
-	QueryMetadataTask(SerialConnectedNode daemonNode, Store store) {
+	QueryMetadataTask(Node daemonNode, Store store, MetadataCache metadataCache, Executor executor) {
 		this.daemonNode = daemonNode;
 		this.store = store;
+		this.metadataCache = metadataCache;
 		this.bootstrapMetadata = new BootstrapMetadata();
+		this.pending = new PendingNodes(executor, this::resume);
 	}
 
 	@Override
-	public synchronized void run() {
+	public void run() {
+		pending.drain();
 		for (var id : store.getConnectedIds()) {
-			if (!queryKeysById.containsKey(id)) {
-				queryKeysById.put(id, new Pair<>(0, 0));
-			}
-			var keys = queryKeysById.get(id);
-			var key0 = keys.getHead();
-			var key1 = keys.getTail();
-			if (key0 < 0 || key1 < 0) {
-				continue; // This node ID is complete.
+			resume(id);
+		}
+	}
+
+	@Override
+	public synchronized void resynchronise(int id) {
+		enumerationsById.remove(id); // Enumerate again from scratch.
+		pending.add(id); // Don't wait until the next heartbeat.
+	}
+
+	@Override
+	public synchronized void offline(int id) {
+		enumerationsById.remove(id); // Enumerate again from scratch if the node returns.
+		pending.remove(id);
+	}
+
+	private synchronized void resume(int id) {
+		var enumeration = enumerationsById.get(id);
+		if (enumeration == null) {
+			enumeration = new Enumeration(id, boundaries(id));
+			enumerationsById.put(id, enumeration);
+		} else if (enumeration.isComplete()) {
+			return; // This node ID is complete.
+		}
+		for (var segment : enumeration.segments) {
+			if (!segment.complete && !segment.inFlight) {
+				issueQuery(enumeration, segment); // Either not yet started, or the last query failed.
 			}
-			issueQuery(id, key0, key1);
 		}
 	}
 
-	private synchronized void issueQuery(int id, int key0, int key1) {
+	private int[] boundaries(int id) {
+		var metadata = store.getMetadata(id); // Note: Possibly from the cache, or a previous enumeration.
+		if (metadata == null) {
+			return DEFAULT_BOUNDARIES;
+		}
+		var keys = metadata.keys().stream().mapToInt(Integer::intValue).sorted().toArray();
+		var count = Math.max(1, Math.min(MAXIMUM_SEGMENTS, keys.length));
+		var boundaries = new int[count];
+		for (var index = 1; index < count; index++) { // Note: The first segment always starts from zero, in case fields have been added.
+			boundaries[index] = keys[index * keys.length / count];
+		}
+		return boundaries;
+	}
+
+	private void issueQuery(Enumeration enumeration, Segment segment) {
+		var id = enumeration.id;
+		var key0 = segment.key0;
+		var key1 = segment.key1;
 		var query = new byte[] {
 			0x12, (byte) (key0 & 0xFF), (byte) ((key0 >> 8) & 0xFF), // Skip to key0.
 			0x01, 0x01, // 1 field follows.
 			0x12, (byte) (key1 & 0xFF), (byte) ((key1 >> 8) & 0xFF) // Skip to key1.
 		};
 		try {
+			segment.inFlight = true;
 			daemonNode.request(id, TypeId.ENUMERATE_FIELDS, 20, query, 0, query.length,
-				(error, buffer, offset, length) -> { // Note: This is called from a thread in the global pool.
-					if (!error) {
-						// Ignore, as we will try again later.
-					}
+				(timeout, buffer, offset, length) -> { // Note: This is called from a worker of the continuation executor, so must not block.
 					synchronized (this) {
-						var results = RecursiveDictionary.deserialise(buffer, offset, length, bootstrapMetadata);
-						var existing = accumulatedResultsById.putIfAbsent(id, results);
-						if (existing != null) {
-							var merged = existing.merge(results);
-							accumulatedResultsById.put(id, merged);
+						if (enumerationsById.get(id) != enumeration) {
+							return; // Superseded, for example as the node has rebooted.
 						}
-						try {
-							var next0 = results.lastKey();
-							var subdictionary = (RecursiveDictionary) results.get(next0);
-							var next1 = subdictionary.lastKey() + 1;
-							queryKeysById.put(id, new Pair<>(next0, next1));
-							issueQuery(id, next0, next1); // Don't wait until the next heartbeat to issue the next query.
-						} catch (NoSuchElementException exception) {
-							queryKeysById.put(id, new Pair<>(-1, -1)); // Mark as completed.
-							var metadata = new QueriedMetadata(accumulatedResultsById.get(id));
-							store.putMetadata(id, metadata);
-							logger.info("Fully accumulated metadata for node: {}.", id);
+						segment.inFlight = false;
+						if (timeout) {
+							return; // Ignore, as we will try again later.
 						}
+						handleResponse(enumeration, segment, buffer, offset, length);
 					}
 				}
 			);
+			enumeration.requestCount++;
 		} catch (BackoffException exception) {
-			// Ignore, as we will try again later.
+			segment.inFlight = false; // Ignore, as we will try again later.
+		}
+	}
+
+	private void handleResponse(Enumeration enumeration, Segment segment, byte[] buffer, int offset, int length) {
+		var results = RecursiveDictionary.deserialise(buffer, offset, length, bootstrapMetadata);
+		if (results.keys().isEmpty()) {
+			completeSegment(enumeration, segment); // The last field has been enumerated.
+			return;
+		}
+		var key0 = results.lastKey();
+		if (key0 >= segment.high) {
+			completeSegment(enumeration, segment); // Walked into the next segment, which will enumerate this field itself.
+			return;
+		}
+		enumeration.builder.merge(results);
+		segment.responses.add(Arrays.copyOfRange(buffer, offset, offset + length));
+		var subdictionary = (RecursiveDictionary) results.get(key0);
+		segment.key0 = key0;
+		segment.key1 = subdictionary.lastKey() + 1;
+		issueQuery(enumeration, segment); // Don't wait until the next heartbeat to issue the next query.
+	}
+
+	private void completeSegment(Enumeration enumeration, Segment segment) {
+		segment.complete = true;
+		enumeration.remaining--;
+		if (!enumeration.isComplete()) {
+			return;
+		}
+		var id = enumeration.id;
+		var dictionary = enumeration.builder.build();
+		store.putMetadata(id, new QueriedMetadata(dictionary));
+		var elapsed = (System.nanoTime() - enumeration.startTime) / 1_000_000L;
+		logger.info("Fully accumulated metadata for node {}: {} field(s) in {} ms, using {} request(s) across {} segment(s).",
+			id, dictionary.keys().size(), elapsed, enumeration.requestCount, enumeration.segments.length
+		);
+		cache(enumeration);
+	}
+
+	private void cache(Enumeration enumeration) {
+		var id = enumeration.id;
+		var info = store.getNodeInfo(id);
+		var name = store.getPreferredName(id);
+		if (info == null || name == null) {
+			logger.debug("Not caching metadata for node {}, since its name or node information is not yet known.", id); // It will be cached when next enumerated.
+			return;
+		}
+		var responses = new ArrayList<byte[]>();
+		for (var segment : enumeration.segments) {
+			responses.addAll(segment.responses); // In key order, such that an unchanged enumeration matches the cache.
 		}
+		metadataCache.put(info, name, responses);
 	}
 
 }
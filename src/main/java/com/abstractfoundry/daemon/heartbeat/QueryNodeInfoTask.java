@@ -4,38 +4,72 @@
 
 package com.abstractfoundry.daemon.heartbeat;
 
+import com.abstractfoundry.daemon.store.MetadataCache;
+import com.abstractfoundry.daemon.store.NodeListener;
 import com.abstractfoundry.daemon.store.Store;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
+import com.abstractfoundry.daemon.uavcan.Node;
 import com.abstractfoundry.daemon.uavcan.NodeInfo;
-import com.abstractfoundry.daemon.uavcan.SerialConnectedNode;
 import com.abstractfoundry.daemon.uavcan.TypeId;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class QueryNodeInfoTask implements Runnable { // TODO: Update the allocator with the UUIDs associated with previously assigned IDs?
+public class QueryNodeInfoTask implements Runnable, NodeListener {
 
 	private static final Logger logger = LoggerFactory.getLogger(QueryNodeInfoTask.class);
 
-	private final SerialConnectedNode daemonNode;
+	private final Node daemonNode;
 	private final Store store;
 	private final Map<Integer, NodeInfo> infoById = new HashMap<>();
+	private final MetadataCache metadataCache;
+	private final PendingNodes pending; // Queried off the inbox thread.
 
-	QueryNodeInfoTask(SerialConnectedNode daemonNode, Store store) {
+	QueryNodeInfoTask(Node daemonNode, Store store, MetadataCache metadataCache, Executor executor) {
 		this.daemonNode = daemonNode;
 		this.store = store;
+		this.metadataCache = metadataCache;
+		this.pending = new PendingNodes(executor, this::issueQuery);
 	}
 
 	@Override
 	public void run() {
+		pending.drain();
 		for (var id : store.getConnectedIds()) {
-			if (!infoById.containsKey(id)) {
+			if (!isKnown(id)) {
 				issueQuery(id);
 			}
 		}
 	}
 
+	@Override
+	public void resynchronise(int id) {
+		offline(id);
+		pending.add(id); // Don't wait until the next heartbeat.
+	}
+
+	@Override
+	public synchronized void offline(int id) {
+		infoById.remove(id); // Query again if the node returns.
+		pending.remove(id);
+	}
+
+	private synchronized boolean isKnown(int id) {
+		return infoById.containsKey(id);
+	}
+
+	private void useCachedMetadata(int id, NodeInfo info) { // Populate the namespace now, whilst the name and metadata are queried (and the cache revalidated) in the background.
+		var entry = metadataCache.get(info);
+		if (entry != null) {
+			store.putPreferredNameIfAbsent(id, entry.getName());
+			if (store.putMetadataIfAbsent(id, entry.getMetadata())) {
+				logger.info("Using cached metadata for node: {}.", id);
+			}
+		}
+	}
+
 	private void issueQuery(int id) {
 		try {
 			logger.info("Querying node information for: {}.", id);
@@ -48,7 +82,13 @@ public class QueryNodeInfoTask implements Runnable { // TODO: Update the allocat
 						var info = NodeInfo.deserialise(buffer, offset, length);
 						logger.info("Node information for {}: UUID = {}; Name = '{}'.", id, info.getUuid(), info.getName());
 						infoById.put(id, info);
+						if (!error) {
+							daemonNode.getAllocationTable().observe(id, info.getUuid()); // Give the node back the same ID should it ever ask for one.
+						}
 						store.putNodeInfo(id, info);
+						if (!error) {
+							useCachedMetadata(id, info);
+						}
 					}
 				}
 			);
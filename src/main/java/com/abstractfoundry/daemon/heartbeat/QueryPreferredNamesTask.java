@@ -4,38 +4,59 @@
 
 package com.abstractfoundry.daemon.heartbeat;
 
+import com.abstractfoundry.daemon.store.NodeListener;
 import com.abstractfoundry.daemon.store.Store;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
-import com.abstractfoundry.daemon.uavcan.SerialConnectedNode;
+import com.abstractfoundry.daemon.uavcan.Node;
 import com.abstractfoundry.daemon.uavcan.TypeId;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class QueryPreferredNamesTask implements Runnable {
+class QueryPreferredNamesTask implements Runnable, NodeListener {
 
 	private static final Logger logger = LoggerFactory.getLogger(QueryPreferredNamesTask.class);
 
-	private final SerialConnectedNode daemonNode;
+	private final Node daemonNode;
 	private final Store store;
 	private final Map<Integer, String> namesById = new HashMap<>();
+	private final PendingNodes pending; // Queried off the inbox thread.
 
-	QueryPreferredNamesTask(SerialConnectedNode daemonNode, Store store) {
+	QueryPreferredNamesTask(Node daemonNode, Store store, Executor executor) {
 		this.daemonNode = daemonNode;
 		this.store = store;
+		this.pending = new PendingNodes(executor, this::issueQuery);
 	}
 	
 	@Override
 	public void run() {
+		pending.drain();
 		for (var id : store.getConnectedIds()) {
-			if (!namesById.containsKey(id)) {
+			if (!isKnown(id)) {
 				issueQuery(id);
 			}
 		}
 	}
 
+	@Override
+	public void resynchronise(int id) {
+		offline(id);
+		pending.add(id); // Don't wait until the next heartbeat.
+	}
+
+	@Override
+	public synchronized void offline(int id) {
+		namesById.remove(id); // Query again if the node returns.
+		pending.remove(id);
+	}
+
+	private synchronized boolean isKnown(int id) {
+		return namesById.containsKey(id);
+	}
+
 	private void issueQuery(int id) {
 		try {
 			logger.info("Querying preferred name for node: {}.", id);
@@ -4,53 +4,77 @@
 
 package com.abstractfoundry.daemon.heartbeat;
 
+import com.abstractfoundry.daemon.store.NodeListener;
 import com.abstractfoundry.daemon.store.Store;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
-import com.abstractfoundry.daemon.uavcan.SerialConnectedNode;
+import com.abstractfoundry.daemon.uavcan.Node;
 import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class SubscribeDefaultFieldsTask implements Runnable {
+class SubscribeDefaultFieldsTask implements Runnable, NodeListener {
 
 	private static final Logger logger = LoggerFactory.getLogger(SubscribeDefaultFieldsTask.class);
 
 	private static final int MAX_BANDWIDTH = 255;
 
-	private final SerialConnectedNode daemonNode;
+	private final Node daemonNode;
 	private final Store store;
 	private final int cadence;
+	private final PendingNodes pending; // Renewed off the inbox thread.
 	
 	private int counter = 0;
 
-	SubscribeDefaultFieldsTask(SerialConnectedNode daemonNode, Store store, int cadence) {
+	SubscribeDefaultFieldsTask(Node daemonNode, Store store, Executor executor, int cadence) {
 		this.daemonNode = daemonNode;
 		this.store = store;
 		this.cadence = cadence;
+		this.pending = new PendingNodes(executor, this::renew);
 	}
 
 	@Override
 	public void run() {
+		pending.drain();
 		if (counter++ % cadence == 0) {
 			var ids = store.getConnectedIds();
 			logger.debug("Renewing subscription for node(s): {}.", ids);
 			for (var id : ids) {
-				try {
-					var subscription = newSubscription(MAX_BANDWIDTH);
-					daemonNode.request(id, TypeId.SUBSCRIBE_DEFAULT_FIELDS, 20, subscription, 0, subscription.length,
-						(error, buffer, offset, length) -> {
-							if (error) {
-								logger.warn("Error renewing subscription for node: {}.", id);
-							}
-						}
-					);
-				} catch (BackoffException exception) {
-					logger.warn("Too busy to renew subscription for node: {}.", id);
-				}
+				renew(id);
 			}
 		}
 	}
 
+	@Override
+	public void online(int id) {
+		pending.add(id); // Don't wait until the next renewal.
+	}
+
+	@Override
+	public void resynchronise(int id) {
+		pending.add(id); // Any subscription is lost when the node reboots.
+	}
+
+	@Override
+	public void offline(int id) {
+		pending.remove(id);
+	}
+
+	private void renew(int id) {
+		try {
+			var subscription = newSubscription(MAX_BANDWIDTH);
+			daemonNode.request(id, TypeId.SUBSCRIBE_DEFAULT_FIELDS, 20, subscription, 0, subscription.length,
+				(error, buffer, offset, length) -> {
+					if (error) {
+						logger.warn("Error renewing subscription for node: {}.", id);
+					}
+				}
+			);
+		} catch (BackoffException exception) {
+			logger.warn("Too busy to renew subscription for node: {}.", id);
+		}
+	}
+
 	public byte[] newSubscription(int bandwidth) {
 		var seconds = cadence * 2; // Make the subscription for twice the renewal period, so it should never run out.
 		return new byte[] { (byte) seconds, (byte) bandwidth };
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.loopback;
+
+import com.abstractfoundry.daemon.common.FluentThreadFactory;
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import com.abstractfoundry.daemon.uavcan.BatchRequest;
+import com.abstractfoundry.daemon.uavcan.BroadcastHandler;
+import com.abstractfoundry.daemon.uavcan.Node;
+import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node connected to simulated modules in the same JVM rather than to the
+ * serial port, such that the layers above the node (the socket servers, REST
+ * API, methods and store) can be load-tested at rates far beyond those the
+ * UART allows.
+ * <p>
+ * Requests are handled, and responses received, on a single service thread
+ * after the configured latency, and the modules' broadcasts are received on
+ * a single broadcast thread, as with the inbox of the serial connector.
+ */
+public class LoopbackNode extends Node {
+
+	private static final Logger logger = LoggerFactory.getLogger(LoopbackNode.class);
+
+	private static final int STATUS_PERIOD = 1000; // Milliseconds between each module's NODE_STATUS broadcasts.
+	private static final int BUFFER_SIZE = 1024;
+
+	private final Map<Integer, SimulatedModule> modulesById = new HashMap<>(); // Note: Not modified after construction.
+	private final int latency; // Microseconds.
+	private final ScheduledExecutorService serviceScheduler;
+	private final ScheduledExecutorService broadcastScheduler;
+	private final byte[] responseBuffer = new byte[BUFFER_SIZE]; // Note: Only accessed from the service thread.
+	private final byte[] broadcastBuffer = new byte[BUFFER_SIZE]; // Note: Only accessed from the broadcast thread.
+	private int broadcastTransferId = 0; // Note: Only accessed from the broadcast thread.
+
+	/**
+	 * @param latency Microseconds after which each request is handled (and responded to).
+	 */
+	public LoopbackNode(int selfId, BroadcastHandler broadcastHandler, List<SimulatedModule> modules, int latency) {
+		super(selfId, broadcastHandler);
+		if (latency < 0) {
+			throw new IllegalArgumentException("Invalid latency.");
+		}
+		for (var module : modules) {
+			if (module.getId() == selfId || modulesById.putIfAbsent(module.getId(), module) != null) {
+				throw new IllegalArgumentException("Conflicting node ID: " + module.getId() + ".");
+			}
+		}
+		this.latency = latency;
+		this.serviceScheduler = Executors.newSingleThreadScheduledExecutor(
+			new FluentThreadFactory()
+				.setName("Foundry Loopback Service")
+				.setDaemon(true)
+		);
+		this.broadcastScheduler = Executors.newSingleThreadScheduledExecutor(
+			new FluentThreadFactory()
+				.setName("Foundry Loopback Broadcast")
+				.setDaemon(true)
+		);
+	}
+
+	@Override
+	@ThreadSafe
+	protected void sendBroadcast(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		// The simulated modules have fixed IDs, so there is no allocation to take part in.
+	}
+
+	@Override
+	@ThreadSafe
+	protected void sendRequest(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		var module = modulesById.get(destinationId);
+		if (module == null) {
+			return; // As if sent to an absent node, the request will time out.
+		}
+		var payload = Arrays.copyOfRange(buffer, offset, offset + length); // The provided buffer will be reused, so we must copy it.
+		Runnable task = () -> serve(module, sourceId, typeId, transferId, priority, payload);
+		if (latency > 0) {
+			serviceScheduler.schedule(task, latency, TimeUnit.MICROSECONDS);
+		} else {
+			serviceScheduler.execute(task);
+		}
+	}
+
+	@Override
+	@ThreadSafe
+	protected void sendRequests(BatchRequest batch) {
+		for (var index = 0; index < batch.getCount(); index++) {
+			var buffer = batch.getBuffer(index);
+			sendRequest(batch.getSourceId(), batch.getDestinationId(), batch.getTypeId(index), batch.getTransferId(index), batch.getPriority(), buffer.array(), buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit()); // Indicate buffer has been read.
+		}
+	}
+
+	@Override
+	@ThreadSafe
+	protected void sendResponse(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		// The simulated modules make no requests, so there is nothing to respond to.
+	}
+
+	private void serve(SimulatedModule module, int requesterId, int typeId, int transferId, int priority, byte[] payload) {
+		try {
+			var length = module.respond(typeId, payload, 0, payload.length, responseBuffer);
+			if (length >= 0) {
+				receiveResponse(module.getId(), requesterId, typeId, transferId, priority, responseBuffer, 0, length);
+			}
+		} catch (RuntimeException exception) {
+			logger.error("Simulated module {} failed to handle request of type: {}.", module.getId(), typeId, exception);
+		}
+	}
+
+	private void broadcastStatus(SimulatedModule module) {
+		try {
+			var length = module.status(broadcastBuffer);
+			receiveBroadcast(module.getId(), TypeId.NODE_STATUS, nextBroadcastTransferId(), 0, broadcastBuffer, 0, length);
+		} catch (RuntimeException exception) {
+			logger.error("Error broadcasting status of simulated module: {}.", module.getId(), exception);
+		}
+	}
+
+	private void publishFields(SimulatedModule module) {
+		try {
+			var length = module.publish(broadcastBuffer);
+			if (length >= 0) {
+				receiveBroadcast(module.getId(), TypeId.PUBLISHED_FIELDS, nextBroadcastTransferId(), 0, broadcastBuffer, 0, length);
+			}
+		} catch (RuntimeException exception) {
+			logger.error("Error publishing fields of simulated module: {}.", module.getId(), exception);
+		}
+	}
+
+	private int nextBroadcastTransferId() {
+		broadcastTransferId = (broadcastTransferId + 1) & 0x1F;
+		return broadcastTransferId;
+	}
+
+	@Override
+	public void start() {
+		for (var module : modulesById.values()) {
+			broadcastScheduler.scheduleAtFixedRate(() -> broadcastStatus(module), 0, STATUS_PERIOD, TimeUnit.MILLISECONDS);
+			var period = module.getPublicationPeriod();
+			if (period > 0) {
+				broadcastScheduler.scheduleAtFixedRate(() -> publishFields(module), period, period, TimeUnit.MILLISECONDS);
+			}
+		}
+		logger.info("Simulating {} module(s) with a latency of {} microseconds.", modulesById.size(), latency);
+	}
+
+	/**
+	 * @return The total number of field values set on the simulated modules.
+	 */
+	public long setCount() {
+		var accumulator = 0L;
+		for (var module : modulesById.values()) {
+			accumulator += module.getSetCount();
+		}
+		return accumulator;
+	}
+
+}
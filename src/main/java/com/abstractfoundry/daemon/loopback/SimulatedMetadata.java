@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.loopback;
+
+import com.abstractfoundry.daemon.bus.Metadata;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Metadata of the fields of a simulated module, laid out at consecutive keys
+ * in the order in which they are added.
+ */
+public class SimulatedMetadata implements Metadata { // Note: Immutable once built.
+
+	public static class Field {
+
+		public final String name;
+		public final int type;
+		public final int size;
+		public final int span;
+		public final boolean settable;
+		public final boolean published; // i.e. One of the default fields, published whilst subscribed.
+		public final String module;
+
+		private Field(String name, int type, int size, int span, boolean settable, boolean published, String module) {
+			this.name = name;
+			this.type = type;
+			this.size = size;
+			this.span = span;
+			this.settable = settable;
+			this.published = published;
+			this.module = module;
+		}
+
+	}
+
+	private final NavigableMap<Integer, Field> fields = new TreeMap<>();
+	private final String module;
+	private int nextKey = 0;
+
+	/**
+	 * @param module The module name given to each field, or null to default to the preferred name of the node.
+	 */
+	public SimulatedMetadata(String module) {
+		this.module = module;
+	}
+
+	public SimulatedMetadata add(String name, int type, int size, int span, boolean settable) {
+		return add(name, type, size, span, settable, false);
+	}
+
+	public SimulatedMetadata add(String name, int type, int size, int span, boolean settable, boolean published) {
+		if (span < 1) {
+			throw new IllegalArgumentException("Invalid span.");
+		}
+		fields.put(nextKey, new Field(name, type, size, span, settable, published, module));
+		nextKey += span;
+		return this;
+	}
+
+	/**
+	 * @return The number of keys spanned by all of the fields.
+	 */
+	public int keyCount() {
+		return nextKey;
+	}
+
+	public Field field(int key) {
+		return fields.get(key);
+	}
+
+	/**
+	 * @return The floor key of the first field at or after the given key, or -1 if there is none.
+	 */
+	public int ceiling(int key) {
+		var ceiling = fields.ceilingKey(key);
+		return ceiling != null ? ceiling : -1;
+	}
+
+	@Override
+	public String name(int key) {
+		return fields.get(key).name;
+	}
+
+	@Override
+	public int type(int key) {
+		return fields.get(key).type;
+	}
+
+	@Override
+	public int size(int key) {
+		return fields.get(key).size;
+	}
+
+	@Override
+	public int span(int key) {
+		return fields.get(key).span;
+	}
+
+	@Override
+	public boolean debug(int key) {
+		return false;
+	}
+
+	@Override
+	public boolean system(int key) {
+		return false;
+	}
+
+	@Override
+	public String module(int key) {
+		return fields.get(key).module;
+	}
+
+	@Override
+	public int floor(int key) {
+		return fields.floorKey(key);
+	}
+
+	@Override
+	public Metadata metadata(int key) {
+		throw new IllegalStateException("Field is not a dictionary.");
+	}
+
+	@Override
+	public Set<Integer> keys() {
+		return Collections.unmodifiableSet(
+			fields.keySet()
+		);
+	}
+
+}
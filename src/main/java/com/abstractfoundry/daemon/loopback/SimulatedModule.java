@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.loopback;
+
+import com.abstractfoundry.daemon.bus.BootstrapMetadata;
+import com.abstractfoundry.daemon.bus.FieldType;
+import com.abstractfoundry.daemon.bus.FlatDictionary;
+import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process stand-in for a module on the bus, which answers the services the
+ * daemon uses (node info, preferred name, field enumeration, subscription and
+ * setting fields) and publishes its default fields whilst subscribed.
+ * <p>
+ * Caution: Requests must only be handled from one thread (the loopback service
+ * thread), and broadcasts must only be built from one other thread (the loopback
+ * broadcast thread).
+ */
+public class SimulatedModule {
+
+	private static final Logger logger = LoggerFactory.getLogger(SimulatedModule.class);
+
+	private static final int MAX_FIELDS = 512; // Most fields which may be set by a single request.
+
+	private final int id;
+	private final String name;
+	private final String preferredName;
+	private final UUID uuid;
+	private final SimulatedMetadata metadata;
+	private final int publicationPeriod; // Milliseconds, or zero if the module publishes nothing.
+	private final int[] state; // Note: Indexed by key, written by the service thread and read by the broadcast thread (benign races).
+	private final int[] keys = new int[MAX_FIELDS];
+	private final int[] values = new int[MAX_FIELDS];
+	private final int[] publishedKeys;
+	private final int[] publishedValues;
+	private final long bootTime = System.nanoTime();
+	private volatile long subscriptionDeadline = bootTime; // i.e. Not subscribed.
+	private volatile long setCount = 0; // Note: Only incremented from the service thread.
+
+	public SimulatedModule(int id, String name, String preferredName, SimulatedMetadata metadata, int publicationPeriod) {
+		if (id < 1 || id > 127) {
+			throw new IllegalArgumentException("Invalid node ID.");
+		}
+		this.id = id;
+		this.name = name;
+		this.preferredName = preferredName;
+		this.uuid = UUID.nameUUIDFromBytes((name + "/" + id).getBytes(StandardCharsets.UTF_8));
+		this.metadata = metadata;
+		this.publicationPeriod = publicationPeriod;
+		this.state = new int[metadata.keyCount()];
+		var publishedCount = 0;
+		for (var key : metadata.keys()) {
+			var field = metadata.field(key);
+			publishedCount += field.published ? field.span : 0;
+		}
+		this.publishedKeys = new int[publishedCount];
+		this.publishedValues = new int[publishedCount];
+		var cursor = 0;
+		for (var key : metadata.keys()) {
+			var field = metadata.field(key);
+			for (var offset = 0; field.published && offset < field.span; offset++) {
+				publishedKeys[cursor++] = key + offset;
+			}
+		}
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getPublicationPeriod() {
+		return publicationPeriod;
+	}
+
+	/**
+	 * @return The total number of field values set by requests.
+	 */
+	public long getSetCount() {
+		return setCount;
+	}
+
+	/**
+	 * Handle a request, writing the payload of the response into the given buffer.
+	 *
+	 * @return The length of the response, or -1 if the module does not respond.
+	 */
+	int respond(int typeId, byte[] buffer, int offset, int length, byte[] response) {
+		switch (typeId) {
+			case TypeId.GET_NODE_INFO:
+				return describeNode(response);
+			case TypeId.GET_PREFERRED_NAME:
+				var bytes = preferredName.getBytes(StandardCharsets.UTF_8);
+				System.arraycopy(bytes, 0, response, 0, bytes.length);
+				return bytes.length;
+			case TypeId.ENUMERATE_FIELDS:
+				return enumerateFields(buffer, offset, length, response);
+			case TypeId.SUBSCRIBE_DEFAULT_FIELDS:
+				var seconds = length > 0 ? buffer[offset] & 0xFF : 0;
+				subscriptionDeadline = System.nanoTime() + seconds * 1_000_000_000L;
+				return 0;
+			default:
+				if (typeId >= TypeId.SET_FIELDS && typeId < TypeId.SET_FIELDS + TypeId.SET_FIELDS_COUNT) {
+					var count = FlatDictionary.deserialise(buffer, offset, length, keys, values, 0, metadata);
+					for (var index = 0; index < count; index++) {
+						state[keys[index]] = values[index];
+					}
+					setCount += count;
+					return 0;
+				}
+				logger.warn("Simulated module {} received unsupported request type: {}.", id, typeId);
+				return -1;
+		}
+	}
+
+	/**
+	 * @return The length of the NODE_STATUS payload written into the given buffer.
+	 */
+	int status(byte[] buffer) {
+		var uptime = (System.nanoTime() - bootTime) / 1_000_000_000L;
+		for (var index = 0; index < 4; index++) {
+			buffer[index] = (byte) (uptime >> 8 * index);
+		}
+		buffer[4] = 0; // Healthy and operational.
+		buffer[5] = 0; // Vendor-specific status code.
+		buffer[6] = 0;
+		return 7;
+	}
+
+	/**
+	 * @return The length of the PUBLISHED_FIELDS payload written into the given buffer, or -1 if there is nothing to publish.
+	 */
+	int publish(byte[] buffer) {
+		if (publishedKeys.length == 0 || System.nanoTime() - subscriptionDeadline >= 0) {
+			return -1;
+		}
+		for (var index = 0; index < publishedKeys.length; index++) {
+			publishedValues[index] = state[publishedKeys[index]];
+		}
+		return FlatDictionary.serialise(buffer, 0, publishedKeys, publishedValues, 0, publishedKeys.length, metadata);
+	}
+
+	private int describeNode(byte[] response) { // Note: We only populate the parts of the NodeInfo which the daemon reads.
+		var length = status(response);
+		for (var index = length; index < 24; index++) {
+			response[index] = 0; // Software and hardware versions.
+		}
+		var high = uuid.getMostSignificantBits();
+		var low = uuid.getLeastSignificantBits();
+		for (var index = 0; index < 8; index++) {
+			response[24 + index] = (byte) (high >> 8 * (7 - index));
+			response[32 + index] = (byte) (low >> 8 * (7 - index));
+		}
+		response[40] = 0; // No certificate.
+		var bytes = name.getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(bytes, 0, response, 41, bytes.length);
+		return 41 + bytes.length;
+	}
+
+	/**
+	 * Respond to a query for the metadata of field key0, starting from sub-key
+	 * key1, with that field (or failing that the next field) alone, since a
+	 * sub-dictionary extends to the end of the payload. An empty response
+	 * indicates the enumeration is complete.
+	 */
+	private int enumerateFields(byte[] buffer, int offset, int length, byte[] response) {
+		// (1) Parse the query, i.e. skip to key0, one field follows, skip to key1.
+		var limit = offset + length;
+		var level = 0;
+		var key0 = 0;
+		var key1 = 0;
+		while (offset < limit) {
+			var command = buffer[offset++] & 0xFF;
+			var width = command & 0x0F;
+			var parameter = 0;
+			for (var index = 0; index < width; index++) {
+				parameter |= (buffer[offset++] & 0xFF) << 8 * index;
+			}
+			var discriminator = (command >> 4) & 0x0F;
+			if (discriminator == 1 && level == 0) {
+				key0 += parameter;
+			} else if (discriminator == 1 && level == 1) {
+				key1 += parameter;
+			} else if (discriminator == 0 && level == 0 && parameter == 1) {
+				level = 1;
+			} else {
+				throw new IllegalArgumentException("Invalid enumeration query.");
+			}
+		}
+		// (2) Select the field to describe.
+		var field = metadata.field(key0);
+		if (field == null || key1 > lastSubkey(field)) {
+			key0 = metadata.ceiling(key0 + 1);
+			key1 = 0;
+			if (key0 < 0) {
+				return 0; // Enumeration complete.
+			}
+			field = metadata.field(key0);
+		}
+		// (3) Serialise the field as a single-entry dictionary.
+		var cursor = 0;
+		if (key0 > 0) {
+			cursor = writeCommand(response, cursor, 0x10, key0);
+		}
+		cursor = writeCommand(response, cursor, 0x00, 1);
+		var accumulator = 0;
+		var subkey = key1;
+		var last = lastSubkey(field);
+		while (subkey <= last) {
+			if (!isPresent(field, subkey)) {
+				subkey++;
+				continue;
+			}
+			var runEnd = subkey;
+			while (runEnd <= last && isPresent(field, runEnd)) {
+				runEnd++;
+			}
+			if (subkey > accumulator) {
+				cursor = writeCommand(response, cursor, 0x10, subkey - accumulator);
+			}
+			cursor = writeCommand(response, cursor, 0x00, runEnd - subkey);
+			for (; subkey < runEnd; subkey++) {
+				cursor = writeValue(response, cursor, field, subkey);
+			}
+			accumulator = runEnd;
+		}
+		return cursor;
+	}
+
+	private static int lastSubkey(SimulatedMetadata.Field field) {
+		return field.module != null ? BootstrapMetadata.MODULE_KEY : BootstrapMetadata.IDEMPOTENT_KEY;
+	}
+
+	private static boolean isPresent(SimulatedMetadata.Field field, int subkey) {
+		return subkey <= BootstrapMetadata.IDEMPOTENT_KEY || (subkey == BootstrapMetadata.MODULE_KEY && field.module != null);
+	}
+
+	private static int writeValue(byte[] buffer, int cursor, SimulatedMetadata.Field field, int subkey) {
+		switch (subkey) {
+			case BootstrapMetadata.NAME_KEY:
+				return writeString(buffer, cursor, field.name);
+			case BootstrapMetadata.TYPE_KEY:
+				buffer[cursor++] = (byte) field.type;
+				return cursor;
+			case BootstrapMetadata.SIZE_KEY:
+				buffer[cursor++] = (byte) field.size;
+				return cursor;
+			case BootstrapMetadata.SPAN_KEY:
+				for (var index = 0; index < 4; index++) {
+					buffer[cursor++] = (byte) (field.span >> 8 * index);
+				}
+				return cursor;
+			case BootstrapMetadata.GETTABLE_KEY:
+				buffer[cursor++] = 1;
+				return cursor;
+			case BootstrapMetadata.SETTABLE_KEY:
+				buffer[cursor++] = (byte) (field.settable ? 1 : 0);
+				return cursor;
+			case BootstrapMetadata.IDEMPOTENT_KEY:
+				buffer[cursor++] = (byte) (field.settable && field.type != FieldType.BOOLEAN ? 1 : 0); // Settable booleans are triggers (e.g. show).
+				return cursor;
+			case BootstrapMetadata.MODULE_KEY:
+				return writeString(buffer, cursor, field.module);
+			default:
+				throw new IllegalStateException("Unsupported metadata field.");
+		}
+	}
+
+	private static int writeString(byte[] buffer, int cursor, String string) {
+		var bytes = string.getBytes(StandardCharsets.UTF_8);
+		var size = bytes.length;
+		do { // Seven bits at a time, least significant first, with the top bit marking continuation.
+			var value = size & 0x7F;
+			size >>>= 7;
+			buffer[cursor++] = (byte) (size != 0 ? value | 0x80 : value);
+		} while (size != 0);
+		System.arraycopy(bytes, 0, buffer, cursor, bytes.length);
+		return cursor + bytes.length;
+	}
+
+	private static int writeCommand(byte[] buffer, int cursor, int discriminator, int parameter) {
+		var width = 4 - (Integer.numberOfLeadingZeros(parameter) / 8);
+		buffer[cursor++] = (byte) (discriminator | width);
+		for (var index = 0; index < width; index++) {
+			buffer[cursor++] = (byte) ((parameter >> 8 * index) & 0xFF);
+		}
+		return cursor;
+	}
+
+	/**
+	 * @return Simulations of the modules of a cube (i.e. the display, screen, speaker, microphone and buttons), one node apiece, from the given ID downwards.
+	 */
+	public static List<SimulatedModule> lumicube(int firstId) {
+		var display = new SimulatedMetadata(null)
+			.add("led_colour", FieldType.UINT, 3, 192, true) // Three 8x8 panels.
+			.add("show", FieldType.BOOLEAN, 1, 1, true)
+			.add("brightness", FieldType.UINT, 1, 1, true)
+			.add("gamma", FieldType.UINT, 1, 1, true);
+		var screen = new SimulatedMetadata(null)
+			.add("text", FieldType.UTF8_CHAR, 1, 128, true)
+			.add("text_x", FieldType.INT, 2, 1, true)
+			.add("text_y", FieldType.INT, 2, 1, true)
+			.add("text_size", FieldType.UINT, 1, 1, true)
+			.add("text_colour", FieldType.UINT, 2, 1, true)
+			.add("text_background_colour", FieldType.UINT, 2, 1, true)
+			.add("text_draw", FieldType.BOOLEAN, 1, 1, true)
+			.add("rectangle_x", FieldType.INT, 2, 1, true)
+			.add("rectangle_y", FieldType.INT, 2, 1, true)
+			.add("rectangle_width", FieldType.UINT, 2, 1, true)
+			.add("rectangle_height", FieldType.UINT, 2, 1, true)
+			.add("rectangle_colour", FieldType.UINT, 2, 1, true)
+			.add("rectangle_draw", FieldType.BOOLEAN, 1, 1, true)
+			.add("pixel_window_x", FieldType.UINT, 2, 1, true)
+			.add("pixel_window_y", FieldType.UINT, 2, 1, true)
+			.add("pixel_window_width", FieldType.UINT, 2, 1, true)
+			.add("pixel_window_height", FieldType.UINT, 2, 1, true)
+			.add("start_pixel_streaming", FieldType.BOOLEAN, 1, 1, true)
+			.add("pixel_data_stream", FieldType.UINT, 2, 160, true) // RGB565 pixels, half a row.
+			.add("stop_pixel_streaming", FieldType.BOOLEAN, 1, 1, true);
+		var speaker = new SimulatedMetadata(null)
+			.add("data", FieldType.INT, 2, 112, true); // Signed 16-bit samples.
+		var microphone = new SimulatedMetadata(null)
+			.add("data", FieldType.INT, 2, 112, false, true);
+		var buttons = new SimulatedMetadata("buttons")
+			.add("button_pressed_count", FieldType.UINT, 4, 1, false, true);
+		return List.of(
+			new SimulatedModule(firstId, "com.abstractfoundry.display", "display", display, 0),
+			new SimulatedModule(firstId - 1, "com.abstractfoundry.screen", "screen", screen, 0),
+			new SimulatedModule(firstId - 2, "com.abstractfoundry.speaker", "speaker", speaker, 0),
+			new SimulatedModule(firstId - 3, "com.abstractfoundry.microphone", "microphone", microphone, 7), // 112 samples at 16 kHz.
+			new SimulatedModule(firstId - 4, "com.abstractfoundry.cube", "cube", buttons, 100)
+		);
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.rest.development;
+
+import com.abstractfoundry.daemon.uavcan.FaultInjector;
+import com.abstractfoundry.daemon.uavcan.Node;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import java.util.Locale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Development tool for impairing the transfers between the daemon and the
+ * modules, for example:
+ * <pre>
+ * POST /api/v1/tools/faults?kind=request&amp;type=216&amp;drop=0.01&amp;delay=5&amp;jitter=5
+ * POST /api/v1/tools/faults?node=3&amp;reorder=0.1
+ * POST /api/v1/tools/faults?drop=0.0025
+ * DELETE /api/v1/tools/faults
+ * </pre>
+ * The impairment applies to the given node if specified, otherwise to the
+ * given kind and type ID if specified, otherwise to all transfers.
+ * <p>
+ * Only registered when the daemon is started with -Dfoundry.faults=true.
+ */
+@Path("/tools/faults")
+public class FaultsResource {
+
+	private static final Logger logger = LoggerFactory.getLogger(FaultsResource.class);
+
+	@POST
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response setImpairment(@Context Node daemonNode,
+			@QueryParam("node") @DefaultValue("-1") int nodeId,
+			@QueryParam("kind") String kindName,
+			@QueryParam("type") @DefaultValue("-1") int typeId,
+			@QueryParam("drop") @DefaultValue("0") double drop,
+			@QueryParam("duplicate") @DefaultValue("0") double duplicate,
+			@QueryParam("reorder") @DefaultValue("0") double reorder,
+			@QueryParam("delay") @DefaultValue("0") int delay,
+			@QueryParam("jitter") @DefaultValue("0") int jitter) {
+		FaultInjector.Impairment impairment;
+		try {
+			impairment = new FaultInjector.Impairment(drop, duplicate, reorder, delay, jitter);
+		} catch (IllegalArgumentException exception) {
+			return Response.status(Status.BAD_REQUEST).entity(exception.getMessage()).build();
+		}
+		var faultInjector = daemonNode.getFaultInjector();
+		if (nodeId >= 0) {
+			try {
+				faultInjector.setNodeImpairment(nodeId, impairment);
+			} catch (IllegalArgumentException exception) {
+				return Response.status(Status.BAD_REQUEST).entity(exception.getMessage()).build();
+			}
+			logger.warn("Impairing transfers with node {}: {}.", nodeId, impairment);
+		} else if (kindName != null && typeId >= 0) {
+			FaultInjector.Kind kind;
+			try {
+				kind = FaultInjector.Kind.valueOf(kindName.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException exception) {
+				return Response.status(Status.BAD_REQUEST).entity("Unknown kind: '" + kindName + "'.").build();
+			}
+			faultInjector.setTypeImpairment(kind, typeId, impairment);
+			logger.warn("Impairing {} transfers of type {}: {}.", kind, typeId, impairment);
+		} else {
+			faultInjector.setDefaultImpairment(impairment);
+			logger.warn("Impairing all transfers: {}.", impairment);
+		}
+		return Response.ok().build();
+	}
+
+	@DELETE
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response clearImpairments(@Context Node daemonNode) {
+		daemonNode.getFaultInjector().clear();
+		return Response.ok().build();
+	}
+
+}
@@ -82,6 +82,10 @@ abstract class Batch {
 		checkCursorAndFlushIfFull();
 	}
 
+	int length(int index) {
+		return slot(index).length;
+	}
+
 	int read(int index, byte[] destination, int offset) {
 		var slot = slot(index);
 		var bytes = slot.bytes;
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+/**
+ * Writes the frames of a batch into the collector ring, one call for each
+ * frame, from a single descriptor (rather than an array of argument objects).
+ */
+public interface BatchTranslator<A> {
+
+	/**
+	 * Called from the submitting thread, whilst the frame's sequence is claimed.
+	 *
+	 * @param index The index of the frame within the batch.
+	 */
+	public void translateTo(PartialFrame frame, long sequence, A argument, int index);
+
+}
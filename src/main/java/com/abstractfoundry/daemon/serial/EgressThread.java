@@ -9,6 +9,8 @@ import com.abstractfoundry.daemon.common.CRC16;
 import com.abstractfoundry.daemon.common.Pause;
 import com.abstractfoundry.daemon.common.ThreadSafe;
 import com.lmax.disruptor.dsl.Disruptor;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -20,13 +22,31 @@ import org.slf4j.LoggerFactory;
 // TODO: Prevent so many TimeoutException objects being allocated by the Exchanger.
 // TODO: Call handleFeedback() in between every sub-operation?
 
+/**
+ * Reliable transmission of frames to the counterparty.
+ * <p>
+ * The channel is initialised by a PING/INITIALISE handshake, in which we first
+ * propose protocol version 2, falling back to version 1 if the counterparty
+ * refuses (UNINITIALISED) or does not answer. Version 2 differs in two ways:
+ * <ul>
+ * <li>Several messages may be packed into one BUNDLE frame (of up to 512 bytes),
+ * each prefixed by a 16-bit little-endian length whose high byte is always
+ * zero, which keeps COBS runs within 254 bytes.</li>
+ * <li>Acknowledgements carry a 16-bit bitmap of frames received out of order
+ * (bit i acknowledging sequence number cumulative + 1 + i), so these are not
+ * retransmitted.</li>
+ * </ul>
+ */
 class EgressThread extends Thread {
 
 	private static final Logger logger = LoggerFactory.getLogger(EgressThread.class);
 
 	private final static int MAX_PUBLICATION_BATCH_SIZE = 32; // Maximum disruptor publication batch size.
-	private static final int WINDOW_SIZE = 16;
+	static final int WINDOW_SIZE = 16;
+	static final int MAX_FRAME_LENGTH = 512; // Maximum encoded frame length (including delimiter) under version 2, version 1 frames are at most 256 bytes.
+	static final int MAX_VERSION = 2;
 	private static final int FLUSH_COUNT = 256;
+	private static final int MAX_INITIALISE_ATTEMPTS = 40; // Fall back to version 1 if the counterparty ignores this many INITIALISE commands (i.e. 100 milliseconds).
 	private static final double UTILISATION = 1.0;
 	private static final long ALLOWABLE_BANDWIDTH = (long) (UTILISATION * (3_000_000 / 10)); // Use fraction of 3 MBit/s UART (8 bit character, 1 start bit, 1 stop bit).
 	private static final long ACTIVE_PERIOD_NANOSECONDS = 2_500_000L; // Spin every 2.5 milliseconds when window is not empty.
@@ -37,35 +57,44 @@ class EgressThread extends Thread {
 
 	private static class Slot {
 
-		final byte[] bytes = new byte[256];
+		final byte[] bytes = new byte[MAX_FRAME_LENGTH];
 		int length = 0;
 		int attempts = 0;
+		boolean bundled = false; // Frame is a (version 2) BUNDLE.
+		boolean acknowledged = false; // Frame was selectively acknowledged (version 2), so must not be retransmitted.
 
 		void reset() {
 			length = 0;
 			attempts = 0;
+			bundled = false;
+			acknowledged = false;
 		}
 
 	}
 
 	private final TransferBatch pendingBatch;
+	private final SerialLink link;
 	private final PublicationBatch<EncodedFrame> outboxBatch;
 	private final byte[] scratchpad = new byte[256];
 	private final Slot[] slots = new Slot[256];
 	private boolean initialised = false;
+	private int version = 0, proposal = MAX_VERSION, attempts = 0; // Negotiated protocol version (0 until initialised), version to propose, and number of INITIALISE attempts.
 	private int head = 0, tail = 0, cursor = 0, holdoff = 0, countdown = FLUSH_COUNT;
-	private final AtomicInteger feedbackAcknowledgementNumber = new AtomicInteger(-1);
+	private final AtomicInteger feedbackAcknowledgement = new AtomicInteger(-1); // Cumulative sequence number, with any selective acknowledgement bitmap in bits 8 to 23.
 	private final AtomicInteger feedbackInitialisationCount = new AtomicInteger(0);
+	private final AtomicInteger feedbackInitialisationVersion = new AtomicInteger(1);
 	private final AtomicInteger feedbackUninitialisationCount = new AtomicInteger(0);
 	private final AtomicInteger feedbackPongCount = new AtomicInteger(0);
+	private final AtomicInteger feedbackResetCount = new AtomicInteger(0);
 
-	EgressThread(TransferBatch pendingBatch, Disruptor<EncodedFrame> outbox) {
+	EgressThread(TransferBatch pendingBatch, Disruptor<EncodedFrame> outbox, SerialLink link) {
 		super("Foundry Egress");
+		this.link = link;
 		if (pendingBatch.capacity() > WINDOW_SIZE / 2) {
 			throw new IllegalArgumentException("Batch capacity over half the window size.");
 		}
 		this.pendingBatch = pendingBatch;
-		this.outboxBatch = new PublicationBatch<>(MAX_PUBLICATION_BATCH_SIZE, 256, outbox, EgressThread::transfer);
+		this.outboxBatch = new PublicationBatch<>(MAX_PUBLICATION_BATCH_SIZE, MAX_FRAME_LENGTH, outbox, EgressThread::transfer);
 		for (var index = 0; index < this.slots.length; index++) {
 			this.slots[index] = new Slot();
 		}
@@ -94,8 +123,7 @@ class EgressThread extends Thread {
 	}
 
 	private void accept(int index) {
-		var sequence = tail; // Allocated sequence number.
-		var slot = slots[sequence];
+		var slot = slots[tail];
 		slot.reset();
 		slot.bytes[0] = 0x00; // Placeholder for COBS overhead byte.
 		var length = 1 + pendingBatch.read(index, slot.bytes, 1); // Length of prefix (COBS byte and payload).
@@ -104,6 +132,51 @@ class EgressThread extends Thread {
 		} else if (length > 252) {
 			throw new IllegalStateException("Buffer is too full.");
 		}
+		seal(slot, length);
+	}
+
+	private void accept(byte[] bytes, int offset, int length) {
+		var slot = slots[tail];
+		slot.reset();
+		slot.bytes[0] = 0x00; // Placeholder for COBS overhead byte.
+		System.arraycopy(bytes, offset, slot.bytes, 1, length);
+		seal(slot, 1 + length);
+	}
+
+	/**
+	 * Pack as many pending messages as possible into a single (version 2) BUNDLE frame.
+	 *
+	 * @return The index of the first message which was not packed.
+	 */
+	private int acceptBundle(int index, int count) {
+		var first = index;
+		var slot = slots[tail];
+		slot.reset();
+		var pointer = 2; // Skip COBS byte and command code.
+		while (index < count) {
+			var length = pendingBatch.length(index);
+			if (pointer + 2 + length + 4 > MAX_FRAME_LENGTH) { // Leave room for the sequence, CRC and delimiter bytes.
+				break;
+			}
+			slot.bytes[pointer] = (byte) length;
+			slot.bytes[pointer + 1] = 0x00; // High byte of length, always zero.
+			pendingBatch.read(index, slot.bytes, pointer + 2);
+			pointer += 2 + length;
+			index++;
+		}
+		if (index - first <= 1) { // A lone message is sent as an ordinary frame, saving the length prefix.
+			accept(first);
+			return first + 1;
+		}
+		slot.bytes[0] = 0x00; // Placeholder for COBS overhead byte.
+		slot.bytes[1] = 0x2E; // BUNDLE.
+		slot.bundled = true;
+		seal(slot, pointer);
+		return index;
+	}
+
+	private void seal(Slot slot, int length) {
+		var sequence = tail; // Allocated sequence number.
 		slot.bytes[length] = (byte) sequence;
 		var checksum = CRC16.calculate(slot.bytes, 1, length); // CRC16 checksum.
 		slot.bytes[length + 1] = (byte) ((checksum >> 8) & 0xFF);
@@ -125,8 +198,12 @@ class EgressThread extends Thread {
 					break;
 				}
 				var count = pendingBatch.count();
-				for (var index = 0; index < count; index++) {
-					accept(index);
+				for (var index = 0; index < count;) {
+					if (version >= 2) {
+						index = acceptBundle(index, count);
+					} else {
+						accept(index++);
+					}
 				}
 			} else {
 				LockSupport.parkNanos(duration);
@@ -143,27 +220,107 @@ class EgressThread extends Thread {
 	}
 
 	private void handleFeedback() {
+		var resets = feedbackResetCount.getAndSet(0);
+		if (resets > 0) { // The serial device was reopened, so discard stale feedback and repeat the handshake.
+			feedbackAcknowledgement.set(-1);
+			feedbackInitialisationCount.set(0);
+			feedbackUninitialisationCount.set(0);
+			feedbackPongCount.set(0);
+			if (initialised) {
+				logger.info("Serial protocol egress channel uninitialised (device reopened).");
+			}
+			countdown = FLUSH_COUNT;
+			initialised = false;
+			renegotiate();
+			cursor = head; // Note: Unacknowledged slots remain in the window, the INITIALISE command carries the head sequence number so transmission resumes from there.
+			holdoff = 0;
+			return;
+		}
 		var pongs = feedbackPongCount.getAndSet(0);
 		if (countdown > 0 && pongs > 0) {
 			countdown -= pongs;
 		}
-		var acknowledged = feedbackAcknowledgementNumber.getAndSet(-1);
-		if (acknowledged >= 0 && mod(acknowledged - head) < mod(tail - head)) {
-			head = mod(acknowledged + 1);
+		var acknowledgement = feedbackAcknowledgement.getAndSet(-1);
+		if (acknowledgement >= 0) {
+			var acknowledged = acknowledgement & 0xFF;
+			if (mod(acknowledged - head) < mod(tail - head)) {
+				head = mod(acknowledged + 1);
+			}
+			var bitmap = acknowledgement >>> 8;
+			for (var bit = 0; bitmap != 0; bit++, bitmap >>>= 1) {
+				var sequence = mod(acknowledged + 1 + bit);
+				if ((bitmap & 1) != 0 && mod(sequence - head) < mod(tail - head)) {
+					slots[sequence].acknowledged = true;
+				}
+			}
 		}
 		var initialisations = feedbackInitialisationCount.getAndSet(0);
 		if (!initialised && initialisations > 0) {
-			logger.info("Serial protocol egress channel initialised.");
+			version = Math.min(proposal, feedbackInitialisationVersion.get()); // Note: A version 1 counterparty answers without specifying a version.
+			logger.info("Serial protocol egress channel initialised (version = {}).", version);
 			initialised = true;
+			if (version < 2) {
+				unbundle();
+			}
+			link.restored();
 		}
 		var uninitialisations = feedbackUninitialisationCount.getAndSet(0);
 		if (initialised && uninitialisations > 0) {
 			logger.info("Serial protocol egress channel uninitialised.");
 			countdown = FLUSH_COUNT;
 			initialised = false;
+			renegotiate();
+		} else if (!initialised && uninitialisations > 0 && countdown <= 0 && proposal > 1) {
+			logger.info("Counterparty refused protocol version {}, falling back to version 1.", proposal);
+			proposal = 1;
 		}
 	}
 
+	private void renegotiate() {
+		version = 0;
+		proposal = MAX_VERSION;
+		attempts = 0;
+	}
+
+	/**
+	 * Re-encode any BUNDLE frames in the window as ordinary frames, in case the
+	 * counterparty was reinitialised with version 1 whilst they were in flight.
+	 */
+	private void unbundle() {
+		var bundled = false;
+		for (var sequence = head; sequence != tail; sequence = mod(sequence + 1)) {
+			bundled |= slots[sequence].bundled;
+		}
+		if (!bundled) {
+			return;
+		}
+		var frames = new ArrayList<byte[]>(); // Note: Allocation is acceptable on this rare path.
+		for (var sequence = head; sequence != tail; sequence = mod(sequence + 1)) {
+			var slot = slots[sequence];
+			var bytes = Arrays.copyOf(slot.bytes, slot.length - 1); // Excludes delimiter.
+			COBS.decode(bytes, 0, 0, bytes.length);
+			var end = bytes.length - 3; // Excludes sequence and CRC bytes.
+			if (slot.bundled) {
+				for (var offset = 2; offset + 2 <= end;) {
+					var length = bytes[offset] & 0xFF | (bytes[offset + 1] & 0xFF) << 8;
+					frames.add(Arrays.copyOfRange(bytes, offset + 2, offset + 2 + length));
+					offset += 2 + length;
+				}
+			} else {
+				frames.add(Arrays.copyOfRange(bytes, 1, end));
+			}
+		}
+		if (frames.size() > slots.length - 1) {
+			throw new IllegalStateException("Unable to unbundle window.");
+		}
+		tail = head;
+		for (var frame : frames) {
+			accept(frame, 0, frame.length);
+		}
+		cursor = head;
+		logger.warn("Re-encoded window as {} version 1 frames.", frames.size());
+	}
+
 	private void publishBatch(int limit) {
 		try {
 			int accumulator = 0;
@@ -177,6 +334,10 @@ class EgressThread extends Thread {
 						}
 						holdoff = 0;
 						var slot = slots[cursor];
+						if (slot.acknowledged) { // Selectively acknowledged, skip over it.
+							cursor = mod(cursor + 1);
+							continue;
+						}
 						if (slot.length > MAX_BATCH_BYTES) {
 							throw new RuntimeException("Bandwidth restrictions prevent egress thread for making progress."); // The batch size limit is such that we will never be able to send this frame.
 						}
@@ -201,7 +362,11 @@ class EgressThread extends Thread {
 					outboxBatch.insert(scratchpad, 0, length);
 				}
 			} else if (!initialised && countdown <= 0) { // TODO: Break out into method.
-				var length = writeInitialise(scratchpad, 1, head);
+				if (proposal > 1 && attempts++ >= MAX_INITIALISE_ATTEMPTS) {
+					logger.info("Counterparty did not answer protocol version {}, falling back to version 1.", proposal);
+					proposal = 1;
+				}
+				var length = writeInitialise(scratchpad, proposal, head);
 				accumulator += length;
 				if (accumulator <= limit) {
 					outboxBatch.insert(scratchpad, 0, length);
@@ -229,10 +394,14 @@ class EgressThread extends Thread {
 			case 0xAA: // ACKNOWLEDGE.
 				if (length < 3) {
 					throw new RuntimeException("Acknowledgement returned without a sequence number.");
+				} else if (length >= 7) { // Version 2 acknowledgement, with selective acknowledgement bitmap.
+					var bitmap = buffer[3] & 0xFF | (buffer[4] & 0xFF) << 8;
+					feedbackAcknowledgement.set(buffer[2] & 0xFF | bitmap << 8);
 				} else {
-					feedbackAcknowledgementNumber.set(buffer[2] & 0xFF);
+					feedbackAcknowledgement.set(buffer[2] & 0xFF);
 				}	break;
 			case 0xB4: // INITIALISED.
+				feedbackInitialisationVersion.set(length >= 5 ? buffer[2] & 0xFF : 1); // Version 1 counterparties do not specify a version.
 				feedbackInitialisationCount.incrementAndGet();
 				break;
 			case 0xCC: // UNINITIALISED.
@@ -249,7 +418,16 @@ class EgressThread extends Thread {
 		}
 	}
 
-	private int writePing(byte[] array) {
+	/**
+	 * Thread-safe method used by the ingress thread to notify the egress thread
+	 * that the serial device has been reopened.
+	 */
+	@ThreadSafe
+	void reset() {
+		feedbackResetCount.incrementAndGet();
+	}
+
+	static int writePing(byte[] array) {
 		var length = 5;
 		array[1] = 0x00; // PING.
 		var checksum = CRC16.calculate(array, 1, 1);
@@ -8,7 +8,7 @@ public class EncodedFrame extends Frame {
 
 	@Override
 	public int maximumLength() {
-		return 256; // Includes Delimiter Byte.
+		return 512; // Includes Delimiter Byte (version 1 frames are at most 256 bytes, version 2 frames at most 512 bytes).
 	}
 
 }
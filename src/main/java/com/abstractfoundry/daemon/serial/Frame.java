@@ -6,7 +6,7 @@ package com.abstractfoundry.daemon.serial;
 
 public abstract class Frame {
 
-	private final byte[] bytes = new byte[256];
+	private final byte[] bytes = new byte[maximumLength()]; // Note: Implementations must return a constant.
 	private int length = 0;
 
 	public void write(byte value) {
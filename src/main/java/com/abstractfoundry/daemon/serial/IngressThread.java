@@ -9,7 +9,6 @@ import com.abstractfoundry.daemon.common.CRC16;
 import com.abstractfoundry.daemon.common.Pause;
 import com.lmax.disruptor.dsl.Disruptor;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.concurrent.locks.LockSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,23 +23,29 @@ class IngressThread extends Thread {
 	private final static int MAX_PUBLICATION_BATCH_SIZE = 32;
 	private static final long ACCUMULATION_PERIOD_NANOSECONDS = 2_500_000L; // Period for stream to accumulate data (2.5 milliseconds).
 
-	private final InputStream inputStream;
+	private final SerialLink link;
 	private final EgressThread egressThread;
+	private final LaneSelector selector;
 	private final byte[] backlog = new byte[MAX_BACKLOG];
-	private final byte[] buffer = new byte[256]; // Buffer in which to assemble frames.
+	private final byte[] buffer = new byte[EgressThread.MAX_FRAME_LENGTH]; // Buffer in which to assemble frames.
 	private final byte[] scratchpad = new byte[256]; // Scratchpad buffer.
+	private final byte[] unbundled = new byte[256]; // Buffer in which to reassemble frames unpacked from a BUNDLE.
+	private final byte[][] reorderFrames = new byte[EgressThread.WINDOW_SIZE][EgressThread.MAX_FRAME_LENGTH]; // Frames received ahead of the next accepted sequence number (version 2), indexed by sequence number modulo the window size.
+	private final int[] reorderLengths = new int[EgressThread.WINDOW_SIZE]; // Zero if the corresponding frame has not been received.
 	private final PublicationBatch<DecodedFrame> inboxBatch; // Batch of frames to publish to the inbox.
+	private final PublicationBatch<DecodedFrame> priorityInboxBatch; // Batch of frames to publish to the priority inbox.
 	private final PublicationBatch<EncodedFrame> outboxBatch; // Batch of frames to publish to the outbox.
 	private boolean initialised = false;
-	private int pointer = 0, accept = 0;
-	private boolean respondPong = false, respondInitialised = false, respondUninitialised = false;
-	private int respondAcknowledge = -1;
+	private int generation = 0, version = 0, pointer = 0, accept = 0;
+	private boolean respondPong = false, respondInitialised = false, respondUninitialised = false, respondAcknowledge = false;
 
-	IngressThread(InputStream inputStream, EgressThread egressThread, Disruptor<DecodedFrame> inbox, Disruptor<EncodedFrame> outbox) {
+	IngressThread(SerialLink link, EgressThread egressThread, LaneSelector selector, Disruptor<DecodedFrame> inbox, Disruptor<DecodedFrame> priorityInbox, Disruptor<EncodedFrame> outbox) {
 		super("Foundry Ingress");
-		this.inputStream = inputStream;
+		this.link = link;
 		this.egressThread = egressThread;
+		this.selector = selector;
 		this.inboxBatch = new PublicationBatch<>(MAX_PUBLICATION_BATCH_SIZE, 256, inbox, IngressThread::transfer);
+		this.priorityInboxBatch = new PublicationBatch<>(MAX_PUBLICATION_BATCH_SIZE, 256, priorityInbox, IngressThread::transfer);
 		this.outboxBatch = new PublicationBatch<>(MAX_PUBLICATION_BATCH_SIZE, 256, outbox, IngressThread::transfer);
 	}
 
@@ -48,7 +53,14 @@ class IngressThread extends Thread {
 	public void run() {
 		while (!Thread.interrupted()) {
 			try {
+				var inputStream = link.getInputStream();
+				if (inputStream == null) {
+					throw new IOException("Serial port is not open.");
+				}
 				var value = inputStream.read(); // Wait until at least one byte is available.
+				if (value < 0) {
+					throw new IOException("End of stream.");
+				}
 				LockSupport.parkNanos(ACCUMULATION_PERIOD_NANOSECONDS); // Allow the kernel to accumulate 2.5 millisecond's worth of data (this strategy avoids the thread waking up on every frame).
 				var skipped = false;
 				var available = inputStream.available();
@@ -67,13 +79,18 @@ class IngressThread extends Thread {
 				}
 				respond();
 				outboxBatch.flush();
+				priorityInboxBatch.flush();
 				inboxBatch.flush();
 			} catch (InterruptedException exception) {
 				logger.error("Thread interrupted, terminating.", exception);
 				Thread.currentThread().interrupt();
 			} catch (IOException exception) {
-				logger.error("I/O error.", exception);
-				Pause.onError();
+				logger.warn("I/O error, assuming the serial device has been lost.", exception);
+				try {
+					recover();
+				} catch (InterruptedException interruption) {
+					Thread.currentThread().interrupt();
+				}
 			} catch (RuntimeException exception) {
 				logger.error("Unhandled exception.", exception);
 				Pause.onError();
@@ -81,9 +98,24 @@ class IngressThread extends Thread {
 		}
 	}
 
+	private void recover() throws InterruptedException {
+		generation = link.recover(generation); // Blocks until the device has been reopened.
+		pointer = 0; // Discard any partial frame.
+		respondPong = respondInitialised = respondUninitialised = respondAcknowledge = false;
+		clearReorderBuffer();
+		priorityInboxBatch.flush();
+		inboxBatch.flush();
+		outboxBatch.reset();
+		if (initialised) {
+			initialised = false; // The counterparty must initialise the channel again (it may have rebooted with the adapter).
+			logger.info("Serial ingress channel uninitialised.");
+		}
+		egressThread.reset(); // Re-run the PING/INITIALISE handshake, resuming the egress window from its head.
+	}
+
 	private void consume(int value) throws InterruptedException {
 		if (value != 0x00) {
-			if (pointer >= 255) {
+			if (pointer >= buffer.length - 1) {
 				logger.warn("Oversize frame or corrupted delimiter."); // TODO: Better to collect statistics.
 				pointer = 0; // Oversize frame or corrupted delimiter, continue writing to start of buffer.
 			}
@@ -121,7 +153,7 @@ class IngressThread extends Thread {
 				handleInitialise();
 			} else if (!initialised) { // All other commands may not be handled until we are initialised.
 				respondUninitialised = true;
-			} else if (code == 0x2D) { // MESSAGE.
+			} else if (code == 0x2D || (code == 0x2E && version >= 2)) { // MESSAGE or BUNDLE.
 				handleMessage();
 			} else {
 				logger.error("Unsupported command code: {}.", code);
@@ -132,12 +164,15 @@ class IngressThread extends Thread {
 	}
 
 	private void handleInitialise() throws InterruptedException {
-		if (pointer == 6 || (buffer[2] & 0xFF) == 1) { // Check the frame format is correct and that the version is equal to 1.
+		var proposed = buffer[2] & 0xFF;
+		if (pointer == 6 && proposed >= 1) { // Check the frame format is correct and that the version is at least 1.
 			accept = buffer[3] & 0xFF; // Note: We always update the next accepted sequence number, whether we are already initialised or not.
+			version = Math.min(proposed, EgressThread.MAX_VERSION); // Answer with the highest version we both support.
+			clearReorderBuffer();
 			respondInitialised = true;
 			if (!initialised) {
 				initialised = true;
-				logger.info("Serial ingress channel initialised.");
+				logger.info("Serial ingress channel initialised (version = {}).", version);
 			}
 		} else {
 			if (!initialised) {
@@ -149,20 +184,83 @@ class IngressThread extends Thread {
 
 	private void handleMessage() {
 		var sequence = buffer[pointer - 3] & 0xFF; // Sequence number is always the last byte before the CRC bytes.
+		respondAcknowledge = true;
 		if (sequence == accept) {
 			accept = mod(accept + 1);
-			inboxBatch.insert(buffer, 0, pointer);
-			respondAcknowledge = sequence;
+			deliver(buffer, pointer);
+			while (reorderLengths[accept % EgressThread.WINDOW_SIZE] > 0) { // Deliver any subsequent frames which arrived early.
+				var index = accept % EgressThread.WINDOW_SIZE;
+				accept = mod(accept + 1);
+				deliver(reorderFrames[index], reorderLengths[index]);
+				reorderLengths[index] = 0;
+			}
+		} else if (version >= 2 && mod(sequence - accept) < EgressThread.WINDOW_SIZE) { // Hold onto frames which arrive early, so the counterparty need not retransmit them.
+			var index = sequence % EgressThread.WINDOW_SIZE;
+			if (reorderLengths[index] == 0) {
+				System.arraycopy(buffer, 0, reorderFrames[index], 0, pointer);
+				reorderLengths[index] = pointer;
+			}
 		} else {
-			respondAcknowledge = mod(accept - 1);
 			logger.debug("Ignoring incoming frame: sequence = {}, accept = {}.", sequence, accept); // TODO: Better to collect statistics.
 		}
 	}
 
+	private void deliver(byte[] frame, int length) {
+		if ((frame[1] & 0xFF) != 0x2E) { // Not a BUNDLE.
+			if (length > 255) {
+				logger.warn("Oversize frame: length = {}.", length); // TODO: Better to collect statistics.
+				return;
+			}
+			publish(frame, length);
+			return;
+		}
+		var end = length - 3; // Records end before the sequence and CRC bytes.
+		var offset = 2;
+		while (offset + 2 <= end) {
+			var size = frame[offset] & 0xFF | (frame[offset + 1] & 0xFF) << 8;
+			offset += 2;
+			if (size < 1 || size > unbundled.length - 4 || offset + size > end) {
+				logger.warn("Malformed bundle: size = {}, offset = {}, length = {}.", size, offset, length); // TODO: Better to collect statistics.
+				return;
+			}
+			unbundled[0] = 0x00; // Reassemble as a decoded frame, so consumers need not distinguish bundled messages.
+			System.arraycopy(frame, offset, unbundled, 1, size);
+			unbundled[size + 1] = frame[end]; // Sequence number.
+			unbundled[size + 2] = 0x00; // Note: The CRC has already been checked.
+			unbundled[size + 3] = 0x00;
+			publish(unbundled, size + 4);
+			offset += size;
+		}
+	}
+
+	private void publish(byte[] frame, int length) {
+		if (selector.isPriority(frame, length)) {
+			priorityInboxBatch.insert(frame, 0, length);
+		} else {
+			inboxBatch.insert(frame, 0, length);
+		}
+	}
+
+	private void clearReorderBuffer() {
+		for (var index = 0; index < reorderLengths.length; index++) {
+			reorderLengths[index] = 0;
+		}
+	}
+
+	private int reorderBitmap() {
+		var bitmap = 0;
+		for (var bit = 0; bit < EgressThread.WINDOW_SIZE; bit++) {
+			if (reorderLengths[mod(accept + bit) % EgressThread.WINDOW_SIZE] > 0) {
+				bitmap |= 1 << bit;
+			}
+		}
+		return bitmap;
+	}
+
 	private void respond() {
 		if (respondPong) {
 			try {
-				var length = writePong(scratchpad, 1);
+				var length = writePong(scratchpad, initialised ? version : 1); // Echo the negotiated version (version 1 until initialised).
 				outboxBatch.insert(scratchpad, 0, length);
 			} finally {
 				respondPong = false;
@@ -178,19 +276,19 @@ class IngressThread extends Thread {
 		}
 		if (respondInitialised) {
 			try {
-				var length = writeInitialised(scratchpad);
+				var length = writeInitialised(scratchpad, version);
 				outboxBatch.insert(scratchpad, 0, length);
 			} finally {
 				respondInitialised = false;
 			}
 		}
-		if (respondAcknowledge >= 0) {
+		if (respondAcknowledge) {
 			try {
-				var sequence = respondAcknowledge;
-				var length = writeAcknowledge(scratchpad, sequence);
+				var sequence = mod(accept - 1); // Cumulative acknowledgement.
+				var length = version >= 2 ? writeAcknowledge(scratchpad, sequence, reorderBitmap()) : writeAcknowledge(scratchpad, sequence);
 				outboxBatch.insert(scratchpad, 0, length);
 			} finally {
-				respondAcknowledge = -1;
+				respondAcknowledge = false;
 			}
 		}
 	}
@@ -201,7 +299,7 @@ class IngressThread extends Thread {
 
 	private static int writeAcknowledge(byte[] array, int sequence) {
 		var length = 6;
-		array[1] = (byte) 0xAA; // PONG.
+		array[1] = (byte) 0xAA; // ACKNOWLEDGE.
 		array[2] = (byte) sequence;
 		var checksum = CRC16.calculate(array, 1, 2);
 		array[3] = (byte) ((checksum >> 8) & 0xFF);
@@ -211,8 +309,33 @@ class IngressThread extends Thread {
 		return length;
 	}
 
-	private static int writeInitialised(byte[] array) {
-		var length = 5;
+	private static int writeAcknowledge(byte[] array, int sequence, int bitmap) {
+		var length = 8;
+		array[1] = (byte) 0xAA; // ACKNOWLEDGE.
+		array[2] = (byte) sequence;
+		array[3] = (byte) (bitmap & 0xFF); // Selective acknowledgement bitmap (little-endian).
+		array[4] = (byte) ((bitmap >> 8) & 0xFF);
+		var checksum = CRC16.calculate(array, 1, 4);
+		array[5] = (byte) ((checksum >> 8) & 0xFF);
+		array[6] = (byte) (checksum & 0xFF);
+		COBS.encode(array, 0, 1, 6);
+		array[7] = 0x00; // DELIMITER.
+		return length;
+	}
+
+	private static int writeInitialised(byte[] array, int version) {
+		if (version >= 2) {
+			var length = 6;
+			array[1] = (byte) 0xB4; // INITIALISED.
+			array[2] = (byte) version;
+			var checksum = CRC16.calculate(array, 1, 2);
+			array[3] = (byte) ((checksum >> 8) & 0xFF);
+			array[4] = (byte) (checksum & 0xFF);
+			COBS.encode(array, 0, 1, 4);
+			array[5] = 0x00; // DELIMITER.
+			return length;
+		}
+		var length = 5; // Note: Version 1 does not specify the version.
 		array[1] = (byte) 0xB4; // INITIALISED.
 		var checksum = CRC16.calculate(array, 1, 1);
 		array[2] = (byte) ((checksum >> 8) & 0xFF);
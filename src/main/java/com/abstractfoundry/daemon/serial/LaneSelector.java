@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+/**
+ * Assigns each incoming frame to an inbox lane. Frames are processed in order
+ * within each lane, but the lanes are processed independently on separate
+ * threads, so that latency-sensitive frames need not queue behind bulk traffic.
+ */
+public interface LaneSelector {
+
+	/**
+	 * Called from the ingress thread, so must be fast and must not block.
+	 *
+	 * @param bytes The decoded frame (including placeholder COBS byte, command code, sequence number and CRC bytes).
+	 * @param length The length of the frame.
+	 * @return True if the frame should be processed on the priority lane.
+	 */
+	public boolean isPriority(byte[] bytes, int length);
+
+}
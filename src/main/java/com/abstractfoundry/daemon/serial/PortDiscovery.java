@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+import com.abstractfoundry.daemon.common.COBS;
+import com.abstractfoundry.daemon.common.CRC16;
+import com.abstractfoundry.daemon.common.FluentThreadFactory;
+import com.fazecast.jSerialComm.SerialPort;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Discovers which serial port the cube is connected to, by simultaneously
+ * sending PING commands on every candidate port and selecting the first port
+ * which answers with a valid PONG.
+ */
+class PortDiscovery {
+
+	private static final Logger logger = LoggerFactory.getLogger(PortDiscovery.class);
+
+	private static final long DEADLINE_MILLISECONDS = 1500L;
+	private static final int PING_PERIOD_MILLISECONDS = 50; // Also the read timeout, so we PING every 50 milliseconds until answered.
+	private static final int MINIMUM_VERSION = 1;
+
+	/**
+	 * Probe all serial ports in parallel.
+	 *
+	 * @return The (closed) port which answered first, or null if no port answered before the deadline.
+	 */
+	static SerialPort discover() throws InterruptedException {
+		var ports = SerialPort.getCommPorts();
+		if (ports.length == 0) {
+			return null;
+		} else if (ports.length == 1) {
+			logger.info("Only one serial port available ({}), probing it anyway.", ports[0].getSystemPortName());
+		}
+		var tasks = new ArrayList<Callable<SerialPort>>(ports.length);
+		for (var port : ports) {
+			tasks.add(() -> probe(port));
+		}
+		var executor = Executors.newFixedThreadPool(ports.length,
+			new FluentThreadFactory()
+				.setName("Foundry Port Discovery")
+				.setDaemon(true)
+				.appendInstance()
+		);
+		var start = System.nanoTime();
+		try {
+			var port = executor.invokeAny(tasks, DEADLINE_MILLISECONDS, TimeUnit.MILLISECONDS); // Returns the first port to answer, and interrupts the other probes.
+			logger.info("Discovered cube on serial port {} in {} milliseconds ({} candidates).", port.getSystemPortName(), (System.nanoTime() - start) / 1_000_000L, ports.length);
+			return port;
+		} catch (ExecutionException | TimeoutException exception) {
+			logger.warn("No serial port answered within {} milliseconds ({} candidates).", DEADLINE_MILLISECONDS, ports.length);
+			return null;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static SerialPort probe(SerialPort port) throws Exception {
+		var name = port.getSystemPortName();
+		port.setComPortParameters(SerialLink.BAUD_RATE, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+		port.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, PING_PERIOD_MILLISECONDS, 0);
+		if (!port.openPort()) {
+			throw new Exception("Failed to open " + name + ".");
+		}
+		try {
+			var ping = new byte[8];
+			var pingLength = EgressThread.writePing(ping);
+			var received = new byte[256];
+			var frame = new byte[256];
+			var pointer = 0;
+			while (!Thread.currentThread().isInterrupted()) {
+				if (port.writeBytes(ping, pingLength) != pingLength) {
+					throw new Exception("Failed to write to " + name + ".");
+				}
+				var count = port.readBytes(received, received.length); // Blocks for at most one PING period.
+				if (count < 0) {
+					throw new Exception("Failed to read from " + name + ".");
+				}
+				for (var index = 0; index < count; index++) {
+					var value = received[index];
+					if (value != 0x00) {
+						if (pointer >= frame.length - 1) {
+							pointer = 0; // Oversize frame, this is probably not the cube.
+						}
+						frame[pointer++] = value;
+					} else {
+						if (isPong(frame, pointer)) {
+							return port;
+						}
+						pointer = 0;
+					}
+				}
+			}
+			throw new InterruptedException();
+		} finally {
+			port.closePort();
+		}
+	}
+
+	static boolean isPong(byte[] frame, int length) {
+		if (length < 5) { // COBS byte, command byte, version byte and two CRC bytes.
+			return false;
+		} else if (COBS.decode(frame, 0, 0, length) != 0) {
+			return false;
+		} else if (CRC16.calculate(frame, 1, length - 1) != 0) {
+			return false;
+		}
+		return (frame[1] & 0xFF) == 0xFF && (frame[2] & 0xFF) >= MINIMUM_VERSION; // PONG.
+	}
+
+}
@@ -5,18 +5,13 @@
 package com.abstractfoundry.daemon.serial;
 
 import com.abstractfoundry.daemon.common.FluentThreadFactory;
-import com.abstractfoundry.daemon.common.Pause;
 import com.abstractfoundry.daemon.common.ThreadSafe;
 import com.fazecast.jSerialComm.SerialPort;
 import com.lmax.disruptor.EventTranslatorOneArg;
 import com.lmax.disruptor.EventTranslatorThreeArg;
 import com.lmax.disruptor.EventTranslatorTwoArg;
 import com.lmax.disruptor.dsl.Disruptor;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,44 +21,34 @@ public class SerialDriver {
 	private static final Logger logger = LoggerFactory.getLogger(SerialDriver.class);
 
 	private static final int INBOX_SIZE = 256;
+	private static final int PRIORITY_INBOX_SIZE = 256;
 	private static final int OUTBOX_SIZE = 256;
 	private static final int COLLECTOR_SIZE = 256;
 	private static final int MAX_EXCHANGE_BATCH_SIZE = 8;
 
-	private final Consumer<DecodedFrame> callback;
-	private final SerialPort serialPort;
-	private final InputStream serialInputStream;
-	private final OutputStream serialOutputStream;
+	private final Consumer<DecodedFrame> callback, priorityCallback;
+	private final SerialLink serialLink;
 	private final TransferBatch collectorBatch, egressBatch;
-	private final Disruptor<DecodedFrame> inbox;
+	private final Disruptor<DecodedFrame> inbox, priorityInbox;
 	private final Disruptor<EncodedFrame> outbox;
 	private final Disruptor<PartialFrame> collector;
 	private final EgressThread egressThread;
 	private final IngressThread ingressThread;
 
-	public SerialDriver(Consumer<DecodedFrame> callback, String devicePath) {
-		this.callback = callback;
+	/**
+	 * @param callback Callback for frames on the (bulk) inbox lane.
+	 * @param priorityCallback Callback for frames on the priority inbox lane, which is processed on a separate thread.
+	 * @param selector Selects the lane for each incoming frame.
+	 * @param devicePath Path of the serial device, or null to discover it automatically.
+	 */
+	public SerialDriver(Consumer<DecodedFrame> callback, Consumer<DecodedFrame> priorityCallback, LaneSelector selector, String devicePath) {
+		this(callback, priorityCallback, selector, new SerialLink(new SystemSerialPorts.SystemPort(locate(devicePath)), SerialPorts.SYSTEM));
+	}
 
-		SerialPort port;
-		if (devicePath != null && !devicePath.isBlank()) {
-			port = SerialPort.getCommPort(devicePath);
-		} else {
-			SerialPort[] ports = SerialPort.getCommPorts();
-			if (ports.length < 1) {
-				throw new RuntimeException("Failed to automatically discover serial port.");
-			}
-			port = ports[0];
-		}
-		
-		this.serialPort = port;
-		serialPort.setComPortParameters(3000000, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
-		serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 0, 0); // Block indefinitely on read until at least one byte has arrived.
-		var bufferInputStream = false; // The ingress thread carefully buffers the input stream internally, so this additional buffer is probably not helpful.
-		var bufferOutputStream = true;
-		var inputStream = serialPort.getInputStream();
-		var outputStream = serialPort.getOutputStream();
-		this.serialInputStream = bufferInputStream ? new BufferedInputStream(inputStream) : inputStream;
-		this.serialOutputStream = bufferOutputStream ? new BufferedOutputStream(outputStream) : outputStream;
+	SerialDriver(Consumer<DecodedFrame> callback, Consumer<DecodedFrame> priorityCallback, LaneSelector selector, SerialLink serialLink) {
+		this.callback = callback;
+		this.priorityCallback = priorityCallback;
+		this.serialLink = serialLink;
 
 		var pair = TransferBatch.createPair(MAX_EXCHANGE_BATCH_SIZE, 256);
 		this.collectorBatch = pair.getHead();
@@ -75,6 +60,12 @@ public class SerialDriver {
 				.setDaemon(true)
 		);
 		inbox.handleEventsWith(this::handleInbox);
+		this.priorityInbox = new Disruptor<>(DecodedFrame::new, PRIORITY_INBOX_SIZE,
+			new FluentThreadFactory()
+				.setName("Foundry Priority Inbox Disruptor")
+				.setDaemon(true)
+		);
+		priorityInbox.handleEventsWith(this::handlePriorityInbox);
 		this.outbox = new Disruptor<>(EncodedFrame::new, OUTBOX_SIZE,
 			new FluentThreadFactory()
 				.setName("Foundry Outbox Disruptor")
@@ -88,30 +79,77 @@ public class SerialDriver {
 		);
 		collector.handleEventsWith(this::handleCollector);
 
-		this.egressThread = new EgressThread(egressBatch, outbox);
+		this.egressThread = new EgressThread(egressBatch, outbox, serialLink);
 		egressThread.setDaemon(true);
-		this.ingressThread = new IngressThread(serialInputStream, egressThread, inbox, outbox);
+		this.ingressThread = new IngressThread(serialLink, egressThread, selector, inbox, priorityInbox, outbox);
 		ingressThread.setDaemon(true);
 	}
 
+	private static SerialPort locate(String devicePath) {
+		if (devicePath != null && !devicePath.isBlank()) {
+			return SerialPort.getCommPort(devicePath);
+		}
+		SerialPort port;
+		try {
+			port = PortDiscovery.discover();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted whilst discovering serial port.", exception);
+		}
+		if (port == null) {
+			throw new RuntimeException("Failed to automatically discover serial port.");
+		}
+		return port;
+	}
+
 	public void start() {
-		serialPort.openPort();
+		if (!serialLink.open()) {
+			logger.warn("Failed to open serial port, the ingress thread will keep trying.");
+		}
 		inbox.start();
+		priorityInbox.start();
 		outbox.start();
 		collector.start();
 		egressThread.start();
 		ingressThread.start();
 	}
 
+	/**
+	 * Interrupt the ingress and egress threads, and halt the disruptors.
+	 */
+	public void stop() {
+		ingressThread.interrupt();
+		egressThread.interrupt();
+		collector.halt();
+		outbox.halt();
+		priorityInbox.halt();
+		inbox.halt();
+	}
+
 	/**
 	 * Thread-safe method used by client threads to submit several frames for (reliable) transmission.
 	 * <p>
-	 * The data is supplied by a one argument callback. At most 251 bytes may be
-	 * sent in a single frame.
+	 * The data for each frame is supplied by the translator, from the single
+	 * argument, into consecutive slots of the collector, which are published
+	 * together. At most 251 bytes may be sent in a single frame.
 	 */
 	@ThreadSafe
-	public <A> void batch(EventTranslatorOneArg<PartialFrame, A> writer, A[] arguments) {
-		collector.publishEvents(writer, arguments);
+	public <A> void batch(BatchTranslator<A> translator, A argument, int count) {
+		if (count < 0 || count > COLLECTOR_SIZE) {
+			throw new IllegalArgumentException("Invalid count.");
+		} else if (count == 0) {
+			return;
+		}
+		var ringBuffer = collector.getRingBuffer();
+		var last = ringBuffer.next(count);
+		var first = last - (count - 1);
+		try {
+			for (var sequence = first; sequence <= last; sequence++) {
+				translator.translateTo(ringBuffer.get(sequence), sequence, argument, (int) (sequence - first));
+			}
+		} finally {
+			ringBuffer.publish(first, last);
+		}
 	}
 	
 	/**
@@ -180,15 +218,34 @@ public class SerialDriver {
 		}
 	}
 
+	private void handlePriorityInbox(DecodedFrame frame, long sequence, boolean endOfBatch) {
+		try {
+			priorityCallback.accept(frame);
+		} catch (RuntimeException exception) {
+			logger.error("Unhandled exception processing priority inbox.", exception);
+		} finally {
+			frame.reset(); // Reset the frame so it can be repopulated.
+		}
+	}
+
 	private void handleOutbox(EncodedFrame frame, long sequence, boolean endOfBatch) {
+		var generation = serialLink.generation();
 		try {
+			var serialOutputStream = serialLink.getOutputStream();
+			if (serialOutputStream == null) {
+				throw new IOException("Serial port is not open.");
+			}
 			serialOutputStream.write(frame.getBytes(), 0, frame.getLength());
 			if (endOfBatch) {
 				serialOutputStream.flush();
 			}
 		} catch (IOException exception) {
 			logger.warn("I/O error whilst transmitting frame.", exception);
-			Pause.onError();
+			try {
+				serialLink.recover(generation); // Note: The frame is dropped, the egress window will retransmit it once the link is reinitialised.
+			} catch (InterruptedException interruption) {
+				Thread.currentThread().interrupt();
+			}
 		} catch (RuntimeException exception) {
 			logger.error("Unhandled exception processing outbox.", exception);
 		} finally {
@@ -213,6 +270,10 @@ public class SerialDriver {
 		return backlog(inbox);
 	}
 
+	public int priorityInboxBacklog() {
+		return backlog(priorityInbox);
+	}
+
 	public int outboxBacklog() {
 		return backlog(outbox);
 	}
@@ -221,6 +282,21 @@ public class SerialDriver {
 		return backlog(collector);
 	}
 
+	/**
+	 * @return The number of times the serial link has recovered after losing the device.
+	 */
+	public long recoveryCount() {
+		return serialLink.recoveryCount();
+	}
+
+	/**
+	 * @return The time taken by the most recent recovery (from losing the device
+	 * to completing the handshake), or -1 if the link has never recovered.
+	 */
+	public long lastRecoveryMilliseconds() {
+		return serialLink.lastRecoveryMilliseconds();
+	}
+
 	private static int backlog(Disruptor disruptor) {
 		return (int) (
 			disruptor.getRingBuffer().getBufferSize() - disruptor.getRingBuffer().remainingCapacity()
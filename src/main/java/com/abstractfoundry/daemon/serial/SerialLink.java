@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The physical serial port underlying the driver, which may be reopened if the
+ * device is lost (e.g. when the USB serial adapter resets).
+ * <p>
+ * Each successful (re)opening of the port begins a new generation. Threads
+ * which observe an I/O failure call {@link #recover(int)} with the generation
+ * in which the failure occurred, and the first such caller reopens the device
+ * whilst any others simply wait for it to do so.
+ */
+class SerialLink {
+
+	private static final Logger logger = LoggerFactory.getLogger(SerialLink.class);
+
+	static final int BAUD_RATE = 3000000;
+	private static final long REOPEN_PERIOD_NANOSECONDS = 100_000_000L; // Attempt to reopen a lost device every 100 milliseconds.
+
+	private final String devicePath; // Path (or system port name) by which the device was originally located.
+	private final String stablePath; // USB identity of the device, or null if none is known.
+	private final String description; // Port description reported by the USB adapter, used as a last resort.
+	private final SerialPorts ports;
+	private volatile SerialPorts.Port serialPort;
+	private volatile InputStream inputStream;
+	private volatile OutputStream outputStream;
+	private volatile int generation = 0;
+	private volatile long lostTimestamp = -1L; // Time at which the device was lost (-1 if the link is healthy).
+	private final AtomicLong recoveryCount = new AtomicLong(0);
+	private volatile long lastRecoveryNanoseconds = -1L;
+
+	SerialLink(SerialPorts.Port serialPort, SerialPorts ports) {
+		this.ports = ports;
+		this.serialPort = serialPort;
+		this.devicePath = serialPort.getSystemPortName();
+		this.stablePath = ports.stablePath(serialPort.getSystemPortName());
+		this.description = serialPort.getPortDescription();
+		if (stablePath != null) {
+			logger.info("Serial device {} identified as {}.", devicePath, stablePath);
+		}
+	}
+
+	/**
+	 * Open the port for the first time.
+	 *
+	 * @return True if the port was opened.
+	 */
+	synchronized boolean open() {
+		return configure(serialPort);
+	}
+
+	InputStream getInputStream() {
+		return inputStream;
+	}
+
+	OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	int generation() {
+		return generation;
+	}
+
+	/**
+	 * Thread-safe method used by the ingress and outbox threads to reopen the
+	 * device after it has been lost. Blocks until the device is available again.
+	 *
+	 * @param failed The generation in which the caller observed the failure.
+	 * @return The new generation.
+	 */
+	@ThreadSafe
+	synchronized int recover(int failed) throws InterruptedException {
+		if (failed != generation) {
+			return generation; // Another thread has already recovered the link.
+		}
+		if (lostTimestamp < 0) {
+			lostTimestamp = System.nanoTime();
+		}
+		logger.warn("Serial device {} lost, attempting to reopen.", devicePath);
+		serialPort.close();
+		var attempts = 0;
+		while (true) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			var candidate = locate();
+			if (candidate != null && configure(candidate)) {
+				serialPort = candidate;
+				generation += 1;
+				logger.info("Serial device {} reopened as {} after {} attempts.", devicePath, candidate.getSystemPortName(), attempts + 1);
+				return generation;
+			}
+			if (++attempts % 50 == 0) {
+				logger.warn("Serial device {} still unavailable after {} attempts.", devicePath, attempts);
+			}
+			LockSupport.parkNanos(REOPEN_PERIOD_NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Thread-safe method used by the egress thread to report that the protocol
+	 * handshake has completed, closing any outstanding recovery.
+	 */
+	@ThreadSafe
+	void restored() {
+		var timestamp = lostTimestamp;
+		if (timestamp >= 0) {
+			lostTimestamp = -1L;
+			lastRecoveryNanoseconds = System.nanoTime() - timestamp;
+			recoveryCount.incrementAndGet();
+			logger.info("Serial link recovered in {} milliseconds.", lastRecoveryNanoseconds / 1_000_000L);
+		}
+	}
+
+	long recoveryCount() {
+		return recoveryCount.get();
+	}
+
+	/**
+	 * @return The duration of the most recent recovery, from the device being
+	 * lost to the protocol handshake completing, or -1 if there has been none.
+	 */
+	long lastRecoveryMilliseconds() {
+		var nanoseconds = lastRecoveryNanoseconds;
+		return nanoseconds < 0 ? -1L : nanoseconds / 1_000_000L;
+	}
+
+	private SerialPorts.Port locate() {
+		if (stablePath != null) { // Prefer the USB identity, since the kernel may assign a different tty after a reset.
+			var port = ports.find(stablePath);
+			if (port != null) {
+				return port;
+			}
+		}
+		var port = ports.find(devicePath);
+		if (port != null) {
+			return port;
+		}
+		if (description != null && !description.isBlank()) {
+			for (var candidate : ports.list()) {
+				if (description.equals(candidate.getPortDescription())) {
+					return candidate;
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean configure(SerialPorts.Port port) {
+		if (!port.open()) {
+			return false;
+		}
+		this.inputStream = port.getInputStream();
+		this.outputStream = port.getOutputStream();
+		return true;
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * The serial ports of the system, through which the link locates its device
+ * again after it has been lost (abstracted, such that the recovery logic can
+ * be exercised against fake ports).
+ */
+interface SerialPorts {
+
+	static final SerialPorts SYSTEM = new SystemSerialPorts();
+
+	interface Port {
+
+		String getSystemPortName();
+
+		String getPortDescription();
+
+		/**
+		 * Open the port, configured for the link (reads block until at least one byte is available).
+		 *
+		 * @return True if the port was opened.
+		 */
+		boolean open();
+
+		void close();
+
+		InputStream getInputStream();
+
+		OutputStream getOutputStream();
+
+	}
+
+	/**
+	 * @return The port at the given path or system port name (following any symbolic link), or null if there is no such device.
+	 */
+	Port find(String path);
+
+	/**
+	 * @return Every port on the system.
+	 */
+	List<Port> list();
+
+	/**
+	 * @return The stable path of the given port (i.e. named after the USB identity of its adapter), or null if none is known.
+	 */
+	String stablePath(String systemPortName);
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+import com.fazecast.jSerialComm.SerialPort;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The serial ports of the system, as enumerated by jSerialComm.
+ */
+class SystemSerialPorts implements SerialPorts {
+
+	private static final Logger logger = LoggerFactory.getLogger(SystemSerialPorts.class);
+
+	private static final Path STABLE_DEVICE_DIRECTORY = Path.of("/dev/serial/by-id"); // Symbolic links named after the USB identity of each adapter (Linux only).
+
+	static class SystemPort implements SerialPorts.Port {
+
+		private final SerialPort port;
+		private volatile InputStream inputStream;
+		private volatile OutputStream outputStream;
+
+		SystemPort(SerialPort port) {
+			this.port = port;
+		}
+
+		@Override
+		public String getSystemPortName() {
+			return port.getSystemPortName();
+		}
+
+		@Override
+		public String getPortDescription() {
+			return port.getPortDescription();
+		}
+
+		@Override
+		public boolean open() {
+			port.setComPortParameters(SerialLink.BAUD_RATE, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+			port.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 0, 0); // Block indefinitely on read until at least one byte has arrived.
+			if (!port.openPort()) {
+				return false;
+			}
+			var bufferInputStream = false; // The ingress thread carefully buffers the input stream internally, so this additional buffer is probably not helpful.
+			var bufferOutputStream = true;
+			var input = port.getInputStream();
+			var output = port.getOutputStream();
+			this.inputStream = bufferInputStream ? new BufferedInputStream(input) : input;
+			this.outputStream = bufferOutputStream ? new BufferedOutputStream(output) : output;
+			return true;
+		}
+
+		@Override
+		public void close() {
+			port.closePort();
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return inputStream;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return outputStream;
+		}
+
+	}
+
+	@Override
+	public Port find(String path) {
+		var device = Path.of(path);
+		if (!Files.exists(device) && !device.isAbsolute()) {
+			device = Path.of("/dev", path);
+		}
+		if (!Files.exists(device)) {
+			return null;
+		}
+		try {
+			return new SystemPort(SerialPort.getCommPort(device.toRealPath().toString())); // Resolved, since the kernel may assign a different tty after a reset.
+		} catch (IOException | RuntimeException exception) {
+			logger.debug("Failed to resolve {}.", path, exception);
+			return null;
+		}
+	}
+
+	@Override
+	public List<Port> list() {
+		var ports = new ArrayList<Port>();
+		for (var port : SerialPort.getCommPorts()) {
+			ports.add(new SystemPort(port));
+		}
+		return ports;
+	}
+
+	@Override
+	public String stablePath(String systemPortName) {
+		if (!Files.isDirectory(STABLE_DEVICE_DIRECTORY)) {
+			return null;
+		}
+		try (var links = Files.list(STABLE_DEVICE_DIRECTORY)) {
+			var device = Path.of(systemPortName).isAbsolute() ? Path.of(systemPortName) : Path.of("/dev", systemPortName);
+			var target = device.toRealPath();
+			return links
+				.filter(link -> {
+					try {
+						return link.toRealPath().equals(target);
+					} catch (IOException exception) {
+						return false;
+					}
+				})
+				.map(Path::toString)
+				.findFirst()
+				.orElse(null);
+		} catch (IOException | RuntimeException exception) {
+			logger.debug("Failed to determine USB identity of {}.", systemPortName, exception);
+			return null;
+		}
+	}
+
+}
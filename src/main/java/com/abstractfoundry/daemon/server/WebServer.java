@@ -4,6 +4,7 @@
 
 package com.abstractfoundry.daemon.server;
 
+import com.abstractfoundry.daemon.rest.development.FaultsResource;
 import com.abstractfoundry.daemon.script.ScriptExecutor;
 import com.abstractfoundry.daemon.store.Store;
 import com.abstractfoundry.daemon.uavcan.Node;
@@ -31,6 +32,7 @@ public class WebServer {
 	private final Server server;
 
 	private static final Logger logger = LoggerFactory.getLogger(WebServer.class);
+	private static final boolean FAULTS = Boolean.getBoolean("foundry.faults"); // Expose the fault injector at /api/v1/tools/faults (for development only).
 	private final ServerConnector connector;
 
 	public WebServer(Node daemonNode, ExecutorService globalPool, Store store, ScriptExecutor scriptExecutor, int port, GenericSocketClientHandlerSupplier handlerSupplier) {
@@ -56,9 +58,7 @@ public class WebServer {
 		}
 		server.setHandler(handler);
 
-		ResourceConfig jerseyConfig = new ResourceConfig();
-		jerseyConfig.register(MultiPartFeature.class); // Required to upload files via Jersey.
-		jerseyConfig.packages("com.abstractfoundry.daemon.rest.resource");
+		ResourceConfig jerseyConfig = newResourceConfig(FAULTS);
 
 		jerseyConfig.register(new AbstractBinder() { @Override protected void configure() {
 			bindFactory(new ImmediateFactory<>(daemonNode)).to(Node.class).in(RequestScoped.class);
@@ -105,6 +105,17 @@ public class WebServer {
 		);
 	}
 
+	static ResourceConfig newResourceConfig(boolean faults) {
+		ResourceConfig jerseyConfig = new ResourceConfig();
+		jerseyConfig.register(MultiPartFeature.class); // Required to upload files via Jersey.
+		jerseyConfig.packages("com.abstractfoundry.daemon.rest.resource");
+		if (faults) {
+			logger.warn("Exposing the fault injector.");
+			jerseyConfig.register(FaultsResource.class);
+		}
+		return jerseyConfig;
+	}
+
 	public void start() throws Exception {
 		server.start();
 	}
@@ -4,17 +4,14 @@
 
 package com.abstractfoundry.daemon.server.method.node;
 
+import com.abstractfoundry.daemon.store.ShadowState;
 import com.abstractfoundry.daemon.store.Store;
 import com.abstractfoundry.daemon.bus.FlatDictionary;
 import com.abstractfoundry.daemon.bus.Namespace;
 import com.abstractfoundry.daemon.common.JsonToken;
-import com.abstractfoundry.daemon.common.SimpleObjectPool;
 import com.abstractfoundry.daemon.server.MethodJsonParser;
-import com.abstractfoundry.daemon.uavcan.AbstractContinuation;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
 import com.abstractfoundry.daemon.uavcan.Node;
-import com.abstractfoundry.daemon.uavcan.NullContinuation;
-import com.abstractfoundry.daemon.uavcan.PooledCountdownContinuation;
 import com.abstractfoundry.daemon.uavcan.TypeId;
 import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntComparator;
@@ -31,11 +28,9 @@ public class SetFieldsMethod { // TODO: Abstract common logic with DisplaySetMet
 	private static final int BATCH_CAPACITY = 32; // TODO: We should work out the batch capacity dynamically, but for now we should be able to fit 32 fields into a batch (assuming they are up to 4 bytes, so at most 128 bytes of payload).
 	private static final int BUFFER_COUNT = MAX_KEYS / BATCH_CAPACITY;
 
-	private static final AbstractContinuation NULL_CONTINUATION = new NullContinuation();
-
 	private final Node daemonNode;
 	private final Store store;
-	private final SimpleObjectPool<PooledCountdownContinuation> continuationPool;
+	private final ShadowState shadowState;
 
 	private final int[] ordering = new int[MAX_KEYS];
 	private final int[] orderedFieldKeys = new int[MAX_KEYS];
@@ -49,9 +44,7 @@ public class SetFieldsMethod { // TODO: Abstract common logic with DisplaySetMet
 	public SetFieldsMethod(Node daemonNode, Store store) {
 		this.daemonNode = daemonNode;
 		this.store = store;
-		this.continuationPool = new SimpleObjectPool<>(64,
-			slot -> new PooledCountdownContinuation(slot)
-		);
+		this.shadowState = store.getShadowState();
 		for (var index = 0; index < BUFFER_COUNT; index++) {
 			buffers[index] = ByteBuffer.allocate(256);
 			buffers[index].order(ByteOrder.LITTLE_ENDIAN);
@@ -79,45 +72,52 @@ public class SetFieldsMethod { // TODO: Abstract common logic with DisplaySetMet
 			orderedFieldValues[index] = parser.values[position];
 		}
 		var asynchronous = parser.asynchronous;
-		// (1) Setup the continuation (if not asynchronous).
-		SimpleObjectPool<PooledCountdownContinuation>.Slot continuationSlot = null;
-		AbstractContinuation continuation = null;
-		if (!asynchronous) {
-			try {
-				continuationSlot = continuationPool.claim();
-			} catch (SimpleObjectPool.PoolExhaustedException exception) {
-				return false; // Busy, retry later.
+		// (2) Elide the idempotent fields which the module already holds, and send the rest (atomically, with respect to other clients).
+		var shadow = shadowState.get(module.getId());
+		var issued = false;
+		synchronized (shadow) {
+			count = shadow.delta(orderedFieldKeys, orderedFieldValues, 0, count, module.getMetadata());
+			if (count > 0) {
+				if (!request(shadow, count, asynchronous, continuationTask, timeoutTask)) {
+					return false; // Busy, retry later.
+				}
+				issued = true;
 			}
-			var instance = continuationSlot.instance;
-			instance.set(1, continuationTask, timeoutTask);
-			continuation = instance;
 		}
-		// (2) Serialise the batches.
+		if (!issued || asynchronous) { // Reply before getting the response from the module (or immediately, if there was nothing to send).
+			continuationTask.run();
+		}
+		return true; // Complete.
+	}
+
+	private boolean request(ShadowState.Shadow shadow, int count, boolean asynchronous, Runnable continuationTask, Runnable timeoutTask) {
+		var id = module.getId();
+		var metadata = module.getMetadata();
+		// (3) Serialise the batches.
 		final var batchCount = count / BATCH_CAPACITY + (count % BATCH_CAPACITY != 0 ? 1 : 0);
 		for (var batchNumber = 0; batchNumber < batchCount; batchNumber++) {
 			final var batchStart = batchNumber * BATCH_CAPACITY;
 			final var batchEnd = Integer.min(batchStart + BATCH_CAPACITY, count);
-			final var length = FlatDictionary.serialise(buffers[batchNumber].array(), 0, orderedFieldKeys, orderedFieldValues, batchStart, batchEnd - batchStart, module.getMetadata());
+			final var length = FlatDictionary.serialise(buffers[batchNumber].array(), 0, orderedFieldKeys, orderedFieldValues, batchStart, batchEnd - batchStart, metadata);
 			buffers[batchNumber].limit(length);
 			buffers[batchNumber].position(0);
 		}
-		// (3) Make the request.
+		// (4) Make the request, forgetting the shadow should it time out (even if not awaiting the response).
 		final int requestPriority = 20; // TODO: Make configurable.
+		ShadowState.Guard guard = null;
 		try {
-			if (!asynchronous) {
-				daemonNode.request(module.getId(), TypeId.SET_FIELDS, requestPriority, buffers, batchCount, continuation);
-			} else { // Reply before getting the response from the module.
-				daemonNode.request(module.getId(), TypeId.SET_FIELDS, requestPriority, buffers, batchCount, NULL_CONTINUATION);
-				continuationTask.run();
-			}
+			guard = asynchronous ?
+				shadowState.guard(id, null, null) :
+				shadowState.guard(id, continuationTask, timeoutTask);
+			daemonNode.request(id, TypeId.SET_FIELDS, requestPriority, buffers, batchCount, guard.getContinuationTask(), guard.getTimeoutTask());
 		} catch (BackoffException exception) {
-			if (continuationSlot != null) {
-				continuationSlot.instance.reset();
-				continuationSlot.release();
+			if (guard != null) {
+				guard.cancel();
 			}
-			return false; // Busy, retry later.
+			return false;
 		}
-		return true; // Complete.
+		shadow.commit(orderedFieldKeys, orderedFieldValues, 0, count, metadata);
+		return true;
 	}
 
 	private class Parser extends MethodJsonParser {
@@ -4,20 +4,22 @@
 
 package com.abstractfoundry.daemon.server.method.node.display;
 
+import com.abstractfoundry.daemon.store.ShadowState;
 import com.abstractfoundry.daemon.store.Store;
+import com.abstractfoundry.daemon.bus.CachedModule;
 import com.abstractfoundry.daemon.bus.FlatDictionary;
 import com.abstractfoundry.daemon.bus.Metadata;
+import com.abstractfoundry.daemon.bus.SerialisationPlan;
 import com.abstractfoundry.daemon.common.JsonToken;
-import com.abstractfoundry.daemon.common.SimpleObjectPool;
 import com.abstractfoundry.daemon.server.MethodJsonParser;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
 import com.abstractfoundry.daemon.uavcan.Node;
-import com.abstractfoundry.daemon.uavcan.PooledCountdownContinuation;
 import com.abstractfoundry.daemon.uavcan.TypeId;
 import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntComparator;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,7 +33,7 @@ public class DisplaySetMethod { // TODO: Abstract common logic with SetFieldsMet
 	
 	private final Node daemonNode;
 	private final Store store;
-	private final SimpleObjectPool<PooledCountdownContinuation> continuationPool;
+	private final ShadowState shadowState;
 
 	private final int[] colourOrdering = new int[MAX_KEYS];
 	private final int[] orderedFieldKeys = new int[MAX_KEYS];
@@ -41,18 +43,17 @@ public class DisplaySetMethod { // TODO: Abstract common logic with SetFieldsMet
 	
 	private int cachedDestinationId;
 	private Metadata cachedMetadata;
+	private final SerialisationPlan[] cachedPlans = new SerialisationPlan[BUFFER_COUNT]; // Per batch, the plan for the layout last sent (if contiguous).
 	private int cachedLedsKey = -1;
 	private int cachedShowKey = -1;
-	private boolean available = false;
+	private final CachedModule cachedModule = new CachedModule("display");
 
 	private final Parser parser = new Parser();
 
 	public DisplaySetMethod(Node daemonNode, Store store) {
 		this.daemonNode = daemonNode;
 		this.store = store;
-		this.continuationPool = new SimpleObjectPool<>(64,
-			slot -> new PooledCountdownContinuation(slot)
-		);
+		this.shadowState = store.getShadowState();
 		for (var index = 0; index < BUFFER_COUNT; index++) {
 			buffers[index] = ByteBuffer.allocate(256);
 			buffers[index].order(ByteOrder.LITTLE_ENDIAN);
@@ -67,17 +68,15 @@ public class DisplaySetMethod { // TODO: Abstract common logic with SetFieldsMet
 		parser.colourKeys[left] - parser.colourKeys[right];
 
 	public boolean invoke(Runnable continuationTask, Runnable timeoutTask) {
-		if (!available) {
-			var module = store.getNamespace().getModule("display");
-			if (module != null) {
-				cachedDestinationId = module.getId();
-				cachedMetadata = module.getMetadata();
-				cachedLedsKey = module.getKey("led_colour");
-				cachedShowKey = module.getKey("show");
-				available = true;
-			}
+		if (cachedModule.revalidate(store.getNamespace())) {
+			var module = cachedModule.get();
+			cachedDestinationId = module.getId();
+			cachedMetadata = module.getMetadata();
+			Arrays.fill(cachedPlans, null);
+			cachedLedsKey = module.getKey("led_colour");
+			cachedShowKey = module.getKey("show");
 		}
-		if (!available) {
+		if (!cachedModule.isAvailable()) {
 			throw new IllegalStateException("Destination unavailable.");
 		}
 		var fieldCount = 0;
@@ -99,36 +98,62 @@ public class DisplaySetMethod { // TODO: Abstract common logic with SetFieldsMet
 			orderedFieldValues[fieldCount] = 1;
 			fieldCount += 1;
 		}
-		// (3) Setup the continuation.
-		final var batchCount = fieldCount / BATCH_CAPACITY + (fieldCount % BATCH_CAPACITY != 0 ? 1 : 0);
-		SimpleObjectPool<PooledCountdownContinuation>.Slot continuationSlot;
-		try {
-			continuationSlot = continuationPool.claim();
-		} catch (SimpleObjectPool.PoolExhaustedException exception) {
-			return false; // Busy, retry later.
+		// (3) Elide the colours which the display already holds, and send the rest (atomically, with respect to other clients).
+		var shadow = shadowState.get(cachedDestinationId);
+		synchronized (shadow) {
+			fieldCount = shadow.delta(orderedFieldKeys, orderedFieldValues, 0, fieldCount, cachedMetadata);
+			if (fieldCount > 0) {
+				return request(shadow, fieldCount, continuationTask, timeoutTask);
+			}
 		}
-		final var continuation = continuationSlot.instance;
-		continuation.set(batchCount, continuationTask, timeoutTask);
+		continuationTask.run(); // Nothing to send.
+		return true;
+	}
+
+	private boolean request(ShadowState.Shadow shadow, int fieldCount, Runnable continuationTask, Runnable timeoutTask) {
+		final var batchCount = fieldCount / BATCH_CAPACITY + (fieldCount % BATCH_CAPACITY != 0 ? 1 : 0);
 		// (4) Serialise the batches.
 		for (var batchNumber = 0; batchNumber < batchCount; batchNumber++) {
 			final var batchStart = batchNumber * BATCH_CAPACITY;
 			final var batchEnd = Integer.min(batchStart + BATCH_CAPACITY, fieldCount);
-			final var length = FlatDictionary.serialise(buffers[batchNumber].array(), 0, orderedFieldKeys, orderedFieldValues, batchStart, batchEnd - batchStart, cachedMetadata);
+			final var batchSize = batchEnd - batchStart;
+			var plan = cachedPlans[batchNumber];
+			if (plan == null || !plan.matches(orderedFieldKeys, batchStart, batchSize)) {
+				plan = isContiguous(batchStart, batchEnd) ? SerialisationPlan.compile(cachedMetadata, orderedFieldKeys, batchStart, batchSize) : null;
+				cachedPlans[batchNumber] = plan;
+			}
+			final var length = plan != null ?
+				plan.serialise(buffers[batchNumber].array(), 0, orderedFieldValues, batchStart) :
+				FlatDictionary.serialise(buffers[batchNumber].array(), 0, orderedFieldKeys, orderedFieldValues, batchStart, batchSize, cachedMetadata);
 			buffers[batchNumber].limit(length);
 			buffers[batchNumber].position(0);
 		}
-		// (5) Make the request.
+		// (5) Make the request, forgetting the shadow should it time out.
 		final int requestPriority = 20; // TODO: Make configurable.
+		ShadowState.Guard guard = null;
 		try {
-			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffers, batchCount, continuation);
+			guard = shadowState.guard(cachedDestinationId, continuationTask, timeoutTask);
+			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffers, batchCount, guard.getContinuationTask(), guard.getTimeoutTask());
 		} catch (BackoffException exception) {
-			continuationSlot.instance.reset();
-			continuationSlot.release();
+			if (guard != null) {
+				guard.cancel();
+			}
 			return false; // Busy, retry later.
 		}
+		shadow.commit(orderedFieldKeys, orderedFieldValues, 0, fieldCount, cachedMetadata);
 		return true; // Complete.
 	}
 
+	private boolean isContiguous(int start, int end) { // Whether worth compiling a plan, as the layout is likely to repeat (for example whole frames, with or without the show field).
+		var discontinuities = 0;
+		for (var index = start + 1; index < end; index++) {
+			if (orderedFieldKeys[index] != orderedFieldKeys[index - 1] + 1) {
+				discontinuities++;
+			}
+		}
+		return discontinuities <= 1;
+	}
+
 	private class Parser extends MethodJsonParser {
 
 		private final StringBuilder buffer = new StringBuilder();
@@ -5,13 +5,11 @@
 package com.abstractfoundry.daemon.server.method.node.screen;
 
 import com.abstractfoundry.daemon.store.Store;
-import com.abstractfoundry.daemon.bus.FlatDictionary;
-import com.abstractfoundry.daemon.bus.Metadata;
-import com.abstractfoundry.daemon.common.SimpleObjectPool;
+import com.abstractfoundry.daemon.bus.CachedModule;
+import com.abstractfoundry.daemon.bus.SerialisationPlan;
 import com.abstractfoundry.daemon.server.MethodJsonParser;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
 import com.abstractfoundry.daemon.uavcan.Node;
-import com.abstractfoundry.daemon.uavcan.PooledCountdownContinuation;
 import com.abstractfoundry.daemon.uavcan.TypeId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +20,6 @@ public class ScreenDrawRectangleMethod { // TODO: Abstract common logic with Set
 
 	private final Node daemonNode;
 	private final Store store;
-	private final SimpleObjectPool<PooledCountdownContinuation> continuationPool;
 
 	private final byte[] buffer = new byte[256];
 
@@ -30,23 +27,14 @@ public class ScreenDrawRectangleMethod { // TODO: Abstract common logic with Set
 	private final int[] batchValues = new int[6];
 
 	private int cachedDestinationId;
-	private Metadata cachedMetadata;
-	private int cachedRectangleXKey = -1;
-	private int cachedRectangleYKey = -1;
-	private int cachedRectangleWidthKey = -1;
-	private int cachedRectangleHeightKey = -1;
-	private int cachedRectangleColourKey = -1;
-	private int cachedRectangleDrawKey = -1;
-	private boolean available = false;
+	private SerialisationPlan cachedPlan; // Note: The layout is fixed, so compiled once per resolution of the module.
+	private final CachedModule cachedModule = new CachedModule("screen");
 
 	private final Parser parser = new Parser();
 
 	public ScreenDrawRectangleMethod(Node daemonNode, Store store) {
 		this.daemonNode = daemonNode;
 		this.store = store;
-		this.continuationPool = new SimpleObjectPool<>(64,
-			slot -> new PooledCountdownContinuation(slot)
-		);
 	}
 
 	public void parse(CharSequence data) {
@@ -54,21 +42,18 @@ public class ScreenDrawRectangleMethod { // TODO: Abstract common logic with Set
 	}
 
 	public boolean invoke(Runnable continuationTask, Runnable timeoutTask) {
-		if (!available) {
-			var module = store.getNamespace().getModule("screen");
-			if (module != null) {
-				cachedDestinationId = module.getId();
-				cachedMetadata = module.getMetadata();
-				cachedRectangleXKey = module.getKey("rectangle_x");
-				cachedRectangleYKey = module.getKey("rectangle_y");
-				cachedRectangleWidthKey = module.getKey("rectangle_width");
-				cachedRectangleHeightKey = module.getKey("rectangle_height");
-				cachedRectangleColourKey = module.getKey("rectangle_colour");
-				cachedRectangleDrawKey = module.getKey("rectangle_draw");
-				available = true;
-			}
+		if (cachedModule.revalidate(store.getNamespace())) {
+			var module = cachedModule.get();
+			cachedDestinationId = module.getId();
+			batchKeys[0] = module.getKey("rectangle_x");
+			batchKeys[1] = module.getKey("rectangle_y");
+			batchKeys[2] = module.getKey("rectangle_width");
+			batchKeys[3] = module.getKey("rectangle_height");
+			batchKeys[4] = module.getKey("rectangle_colour");
+			batchKeys[5] = module.getKey("rectangle_draw");
+			cachedPlan = SerialisationPlan.compile(module.getMetadata(), batchKeys, 0, 6);
 		}
-		if (!available) {
+		if (!cachedModule.isAvailable()) {
 			throw new IllegalStateException("Destination unavailable.");
 		}
 		var x = parser.x;
@@ -76,36 +61,19 @@ public class ScreenDrawRectangleMethod { // TODO: Abstract common logic with Set
 		var width = parser.width;
 		var height = parser.height;
 		var colour = parser.colour;
-		// (1) Setup the continuation.
-		SimpleObjectPool<PooledCountdownContinuation>.Slot continuationSlot;
-		try {
-			continuationSlot = continuationPool.claim();
-		} catch (SimpleObjectPool.PoolExhaustedException exception) {
-			return false; // Busy, retry later.
-		}
-		final var continuation = continuationSlot.instance;
-		continuation.set(1, continuationTask, timeoutTask);
-		// (2) Serialise the batch.
-		batchKeys[0] = cachedRectangleXKey;
+		// (1) Serialise the batch.
 		batchValues[0] = x;
-		batchKeys[1] = cachedRectangleYKey;
 		batchValues[1] = y;
-		batchKeys[2] = cachedRectangleWidthKey;
 		batchValues[2] = width;
-		batchKeys[3] = cachedRectangleHeightKey;
 		batchValues[3] = height;
-		batchKeys[4] = cachedRectangleColourKey;
 		batchValues[4] = ((colour >> 19) & 0x1F) << 11 | ((colour >> 10) & 0x3F) << 5 | ((colour >> 3) & 0x1F); // 24-bit colour to 16-bit colour conversion.
-		batchKeys[5] = cachedRectangleDrawKey;
 		batchValues[5] = 1;
-		final var length = FlatDictionary.serialise(buffer, 0, batchKeys, batchValues, 0, 6, cachedMetadata);
-		// (3) Make the request.
+		final var length = cachedPlan.serialise(buffer, 0, batchValues, 0);
+		// (2) Make the request.
 		final int requestPriority = 20; // TODO: Make configurable.
 		try {
-			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffer, 0, length, continuation);
+			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffer, 0, length, continuationTask, timeoutTask);
 		} catch (BackoffException exception) {
-			continuationSlot.instance.reset();
-			continuationSlot.release();
 			return false; // Busy, retry later.
 		}
 		return true; // Complete.
@@ -5,17 +5,17 @@
 package com.abstractfoundry.daemon.server.method.node.screen;
 
 import com.abstractfoundry.daemon.store.Store;
-import com.abstractfoundry.daemon.bus.FlatDictionary;
+import com.abstractfoundry.daemon.bus.CachedModule;
 import com.abstractfoundry.daemon.bus.Metadata;
+import com.abstractfoundry.daemon.bus.SerialisationPlan;
 import com.abstractfoundry.daemon.common.JsonToken;
-import com.abstractfoundry.daemon.common.SimpleObjectPool;
 import com.abstractfoundry.daemon.server.MethodJsonParser;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
 import com.abstractfoundry.daemon.uavcan.Node;
-import com.abstractfoundry.daemon.uavcan.PooledCountdownContinuation;
 import com.abstractfoundry.daemon.uavcan.TypeId;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.concurrent.locks.LockSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +30,6 @@ public class ScreenSetHalfRowMethod { // TODO: Abstract common logic with SetFie
 
 	private final Node daemonNode;
 	private final Store store;
-	private final SimpleObjectPool<PooledCountdownContinuation> continuationPool;
 
 	private final int[] batchKeys = new int[MAX_PIXELS + 6]; // Pixels plus metadata (x, y, width, height, start & stop fields).
 	private final int[] batchValues = new int[MAX_PIXELS + 6];
@@ -39,6 +38,7 @@ public class ScreenSetHalfRowMethod { // TODO: Abstract common logic with SetFie
 
 	private int cachedDestinationId;
 	private Metadata cachedMetadata;
+	private final SerialisationPlan[] cachedPlans = new SerialisationPlan[BATCH_CAPACITY + 1]; // Indexed by the batch size, compiled on first use.
 	private int cachedPixelWindowXKey = -1;
 	private int cachedPixelWindowYKey = -1;
 	private int cachedPixelWindowWidthKey = -1;
@@ -46,16 +46,13 @@ public class ScreenSetHalfRowMethod { // TODO: Abstract common logic with SetFie
 	private int cachedStartPixelStreamingKey = -1;
 	private int cachedPixelDataStreamKey = -1;
 	private int cachedStopPixelStreamingKey = -1;
-	private boolean available = false;
+	private final CachedModule cachedModule = new CachedModule("screen");
 
 	private final Parser parser = new Parser();
 
 	public ScreenSetHalfRowMethod(Node daemonNode, Store store) {
 		this.daemonNode = daemonNode;
 		this.store = store;
-		this.continuationPool = new SimpleObjectPool<>(64,
-			slot -> new PooledCountdownContinuation(slot)
-		);
 		for (var index = 0; index < BUFFER_COUNT; index++) {
 			buffers[index] = ByteBuffer.allocate(256);
 			buffers[index].order(ByteOrder.LITTLE_ENDIAN);
@@ -67,72 +64,66 @@ public class ScreenSetHalfRowMethod { // TODO: Abstract common logic with SetFie
 	}
 
 	public boolean invoke(Runnable continuationTask, Runnable timeoutTask) {
-		if (!available) {
-			var module = store.getNamespace().getModule("screen");
-			if (module != null) {
-				cachedDestinationId = module.getId();
-				cachedMetadata = module.getMetadata();
-				cachedPixelWindowXKey = module.getKey("pixel_window_x");
-				cachedPixelWindowYKey = module.getKey("pixel_window_y");
-				cachedPixelWindowWidthKey = module.getKey("pixel_window_width");
-				cachedPixelWindowHeightKey = module.getKey("pixel_window_height");
-				cachedStartPixelStreamingKey = module.getKey("start_pixel_streaming");
-				cachedPixelDataStreamKey = module.getKey("pixel_data_stream");
-				cachedStopPixelStreamingKey = module.getKey("stop_pixel_streaming");
-				available = true;
-			}
+		if (cachedModule.revalidate(store.getNamespace())) {
+			var module = cachedModule.get();
+			cachedDestinationId = module.getId();
+			cachedMetadata = module.getMetadata();
+			Arrays.fill(cachedPlans, null);
+			cachedPixelWindowXKey = module.getKey("pixel_window_x");
+			cachedPixelWindowYKey = module.getKey("pixel_window_y");
+			cachedPixelWindowWidthKey = module.getKey("pixel_window_width");
+			cachedPixelWindowHeightKey = module.getKey("pixel_window_height");
+			cachedStartPixelStreamingKey = module.getKey("start_pixel_streaming");
+			cachedPixelDataStreamKey = module.getKey("pixel_data_stream");
+			cachedStopPixelStreamingKey = module.getKey("stop_pixel_streaming");
 		}
-		if (!available) {
+		if (!cachedModule.isAvailable()) {
 			throw new IllegalStateException("Destination unavailable.");
 		}
 		var x = parser.x;
 		var y = parser.y;
 		var pixelCount = parser.pixelCursor;
-		// (1) Setup the continuation.
 		final var batchCount = pixelCount / BATCH_CAPACITY + (pixelCount % BATCH_CAPACITY != 0 ? 1 : 0);
-		SimpleObjectPool<PooledCountdownContinuation>.Slot continuationSlot;
-		try {
-			continuationSlot = continuationPool.claim();
-		} catch (SimpleObjectPool.PoolExhaustedException exception) {
-			return false; // Busy, retry later.
-		}
-		final var continuation = continuationSlot.instance;
-		continuation.set(batchCount, continuationTask, timeoutTask);
-		// (2) Serialise the batches.
+		// (1) Serialise the batches.
 		for (var batchNumber = 0; batchNumber < batchCount; batchNumber++) {
 			final var batchStart = batchNumber * BATCH_CAPACITY;
 			final var batchEnd = Integer.min(batchStart + BATCH_CAPACITY, pixelCount);
 			final var batchSize = batchEnd - batchStart;
-			batchKeys[0] = cachedPixelWindowXKey;
+			var plan = cachedPlans[batchSize];
+			if (plan == null) {
+				batchKeys[0] = cachedPixelWindowXKey;
+				batchKeys[1] = cachedPixelWindowYKey;
+				batchKeys[2] = cachedPixelWindowWidthKey;
+				batchKeys[3] = cachedPixelWindowHeightKey;
+				batchKeys[4] = cachedStartPixelStreamingKey;
+				for (var offset = 0; offset < batchSize; offset++) {
+					batchKeys[5 + offset] = cachedPixelDataStreamKey + offset;
+				}
+				batchKeys[5 + batchSize] = cachedStopPixelStreamingKey;
+				plan = SerialisationPlan.compile(cachedMetadata, batchKeys, 0, 6 + batchSize);
+				cachedPlans[batchSize] = plan;
+			}
 			batchValues[0] = x + batchStart;
-			batchKeys[1] = cachedPixelWindowYKey;
 			batchValues[1] = y;
-			batchKeys[2] = cachedPixelWindowWidthKey;
 			batchValues[2] = batchSize;
-			batchKeys[3] = cachedPixelWindowHeightKey;
 			batchValues[3] = 1;
-			batchKeys[4] = cachedStartPixelStreamingKey;
 			batchValues[4] = 1;
 			for (var offset = 0; offset < batchSize; offset++) {
-				batchKeys[5 + offset] = cachedPixelDataStreamKey + offset;
 				var pixel = parser.pixels[batchStart + offset];
 				var colour = ((pixel >> 19) & 0x1F) << 11 | ((pixel >> 10) & 0x3F) << 5 | ((pixel >> 3) & 0x1F); // 24-bit colour to 16-bit colour conversion.
 				batchValues[5 + offset] = colour;
 			}
-			batchKeys[5 + batchSize] = cachedStopPixelStreamingKey;
 			batchValues[5 + batchSize] = 1;
-			final var length = FlatDictionary.serialise(buffers[batchNumber].array(), 0, batchKeys, batchValues, 0, 6 + batchSize, cachedMetadata);
+			final var length = plan.serialise(buffers[batchNumber].array(), 0, batchValues, 0);
 			buffers[batchNumber].limit(length);
 			buffers[batchNumber].position(0);
 		}
-		// (3) Make the request.
+		// (2) Make the request.
 		final int requestPriority = 20; // TODO: Make configurable.
 		try {
 			LockSupport.parkNanos(8_000_000L); // Wait at least 8 milliseconds for any previous screen data to be processed.
-			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffers, batchCount, continuation);
+			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffers, batchCount, continuationTask, timeoutTask);
 		} catch (BackoffException exception) {
-			continuationSlot.instance.reset();
-			continuationSlot.release();
 			return false; // Busy, retry later.
 		}
 		return true; // Complete.
@@ -5,14 +5,14 @@
 package com.abstractfoundry.daemon.server.method.node.screen;
 
 import com.abstractfoundry.daemon.store.Store;
-import com.abstractfoundry.daemon.bus.FlatDictionary;
+import com.abstractfoundry.daemon.bus.CachedModule;
 import com.abstractfoundry.daemon.bus.Metadata;
-import com.abstractfoundry.daemon.common.SimpleObjectPool;
+import com.abstractfoundry.daemon.bus.SerialisationPlan;
 import com.abstractfoundry.daemon.server.MethodJsonParser;
 import com.abstractfoundry.daemon.uavcan.BackoffException;
 import com.abstractfoundry.daemon.uavcan.Node;
-import com.abstractfoundry.daemon.uavcan.PooledCountdownContinuation;
 import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.util.Arrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,7 +24,6 @@ public class ScreenWriteTextMethod { // TODO: Abstract common logic with SetFiel
 
 	private final Node daemonNode;
 	private final Store store;
-	private final SimpleObjectPool<PooledCountdownContinuation> continuationPool;
 
 	private final byte[] buffer = new byte[256];
 
@@ -33,6 +32,7 @@ public class ScreenWriteTextMethod { // TODO: Abstract common logic with SetFiel
 
 	private int cachedDestinationId;
 	private Metadata cachedMetadata;
+	private final SerialisationPlan[] cachedPlans = new SerialisationPlan[MAX_CHARACTERS]; // Indexed by the number of characters, compiled on first use.
 	private int cachedTextKey = -1;
 	private int cachedTextXKey = -1;
 	private int cachedTextYKey = -1;
@@ -40,16 +40,13 @@ public class ScreenWriteTextMethod { // TODO: Abstract common logic with SetFiel
 	private int cachedTextColourKey = -1;
 	private int cachedTextBackgroundColourKey = -1;
 	private int cachedTextDrawKey = -1;
-	private boolean available = false;
+	private final CachedModule cachedModule = new CachedModule("screen");
 
 	private final Parser parser = new Parser();
 
 	public ScreenWriteTextMethod(Node daemonNode, Store store) {
 		this.daemonNode = daemonNode;
 		this.store = store;
-		this.continuationPool = new SimpleObjectPool<>(64,
-			slot -> new PooledCountdownContinuation(slot)
-		);
 	}
 
 	public void parse(CharSequence data) {
@@ -57,22 +54,20 @@ public class ScreenWriteTextMethod { // TODO: Abstract common logic with SetFiel
 	}
 
 	public boolean invoke(Runnable continuationTask, Runnable timeoutTask) {
-		if (!available) {
-			var module = store.getNamespace().getModule("screen");
-			if (module != null) {
-				cachedDestinationId = module.getId();
-				cachedMetadata = module.getMetadata();
-				cachedTextKey = module.getKey("text");
-				cachedTextXKey = module.getKey("text_x");
-				cachedTextYKey = module.getKey("text_y");
-				cachedTextSizeKey = module.getKey("text_size");
-				cachedTextColourKey = module.getKey("text_colour");
-				cachedTextBackgroundColourKey = module.getKey("text_background_colour");
-				cachedTextDrawKey = module.getKey("text_draw");
-				available = true;
-			}
+		if (cachedModule.revalidate(store.getNamespace())) {
+			var module = cachedModule.get();
+			cachedDestinationId = module.getId();
+			cachedMetadata = module.getMetadata();
+			Arrays.fill(cachedPlans, null);
+			cachedTextKey = module.getKey("text");
+			cachedTextXKey = module.getKey("text_x");
+			cachedTextYKey = module.getKey("text_y");
+			cachedTextSizeKey = module.getKey("text_size");
+			cachedTextColourKey = module.getKey("text_colour");
+			cachedTextBackgroundColourKey = module.getKey("text_background_colour");
+			cachedTextDrawKey = module.getKey("text_draw");
 		}
-		if (!available) {
+		if (!cachedModule.isAvailable()) {
 			throw new IllegalStateException("Destination unavailable.");
 		}
 		var text = parser.text;
@@ -81,43 +76,38 @@ public class ScreenWriteTextMethod { // TODO: Abstract common logic with SetFiel
 		var size = parser.size;
 		var colour = parser.colour;
 		var background_colour = parser.background_colour;
-		// (1) Setup the continuation.
-		SimpleObjectPool<PooledCountdownContinuation>.Slot continuationSlot;
-		try {
-			continuationSlot = continuationPool.claim();
-		} catch (SimpleObjectPool.PoolExhaustedException exception) {
-			return false; // Busy, retry later.
-		}
-		final var continuation = continuationSlot.instance;
-		continuation.set(1, continuationTask, timeoutTask);
-		// (2) Serialise the batch.
+		// (1) Serialise the batch.
 		final var count = Math.min(text.length(), MAX_CHARACTERS - 1); // Reserve space for NULL byte (string terminator).
+		var plan = cachedPlans[count];
+		if (plan == null) {
+			for (var offset = 0; offset <= count; offset++) {
+				batchKeys[offset] = cachedTextKey + offset;
+			}
+			batchKeys[count + 1] = cachedTextXKey;
+			batchKeys[count + 2] = cachedTextYKey;
+			batchKeys[count + 3] = cachedTextSizeKey;
+			batchKeys[count + 4] = cachedTextColourKey;
+			batchKeys[count + 5] = cachedTextBackgroundColourKey;
+			batchKeys[count + 6] = cachedTextDrawKey;
+			plan = SerialisationPlan.compile(cachedMetadata, batchKeys, 0, count + 7);
+			cachedPlans[count] = plan;
+		}
 		for (var offset = 0; offset < count; offset++) {
-			batchKeys[offset] = cachedTextKey + offset;
 			batchValues[offset] = text.charAt(offset); // TODO: Do we need to zero out the rest of the firmware's buffer?
 		}
-		batchKeys[count + 0] = cachedTextKey + count;
 		batchValues[count + 0] = 0; // NULL byte (string terminator).
-		batchKeys[count + 1] = cachedTextXKey;
 		batchValues[count + 1] = x;
-		batchKeys[count + 2] = cachedTextYKey;
 		batchValues[count + 2] = y;
-		batchKeys[count + 3] = cachedTextSizeKey;
 		batchValues[count + 3] = size;
-		batchKeys[count + 4] = cachedTextColourKey;
 		batchValues[count + 4] = ((colour >> 19) & 0x1F) << 11 | ((colour >> 10) & 0x3F) << 5 | ((colour >> 3) & 0x1F); // 24-bit colour to 16-bit colour conversion.
-		batchKeys[count + 5] = cachedTextBackgroundColourKey;
 		batchValues[count + 5] = ((background_colour >> 19) & 0x1F) << 11 | ((background_colour >> 10) & 0x3F) << 5 | ((background_colour >> 3) & 0x1F); // 24-bit colour to 16-bit colour conversion.
-		batchKeys[count + 6] = cachedTextDrawKey;
 		batchValues[count + 6] = 1;
-		final var length = FlatDictionary.serialise(buffer, 0, batchKeys, batchValues, 0, count + 7, cachedMetadata);
-		// (3) Make the request.
+		final var length = plan.serialise(buffer, 0, batchValues, 0);
+		// (2) Make the request.
 		final int requestPriority = 20; // TODO: Make configurable.
 		try {
-			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffer, 0, length, continuation);
+			daemonNode.request(cachedDestinationId, TypeId.SET_FIELDS, requestPriority, buffer, 0, length, continuationTask, timeoutTask);
 		} catch (BackoffException exception) {
-			continuationSlot.instance.reset();
-			continuationSlot.release();
 			return false; // Busy, retry later.
 		}
 		return true; // Complete.
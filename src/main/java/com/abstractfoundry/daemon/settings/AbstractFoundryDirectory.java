@@ -28,6 +28,12 @@ public class AbstractFoundryDirectory {
 		return result;
 	}
 
+	public static File probeDaemonMetadataDirectory() {
+		var result = new File(probeDaemonDirectory(), "Metadata");
+		result.mkdirs();
+		return result;
+	}
+
 	public static File probeDaemonScriptsDirectory() {
 		var result = new File(probeDaemonDirectory(), "Scripts");
 		result.mkdirs();
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.store;
+
+import com.abstractfoundry.daemon.bus.BootstrapMetadata;
+import com.abstractfoundry.daemon.bus.QueriedMetadata;
+import com.abstractfoundry.daemon.bus.RecursiveDictionary;
+import com.abstractfoundry.daemon.uavcan.NodeInfo;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of each module's preferred name and enumerated metadata, keyed by
+ * its UUID and firmware, such that the namespace can be populated as soon as
+ * the module's node information is known, rather than after its field table
+ * has been walked (which remains necessary to revalidate the cache). Modules
+ * whose firmware is identified by its version alone (without a VCS commit or
+ * image CRC) are never cached, since their field tables may differ between
+ * builds of the same version.
+ * <p>
+ * The metadata is cached as the raw ENUMERATE_FIELDS responses, and replayed
+ * through the same deserialisation as a live enumeration.
+ */
+public class MetadataCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(MetadataCache.class);
+
+	private static final int FORMAT_VERSION = 1;
+
+	public static class Entry { // Note: Immutable.
+
+		private final String name;
+		private final List<byte[]> responses;
+		private final QueriedMetadata metadata;
+
+		private Entry(String name, List<byte[]> responses) {
+			this.name = name;
+			this.responses = responses;
+			var bootstrapMetadata = new BootstrapMetadata();
+			var builder = new RecursiveDictionary.Builder(bootstrapMetadata);
+			for (var response : responses) {
+				builder.merge(RecursiveDictionary.deserialise(response, 0, response.length, bootstrapMetadata));
+			}
+			if (builder.isEmpty()) {
+				throw new IllegalArgumentException("No metadata.");
+			}
+			this.metadata = new QueriedMetadata(builder.build());
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public QueriedMetadata getMetadata() {
+			return metadata;
+		}
+
+		private boolean matches(String name, List<byte[]> responses) {
+			if (!this.name.equals(name) || this.responses.size() != responses.size()) {
+				return false;
+			}
+			for (var index = 0; index < responses.size(); index++) {
+				if (!Arrays.equals(this.responses.get(index), responses.get(index))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	private final File directory; // Note: May be NULL, in which case the cache is held in memory only.
+	private final Map<String, Entry> entriesByKey = new HashMap<>();
+
+	/**
+	 * Create a cache which is held in memory only (so is useful only when modules reboot).
+	 */
+	public MetadataCache() {
+		this.directory = null;
+	}
+
+	/**
+	 * Create a cache persisted to (and loaded on demand from) files in the given directory.
+	 */
+	public MetadataCache(File directory) {
+		this.directory = directory;
+	}
+
+	private static String key(NodeInfo info) {
+		return info.getUuid() + "_" + info.getFirmware();
+	}
+
+	/**
+	 * @return The cached entry for the module and firmware described, or NULL if there is none (or the firmware is not identified).
+	 */
+	public synchronized Entry get(NodeInfo info) {
+		if (!info.isFirmwareIdentified()) {
+			return null;
+		}
+		var key = key(info);
+		var entry = entriesByKey.get(key);
+		if (entry == null && directory != null) {
+			entry = load(new File(directory, key + ".bin"));
+			if (entry != null) {
+				entriesByKey.put(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache the preferred name and (non-empty) ENUMERATE_FIELDS responses of the module described, unless unchanged (or the firmware is not identified).
+	 */
+	public synchronized void put(NodeInfo info, String name, List<byte[]> responses) {
+		if (!info.isFirmwareIdentified()) {
+			logger.debug("Not caching metadata for {}, since its firmware {} has neither a VCS commit nor an image CRC.", info.getUuid(), info.getFirmware());
+			return;
+		}
+		var key = key(info);
+		var existing = entriesByKey.get(key);
+		if (existing != null && existing.matches(name, responses)) {
+			return;
+		}
+		Entry entry;
+		try {
+			entry = new Entry(name, List.copyOf(responses));
+		} catch (RuntimeException exception) {
+			logger.warn("Not caching malformed metadata for: {}.", key, exception);
+			return;
+		}
+		entriesByKey.put(key, entry);
+		if (directory != null) {
+			save(info, key, entry);
+		}
+		logger.info("Cached metadata for: {}.", key);
+	}
+
+	private Entry load(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		try (var stream = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+			if (stream.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			var name = stream.readUTF();
+			var count = stream.readInt();
+			var responses = new ArrayList<byte[]>(count);
+			for (var index = 0; index < count; index++) {
+				var response = new byte[stream.readUnsignedShort()];
+				stream.readFully(response);
+				responses.add(response);
+			}
+			return new Entry(name, responses);
+		} catch (IOException | RuntimeException exception) {
+			logger.warn("Ignoring unreadable metadata cache file: {}.", file, exception);
+			return null;
+		}
+	}
+
+	private void save(NodeInfo info, String key, Entry entry) {
+		try {
+			var bytes = new ByteArrayOutputStream();
+			try (var stream = new DataOutputStream(bytes)) {
+				stream.writeInt(FORMAT_VERSION);
+				stream.writeUTF(entry.name);
+				stream.writeInt(entry.responses.size());
+				for (var response : entry.responses) {
+					stream.writeShort(response.length);
+					stream.write(response);
+				}
+			}
+			var file = new File(directory, key + ".bin");
+			var temporary = new File(directory, key + ".tmp");
+			Files.write(temporary.toPath(), bytes.toByteArray());
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			var prefix = info.getUuid() + "_";
+			for (var other : directory.listFiles()) { // The module has been reflashed, so discard its previous firmware's metadata.
+				if (other.getName().startsWith(prefix) && !other.equals(file)) {
+					Files.deleteIfExists(other.toPath());
+				}
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to save metadata cache for: {}.", key, exception);
+		}
+	}
+
+}
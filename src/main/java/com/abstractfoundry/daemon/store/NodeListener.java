@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.store;
+
+/**
+ * Listener for nodes coming online (on their first NODE_STATUS), needing to be
+ * resynchronised (when their NODE_STATUS reveals a reboot, or a change of
+ * health or mode), and dropping offline (when their NODE_STATUS has not been
+ * seen for the offline threshold).
+ * <p>
+ * Caution: Online and resynchronise events are delivered from the inbox
+ * disruptor thread, and offline events from the heartbeat thread, so
+ * implementations must be quick and thread-safe.
+ */
+public interface NodeListener {
+
+	public default void online(int id) {}
+
+	public default void resynchronise(int id) {}
+
+	public default void offline(int id) {}
+
+}
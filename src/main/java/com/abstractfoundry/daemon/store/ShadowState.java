@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.store;
+
+import com.abstractfoundry.daemon.bus.Metadata;
+import com.abstractfoundry.daemon.common.SimpleObjectPool;
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import com.abstractfoundry.daemon.uavcan.BackoffException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Shadow copy of the values last sent to each module's idempotent fields,
+ * such that a set_fields request need only carry those which have changed
+ * (for example the few LEDs which differ from one frame to the next).
+ * <p>
+ * A node's shadow must be held (i.e. synchronised upon) across computing the
+ * delta, issuing the request and committing it, such that concurrent clients
+ * cannot record their values in a different order to that in which they were
+ * sent. The request must be issued with the tasks of a {@link Guard}, which
+ * forgets the shadow should it time out. The shadow is also forgotten when
+ * the node reboots, is evicted, or its metadata changes, and otherwise
+ * periodically, such that a full refresh is sent.
+ */
+@ThreadSafe
+public class ShadowState {
+
+	private static final int REFRESH_INTERVAL = Integer.getInteger("foundry.shadow.refreshInterval", 1000); // Milliseconds between full refreshes of each module, or zero to disable delta encoding.
+	private static final Set<String> IDEMPOTENT_FIELDS = Set.of("led_colour"); // Fields for which rewriting the same value has no effect, so may be elided (unlike commands, or triggers such as show).
+	private static final Runnable NO_OP = () -> {};
+
+	public static class Shadow {
+
+		private static final byte UNKNOWN = 0;
+		private static final byte IDEMPOTENT = 1;
+		private static final byte VERBATIM = 2;
+
+		private int[] values = new int[0];
+		private boolean[] known = new boolean[0];
+		private byte[] kinds = new byte[0]; // Per key, whether the field is idempotent (resolved lazily by name).
+		private long refreshTime = System.nanoTime(); // Nanoseconds, per System.nanoTime(), after which the shadow is forgotten.
+
+		private Shadow() {}
+
+		private boolean isIdempotent(int key, Metadata metadata) {
+			if (key >= kinds.length) {
+				grow(key);
+			}
+			if (kinds[key] == UNKNOWN) {
+				var name = metadata.name(metadata.floor(key));
+				kinds[key] = IDEMPOTENT_FIELDS.contains(name) ? IDEMPOTENT : VERBATIM;
+			}
+			return kinds[key] == IDEMPOTENT;
+		}
+
+		private void grow(int key) {
+			var capacity = Math.max(2 * kinds.length, key + 1);
+			values = Arrays.copyOf(values, capacity);
+			known = Arrays.copyOf(known, capacity);
+			kinds = Arrays.copyOf(kinds, capacity);
+		}
+
+		/**
+		 * Compact the given (ordered) fields in place, to those which are not idempotent, or whose values differ from the shadow, unless a full refresh is due.
+		 *
+		 * @return The number of fields remaining, which may be zero.
+		 */
+		public synchronized int delta(int[] keys, int[] values, int offset, int count, Metadata metadata) {
+			if (REFRESH_INTERVAL <= 0) {
+				return count;
+			}
+			var now = System.nanoTime();
+			if (now - refreshTime > 0) {
+				Arrays.fill(known, false); // Full refresh.
+				refreshTime = now + REFRESH_INTERVAL * 1_000_000L;
+				return count;
+			}
+			var cursor = offset;
+			for (var index = offset; index < offset + count; index++) {
+				var key = keys[index];
+				var value = values[index];
+				if (!isIdempotent(key, metadata) || !known[key] || this.values[key] != value) {
+					keys[cursor] = key;
+					values[cursor] = value;
+					cursor++;
+				}
+			}
+			return cursor - offset;
+		}
+
+		/**
+		 * Record that the given fields have been sent (so should only be called once the request has been issued).
+		 */
+		public synchronized void commit(int[] keys, int[] values, int offset, int count, Metadata metadata) {
+			for (var index = offset; index < offset + count; index++) {
+				var key = keys[index];
+				if (isIdempotent(key, metadata)) {
+					this.values[key] = values[index];
+					known[key] = true;
+				}
+			}
+		}
+
+		/**
+		 * Forget the shadow, such that the next request is a full refresh.
+		 */
+		public synchronized void invalidate() {
+			Arrays.fill(known, false);
+			Arrays.fill(kinds, UNKNOWN); // The metadata may have changed too.
+		}
+
+	}
+
+	/**
+	 * Pair of tasks wrapping those of a request, the timeout task of which forgets the shadow of the destination.
+	 */
+	public class Guard {
+
+		private final SimpleObjectPool<Guard>.Slot slot;
+		private final Runnable continuationWrapper = () -> complete(false);
+		private final Runnable timeoutWrapper = () -> complete(true);
+		private int id;
+		private Runnable continuationTask;
+		private Runnable timeoutTask;
+
+		private Guard(SimpleObjectPool<Guard>.Slot slot) {
+			this.slot = slot;
+		}
+
+		public Runnable getContinuationTask() {
+			return continuationWrapper;
+		}
+
+		public Runnable getTimeoutTask() {
+			return timeoutWrapper;
+		}
+
+		/**
+		 * Return this guard to the pool without running either task (e.g. if the request could not be issued).
+		 */
+		public void cancel() {
+			continuationTask = null;
+			timeoutTask = null;
+			slot.release();
+		}
+
+		private void complete(boolean timedOut) {
+			var id = this.id;
+			var task = timedOut ? timeoutTask : continuationTask;
+			cancel(); // Note: Released before running the task, which may issue another request.
+			if (timedOut) {
+				invalidate(id);
+			}
+			task.run();
+		}
+
+	}
+
+	private final Shadow[] shadows = new Shadow[128]; // One for each node ID.
+	private final SimpleObjectPool<Guard> guardPool = new SimpleObjectPool<>(512,
+		slot -> new Guard(slot)
+	);
+
+	public ShadowState() {
+		for (var id = 0; id < shadows.length; id++) {
+			shadows[id] = new Shadow();
+		}
+	}
+
+	public Shadow get(int id) {
+		return shadows[id];
+	}
+
+	/**
+	 * @return A guard for a request to the given node, wrapping the given tasks (or neither, if NULL, for requests which do not await a response).
+	 */
+	public Guard guard(int id, Runnable continuationTask, Runnable timeoutTask) throws BackoffException {
+		SimpleObjectPool<Guard>.Slot slot;
+		try {
+			slot = guardPool.claim();
+		} catch (SimpleObjectPool.PoolExhaustedException exception) {
+			throw new BackoffException("Too many guarded requests in flight.");
+		}
+		var guard = slot.instance;
+		guard.id = id;
+		guard.continuationTask = continuationTask != null ? continuationTask : NO_OP;
+		guard.timeoutTask = timeoutTask != null ? timeoutTask : NO_OP;
+		return guard;
+	}
+
+	/**
+	 * Forget the shadow of the given node, such that the next request is a full refresh.
+	 */
+	public void invalidate(int id) {
+		shadows[id].invalidate();
+	}
+
+}
@@ -4,6 +4,9 @@
 
 package com.abstractfoundry.daemon.store;
 
+import com.abstractfoundry.daemon.bus.CompiledMetadata;
+import com.abstractfoundry.daemon.bus.FieldType;
+import com.abstractfoundry.daemon.bus.FlatDictionary;
 import com.abstractfoundry.daemon.bus.Metadata;
 import com.abstractfoundry.daemon.bus.Namespace;
 import com.abstractfoundry.daemon.common.DatabaseException;
@@ -22,10 +25,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,14 +48,19 @@ public class Store { // TODO: This assumes (correctly, for now) that node IDs ar
 	private final JedisPool pool;
 	private final RedisTimeSeries timeseries;
 
-	private Namespace namespace = Namespace.EMPTY;
+	private static final boolean PRINT_NAMESPACE = Boolean.getBoolean("foundry.namespace.print"); // Log every field of every module whenever the namespace changes.
+
+	private volatile Namespace namespace = Namespace.EMPTY; // Note: Written under the lock, but read without it.
 	private final Set<Integer> connectedIds = new HashSet<>();
+	private final Map<Integer, Liveness> livenessById = new HashMap<>();
+	private final List<NodeListener> nodeListeners = new CopyOnWriteArrayList<>();
 	private final Map<Integer, String> preferredNamesById = new HashMap<>();
 	private final Map<Integer, Metadata> metadataById = new HashMap<>();
 	private final Map<Integer, NodeInfo> nodeInfoById = new HashMap<>();
 	private final AtomicBoolean upgradeInProgress = new AtomicBoolean();
 	private final Map<Integer, Map<Integer, Object>> latestFieldsById = new HashMap<>();
 	private final Queue<String> scriptLog = new LinkedList<>();
+	private final ShadowState shadowState = new ShadowState(); // Note: Has its own lock, since it is consulted on every set_fields request.
 
 	public Store(String host, int port) {
 		// Note: Configuration adapted from the JRedisTimeSeries defaults.
@@ -80,8 +90,115 @@ public class Store { // TODO: This assumes (correctly, for now) that node IDs ar
 		}
 	}
 
-	public synchronized void addConnectedId(int id) {
-		connectedIds.add(id); // TODO: Periodically remove IDs which have dropped offline.
+	private static class Liveness {
+		long lastSeen; // Nanoseconds, per System.nanoTime().
+		long uptime; // Seconds, as reported by the node.
+		int status; // Health and mode, as reported by the node.
+	}
+
+	public void addNodeListener(NodeListener listener) {
+		nodeListeners.add(listener);
+	}
+
+	/**
+	 * Record that the node is alive, on receipt of its NODE_STATUS.
+	 * <p>
+	 * If the node's uptime has gone backwards then it has rebooted, so its
+	 * cached state is invalidated, and the listeners are asked to resynchronise
+	 * with it. Likewise (but without invalidating) if its health or mode has
+	 * changed.
+	 *
+	 * @param uptime Seconds since the node started.
+	 * @param status Health and mode of the node.
+	 * @return True if the node has just come online, or must be resynchronised.
+	 */
+	public boolean addConnectedId(int id, long uptime, int status) {
+		boolean online = false;
+		boolean rebooted = false;
+		boolean changed = false;
+		synchronized (this) {
+			var liveness = livenessById.get(id);
+			if (liveness == null) {
+				liveness = new Liveness();
+				livenessById.put(id, liveness);
+				online = true;
+			} else if (uptime < liveness.uptime) {
+				rebooted = true;
+			} else if (status != liveness.status) {
+				changed = true;
+			}
+			liveness.lastSeen = System.nanoTime();
+			liveness.uptime = uptime;
+			liveness.status = status;
+			connectedIds.add(id);
+			if (rebooted) {
+				invalidate(id);
+				updateNamespace(id);
+			} else if (changed) {
+				shadowState.invalidate(id); // The node may have lost the values we last set.
+			}
+		}
+		if (online) {
+			logger.info("Node {} online.", id);
+			for (var listener : nodeListeners) { // Note: Notify outside the lock, since listeners may call back into the store.
+				listener.online(id);
+			}
+		} else if (rebooted || changed) {
+			logger.warn("Node {} {}, resynchronising.", id, rebooted ? "rebooted" : "changed status");
+			for (var listener : nodeListeners) {
+				listener.resynchronise(id);
+			}
+		}
+		return online || rebooted || changed;
+	}
+
+	/**
+	 * Evict the nodes which have not been seen within the threshold, along with
+	 * their cached state (name, metadata, node information and latest fields).
+	 *
+	 * @param threshold Milliseconds since a node was last seen, after which it is considered offline.
+	 * @return The IDs of the evicted nodes.
+	 */
+	public List<Integer> evictOfflineIds(int threshold) {
+		var evicted = new ArrayList<Integer>();
+		synchronized (this) {
+			var now = System.nanoTime();
+			var iterator = livenessById.entrySet().iterator();
+			while (iterator.hasNext()) {
+				var entry = iterator.next();
+				if (now - entry.getValue().lastSeen > threshold * 1_000_000L) {
+					iterator.remove();
+					evicted.add(entry.getKey());
+				}
+			}
+			if (evicted.isEmpty()) {
+				return evicted;
+			}
+			for (var id : evicted) {
+				connectedIds.remove(id);
+				invalidate(id);
+				updateNamespace(id);
+			}
+		}
+		for (var id : evicted) {
+			logger.warn("Node {} offline.", id);
+			for (var listener : nodeListeners) {
+				listener.offline(id);
+			}
+		}
+		return evicted;
+	}
+
+	private void invalidate(int id) {
+		preferredNamesById.remove(id);
+		metadataById.remove(id);
+		nodeInfoById.remove(id);
+		latestFieldsById.remove(id);
+		shadowState.invalidate(id);
+	}
+
+	public synchronized boolean isConnected(int id) {
+		return connectedIds.contains(id);
 	}
 
 	public synchronized Set<Integer> getConnectedIds() {
@@ -89,17 +206,32 @@ public class Store { // TODO: This assumes (correctly, for now) that node IDs ar
 		return Collections.unmodifiableSet(copy);
 	}
 
-	public synchronized Namespace getNamespace() {
+	public Namespace getNamespace() { // Note: Lock-free, since the namespace is immutable.
 		return namespace;
 	}
 
+	public ShadowState getShadowState() {
+		return shadowState;
+	}
+
 	public synchronized String getPreferredName(int id) {
 		return preferredNamesById.get(id);
 	}
 
 	public synchronized void putPreferredName(int id, String name) {
 		preferredNamesById.put(id, name);
-		updateNamespace();
+		updateNamespace(id);
+	}
+
+	/**
+	 * @return True if the name was put, i.e. there was none already (such that a cached name does not replace a queried one).
+	 */
+	public synchronized boolean putPreferredNameIfAbsent(int id, String name) {
+		if (preferredNamesById.containsKey(id)) {
+			return false;
+		}
+		putPreferredName(id, name);
+		return true;
 	}
 
 	public synchronized Metadata getMetadata(int id) {
@@ -107,8 +239,20 @@ public class Store { // TODO: This assumes (correctly, for now) that node IDs ar
 	}
 
 	public synchronized void putMetadata(int id, Metadata metadata) {
-		metadataById.put(id, metadata);
-		updateNamespace();
+		metadataById.put(id, CompiledMetadata.compile(metadata)); // Compiled once here, rather than looked up per block of every dictionary.
+		shadowState.invalidate(id); // Keys may have been reassigned.
+		updateNamespace(id);
+	}
+
+	/**
+	 * @return True if the metadata was put, i.e. there was none already (such that cached metadata does not replace queried metadata).
+	 */
+	public synchronized boolean putMetadataIfAbsent(int id, Metadata metadata) {
+		if (metadataById.containsKey(id)) {
+			return false;
+		}
+		putMetadata(id, metadata);
+		return true;
 	}
 
 	public synchronized NodeInfo getNodeInfo(int id) {
@@ -117,12 +261,22 @@ public class Store { // TODO: This assumes (correctly, for now) that node IDs ar
 
 	public synchronized void putNodeInfo(int id, NodeInfo info) {
 		nodeInfoById.put(id, info);
-		updateNamespace();
+		updateNamespace(id);
 	}
 
-	public synchronized void updateNamespace() {
-		namespace = Namespace.build(preferredNamesById, metadataById, nodeInfoById);
-		namespace.print();
+	private void updateNamespace(int id) { // Note: Called with the lock held.
+		var previous = namespace;
+		Namespace updated;
+		if (previous.hasExclusions()) {
+			updated = Namespace.build(preferredNamesById, metadataById, nodeInfoById); // The change may resolve a conflict, so reconsider every node.
+		} else {
+			updated = previous.update(id, preferredNamesById.get(id), metadataById.get(id), nodeInfoById.get(id));
+		}
+		namespace = updated;
+		logger.info("Namespace updated for node {}: {} module(s).", id, updated.getModuleNames().size());
+		if (PRINT_NAMESPACE) {
+			updated.print();
+		}
 	}
 
 	public synchronized UUID getUuid(int id) {
@@ -203,16 +357,17 @@ public class Store { // TODO: This assumes (correctly, for now) that node IDs ar
 		}
 	}
 
-	public synchronized void putLatestFields(int id, int[] keys, int[] values, int count) {
+	public synchronized void putLatestFields(int id, int[] keys, int[] values, byte[] types, int offset, int count) { // Note: Each value is the raw word of its type, see FlatDictionary.
 		var uuid = getUuid(id);
 		var latest = latestFieldsById.computeIfAbsent(id, ignored -> new HashMap<>());
-		for (var index = 0; index < count; index++) {
+		for (var index = offset; index < offset + count; index++) {
 			var key = keys[index];
+			var type = types[index];
 			var value = values[index];
-			latest.put(key, value);
-			if (uuid != null) {
+			latest.put(key, FlatDictionary.boxedValue(type, value));
+			if (uuid != null && type != FieldType.UTF8_CHAR) { // Note: Strings are not recorded as timeseries.
 				try {
-					getTimeseries().add(buildTimeSeriesKey(uuid, key), value); // TODO: Do asynchronously to avoid delaying the inbox thread?
+					getTimeseries().add(buildTimeSeriesKey(uuid, key), FlatDictionary.doubleValue(type, value)); // TODO: Do asynchronously to avoid delaying the inbox thread?
 				} catch (JedisException exception) {
 					throw new DatabaseException("Failed to persist latest field value.", exception);
 				}
@@ -245,13 +400,30 @@ public class Store { // TODO: This assumes (correctly, for now) that node IDs ar
 		var id = module.getId();
 		var latest = latestFieldsById.get(id);
 		if (latest != null) {
+			var metadata = module.getMetadata();
 			var fields = module.getFields(); // TODO: Support suffixes due to spanning fields.
 			for (var field : fields) {
 				var key = module.getKey(field);
-				var value = latest.get(key);
-				result.put(field, value);
+				if (metadata.type(key) == FieldType.UTF8_CHAR) {
+					result.put(field, latestString(latest, key, metadata.span(key)));
+				} else {
+					result.put(field, latest.get(key));
+				}
+			}
+		}
+	}
+
+	private static String latestString(Map<Integer, Object> latest, int key, int span) { // Reassemble a string from the latest value of each of its characters.
+		var bytes = new byte[span];
+		var length = 0;
+		while (length < span) {
+			var value = latest.get(key + length);
+			if (!(value instanceof Integer) || (Integer) value == 0) {
+				break; // Terminated, or not yet published.
 			}
+			bytes[length++] = (byte) (int) (Integer) value;
 		}
+		return length > 0 || latest.containsKey(key) ? new String(bytes, 0, length, StandardCharsets.UTF_8) : null;
 	}
 
 	private static String buildTimeSeriesKey(UUID uuid, int key) {
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Table of node IDs, indexed in both directions, recording which UUID each
+ * ID has been bound to (whether by allocation or by observation of the node
+ * information) and which IDs are in use by nodes of unknown UUID.
+ * <p>
+ * The bindings are persisted to the given file (if any) by {@link #flush()}
+ * once they have changed, such that modules are given back their previous ID
+ * on boot, and hence keep the same place in the namespace, across restarts of
+ * the daemon. Note: Changes are made on the inbox and continuation threads, so
+ * are never written to disk there, but flushed by the heartbeat instead.
+ */
+@ThreadSafe
+public class AllocationTable {
+
+	private static final Logger logger = LoggerFactory.getLogger(AllocationTable.class);
+
+	public static final int MAXIMUM_ALLOCATED_ID = 125; // Note: IDs 126 and 127 are reserved for diagnostic tools.
+
+	private final File file; // Note: May be NULL, in which case the table is not persisted.
+	private final UUID[] uuidsById = new UUID[128];
+	private final boolean[] occupiedById = new boolean[128]; // Whether seen in use (or reserved), whether or not bound.
+	private final Map<UUID, Integer> idsByUuid = new HashMap<>();
+	private final Object flushLock = new Object(); // Orders the writes to the file, which are made outside the table's monitor.
+	private boolean dirty = false; // Whether the bindings have changed since last flushed.
+
+	/**
+	 * Create an empty table which is held in memory only.
+	 */
+	public AllocationTable() {
+		this.file = null;
+	}
+
+	/**
+	 * Create a table persisted to the given file, loading any previous bindings from it.
+	 */
+	public AllocationTable(File file) {
+		this.file = file;
+		if (file.exists()) {
+			load();
+		}
+	}
+
+	private void load() {
+		try {
+			for (var line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				var parts = line.trim().split("\\s+");
+				if (parts.length != 2) {
+					continue; // Blank line.
+				}
+				try {
+					var id = Integer.parseInt(parts[0]);
+					var uuid = UUID.fromString(parts[1]);
+					if (id < 1 || id > 127 || idsByUuid.containsKey(uuid) || uuidsById[id] != null) {
+						throw new IllegalArgumentException("Invalid or conflicting binding.");
+					}
+					bind(id, uuid);
+				} catch (IllegalArgumentException exception) {
+					logger.warn("Ignoring allocation table entry: '{}'.", line);
+				}
+			}
+			logger.info("Loaded {} node ID allocation(s).", idsByUuid.size());
+		} catch (IOException exception) {
+			logger.error("Failed to load node ID allocations.", exception);
+		}
+	}
+
+	/**
+	 * Write the bindings to the file, if they have changed since last flushed.
+	 */
+	public void flush() {
+		if (file == null) {
+			return;
+		}
+		synchronized (flushLock) {
+			var lines = new ArrayList<String>();
+			synchronized (this) {
+				if (!dirty) {
+					return;
+				}
+				dirty = false;
+				for (var id = 1; id < uuidsById.length; id++) {
+					if (uuidsById[id] != null) {
+						lines.add(id + " " + uuidsById[id]);
+					}
+				}
+			}
+			try {
+				var temporary = new File(file.getPath() + ".tmp");
+				Files.write(temporary.toPath(), lines, StandardCharsets.UTF_8);
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); // Never leave a partially written table.
+			} catch (IOException exception) {
+				logger.error("Failed to save node ID allocations.", exception);
+				synchronized (this) {
+					dirty = true; // Try again on the next flush.
+				}
+			}
+		}
+	}
+
+	private void bind(int id, UUID uuid) {
+		uuidsById[id] = uuid;
+		idsByUuid.put(uuid, id);
+	}
+
+	private static void checkId(int id) {
+		if (id < 1 || id > 127) {
+			throw new IllegalArgumentException("Invalid node ID.");
+		}
+	}
+
+	/**
+	 * Mark the given ID as in use, without binding it to a UUID (for example the allocator's own ID).
+	 */
+	public synchronized void reserve(int id) {
+		checkId(id);
+		occupiedById[id] = true;
+	}
+
+	/**
+	 * Note that a node has been seen using the given ID (for example as the source of a NODE_STATUS broadcast), such that it is not given to another.
+	 */
+	public synchronized void observe(int id) {
+		checkId(id);
+		occupiedById[id] = true;
+	}
+
+	/**
+	 * Note that a node with the given UUID has been seen using the given ID, replacing any conflicting bindings, since the network is the authority.
+	 */
+	public synchronized void observe(int id, UUID uuid) {
+		checkId(id);
+		if (uuid == null) {
+			throw new IllegalArgumentException("Invalid UUID.");
+		}
+		occupiedById[id] = true;
+		if (uuid.equals(uuidsById[id])) {
+			return; // Already bound.
+		}
+		var previousId = idsByUuid.remove(uuid);
+		if (previousId != null) {
+			uuidsById[previousId] = null; // The node has since taken another ID, so its previous one is free.
+			occupiedById[previousId] = false;
+		}
+		if (uuidsById[id] != null) {
+			idsByUuid.remove(uuidsById[id]);
+		}
+		bind(id, uuid);
+		logger.info("Observed node {} with UUID: {}.", id, uuid);
+		dirty = true;
+	}
+
+	/**
+	 * Allocate an ID to the given UUID, giving back any ID it has been bound to before, and otherwise
+	 * preferring the given ID, or the nearest free ID above (and then below) it, or if no preference
+	 * is given (zero) the highest free ID.
+	 *
+	 * @return The allocated ID, or zero if the IDs are exhausted.
+	 */
+	public synchronized int allocate(UUID uuid, int preferredId) {
+		if (uuid == null) {
+			throw new IllegalArgumentException("Invalid UUID.");
+		} else if (preferredId < 0 || preferredId > 127) {
+			throw new IllegalArgumentException("Invalid preferred node ID.");
+		}
+		var previousId = idsByUuid.get(uuid);
+		if (previousId != null) {
+			return previousId;
+		}
+		var id = 0;
+		if (preferredId == 0) {
+			id = search(MAXIMUM_ALLOCATED_ID, 0, -1);
+		} else {
+			var start = Math.min(preferredId, MAXIMUM_ALLOCATED_ID);
+			id = search(start, MAXIMUM_ALLOCATED_ID + 1, 1);
+			if (id == 0) {
+				id = search(start - 1, 0, -1);
+			}
+		}
+		if (id != 0) {
+			bind(id, uuid);
+			dirty = true;
+		}
+		return id;
+	}
+
+	private int search(int from, int until, int step) {
+		for (var candidate = from; candidate != until; candidate += step) {
+			if (!occupiedById[candidate] && uuidsById[candidate] == null) {
+				return candidate;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The ID bound to the given UUID, or zero if unallocated.
+	 */
+	public synchronized int getNodeId(UUID uuid) {
+		if (uuid == null) {
+			throw new IllegalArgumentException("Invalid UUID.");
+		}
+		var id = idsByUuid.get(uuid);
+		return id != null ? id : 0;
+	}
+
+	/**
+	 * @return The UUID bound to the given ID, or NULL if unbound.
+	 */
+	public synchronized UUID getUuid(int id) {
+		checkId(id);
+		return uuidsById[id];
+	}
+
+	public synchronized boolean isAllocated(int id) {
+		checkId(id);
+		return occupiedById[id] || uuidsById[id] != null;
+	}
+
+}
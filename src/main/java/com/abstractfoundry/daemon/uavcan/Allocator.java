@@ -7,66 +7,26 @@ package com.abstractfoundry.daemon.uavcan;
 import com.abstractfoundry.daemon.common.Builder;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class Allocator {
 
-	// TODO: Update allocation table with observed nodes' self or previously assigned IDs (see CentralisedServer in old implementation).
-
 	private static final Logger logger = LoggerFactory.getLogger(Allocator.class);
 
 	private static final Duration QUERY_TIMEOUT = Duration.ofMillis(500);
 
-	private static class AllocationTable {
-
-		private final Map<Integer, UUID> map = new HashMap<>(); // Note: UUID may be NULL in order to simply claim ID.
-
-		public void allocate(int nodeId, UUID uuid) {
-			if (nodeId < 1 || nodeId > 127) {
-				throw new IllegalArgumentException("Invalid node ID.");
-			} else if (map.containsKey(nodeId)) {
-				throw new IllegalStateException("Node ID already allocated.");
-			} else if (map.containsValue(uuid)) {
-					throw new IllegalStateException("UUID already allocated.");
-			}
-			map.put(nodeId, uuid);
-		}
-
-		public int getNodeId(UUID uuid) {
-			if (uuid == null) {
-				throw new IllegalArgumentException("Invalid UUID.");
-			}
-			for (var entry : map.entrySet()) {
-				var allocatedUuid = entry.getValue();
-				if (allocatedUuid != null && allocatedUuid.equals(uuid)) {
-					return entry.getKey(); // Allocated.
-				}
-			}
-			return 0; // Unallocated.
-		}
-
-		public boolean isAllocated(int nodeId) {
-			if (nodeId < 1 || nodeId > 127) {
-				throw new IllegalArgumentException("Invalid node ID.");
-			}
-			return map.containsKey(nodeId);
-		}
-
-	}
-
 	private final Node node;
-	private final AllocationTable table = new AllocationTable();
+	private final AllocationTable table;
 	private final int priority = 20; // Note: Priority given to allocation broadcasts.
 	private final byte[] exchange = new byte[17]; // 1-byte header and 16-byte UUID.
 	private int cursor = 0;
 	private Instant timestamp = Instant.MIN;
 
-	public Allocator(Node node) {
+	public Allocator(Node node, AllocationTable table) {
 		this.node = node;
+		this.table = table;
 	}
 
 	// Note: Currently we only call this method from the inbox Disruptor thread, although it is synchronised for future safety.
@@ -133,21 +93,7 @@ public class Allocator {
 	}
 
 	private int allocateId(int requestedId, UUID uuid) {
-		var id = table.getNodeId(uuid);
-		if (id == 0 && requestedId == 0) {
-			for (int candidate = 125; candidate > 0; candidate--) {
-				if (!table.isAllocated(candidate)) {
-					id = candidate;
-					break;
-				}
-			}
-			if (id != 0) {
-				table.allocate(id, uuid);
-			}
-		} else if (id == 0 && requestedId != 0) {
-			throw new UnsupportedOperationException("Not supported yet."); // TODO: Allocate the first ID equal to or higher than the requested ID.
-		}
-		return id;
+		return table.allocate(uuid, requestedId);
 	}
 
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Descriptor of a batch of requests to a single destination, drawn from a pool
+ * belonging to the node, which is only valid for the duration of the call to
+ * {@link Node#sendRequests(BatchRequest)}.
+ */
+public class BatchRequest {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int sourceId;
+	private int destinationId;
+	private int priority;
+	private int count;
+	private int[] typeIds = new int[INITIAL_CAPACITY];
+	private int[] transferIds = new int[INITIAL_CAPACITY];
+	private ByteBuffer[] buffers;
+
+	void set(int sourceId, int destinationId, int priority, ByteBuffer[] buffers, int count) {
+		if (count > typeIds.length) { // Grow (only) on the rare occasion of an unusually large batch.
+			typeIds = new int[count];
+			transferIds = new int[count];
+		}
+		this.sourceId = sourceId;
+		this.destinationId = destinationId;
+		this.priority = priority;
+		this.buffers = buffers;
+		this.count = count;
+	}
+
+	void setTransfer(int index, int typeId, int transferId) {
+		typeIds[index] = typeId;
+		transferIds[index] = transferId;
+	}
+
+	void clear() {
+		buffers = null; // Do not retain the caller's buffers.
+		count = 0;
+	}
+
+	public int getSourceId() {
+		return sourceId;
+	}
+
+	public int getDestinationId() {
+		return destinationId;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getTypeId(int index) {
+		return typeIds[index];
+	}
+
+	public int getTransferId(int index) {
+		return transferIds[index];
+	}
+
+	/**
+	 * @return The buffer holding the payload of the request, between its position and limit.
+	 */
+	public ByteBuffer getBuffer(int index) {
+		return buffers[index];
+	}
+
+}
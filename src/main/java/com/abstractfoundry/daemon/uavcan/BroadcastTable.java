@@ -5,27 +5,22 @@
 package com.abstractfoundry.daemon.uavcan;
 
 import com.abstractfoundry.daemon.common.ThreadSafe;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 class BroadcastTable {
 
-	private final byte[] state;
+	private final AtomicIntegerArray state; // Free-running counters, the transfer ID is the low 5 bits (the counters wrap consistently since 2^32 is a multiple of 32).
 
 	BroadcastTable(int size) {
-		state = new byte[size];
-		for (var key = 0; key < state.length; key++) {
-			state[key] = 0;
-		}
+		state = new AtomicIntegerArray(size);
 	}
 
 	@ThreadSafe
-	synchronized int next(int key) {
-		if (key < 0 || key >= state.length) {
+	int next(int key) {
+		if (key < 0 || key >= state.length()) {
 			throw new IllegalArgumentException("Invalid key.");
 		}
-		var id = state[key];
-		var update = (id + 1) & 0x1F;
-		state[key] = (byte) update;
-		return id;
+		return state.getAndIncrement(key) & 0x1F;
 	}
 
 }
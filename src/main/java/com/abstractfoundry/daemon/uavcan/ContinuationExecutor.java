@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import com.abstractfoundry.daemon.common.FluentThreadFactory;
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.WorkHandler;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded executor for the tasks returned by continuations, which runs them on
+ * a fixed set of worker threads fed by a Disruptor.
+ * <p>
+ * Continuation tasks are expected to be short (e.g. writing a reply to a
+ * client), so a handful of workers suffice. Back-pressure is applied at the
+ * source: the node refuses new requests (with a {@link BackoffException})
+ * whilst the backlog is above the high-water mark, so the ring buffer should
+ * rarely fill. If it does, the submitting thread (i.e. the inbox or expiry
+ * thread) blocks until a worker frees a slot, rather than running the task
+ * itself or queueing without bound.
+ */
+class ContinuationExecutor implements Executor {
+
+	private static final Logger logger = LoggerFactory.getLogger(ContinuationExecutor.class);
+
+	static final int CONTINUATION_SIZE = 1024;
+	static final int HIGH_WATER_MARK = CONTINUATION_SIZE * 3 / 4; // Backlog above which new requests are refused.
+
+	private static class Event {
+		Runnable task;
+		long timestamp;
+	}
+
+	private final Disruptor<Event> disruptor;
+	private final AtomicLong executedCount = new AtomicLong(0);
+	private final AtomicLong blockedCount = new AtomicLong(0);
+	private final AtomicLong refusedCount = new AtomicLong(0);
+	private final AtomicLong latencyTotal = new AtomicLong(0); // Nanoseconds from submission to completion, since the previous drain.
+	private final AtomicLong latencyCount = new AtomicLong(0);
+	private final AtomicLong latencyMaximum = new AtomicLong(0);
+
+	@SuppressWarnings("unchecked")
+	ContinuationExecutor(int workerCount) {
+		this.disruptor = new Disruptor<>(Event::new, CONTINUATION_SIZE,
+			new FluentThreadFactory()
+				.setName("Foundry Continuation")
+				.appendInstance()
+				.setDaemon(true),
+			ProducerType.MULTI,
+			new BlockingWaitStrategy()
+		);
+		var workers = new WorkHandler[workerCount];
+		for (var index = 0; index < workerCount; index++) {
+			workers[index] = (WorkHandler<Event>) this::handle;
+		}
+		disruptor.handleEventsWithWorkerPool(workers);
+	}
+
+	void start() {
+		disruptor.start();
+	}
+
+	/**
+	 * Thread-safe method used by the inbox and expiry threads to run a continuation task.
+	 */
+	@Override
+	@ThreadSafe
+	public void execute(Runnable task) {
+		var timestamp = System.nanoTime();
+		var ringBuffer = disruptor.getRingBuffer();
+		long sequence;
+		try {
+			sequence = ringBuffer.tryNext();
+		} catch (InsufficientCapacityException exception) {
+			blockedCount.incrementAndGet(); // The workers are saturated, so wait for a slot.
+			sequence = ringBuffer.next();
+		}
+		try {
+			var event = ringBuffer.get(sequence);
+			event.task = task;
+			event.timestamp = timestamp;
+		} finally {
+			ringBuffer.publish(sequence);
+		}
+	}
+
+	int backlog() {
+		return (int) (
+			disruptor.getRingBuffer().getBufferSize() - disruptor.getRingBuffer().remainingCapacity()
+		);
+	}
+
+	long executedCount() {
+		return executedCount.get();
+	}
+
+	/**
+	 * Thread-safe method used by client threads to apply back-pressure before making a request.
+	 *
+	 * @return False (and the request should be refused) if the backlog is above the high-water mark.
+	 */
+	@ThreadSafe
+	boolean admit() {
+		if (backlog() < HIGH_WATER_MARK) {
+			return true;
+		}
+		refusedCount.incrementAndGet();
+		return false;
+	}
+
+	long blockedCount() {
+		return blockedCount.get();
+	}
+
+	long refusedCount() {
+		return refusedCount.get();
+	}
+
+	/**
+	 * @return The mean latency (from submission to completion) in microseconds since the previous call, or -1 if no tasks have run.
+	 */
+	long drainMeanLatencyMicroseconds() {
+		var count = latencyCount.getAndSet(0);
+		var total = latencyTotal.getAndSet(0);
+		return count > 0 ? total / count / 1000L : -1L; // Note: The pair is not drained atomically, so the mean is approximate.
+	}
+
+	/**
+	 * @return The maximum latency (from submission to completion) in microseconds since the previous call.
+	 */
+	long drainMaximumLatencyMicroseconds() {
+		return latencyMaximum.getAndSet(0) / 1000L;
+	}
+
+	private void handle(Event event) {
+		var task = event.task;
+		event.task = null; // Do not retain the task, it may be pooled.
+		run(task, event.timestamp);
+	}
+
+	private void run(Runnable task, long timestamp) {
+		try {
+			task.run();
+		} catch (RuntimeException exception) {
+			logger.error("Unhandled exception in continuation task.", exception);
+		}
+		var latency = System.nanoTime() - timestamp;
+		executedCount.incrementAndGet();
+		latencyTotal.addAndGet(latency);
+		latencyCount.incrementAndGet();
+		latencyMaximum.accumulateAndGet(latency, Math::max);
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import com.abstractfoundry.daemon.common.FluentThreadFactory;
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runtime-configurable impairment of the transfers passing between a node and
+ * its transport, used to exercise timeouts, backoff and retries.
+ * <p>
+ * Each transfer is subject to the impairment configured for its counterparty
+ * node, failing that for its kind and type ID, and failing that the default.
+ * Node impairments are keyed by the IDs 1 to 127, so broadcasts sent by the
+ * daemon (which have no counterparty) and anonymous broadcasts are only ever
+ * subject to type and default impairments.
+ * Transfers may be dropped, duplicated, delayed (with jitter), or reordered
+ * (i.e. held back long enough to be overtaken by later transfers). Whilst no
+ * impairments are configured, transfers pass straight through without copying.
+ */
+public class FaultInjector {
+
+	private static final Logger logger = LoggerFactory.getLogger(FaultInjector.class);
+
+	private static final int REORDER_DELAY = 20; // Milliseconds by which a reordered transfer is held back.
+
+	public static enum Kind { BROADCAST, REQUEST, RESPONSE }
+
+	public static class Impairment {
+
+		public static final Impairment NONE = new Impairment(0.0, 0.0, 0.0, 0, 0);
+
+		public final double drop; // Probabilities.
+		public final double duplicate;
+		public final double reorder;
+		public final int delay; // Milliseconds.
+		public final int jitter; // Milliseconds (uniformly distributed).
+
+		public Impairment(double drop, double duplicate, double reorder, int delay, int jitter) {
+			if (drop < 0.0 || drop > 1.0 || duplicate < 0.0 || duplicate > 1.0 || reorder < 0.0 || reorder > 1.0 || delay < 0 || jitter < 0) {
+				throw new IllegalArgumentException("Invalid impairment.");
+			}
+			this.drop = drop;
+			this.duplicate = duplicate;
+			this.reorder = reorder;
+			this.delay = delay;
+			this.jitter = jitter;
+		}
+
+		boolean isNone() {
+			return drop == 0.0 && duplicate == 0.0 && reorder == 0.0 && delay == 0 && jitter == 0;
+		}
+
+		@Override
+		public String toString() {
+			return "drop = " + drop + ", duplicate = " + duplicate + ", reorder = " + reorder + ", delay = " + delay + " ms, jitter = " + jitter + " ms";
+		}
+
+	}
+
+	public static interface Delivery {
+		void deliver(byte[] buffer, int offset, int length);
+	}
+
+	private final ConcurrentHashMap<Integer, Impairment> impairmentsByNode = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, Impairment> impairmentsByType = new ConcurrentHashMap<>(); // Keyed by kind and type ID.
+	private volatile Impairment defaultImpairment = Impairment.NONE;
+	private volatile boolean active = false;
+	private volatile ScheduledExecutorService scheduler = null; // Created on first use.
+
+	@ThreadSafe
+	public void setDefaultImpairment(Impairment impairment) {
+		defaultImpairment = impairment;
+		update();
+	}
+
+	@ThreadSafe
+	public void setNodeImpairment(int nodeId, Impairment impairment) {
+		if (nodeId < 1 || nodeId > 127) {
+			throw new IllegalArgumentException("Invalid node ID."); // Note: Zero would otherwise match every outgoing and anonymous broadcast.
+		}
+		impairmentsByNode.put(nodeId, impairment);
+		update();
+	}
+
+	@ThreadSafe
+	public void setTypeImpairment(Kind kind, int typeId, Impairment impairment) {
+		impairmentsByType.put(buildTypeKey(kind, typeId), impairment);
+		update();
+	}
+
+	@ThreadSafe
+	public void clear() {
+		impairmentsByNode.clear();
+		impairmentsByType.clear();
+		defaultImpairment = Impairment.NONE;
+		update();
+	}
+
+	@ThreadSafe
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Thread-safe method used to pass a transfer through the injector, which
+	 * invokes the delivery zero or more times, either immediately or (with a
+	 * copy of the buffer) later from the injector's scheduler thread.
+	 */
+	@ThreadSafe
+	public void inject(Kind kind, int typeId, int counterpartyId, byte[] buffer, int offset, int length, Delivery delivery) {
+		var impairment = active ? lookup(kind, typeId, counterpartyId) : Impairment.NONE;
+		if (impairment.isNone()) {
+			delivery.deliver(buffer, offset, length);
+			return;
+		}
+		var random = ThreadLocalRandom.current();
+		if (random.nextDouble() < impairment.drop) {
+			return;
+		}
+		var copies = random.nextDouble() < impairment.duplicate ? 2 : 1;
+		for (var copy = 0; copy < copies; copy++) {
+			var delay = impairment.delay + (impairment.jitter > 0 ? random.nextInt(impairment.jitter + 1) : 0);
+			if (random.nextDouble() < impairment.reorder) {
+				delay += REORDER_DELAY;
+			}
+			if (delay == 0) {
+				delivery.deliver(buffer, offset, length);
+			} else {
+				var bytes = Arrays.copyOfRange(buffer, offset, offset + length); // The provided buffer will be reused, so we must copy it.
+				scheduler().schedule(() -> {
+					try {
+						delivery.deliver(bytes, 0, bytes.length);
+					} catch (RuntimeException exception) {
+						logger.error("Error delivering delayed transfer.", exception);
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private Impairment lookup(Kind kind, int typeId, int counterpartyId) {
+		var impairment = impairmentsByNode.get(counterpartyId);
+		if (impairment == null) {
+			impairment = impairmentsByType.get(buildTypeKey(kind, typeId));
+		}
+		return impairment != null ? impairment : defaultImpairment;
+	}
+
+	private synchronized void update() {
+		var previous = active;
+		active = !defaultImpairment.isNone()
+			|| impairmentsByNode.values().stream().anyMatch(impairment -> !impairment.isNone())
+			|| impairmentsByType.values().stream().anyMatch(impairment -> !impairment.isNone());
+		if (active != previous) {
+			logger.warn("Fault injection {}.", active ? "enabled" : "disabled");
+		}
+	}
+
+	private synchronized ScheduledExecutorService scheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(
+				new FluentThreadFactory()
+					.setName("Foundry Fault Injector")
+					.setDaemon(true)
+			);
+		}
+		return scheduler;
+	}
+
+	private static int buildTypeKey(Kind kind, int typeId) {
+		return kind.ordinal() << 16 | (typeId & 0xFFFF);
+	}
+
+}
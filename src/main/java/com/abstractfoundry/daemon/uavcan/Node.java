@@ -4,39 +4,63 @@
 
 package com.abstractfoundry.daemon.uavcan;
 
+import com.abstractfoundry.daemon.common.SimpleObjectPool;
 import com.abstractfoundry.daemon.common.ThreadSafe;
 import java.nio.ByteBuffer;
-import java.util.Random;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public abstract class Node {
 
-	/* Warning: The receive methods of this class must only be called from a
-	 * dedicated thread (generally the Disruptor thread for handling incoming
-	 * messages). Therefore all internal state transitions of the node, which
-	 * are driven off received messages, are essentially single-threaded.
-	 * However, care must be taken to ensure that client-thread interactions
-	 * are handled in a thread-safe manner. */
+	/* Warning: The receive methods of this class must only be called from
+	 * dedicated threads (generally the Disruptor threads for handling incoming
+	 * messages), one for broadcasts and one for services. Therefore all
+	 * internal state transitions of the node, which are driven off received
+	 * broadcasts, are essentially single-threaded, and likewise for those
+	 * driven off received services. However, care must be taken to ensure
+	 * that client-thread interactions, and interactions between the broadcast
+	 * and service threads, are handled in a thread-safe manner. */
 
 	private static final Logger logger = LoggerFactory.getLogger(Node.class);
 
+	private static final int DEFAULT_TIMEOUT = 5000; // Milliseconds.
+	private static final int CONTINUATION_WORKERS = 4;
+
 	private final BroadcastTable broadcastTable = new BroadcastTable(65536); // One slot for each 16-bit type, holding the next transfer ID.
-	private final ServiceTable serviceTable = new ServiceTable(32768, 5000); // One slot for each 8-bit type and 7-bit destination pair, holding 32-bits which represent the transfer IDs in flight, expire after 5 seconds.
+	private final ServiceTable serviceTable = new ServiceTable(32768); // One slot for each 8-bit type and 7-bit destination pair, holding 32-bits which represent the transfer IDs in flight.
+	private final RequestExpiry requestExpiry;
+	private final AtomicInteger aliasCursor = new AtomicInteger(0); // Round-robin starting point amongst the type IDs of a service with several.
+	private final SimpleObjectPool<PooledCountdownContinuation> continuationPool = new SimpleObjectPool<>(512,
+		slot -> new PooledCountdownContinuation(slot)
+	);
+	private final SimpleObjectPool<BatchRequest> batchPool = new SimpleObjectPool<>(64, // Batches are only held whilst being sent, so few are needed.
+		slot -> new BatchRequest()
+	);
 	private final int selfId;
-	private ExecutorService globalPool;
+	private final ContinuationExecutor continuationExecutor = new ContinuationExecutor(CONTINUATION_WORKERS);
 	private BroadcastHandler broadcastHandler;
+	private final AllocationTable allocationTable;
 	private final Allocator allocator;
+	private final FaultInjector faultInjector = new FaultInjector();
+
+	protected Node(int selfId, BroadcastHandler broadcastHandler) {
+		this(selfId, broadcastHandler, new AllocationTable());
+	}
 
-	protected Node(int selfId, ExecutorService globalPool, BroadcastHandler broadcastHandler) {
+	protected Node(int selfId, BroadcastHandler broadcastHandler, AllocationTable allocationTable) {
 		if (selfId < 1 || selfId > 127) {
 			throw new IllegalArgumentException("Invalid node ID."); // The daemon must not be anonymous, since it is an allocator.
 		}
 		this.selfId = selfId;
-		this.globalPool = globalPool;
 		this.broadcastHandler = broadcastHandler;
-		this.allocator = new Allocator(this);
+		this.allocationTable = allocationTable;
+		this.allocationTable.reserve(selfId);
+		this.allocator = new Allocator(this, allocationTable);
+		this.requestExpiry = new RequestExpiry(serviceTable, continuationExecutor);
+		continuationExecutor.start();
+		requestExpiry.start();
 	}
 
 	/**
@@ -54,56 +78,201 @@ public abstract class Node {
 	/**
 	 * Thread-safe method used by client threads to send a request.
 	 * <p>
-	 * Caution: The callback will be executed in a different thread to the requester (for example a thread from the global pool).
+	 * Caution: The callback will be executed on one of the few workers of the node's continuation executor, so a callback which
+	 * blocks stalls the delivery of responses (and timeouts) for every node. Callers which must block should hand off to their own executor.
 	 * Note: This method generates some small amount of garbage, provide your own (potentially pooled) continuation to avoid this.
 	 */
 	@ThreadSafe
 	public void request(int destinationId, int typeId, int priority, byte[] buffer, int offset, int length, CallbackContinuation.Callback callback) throws BackoffException {
-		request(destinationId, typeId, priority, buffer, offset, length, new CallbackContinuation(callback));
+		request(destinationId, typeId, priority, buffer, offset, length, new CallbackContinuation(callback), DEFAULT_TIMEOUT);
 	}
 
 	/**
-	 * Thread-safe method used by client threads to send a request.
+	 * Thread-safe method used by client threads to send a request, which times out after 5 seconds.
 	 */
 	@ThreadSafe
 	public void request(int destinationId, int typeId, int priority, byte[] buffer, int offset, int length, AbstractContinuation continuation) throws BackoffException {
-		if (buffer == null || offset + length > buffer.length || continuation == null) {
+		request(destinationId, typeId, priority, buffer, offset, length, continuation, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Thread-safe method used by client threads to send a request.
+	 *
+	 * @param timeout Milliseconds after which the request times out (if no response has been received).
+	 */
+	@ThreadSafe
+	public void request(int destinationId, int typeId, int priority, byte[] buffer, int offset, int length, AbstractContinuation continuation, int timeout) throws BackoffException {
+		if (buffer == null || offset + length > buffer.length || continuation == null || timeout < 0) {
 			throw new IllegalArgumentException("Invalid arguments.");
 		}
-		var timestamp = System.nanoTime();
+		if (!continuationExecutor.admit()) {
+			throw new BackoffException("Too many continuations awaiting execution.");
+		}
+		var deadline = System.nanoTime() + timeout * 1_000_000L;
 		try {
-			var transferId = claimServiceTransferId(destinationId, typeId, timestamp, continuation);
-			sendRequest(selfId, destinationId, typeId, transferId, priority, buffer, offset, length);
+			var claim = claimServiceTransfer(destinationId, typeId, firstAlias(typeId), deadline, continuation);
+			sendRequest(selfId, destinationId, claim >>> 8, claim & 0x1F, priority, buffer, offset, length);
 		} catch (ServiceTable.KeyExhaustedException exception) {
 			throw new BackoffException("Too many concurrent requests in flight.");
 		}
 	}
 
 	/**
-	 * Thread-safe method used by client threads to send several requests.
+	 * Thread-safe method used by client threads to send several requests, which time out after 5 seconds.
 	 */
 	@ThreadSafe
 	public void request(int destinationId, int typeId, int priority, ByteBuffer[] buffers, int count, AbstractContinuation continuation) throws BackoffException {
-		if (buffers == null || count > buffers.length || continuation == null) {
+		request(destinationId, typeId, priority, buffers, count, continuation, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Thread-safe method used by client threads to send several requests.
+	 *
+	 * @param timeout Milliseconds after which the requests time out (if no response has been received).
+	 */
+	@ThreadSafe
+	public void request(int destinationId, int typeId, int priority, ByteBuffer[] buffers, int count, AbstractContinuation continuation, int timeout) throws BackoffException {
+		if (buffers == null || count > buffers.length || continuation == null || timeout < 0) {
 			throw new IllegalArgumentException("Invalid arguments.");
 		}
-		var timestamp = System.nanoTime(); // In this scenario, where the same continuation object is associated with multiple TIDs, it is possible that the continuation expires on one TID, and is then returned to the pool before the other associated TID expires, unless we mark all associated TIDs with the same timestamp, such that they all expire together under the same atomic operation on the service table.
-		var transferIds = new int[count]; // This generates some small amount of garbage, but it should be easily offset by the benefit of batching.
-		for (var index = 0; index < count; index++) {
-			try {
-				transferIds[index] = claimServiceTransferId(destinationId, typeId, timestamp, continuation);
-			} catch (ServiceTable.KeyExhaustedException exception) {
-				for (var unwind = 0; unwind < index - 1; unwind++) {
-					try {
-						releaseServiceTransferId(destinationId, typeId, transferIds[unwind]);
-					} catch (ServiceTable.KeyUnclaimedException error) {
-						logger.error("Failed to release transfer ID whilst unwinding request.", error);
+		if (!continuationExecutor.admit()) {
+			throw new BackoffException("Too many continuations awaiting execution.");
+		}
+		var deadline = System.nanoTime() + timeout * 1_000_000L; // In this scenario, where the same continuation object is associated with multiple TIDs, it is possible that the continuation expires on one TID, and is then returned to the pool before the other associated TID expires, unless we mark all associated TIDs with the same deadline, such that they all expire together in the same tick of the expiry wheel.
+		SimpleObjectPool<BatchRequest>.Slot slot;
+		try {
+			slot = batchPool.claim();
+		} catch (SimpleObjectPool.PoolExhaustedException exception) {
+			throw new BackoffException("Too many concurrent batches in flight.");
+		}
+		var batch = slot.instance;
+		try {
+			batch.set(selfId, destinationId, priority, buffers, count);
+			var alias = firstAlias(typeId);
+			for (var index = 0; index < count; index++) {
+				try {
+					var claim = claimServiceTransfer(destinationId, typeId, alias, deadline, continuation);
+					batch.setTransfer(index, claim >>> 8, claim & 0x1F);
+					alias = (claim >>> 8) - typeId; // Keep filling the same type ID, until it is exhausted.
+				} catch (ServiceTable.KeyExhaustedException exception) {
+					for (var unwind = 0; unwind < index; unwind++) {
+						try {
+							releaseServiceTransferId(destinationId, batch.getTypeId(unwind), batch.getTransferId(unwind));
+						} catch (ServiceTable.KeyUnclaimedException error) {
+							logger.error("Failed to release transfer ID whilst unwinding request.", error);
+						}
 					}
+					throw new BackoffException("Too many concurrent requests in flight.");
 				}
-				throw new BackoffException("Too many concurrent requests in flight.");
 			}
+			sendRequests(batch);
+		} finally {
+			batch.clear();
+			slot.release();
+		}
+	}
+
+	/**
+	 * Thread-safe method used by client threads to send a request, running one of the given tasks once it has been responded to, or has timed out.
+	 * <p>
+	 * Caution: The tasks will be executed on one of the few workers of the node's continuation executor, so a task which
+	 * blocks stalls the delivery of responses (and timeouts) for every node. Callers which must block should hand off to their own executor.
+	 * Note: The continuation is drawn from a pool belonging to the node, so this method does not allocate.
+	 */
+	@ThreadSafe
+	public void request(int destinationId, int typeId, int priority, byte[] buffer, int offset, int length, Runnable continuationTask, Runnable timeoutTask) throws BackoffException {
+		var slot = claimContinuation(1, continuationTask, timeoutTask);
+		try {
+			request(destinationId, typeId, priority, buffer, offset, length, slot.instance, DEFAULT_TIMEOUT);
+		} catch (BackoffException | RuntimeException exception) {
+			slot.instance.reset();
+			slot.release();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Thread-safe method used by client threads to send several requests, running one of the given tasks once all have been responded to, or any has timed out.
+	 * <p>
+	 * Caution: The tasks will be executed on one of the few workers of the node's continuation executor, so a task which
+	 * blocks stalls the delivery of responses (and timeouts) for every node. Callers which must block should hand off to their own executor.
+	 * Note: The continuation is drawn from a pool belonging to the node.
+	 */
+	@ThreadSafe
+	public void request(int destinationId, int typeId, int priority, ByteBuffer[] buffers, int count, Runnable continuationTask, Runnable timeoutTask) throws BackoffException {
+		var slot = claimContinuation(count, continuationTask, timeoutTask);
+		try {
+			request(destinationId, typeId, priority, buffers, count, slot.instance, DEFAULT_TIMEOUT);
+		} catch (BackoffException | RuntimeException exception) {
+			slot.instance.reset();
+			slot.release();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Thread-safe method used by client threads to send a request, returning a future which completes with the payload of the response.
+	 * <p>
+	 * The future completes exceptionally with a {@link BackoffException} if too many requests are in flight, or with a
+	 * {@link java.util.concurrent.TimeoutException} if no response is received in time. Cancelling the future frees the
+	 * transfer ID immediately, and any subsequent response is ignored.
+	 * Caution: Dependent stages which are not explicitly asynchronous run on the thread which completes the future, one of
+	 * the few workers of the node's continuation executor, so a stage which blocks stalls the delivery of responses (and
+	 * timeouts) for every node. Stages which must block should use the *Async variants, with their own executor.
+	 *
+	 * @param timeout Milliseconds after which the request times out (if no response has been received).
+	 */
+	@ThreadSafe
+	public CompletableFuture<byte[]> requestAsync(int destinationId, int typeId, int priority, byte[] buffer, int offset, int length, int timeout) {
+		var pending = new PendingRequest(this, destinationId, typeId, 1);
+		try {
+			request(destinationId, typeId, priority, buffer, offset, length, pending, timeout);
+		} catch (BackoffException exception) {
+			pending.completeExceptionally(exception);
+		}
+		return pending;
+	}
+
+	/**
+	 * Thread-safe method used by client threads to send several requests, returning a future which completes (with the
+	 * payload of the final response) once all have been responded to, or exceptionally as soon as any times out.
+	 *
+	 * @param timeout Milliseconds after which the requests time out (if no response has been received).
+	 * @see #requestAsync(int, int, int, byte[], int, int, int)
+	 */
+	@ThreadSafe
+	public CompletableFuture<byte[]> requestAsync(int destinationId, int typeId, int priority, ByteBuffer[] buffers, int count, int timeout) {
+		var pending = new PendingRequest(this, destinationId, typeId, count);
+		try {
+			request(destinationId, typeId, priority, buffers, count, pending, timeout);
+		} catch (BackoffException exception) {
+			pending.completeExceptionally(exception);
+		}
+		return pending;
+	}
+
+	/**
+	 * Thread-safe method used to free any transfer IDs still claimed by the given continuation (e.g. when a request is cancelled).
+	 */
+	@ThreadSafe
+	void abandon(int destinationId, int typeId, AbstractContinuation continuation) {
+		var aliases = aliasCount(typeId);
+		for (var alias = 0; alias < aliases; alias++) {
+			var key = buildServiceTableKey(destinationId, typeId + alias);
+			serviceTable.abandon(key, continuation);
+		}
+	}
+
+	@ThreadSafe
+	private SimpleObjectPool<PooledCountdownContinuation>.Slot claimContinuation(int count, Runnable continuationTask, Runnable timeoutTask) throws BackoffException {
+		SimpleObjectPool<PooledCountdownContinuation>.Slot slot;
+		try {
+			slot = continuationPool.claim();
+		} catch (SimpleObjectPool.PoolExhaustedException exception) {
+			throw new BackoffException("Too many concurrent continuations in flight.");
 		}
-		sendRequests(selfId, destinationId, typeId, transferIds, priority, buffers, count);
+		slot.instance.set(count, continuationTask, timeoutTask);
+		return slot;
 	}
 
 	protected void handleBroadcast(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
@@ -122,34 +291,64 @@ public abstract class Node {
 	}
 
 	protected void handleResponse(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
-		if (SIMULATE_LOSS && lossSimulationRandom.nextDouble() < SIMULATED_LOSS_PROBABILITY) {
-			return;
-		}
 		try {
 			var continuation = releaseServiceTransferId(sourceId, typeId, transferId);
 			Runnable task = continuation.next(buffer, offset, length); // Get the task to be continued.
 			if (task != null) {
-				globalPool.submit(task); // Issue the task to the global pool, to avoid blocking the inbox disruptor thread.
+				continuationExecutor.execute(task); // Issue the task to the continuation executor, to avoid blocking the inbox disruptor thread.
 			}
 		} catch (ServiceTable.KeyUnclaimedException exception) {
 			logger.warn("Unexpected response from ID: {}.", sourceId);
 		}
 	}
 
-	private static final boolean SIMULATE_LOSS = false;
-	private static final double SIMULATED_LOSS_PROBABILITY = 0.25 / 100.0;
-	private final Random lossSimulationRandom = new Random();
-
 	@ThreadSafe
 	private int nextBroadcastTransferId(int typeId) {
 		var key = buildBroadcastTableKey(typeId);
 		return broadcastTable.next(key);
 	}
 
+	/**
+	 * Some services span a range of consecutive type IDs (which the counterparty
+	 * treats identically), each of which has its own 32 transfer IDs, such
+	 * that more requests may be in flight at once.
+	 */
+	@ThreadSafe
+	private static int aliasCount(int typeId) {
+		return typeId == TypeId.SET_FIELDS ? TypeId.SET_FIELDS_COUNT : 1;
+	}
+
+	@ThreadSafe
+	private int firstAlias(int typeId) {
+		var aliases = aliasCount(typeId);
+		return aliases > 1 ? Math.floorMod(aliasCursor.getAndIncrement(), aliases) : 0; // Spread the requests of different clients across the range.
+	}
+
+	/**
+	 * Claim a transfer ID under the first type ID in the service's range (starting at the given alias) which has one free.
+	 *
+	 * @return The type ID and transfer ID packed as (typeId << 8 | transferId).
+	 */
+	@ThreadSafe
+	private int claimServiceTransfer(int counterpartyId, int typeId, int alias, long deadline, AbstractContinuation continuation) throws ServiceTable.KeyExhaustedException {
+		var aliases = aliasCount(typeId);
+		for (var attempt = 0; attempt < aliases; attempt++) {
+			var aliasTypeId = typeId + (alias + attempt) % aliases;
+			try {
+				return aliasTypeId << 8 | claimServiceTransferId(counterpartyId, aliasTypeId, deadline, continuation);
+			} catch (ServiceTable.KeyExhaustedException exception) {
+				// Try the next type ID in the range.
+			}
+		}
+		throw new ServiceTable.KeyExhaustedException();
+	}
+
 	@ThreadSafe
-	private int claimServiceTransferId(int counterpartyId, int typeId, long timestamp, AbstractContinuation continuation) throws ServiceTable.KeyExhaustedException {
+	private int claimServiceTransferId(int counterpartyId, int typeId, long deadline, AbstractContinuation continuation) throws ServiceTable.KeyExhaustedException {
 		var key = buildServiceTableKey(counterpartyId, typeId);
-		return serviceTable.claim(key, timestamp, continuation);
+		var id = serviceTable.claim(key, deadline, continuation);
+		requestExpiry.schedule(key, id, deadline);
+		return id;
 	}
 
 	@ThreadSafe
@@ -198,20 +397,92 @@ public abstract class Node {
 	@ThreadSafe
 	protected abstract void sendRequest(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length);
 
+	/**
+	 * Send every request of the batch, reading each buffer between its position and limit, and leaving its position at its limit.
+	 * <p>
+	 * Caution: The batch is returned to the pool once this method returns, so must not be retained.
+	 */
 	@ThreadSafe
-	protected abstract void sendRequests(int sourceId, int destinationId, int typeId, int[] transferIds, int priority, ByteBuffer[] buffers, int count);
+	protected abstract void sendRequests(BatchRequest batch);
 
 	@ThreadSafe
 	protected abstract void sendResponse(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length);
 
-	public int abortExpiredRequests() {
-		return serviceTable.abortExpired(globalPool);
+	/**
+	 * @return The number of requests which have timed out since the previous call.
+	 */
+	public int expiredRequests() {
+		return requestExpiry.drainExpiredCount();
 	}
 
 	public int outstandingRequests() {
 		return serviceTable.occupancyCount();
 	}
 
+	public int continuationBacklog() {
+		return continuationExecutor.backlog();
+	}
+
+	public long continuationCount() {
+		return continuationExecutor.executedCount();
+	}
+
+	/**
+	 * @return The number of continuation tasks whose submitting thread had to wait for a slot, because the workers were saturated.
+	 */
+	public long blockedContinuationCount() {
+		return continuationExecutor.blockedCount();
+	}
+
+	/**
+	 * @return The number of requests refused because the continuation backlog was above its high-water mark.
+	 */
+	public long refusedRequestCount() {
+		return continuationExecutor.refusedCount();
+	}
+
+	/**
+	 * @return The number of continuations and batches claimed from the node's pools.
+	 */
+	public long pooledClaimCount() {
+		return continuationPool.claimCount() + batchPool.claimCount();
+	}
+
+	/**
+	 * @return The number of continuations and batches constructed by the node's pools, i.e. the claims which did not reuse an instance.
+	 */
+	public int pooledConstructedCount() {
+		return continuationPool.constructedCount() + batchPool.constructedCount();
+	}
+
+	/**
+	 * @return The mean continuation latency (from submission to completion) in microseconds since the previous call, or -1 if none have run.
+	 */
+	public long meanContinuationLatency() {
+		return continuationExecutor.drainMeanLatencyMicroseconds();
+	}
+
+	/**
+	 * @return The maximum continuation latency (from submission to completion) in microseconds since the previous call.
+	 */
+	public long maximumContinuationLatency() {
+		return continuationExecutor.drainMaximumLatencyMicroseconds();
+	}
+
+	/**
+	 * @return The table of node IDs given out by (or observed by) this node's allocator.
+	 */
+	public AllocationTable getAllocationTable() {
+		return allocationTable;
+	}
+
+	/**
+	 * @return The injector through which subclasses pass transfers to and from their transport (inactive by default).
+	 */
+	public FaultInjector getFaultInjector() {
+		return faultInjector;
+	}
+
 	public abstract void start();
 
 }
@@ -14,13 +14,17 @@ public class NodeInfo {
 	private final Duration uptime;
 	private final int health;
 	private final int mode;
+	private final String firmware;
+	private final boolean firmwareIdentified;
 	private final UUID uuid;
 	private final String name;
 
-	private NodeInfo(Duration uptime, int health, int mode, UUID uuid, String name) {
+	private NodeInfo(Duration uptime, int health, int mode, String firmware, boolean firmwareIdentified, UUID uuid, String name) {
 		this.uptime = uptime;
 		this.health = health;
 		this.mode = mode;
+		this.firmware = firmware;
+		this.firmwareIdentified = firmwareIdentified;
 		this.uuid = uuid;
 		this.name = name;
 	}
@@ -37,6 +41,20 @@ public class NodeInfo {
 		return mode;
 	}
 
+	/**
+	 * @return The software version, VCS commit and image CRC (where given), which together identify the firmware the node is running.
+	 */
+	public String getFirmware() {
+		return firmware;
+	}
+
+	/**
+	 * @return True if the firmware carries a VCS commit or image CRC, without which the version alone may not identify it (e.g. development builds).
+	 */
+	public boolean isFirmwareIdentified() {
+		return firmwareIdentified;
+	}
+
 	public UUID getUuid() {
 		return uuid;
 	}
@@ -45,6 +63,14 @@ public class NodeInfo {
 		return name;
 	}
 
+	private static long littleEndian(byte[] buffer, int offset, int count) {
+		var result = 0L;
+		for (var index = 0; index < count; index++) {
+			result |= (buffer[offset + index] & 0xFFL) << (index * 8);
+		}
+		return result;
+	}
+
 	public static NodeInfo deserialise(byte[] buffer, int offset, int length) { // Note: We ignore most of the information provided (see https://dronecan.github.io/Specification/7._List_of_standard_data_types/).
 		var seconds = 0L;
 		for (var index = 0; index < 4; index++) {
@@ -53,10 +79,19 @@ public class NodeInfo {
 		Duration uptime = Duration.ofSeconds(seconds);
 		var health = (buffer[offset + 4] >> 6) & 0x03;
 		var mode = (buffer[offset + 4] >> 3) & 0x07;
+		var firmware = new StringBuilder()
+			.append(buffer[offset + 7] & 0xFF).append('.').append(buffer[offset + 8] & 0xFF); // Major and minor version.
+		var flags = buffer[offset + 9];
+		if ((flags & 0x01) != 0) {
+			firmware.append('-').append(String.format("%08x", littleEndian(buffer, offset + 10, 4))); // VCS commit.
+		}
+		if ((flags & 0x02) != 0) {
+			firmware.append('-').append(String.format("%016x", littleEndian(buffer, offset + 14, 8))); // Image CRC.
+		}
 		var uuid = Builder.uuid(buffer, offset + 24, 16);
 		var jump = buffer[offset + 40]; // Length of any certificate.
 		var name = new String(buffer, offset + 41 + jump, Math.min(80, length - 41 - jump), StandardCharsets.US_ASCII);
-		return new NodeInfo(uptime, health, mode, uuid, name);
+		return new NodeInfo(uptime, health, mode, firmware.toString(), (flags & 0x03) != 0, uuid, name);
 	}
 
 }
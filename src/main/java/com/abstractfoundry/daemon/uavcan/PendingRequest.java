@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Continuation which completes a future, once every transfer of the request
+ * has been responded to, with the payload of the final response.
+ * <p>
+ * The future completes exceptionally with a {@link TimeoutException} if any
+ * transfer times out. Cancelling the future abandons any transfers still in
+ * flight, freeing their transfer IDs immediately.
+ */
+class PendingRequest extends CompletableFuture<byte[]> implements AbstractContinuation {
+
+	private final Node node;
+	private final int destinationId;
+	private final int typeId;
+	private final AtomicInteger countdown; // This continuation only completes when this countdown reaches zero.
+
+	PendingRequest(Node node, int destinationId, int typeId, int count) {
+		this.node = node;
+		this.destinationId = destinationId;
+		this.typeId = typeId;
+		this.countdown = new AtomicInteger(count);
+	}
+
+	@Override
+	public Runnable next(byte[] buffer, int offset, int length) {
+		if (countdown.decrementAndGet() != 0) {
+			return null;
+		}
+		var payload = Arrays.copyOfRange(buffer, offset, offset + length); // The provided buffer will be reused, so we must copy it.
+		return () -> complete(payload);
+	}
+
+	@Override
+	public Runnable timeout() {
+		if (countdown.getAndSet(0) > 0) {
+			return () -> completeExceptionally(new TimeoutException("Request timed out."));
+		} else {
+			return null; // Already completed, or timed-out.
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		var cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			countdown.set(0);
+			node.abandon(destinationId, typeId, this);
+		}
+		return cancelled;
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import com.abstractfoundry.daemon.common.FluentThreadFactory;
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.TimeoutException;
+import com.lmax.disruptor.TimeoutHandler;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expires requests at their deadlines, using a timing wheel with millisecond
+ * resolution driven by a dedicated Disruptor thread.
+ * <p>
+ * Client threads publish each claimed transfer ID to the Disruptor, and the
+ * handler inserts them into the wheel. Whilst the wheel holds any entries, the
+ * handler wakes at least once per millisecond to advance it, aborting any
+ * transfer IDs which are still claimed (under the same deadline) in the
+ * service table. Whilst the wheel is empty, it blocks until the next event.
+ * Released transfer IDs are not removed from the wheel, they are simply
+ * ignored when they fire.
+ */
+class RequestExpiry implements EventHandler<RequestExpiry.Event>, TimeoutHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(RequestExpiry.class);
+
+	private static final int EXPIRY_SIZE = 4096;
+	private static final int WHEEL_SIZE = 1024; // Buckets, i.e. one revolution per 1.024 seconds.
+	private static final long TICK_NANOSECONDS = 1_000_000L;
+
+	static class Event {
+		int key;
+		int id;
+		long deadline;
+	}
+
+	private final ServiceTable serviceTable;
+	private final Executor executor;
+	private final Disruptor<Event> disruptor;
+	private final TimingWheel wheel = new TimingWheel(WHEEL_SIZE, TICK_NANOSECONDS, System.nanoTime());
+	private final TimingWheel.Listener listener = this::expire;
+	private final ArrayList<AbstractContinuation> expired = new ArrayList<>();
+	private final AtomicInteger expiredCount = new AtomicInteger(0);
+
+	RequestExpiry(ServiceTable serviceTable, Executor executor) {
+		this.serviceTable = serviceTable;
+		this.executor = executor;
+		this.disruptor = new Disruptor<>(Event::new, EXPIRY_SIZE,
+			new FluentThreadFactory()
+				.setName("Foundry Expiry Disruptor")
+				.setDaemon(true),
+			ProducerType.MULTI,
+			new WheelWaitStrategy()
+		);
+		disruptor.handleEventsWith(this);
+	}
+
+	void start() {
+		disruptor.start();
+	}
+
+	/**
+	 * Thread-safe method used by client threads to schedule the expiry of a claimed transfer ID.
+	 */
+	@ThreadSafe
+	void schedule(int key, int id, long deadline) {
+		var ringBuffer = disruptor.getRingBuffer();
+		var sequence = ringBuffer.next();
+		try {
+			var event = ringBuffer.get(sequence);
+			event.key = key;
+			event.id = id;
+			event.deadline = deadline;
+		} finally {
+			ringBuffer.publish(sequence);
+		}
+	}
+
+	/**
+	 * Thread-safe method returning the number of requests expired since the previous call.
+	 */
+	@ThreadSafe
+	int drainExpiredCount() {
+		return expiredCount.getAndSet(0);
+	}
+
+	@Override
+	public void onEvent(Event event, long sequence, boolean endOfBatch) {
+		wheel.schedule(event.key << 5 | event.id, event.deadline);
+		if (endOfBatch) {
+			advance();
+		}
+	}
+
+	@Override
+	public void onTimeout(long sequence) {
+		advance();
+	}
+
+	private void advance() {
+		try {
+			wheel.advance(System.nanoTime(), listener);
+		} catch (RuntimeException exception) {
+			logger.error("Error advancing expiry wheel.", exception);
+		}
+		if (expired.isEmpty()) {
+			return;
+		}
+		for (var continuation : expired) { // Note: Only run the timeouts once the whole tick has been processed, since a continuation shared by several transfer IDs (which all expire together) might otherwise be returned to its pool and reused whilst still in the table.
+			try {
+				Runnable task = continuation.timeout(); // Get the timeout task.
+				if (task != null) {
+					executor.execute(task); // Issue the task to the continuation executor, to avoid blocking this thread.
+				}
+			} catch (RuntimeException exception) {
+				logger.warn("Error expiring continuation.", exception);
+			}
+		}
+		expiredCount.addAndGet(expired.size());
+		expired.clear();
+	}
+
+	/**
+	 * Blocking wait strategy which only times out (so as to advance the wheel)
+	 * whilst the wheel holds any entries, such that an idle daemon is not woken
+	 * a thousand times a second. Note: Only called from the handler thread, so
+	 * it may read the wheel.
+	 */
+	private class WheelWaitStrategy implements WaitStrategy {
+
+		private final Object mutex = new Object();
+		private final AtomicBoolean signalNeeded = new AtomicBoolean(false);
+
+		@Override
+		public long waitFor(long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier) throws AlertException, InterruptedException, TimeoutException {
+			if (cursor.get() < sequence) {
+				var timed = wheel.size() > 0;
+				var deadline = System.nanoTime() + TICK_NANOSECONDS;
+				synchronized (mutex) {
+					while (true) {
+						signalNeeded.set(true);
+						if (cursor.get() >= sequence) {
+							break; // Note: Checked after requesting the signal, so a publication cannot slip in between.
+						}
+						barrier.checkAlert();
+						if (!timed) {
+							mutex.wait();
+							continue;
+						}
+						var remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							throw TimeoutException.INSTANCE;
+						}
+						TimeUnit.NANOSECONDS.timedWait(mutex, remaining);
+					}
+				}
+			}
+			long available;
+			while ((available = dependentSequence.get()) < sequence) {
+				barrier.checkAlert();
+			}
+			return available;
+		}
+
+		@Override
+		public void signalAllWhenBlocking() {
+			if (signalNeeded.getAndSet(false)) {
+				synchronized (mutex) {
+					mutex.notifyAll();
+				}
+			}
+		}
+
+	}
+
+	private void expire(int handle, long deadline) {
+		var continuation = serviceTable.expire(handle >>> 5, handle & 0x1F, deadline);
+		if (continuation != null) {
+			expired.add(continuation);
+		}
+	}
+
+}
@@ -5,40 +5,114 @@
 package com.abstractfoundry.daemon.uavcan;
 
 import com.abstractfoundry.daemon.common.ThreadSafe;
-import java.nio.ByteBuffer;
-import java.util.concurrent.ExecutorService;
 
 public class SerialConnectedNode extends Node {
 
 	private final SerialConnector serialConnector;
+	private final Object broadcastLock = new Object(); // Serialises the delivery of received broadcasts, since transfers delayed by the fault injector arrive from its thread (possibly after the faults have been cleared). Note: Uncontended whilst no faults are injected.
+	private final Object serviceLock = new Object(); // Likewise for received requests and responses.
 
-	public SerialConnectedNode(int selfId, ExecutorService globalPool, BroadcastHandler broadcastHandler, String devicePath) {
-		super(selfId, globalPool, broadcastHandler);
-		this.serialConnector = new SerialConnector(devicePath, this::receiveBroadcast, this::receiveRequest, this::receiveResponse);
+	public SerialConnectedNode(int selfId, BroadcastHandler broadcastHandler, AllocationTable allocationTable, String devicePath) {
+		super(selfId, broadcastHandler, allocationTable);
+		this.serialConnector = new SerialConnector(devicePath, this::injectBroadcast, this::injectRequest, this::injectResponse);
 	}
 
 	@Override
 	@ThreadSafe
 	protected void sendBroadcast(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
-		serialConnector.sendBroadcast(sourceId, typeId, transferId, priority, buffer, offset, length);
+		var faultInjector = getFaultInjector();
+		if (!faultInjector.isActive()) {
+			serialConnector.sendBroadcast(sourceId, typeId, transferId, priority, buffer, offset, length);
+		} else {
+			faultInjector.inject(FaultInjector.Kind.BROADCAST, typeId, 0, buffer, offset, length, (bytes, start, count) -> // Note: Broadcasts have no counterparty, so are not subject to any node impairment.
+				serialConnector.sendBroadcast(sourceId, typeId, transferId, priority, bytes, start, count)
+			);
+		}
 	}
 
 	@Override
 	@ThreadSafe
 	protected void sendRequest(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
-		serialConnector.sendRequest(sourceId, destinationId, typeId, transferId, priority, buffer, offset, length);
+		var faultInjector = getFaultInjector();
+		if (!faultInjector.isActive()) {
+			serialConnector.sendRequest(sourceId, destinationId, typeId, transferId, priority, buffer, offset, length);
+		} else {
+			faultInjector.inject(FaultInjector.Kind.REQUEST, typeId, destinationId, buffer, offset, length, (bytes, start, count) ->
+				serialConnector.sendRequest(sourceId, destinationId, typeId, transferId, priority, bytes, start, count)
+			);
+		}
 	}
 
 	@Override
 	@ThreadSafe
-	protected void sendRequests(int sourceId, int destinationId, int typeId, int[] transferIds, int priority, ByteBuffer[] buffers, int count) {
-		serialConnector.sendRequests(sourceId, destinationId, typeId, transferIds, priority, buffers, count);
+	protected void sendRequests(BatchRequest batch) {
+		if (!getFaultInjector().isActive()) {
+			serialConnector.sendRequests(batch);
+		} else { // Impair each transfer of the batch independently (at the cost of batching).
+			for (var index = 0; index < batch.getCount(); index++) {
+				var buffer = batch.getBuffer(index);
+				sendRequest(batch.getSourceId(), batch.getDestinationId(), batch.getTypeId(index), batch.getTransferId(index), batch.getPriority(), buffer.array(), buffer.position(), buffer.remaining());
+				buffer.position(buffer.limit()); // Indicate buffer has been read.
+			}
+		}
 	}
 
 	@Override
 	@ThreadSafe
 	protected void sendResponse(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
-		serialConnector.sendResponse(sourceId, destinationId, typeId, transferId, priority, buffer, offset, length);
+		var faultInjector = getFaultInjector();
+		if (!faultInjector.isActive()) {
+			serialConnector.sendResponse(sourceId, destinationId, typeId, transferId, priority, buffer, offset, length);
+		} else {
+			faultInjector.inject(FaultInjector.Kind.RESPONSE, typeId, destinationId, buffer, offset, length, (bytes, start, count) ->
+				serialConnector.sendResponse(sourceId, destinationId, typeId, transferId, priority, bytes, start, count)
+			);
+		}
+	}
+
+	private void injectBroadcast(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		var faultInjector = getFaultInjector();
+		if (!faultInjector.isActive()) {
+			synchronized (broadcastLock) {
+				receiveBroadcast(sourceId, typeId, transferId, priority, buffer, offset, length);
+			}
+		} else {
+			faultInjector.inject(FaultInjector.Kind.BROADCAST, typeId, sourceId, buffer, offset, length, (bytes, start, count) -> {
+				synchronized (broadcastLock) {
+					receiveBroadcast(sourceId, typeId, transferId, priority, bytes, start, count);
+				}
+			});
+		}
+	}
+
+	private void injectRequest(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		var faultInjector = getFaultInjector();
+		if (!faultInjector.isActive()) {
+			synchronized (serviceLock) {
+				receiveRequest(sourceId, destinationId, typeId, transferId, priority, buffer, offset, length);
+			}
+		} else {
+			faultInjector.inject(FaultInjector.Kind.REQUEST, typeId, sourceId, buffer, offset, length, (bytes, start, count) -> {
+				synchronized (serviceLock) {
+					receiveRequest(sourceId, destinationId, typeId, transferId, priority, bytes, start, count);
+				}
+			});
+		}
+	}
+
+	private void injectResponse(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		var faultInjector = getFaultInjector();
+		if (!faultInjector.isActive()) {
+			synchronized (serviceLock) {
+				receiveResponse(sourceId, destinationId, typeId, transferId, priority, buffer, offset, length);
+			}
+		} else {
+			faultInjector.inject(FaultInjector.Kind.RESPONSE, typeId, sourceId, buffer, offset, length, (bytes, start, count) -> {
+				synchronized (serviceLock) {
+					receiveResponse(sourceId, destinationId, typeId, transferId, priority, bytes, start, count);
+				}
+			});
+		}
 	}
 
 	@Override
@@ -50,6 +124,10 @@ public class SerialConnectedNode extends Node {
 		return serialConnector.inboxBacklog();
 	}
 
+	public int priorityInboxBacklog() {
+		return serialConnector.priorityInboxBacklog();
+	}
+
 	public int outboxBacklog() {
 		return serialConnector.outboxBacklog();
 	}
@@ -58,4 +136,12 @@ public class SerialConnectedNode extends Node {
 		return serialConnector.collectorBacklog();
 	}
 
+	public long recoveryCount() {
+		return serialConnector.recoveryCount();
+	}
+
+	public long lastRecoveryMilliseconds() {
+		return serialConnector.lastRecoveryMilliseconds();
+	}
+
 }
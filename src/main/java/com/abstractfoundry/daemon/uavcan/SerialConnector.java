@@ -8,7 +8,6 @@ import com.abstractfoundry.daemon.common.ThreadSafe;
 import com.abstractfoundry.daemon.serial.DecodedFrame;
 import com.abstractfoundry.daemon.serial.PartialFrame;
 import com.abstractfoundry.daemon.serial.SerialDriver;
-import java.nio.ByteBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,7 +21,7 @@ public class SerialConnector {
 	private final ServiceHandler responseHandler;
 
 	public SerialConnector(String devicePath, BroadcastHandler broadcastHandler, ServiceHandler requestHandler, ServiceHandler responseHandler) {
-		this.serialDriver = new SerialDriver(this::receiveFrame, devicePath);
+		this.serialDriver = new SerialDriver(this::receiveFrame, this::receiveFrame, SerialConnector::isServiceFrame, devicePath); // Service frames (in particular responses) are processed on the priority lane, so they do not queue behind broadcasts.
 		this.broadcastHandler = broadcastHandler;
 		this.requestHandler = requestHandler;
 		this.responseHandler = responseHandler;
@@ -55,22 +54,22 @@ public class SerialConnector {
 	}
 
 	/**
-	 * Thread-safe method used by client threads to send several requests.
-	 * This generates some garbage to be collected, but it should be offset by
-	 * the benefit of not waking up the collector thread several times.
+	 * Thread-safe method used by client threads to send several requests,
+	 * which are written straight from the batch into consecutive slots of the
+	 * collector ring, without allocating, and waking the collector thread once.
 	 */
 	@ThreadSafe
-	public void sendRequests(int sourceId, int destinationId, int typeId, int[] transferIds, int priority, ByteBuffer[] buffers, int count) {
-		var messageId = 0x8080 | (sourceId & 0x7F) | (destinationId & 0x7F) << 8 | (typeId & 0xFF) << 16 | (priority & 0x1F) << 24;
-		var payloads = new Payload[count];
+	public void sendRequests(BatchRequest batch) {
+		var count = batch.getCount();
+		for (var index = 0; index < count; index++) {
+			var buffer = batch.getBuffer(index);
+			checkPackable(buffer.position(), buffer.remaining());
+		}
+		serialDriver.batch(SerialConnector::writer, batch, count);
 		for (var index = 0; index < count; index++) {
-			var buffer = buffers[index];
-			var offset = buffer.position();
-			var length = buffer.limit() - offset;
-			payloads[index] = new Payload(messageId, transferIds[index], buffer.array(), offset, length);
-			buffer.position(length); // Indicate buffer has been read.
+			var buffer = batch.getBuffer(index);
+			buffer.position(buffer.limit()); // Indicate buffer has been read.
 		}
-		serialDriver.batch(SerialConnector::writer, payloads);
 	}
 
 	/**
@@ -130,6 +129,10 @@ public class SerialConnector {
 		return serialDriver.inboxBacklog();
 	}
 
+	public int priorityInboxBacklog() {
+		return serialDriver.priorityInboxBacklog();
+	}
+
 	public int outboxBacklog() {
 		return serialDriver.outboxBacklog();
 	}
@@ -138,6 +141,18 @@ public class SerialConnector {
 		return serialDriver.collectorBacklog();
 	}
 
+	public long recoveryCount() {
+		return serialDriver.recoveryCount();
+	}
+
+	public long lastRecoveryMilliseconds() {
+		return serialDriver.lastRecoveryMilliseconds();
+	}
+
+	static boolean isServiceFrame(byte[] bytes, int length) {
+		return length >= 10 && (bytes[1] & 0xFF) == 0x2D && (bytes[3] & 0x80) != 0; // UAVCAN service (request or response) frame.
+	}
+
 	private static void checkPackable(int offset, int length) {
 		if (offset < 0 || offset > 65535) {
 			throw new IllegalArgumentException("Invalid offset."); // Offset too large to pack into "parameter pack" for writer.
@@ -153,8 +168,10 @@ public class SerialConnector {
 		writer(frame, sequence, messageId, transferId, buffer, offset, length);
 	}
 
-	private static void writer(PartialFrame frame, long sequence, Payload payload) {
-		writer(frame, sequence, payload.messageId, payload.transferId, payload.buffer, payload.offset, payload.length);
+	private static void writer(PartialFrame frame, long sequence, BatchRequest batch, int index) {
+		var messageId = 0x8080 | (batch.getSourceId() & 0x7F) | (batch.getDestinationId() & 0x7F) << 8 | (batch.getTypeId(index) & 0xFF) << 16 | (batch.getPriority() & 0x1F) << 24;
+		var buffer = batch.getBuffer(index);
+		writer(frame, sequence, messageId, batch.getTransferId(index), buffer.array(), buffer.position(), buffer.remaining());
 	}
 
 	private static void writer(PartialFrame frame, long sequence, int messageId, int transferId, byte[] buffer, int offset, int length) {
@@ -167,21 +184,4 @@ public class SerialConnector {
 		frame.write(buffer, offset, length);
 	}
 
-	private static class Payload {
-		public final int messageId;
-		public final int transferId;
-		public final byte[] buffer;
-		public final int offset;
-		public final int length;
-
-		public Payload(int messageId, int transferId, byte[] buffer, int offset, int length) {
-			this.messageId = messageId;
-			this.transferId = transferId;
-			this.buffer = buffer;
-			this.offset = offset;
-			this.length = length;
-		}
-		
-	}
-
 }
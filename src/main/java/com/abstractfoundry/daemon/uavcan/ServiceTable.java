@@ -5,12 +5,27 @@
 package com.abstractfoundry.daemon.uavcan;
 
 import com.abstractfoundry.daemon.common.ThreadSafe;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Lock-free table of the transfer IDs in flight for each key.
+ * <p>
+ * Each key owns a 32-bit occupancy word, in which bit (31 - ID) is set while
+ * the transfer ID is claimed. Transfer IDs are claimed by CAS on the occupancy
+ * word, after which the claimer writes the continuation (and deadline) to the
+ * key's slots, and publishes them by advancing the slot's stamp to an odd value.
+ * Whichever thread subsequently advances the stamp to the next (even) value
+ * (the responder releasing it, or the expiry thread aborting it) owns the
+ * continuation, and then clears the occupancy bit. Since the stamp only ever
+ * increases, a thread which read the slot for an earlier claim cannot take a
+ * later claim by mistake, even though continuations are pooled (and so may
+ * recur). Each claim carries a deadline, after which {@link RequestExpiry}
+ * aborts it.
+ */
 class ServiceTable {
 
 	private static final Logger logger = LoggerFactory.getLogger(ServiceTable.class);
@@ -19,92 +34,131 @@ class ServiceTable {
 	static class KeyUnclaimedException extends Exception {}
 
 	private static class Entry {
-		public int occupations = -1;
-		public final long[] timestamps = new long[32];
-		public final AbstractContinuation[] continuations = new AbstractContinuation[32];
+		public final long[] deadlines = new long[32]; // Note: Written before, and read after, the corresponding (volatile) stamp.
+		public final AbstractContinuation[] continuations = new AbstractContinuation[32]; // Note: Likewise.
+		public final AtomicLongArray stamps = new AtomicLongArray(32); // Odd whilst claimed, incremented by each claim and by each release.
 	}
 
 	private final int size;
-	private final Map<Integer, Entry> state;
-	private final long expiry;
+	private final AtomicIntegerArray occupations; // Flat array of occupancy words, indexed by key.
+	private final AtomicReferenceArray<Entry> entries; // Flat array of slots, indexed by key, but only allocated on first use since most keys are never used.
 
-	ServiceTable(int size, int expiry) {
+	ServiceTable(int size) {
 		this.size = size;
-		this.state = new HashMap<>();
-		this.expiry = (long) expiry * 1_000_000L;
+		this.occupations = new AtomicIntegerArray(size);
+		this.entries = new AtomicReferenceArray<>(size);
 	}
 
 	@ThreadSafe
-	synchronized int claim(int key, long timestamp, AbstractContinuation continuation) throws KeyExhaustedException {
+	int claim(int key, long deadline, AbstractContinuation continuation) throws KeyExhaustedException {
 		if (key < 0 || key >= size) {
 			throw new IllegalArgumentException("Invalid key.");
 		}
-		var entry = state.computeIfAbsent(key, ignored -> new Entry());
-		var id = Integer.numberOfLeadingZeros(entry.occupations);
-		if (id == 32) {
-			throw new KeyExhaustedException();
+		var entry = entry(key);
+		while (true) {
+			var occupied = occupations.get(key);
+			var id = Integer.numberOfLeadingZeros(~occupied);
+			if (id == 32) {
+				throw new KeyExhaustedException();
+			}
+			if (occupations.compareAndSet(key, occupied, occupied | 1 << 31 - id)) {
+				entry.deadlines[id] = deadline;
+				entry.continuations[id] = continuation;
+				entry.stamps.incrementAndGet(id); // Publish the claim.
+				return id;
+			}
 		}
-		entry.occupations &= ~(1 << 31 - id);
-		entry.timestamps[id] = timestamp;
-		entry.continuations[id] = continuation;
-		return id;
 	}
 
 	@ThreadSafe
-	synchronized AbstractContinuation release(int key, int id) throws KeyUnclaimedException {
+	AbstractContinuation release(int key, int id) throws KeyUnclaimedException {
 		if (key < 0 || key >= size) {
 			throw new IllegalArgumentException("Invalid key.");
 		} else if (id < 0 || id >= 32) {
 			throw new IllegalArgumentException("Invalid ID.");
 		}
-		var entry = state.computeIfAbsent(key, ignored -> new Entry());
-		var mask = 1 << 31 - id;
-		if ((entry.occupations & mask) != 0) {
+		var entry = entries.get(key);
+		if (entry == null) {
 			throw new KeyUnclaimedException();
 		}
+		var stamp = entry.stamps.get(id);
 		var continuation = entry.continuations[id];
-		entry.occupations |= mask;
-		entry.continuations[id] = null;
-		entry.timestamps[id] = 0;
+		if ((stamp & 1L) == 0L || !entry.stamps.compareAndSet(id, stamp, stamp + 1L)) {
+			throw new KeyUnclaimedException(); // Never claimed, or lost the race with the expiry thread.
+		}
+		vacate(entry, key, id);
 		return continuation;
 	}
 
+	/**
+	 * Thread-safe method used to abort a claim, provided it was made with the given deadline.
+	 *
+	 * @return The continuation, or null if the transfer ID has since been released (and perhaps reclaimed).
+	 */
 	@ThreadSafe
-	synchronized int abortExpired(ExecutorService pool) {
+	AbstractContinuation expire(int key, int id, long deadline) {
+		var entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		var stamp = entry.stamps.get(id);
+		var continuation = entry.continuations[id];
+		if ((stamp & 1L) == 0L || entry.deadlines[id] != deadline || !entry.stamps.compareAndSet(id, stamp, stamp + 1L)) {
+			return null; // Note: The stamp check rejects a claim made since the deadline was read, even with the same (pooled) continuation.
+		}
+		vacate(entry, key, id);
+		return continuation;
+	}
+
+	/**
+	 * Thread-safe method used to abort every claim under the key which holds the given continuation.
+	 *
+	 * @return The number of transfer IDs freed.
+	 */
+	@ThreadSafe
+	int abandon(int key, AbstractContinuation continuation) {
+		var entry = entries.get(key);
+		if (entry == null) {
+			return 0;
+		}
 		var accumulator = 0;
-		var now = System.nanoTime();
-		for (var entry : state.values()) {
-			if (entry.occupations != -1) {
-				for (var id = 0; id < 32; id++) {
-					var mask = 1 << 31 - id;
-					if ((entry.occupations & mask) == 0 && now - entry.timestamps[id] > expiry) {
-						var continuation = entry.continuations[id];
-						entry.occupations |= mask;
-						entry.continuations[id] = null;
-						entry.timestamps[id] = 0;
-						try {
-							Runnable task = continuation.timeout(); // Get the timeout task.
-							if (task != null) {
-								pool.submit(task); // Issue the task to the global pool, to avoid blocking this thread.
-							}
-						} catch (RuntimeException exception) {
-							logger.warn("Error expiring continuation.", exception);
-						}
-						accumulator += 1;
-					}
-				}
+		for (var id = 0; id < 32; id++) {
+			var stamp = entry.stamps.get(id);
+			if ((stamp & 1L) != 0L && entry.continuations[id] == continuation && entry.stamps.compareAndSet(id, stamp, stamp + 1L)) {
+				vacate(entry, key, id);
+				accumulator++;
 			}
 		}
 		return accumulator;
 	}
 
 	@ThreadSafe
-	synchronized int occupancyCount() {
+	int occupancyCount() {
 		var accumulator = 0;
-		for (var entry : state.values()) {
-			accumulator += 32 - Integer.bitCount(entry.occupations);
+		for (var key = 0; key < size; key++) {
+			accumulator += Integer.bitCount(occupations.get(key));
 		}
 		return accumulator;
 	}
 
-}
\ No newline at end of file
+	private Entry entry(int key) {
+		var entry = entries.get(key);
+		if (entry == null) {
+			entries.compareAndSet(key, null, new Entry()); // Note: The loser of any race discards its (small) allocation.
+			entry = entries.get(key);
+		}
+		return entry;
+	}
+
+	private void vacate(Entry entry, int key, int id) {
+		entry.continuations[id] = null; // Don't retain the continuation. Note: Any racing reader will fail its CAS on the stamp.
+		var mask = 1 << 31 - id;
+		while (true) {
+			var occupied = occupations.get(key);
+			if (occupations.compareAndSet(key, occupied, occupied & ~mask)) {
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Hashed timing wheel, which fires each scheduled handle once its deadline has
+ * passed, at a cost of O(1) per handle.
+ * <p>
+ * Deadlines are hashed into buckets by tick, so each tick only visits the
+ * handles due in that tick, plus any due in later revolutions of the wheel
+ * (which are left in place). This class is not thread-safe, it is intended to
+ * be driven by a single thread.
+ */
+class TimingWheel {
+
+	static interface Listener {
+		public void expire(int handle, long deadline);
+	}
+
+	private final long tick; // Tick duration in nanoseconds.
+	private final long origin; // Time of tick zero.
+	private final int mask;
+	private final IntArrayList[] handles;
+	private final LongArrayList[] deadlines;
+	private long cursor; // Last tick processed.
+	private int size = 0;
+
+	/**
+	 * @param bucketCount Number of buckets (must be a power of two).
+	 * @param tick Tick duration in nanoseconds.
+	 * @param origin Current time (in nanoseconds, per System.nanoTime()).
+	 */
+	TimingWheel(int bucketCount, long tick, long origin) {
+		if (bucketCount <= 0 || Integer.bitCount(bucketCount) != 1) {
+			throw new IllegalArgumentException("Bucket count must be a power of two.");
+		} else if (tick <= 0) {
+			throw new IllegalArgumentException("Invalid tick.");
+		}
+		this.tick = tick;
+		this.origin = origin;
+		this.mask = bucketCount - 1;
+		this.handles = new IntArrayList[bucketCount];
+		this.deadlines = new LongArrayList[bucketCount];
+		for (var index = 0; index < bucketCount; index++) {
+			handles[index] = new IntArrayList();
+			deadlines[index] = new LongArrayList();
+		}
+		this.cursor = 0;
+	}
+
+	void schedule(int handle, long deadline) {
+		var target = Math.max(tickOf(deadline), cursor + 1); // Deadlines which have already passed fire on the next tick.
+		var bucket = (int) (target & mask);
+		handles[bucket].add(handle);
+		deadlines[bucket].add(deadline);
+		size += 1;
+	}
+
+	/**
+	 * Fire every handle whose deadline falls in a tick which has completely elapsed.
+	 *
+	 * @return The number of handles fired.
+	 */
+	int advance(long now, Listener listener) {
+		var target = tickOf(now) - 1; // Last tick which has completely elapsed.
+		if (target <= cursor) {
+			return 0;
+		}
+		var accumulator = 0;
+		var steps = Math.min(target - cursor, mask + 1); // Visit each bucket at most once.
+		for (var step = 1; step <= steps; step++) {
+			var bucket = (int) ((cursor + step) & mask);
+			accumulator += fire(bucket, target, listener);
+		}
+		cursor = target;
+		return accumulator;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private int fire(int bucket, long target, Listener listener) {
+		var bucketHandles = handles[bucket];
+		var bucketDeadlines = deadlines[bucket];
+		var count = bucketHandles.size();
+		if (count == 0) {
+			return 0;
+		}
+		var retained = 0;
+		for (var index = 0; index < count; index++) {
+			var handle = bucketHandles.getInt(index);
+			var deadline = bucketDeadlines.getLong(index);
+			if (tickOf(deadline) <= target) {
+				listener.expire(handle, deadline);
+			} else { // Due in a later revolution, compact it towards the front of the bucket.
+				bucketHandles.set(retained, handle);
+				bucketDeadlines.set(retained, deadline);
+				retained++;
+			}
+		}
+		bucketHandles.size(retained);
+		bucketDeadlines.size(retained);
+		size -= count - retained;
+		return count - retained;
+	}
+
+	private long tickOf(long time) {
+		return Math.floorDiv(time - origin, tick);
+	}
+
+}
@@ -16,4 +16,5 @@ public class TypeId {
 	public static final int GET_PREFERRED_NAME = 202;
 	public static final int ENUMERATE_FIELDS = 204;
 	public static final int SET_FIELDS = 216; // to 231 (inclusive).
+	public static final int SET_FIELDS_COUNT = 16;
 }
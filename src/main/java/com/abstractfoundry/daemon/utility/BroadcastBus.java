@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.utility;
+
+import com.abstractfoundry.daemon.bus.FlatDictionary;
+import com.abstractfoundry.daemon.bus.Metadata;
+import com.abstractfoundry.daemon.bus.Namespace;
+import com.abstractfoundry.daemon.common.FluentThreadFactory;
+import com.abstractfoundry.daemon.common.ThreadSafe;
+import com.abstractfoundry.daemon.store.Store;
+import com.abstractfoundry.daemon.uavcan.BroadcastHandler;
+import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publish/subscribe bus for the broadcasts received by the daemon node, keyed
+ * by source node ID and type ID, and for published fields also by key range.
+ * <p>
+ * Published fields are deserialised once per broadcast, and each field
+ * subscriber is handed the slice of the keys and values within its range.
+ * Inline subscribers run on the inbox thread and receive the buffers without
+ * copying, so must be quick and must not capture them. Offloaded subscribers
+ * receive copies on a dedicated thread apiece, in order; if one falls too far
+ * behind, then its deliveries are dropped, rather than holding up the inbox.
+ * <p>
+ * Fields within the range of an exclusive subscription are withheld from
+ * the non-exclusive subscriptions (e.g. microphone samples are not stored).
+ * Whilst any exclusive subscription to a named field is unresolved, it is not
+ * yet known which fields it covers, so all fields are withheld from them.
+ */
+public class BroadcastBus implements BroadcastHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(BroadcastBus.class);
+
+	public static final int ANY_SOURCE = -1;
+
+	private static final int UNRESOLVED = -2; // Source of a named subscription whose module is absent from the namespace.
+	private static final int MAX_FIELDS = 256;
+	private static final int OFFLOAD_CAPACITY = 256; // Deliveries queued for each offloaded subscriber.
+
+	public static enum Mode { INLINE, OFFLOADED }
+
+	public static interface Subscriber {
+		void handle(int sourceId, int typeId, byte[] buffer, int offset, int length);
+	}
+
+	public static interface FieldSubscriber { // Note: Each value is the raw word of its type, see FlatDictionary.
+		void handle(int sourceId, int[] keys, int[] values, byte[] types, int offset, int count);
+	}
+
+	public static class Subscription {
+
+		private final int typeId;
+		private final Subscriber subscriber; // Exactly one of the subscribers is set.
+		private final FieldSubscriber fieldSubscriber;
+		private final boolean exclusive;
+		private final String module; // Set for subscriptions resolved against the namespace.
+		private final String field;
+		private final ThreadPoolExecutor executor; // Set for offloaded subscriptions.
+		private final AtomicLong droppedCount = new AtomicLong(0);
+		private int sourceId; // Note: Resolved subscriptions are only updated from the inbox thread.
+		private int lowKey;
+		private int highKey;
+
+		private Subscription(int sourceId, int typeId, int lowKey, int highKey, Subscriber subscriber, FieldSubscriber fieldSubscriber, boolean exclusive, String module, String field, ThreadPoolExecutor executor) {
+			this.sourceId = sourceId;
+			this.typeId = typeId;
+			this.lowKey = lowKey;
+			this.highKey = highKey;
+			this.subscriber = subscriber;
+			this.fieldSubscriber = fieldSubscriber;
+			this.exclusive = exclusive;
+			this.module = module;
+			this.field = field;
+			this.executor = executor;
+		}
+
+		private boolean matches(int sourceId, int typeId) {
+			return this.typeId == typeId && (this.sourceId == ANY_SOURCE || this.sourceId == sourceId);
+		}
+
+		private void offload(Runnable task) {
+			try {
+				executor.execute(task);
+			} catch (RuntimeException exception) { // Note: Thrown by the rejection handler, when the queue is full.
+				if (droppedCount.getAndIncrement() % 1000 == 0) {
+					logger.warn("Broadcast subscriber is saturated, {} deliveries dropped.", droppedCount.get());
+				}
+			}
+		}
+
+		/**
+		 * @return The number of deliveries dropped because the (offloaded) subscriber fell behind.
+		 */
+		public long getDroppedCount() {
+			return droppedCount.get();
+		}
+
+	}
+
+	private final Store store;
+	private final FluentThreadFactory threadFactory = new FluentThreadFactory()
+		.setName("Foundry Broadcast Subscriber")
+		.appendInstance()
+		.setDaemon(true);
+	private final int[] keys = new int[MAX_FIELDS]; // Note: The following should only be accessed from the inbox thread.
+	private final int[] values = new int[MAX_FIELDS];
+	private final byte[] types = new byte[MAX_FIELDS];
+	private final int[] withheldLowKeys = new int[MAX_FIELDS];
+	private final int[] withheldHighKeys = new int[MAX_FIELDS];
+	private final Map<Integer, Metadata> cachedMetadataById = new HashMap<>();
+	private long cachedEpoch = -1; // Of the namespace last resolved against.
+	private boolean withholdAll = false; // Whilst any exclusive named subscription is unresolved.
+	private Subscription[] resolvedSubscriptions = null;
+	private volatile Subscription[] subscriptions = new Subscription[0]; // Note: Copied on write.
+
+	public BroadcastBus(Store store) {
+		this.store = store;
+	}
+
+	/**
+	 * Thread-safe method used to subscribe to the raw payloads of broadcasts of the given type.
+	 *
+	 * @param sourceId The ID of the source node, or {@link #ANY_SOURCE}.
+	 */
+	@ThreadSafe
+	public Subscription subscribe(int sourceId, int typeId, Mode mode, Subscriber subscriber) {
+		return add(new Subscription(sourceId, typeId, 0, Integer.MAX_VALUE, subscriber, null, false, null, null, newExecutor(mode)));
+	}
+
+	/**
+	 * Thread-safe method used to subscribe to the published fields within the given (inclusive) key range.
+	 *
+	 * @param sourceId The ID of the source node, or {@link #ANY_SOURCE}.
+	 */
+	@ThreadSafe
+	public Subscription subscribeFields(int sourceId, int lowKey, int highKey, Mode mode, boolean exclusive, FieldSubscriber subscriber) {
+		return add(new Subscription(sourceId, TypeId.PUBLISHED_FIELDS, lowKey, highKey, null, subscriber, exclusive, null, null, newExecutor(mode)));
+	}
+
+	/**
+	 * Thread-safe method used to subscribe to the values of the named field (across its span), wherever the module is in the namespace.
+	 */
+	@ThreadSafe
+	public Subscription subscribeFields(String module, String field, Mode mode, boolean exclusive, FieldSubscriber subscriber) {
+		return add(new Subscription(UNRESOLVED, TypeId.PUBLISHED_FIELDS, 0, -1, null, subscriber, exclusive, module, field, newExecutor(mode)));
+	}
+
+	@ThreadSafe
+	public synchronized void unsubscribe(Subscription subscription) {
+		var remaining = Arrays.stream(subscriptions)
+			.filter(existing -> existing != subscription)
+			.toArray(Subscription[]::new);
+		if (remaining.length != subscriptions.length && subscription.executor != null) {
+			subscription.executor.shutdown();
+		}
+		subscriptions = remaining;
+	}
+
+	private synchronized Subscription add(Subscription subscription) {
+		var extended = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+		extended[subscriptions.length] = subscription;
+		subscriptions = extended; // Note: Any named subscription is resolved on the next publication.
+		return subscription;
+	}
+
+	private ThreadPoolExecutor newExecutor(Mode mode) {
+		if (mode == Mode.INLINE) {
+			return null;
+		}
+		return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(OFFLOAD_CAPACITY),
+			threadFactory,
+			new ThreadPoolExecutor.AbortPolicy()
+		);
+	}
+
+	@Override
+	public void handle(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) { // Note: Called from the inbox disruptor.
+		var snapshot = subscriptions;
+		for (var subscription : snapshot) {
+			if (subscription.subscriber != null && subscription.matches(sourceId, typeId)) {
+				if (subscription.executor == null) {
+					deliver(subscription, sourceId, typeId, buffer, offset, length);
+				} else {
+					var copy = Arrays.copyOfRange(buffer, offset, offset + length); // The buffer will be reused, so we must copy it.
+					subscription.offload(() -> deliver(subscription, sourceId, typeId, copy, 0, copy.length));
+				}
+			}
+		}
+		if (typeId == TypeId.PUBLISHED_FIELDS) {
+			handleFields(snapshot, sourceId, buffer, offset, length);
+		}
+	}
+
+	private void handleFields(Subscription[] snapshot, int sourceId, byte[] buffer, int offset, int length) {
+		// (1) Resolve the named subscriptions, whenever they or the namespace change (which it does whenever any metadata changes).
+		var namespace = store.getNamespace();
+		if (namespace.getEpoch() != cachedEpoch || snapshot != resolvedSubscriptions) {
+			cachedEpoch = namespace.getEpoch();
+			resolvedSubscriptions = snapshot;
+			cachedMetadataById.clear();
+			withholdAll = false;
+			for (var subscription : snapshot) {
+				if (subscription.module != null) {
+					resolve(subscription, namespace);
+					withholdAll |= subscription.exclusive && subscription.sourceId == UNRESOLVED;
+				}
+			}
+		}
+		// (2) Deserialise the fields, provided anybody is interested.
+		var interested = false;
+		for (var subscription : snapshot) {
+			interested |= subscription.fieldSubscriber != null && subscription.matches(sourceId, TypeId.PUBLISHED_FIELDS);
+		}
+		if (!interested) {
+			return;
+		}
+		var metadata = cachedMetadataById.get(sourceId);
+		if (metadata == null) {
+			metadata = store.getMetadata(sourceId);
+			if (metadata == null) {
+				return; // The fields cannot be interpreted until the metadata has been enumerated.
+			}
+			cachedMetadataById.put(sourceId, metadata);
+		}
+		int count;
+		try {
+			count = FlatDictionary.deserialise(buffer, offset, length, keys, values, types, 0, metadata);
+		} catch (RuntimeException exception) {
+			logger.error("Failed to deserialise the publication.", exception);
+			return;
+		}
+		// (3) Deliver to the exclusive subscriptions, then the remainder to the others.
+		var withheldCount = 0;
+		for (var subscription : snapshot) {
+			if (subscription.fieldSubscriber != null && subscription.exclusive && subscription.matches(sourceId, TypeId.PUBLISHED_FIELDS)) {
+				var start = lowerBound(count, subscription.lowKey);
+				var end = upperBound(count, subscription.highKey);
+				if (end > start) {
+					deliverFields(subscription, sourceId, start, end - start);
+					withheldLowKeys[withheldCount] = subscription.lowKey;
+					withheldHighKeys[withheldCount] = subscription.highKey;
+					withheldCount++;
+				}
+			}
+		}
+		if (withholdAll) {
+			return; // Note: The unresolved subscription might cover any of these fields.
+		}
+		for (var subscription : snapshot) {
+			if (subscription.fieldSubscriber != null && !subscription.exclusive && subscription.matches(sourceId, TypeId.PUBLISHED_FIELDS)) {
+				var end = upperBound(count, subscription.highKey);
+				var index = lowerBound(count, subscription.lowKey);
+				while (index < end) { // Deliver each run of fields which is not withheld.
+					while (index < end && isWithheld(keys[index], withheldCount)) {
+						index++;
+					}
+					var start = index;
+					while (index < end && !isWithheld(keys[index], withheldCount)) {
+						index++;
+					}
+					if (index > start) {
+						deliverFields(subscription, sourceId, start, index - start);
+					}
+				}
+			}
+		}
+	}
+
+	private void resolve(Subscription subscription, Namespace namespace) {
+		var module = namespace.getModule(subscription.module);
+		if (module == null || !module.getFields().contains(subscription.field)) {
+			subscription.sourceId = UNRESOLVED;
+			return;
+		}
+		var key = module.getKey(subscription.field);
+		subscription.sourceId = module.getId();
+		subscription.lowKey = key;
+		subscription.highKey = key + module.getMetadata().span(key) - 1;
+	}
+
+	private int lowerBound(int count, int key) { // Note: The deserialised keys are in ascending order.
+		var index = 0;
+		while (index < count && keys[index] < key) {
+			index++;
+		}
+		return index;
+	}
+
+	private int upperBound(int count, int key) {
+		var index = 0;
+		while (index < count && keys[index] <= key) {
+			index++;
+		}
+		return index;
+	}
+
+	private boolean isWithheld(int key, int withheldCount) {
+		for (var index = 0; index < withheldCount; index++) {
+			if (key >= withheldLowKeys[index] && key <= withheldHighKeys[index]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void deliverFields(Subscription subscription, int sourceId, int start, int count) {
+		if (subscription.executor == null) {
+			try {
+				subscription.fieldSubscriber.handle(sourceId, keys, values, types, start, count);
+			} catch (RuntimeException exception) {
+				logger.error("Unhandled exception in field subscriber.", exception);
+			}
+		} else {
+			var keysCopy = Arrays.copyOfRange(keys, start, start + count); // The arrays will be reused, so we must copy them.
+			var valuesCopy = Arrays.copyOfRange(values, start, start + count);
+			var typesCopy = Arrays.copyOfRange(types, start, start + count);
+			subscription.offload(() -> {
+				try {
+					subscription.fieldSubscriber.handle(sourceId, keysCopy, valuesCopy, typesCopy, 0, count);
+				} catch (RuntimeException exception) {
+					logger.error("Unhandled exception in field subscriber.", exception);
+				}
+			});
+		}
+	}
+
+	private static void deliver(Subscription subscription, int sourceId, int typeId, byte[] buffer, int offset, int length) {
+		try {
+			subscription.subscriber.handle(sourceId, typeId, buffer, offset, length);
+		} catch (RuntimeException exception) {
+			logger.error("Unhandled exception in broadcast subscriber.", exception);
+		}
+	}
+
+}
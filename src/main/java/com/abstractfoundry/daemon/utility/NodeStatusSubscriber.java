@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.utility;
+
+import com.abstractfoundry.daemon.store.Store;
+import com.abstractfoundry.daemon.uavcan.AllocationTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inline subscriber to NODE_STATUS broadcasts, which keeps the liveness of each node in the store up to date,
+ * and marks the IDs of nodes which already have one (whether self-assigned or allocated previously) as in use.
+ */
+public class NodeStatusSubscriber implements BroadcastBus.Subscriber {
+
+	private static final Logger logger = LoggerFactory.getLogger(NodeStatusSubscriber.class);
+
+	private final Store store;
+	private final AllocationTable allocationTable;
+
+	public NodeStatusSubscriber(Store store, AllocationTable allocationTable) {
+		this.store = store;
+		this.allocationTable = allocationTable;
+	}
+
+	@Override
+	public void handle(int sourceId, int typeId, byte[] buffer, int offset, int length) { // Note: Do not capture the buffer, called from the inbox disruptor.
+		if (length < 5) {
+			logger.warn("Malformed node status from: {}.", sourceId);
+			return;
+		}
+		var uptime = (buffer[offset] & 0xFFL) | (buffer[offset + 1] & 0xFFL) << 8 | (buffer[offset + 2] & 0xFFL) << 16 | (buffer[offset + 3] & 0xFFL) << 24; // Unsigned 32-bit seconds.
+		var status = buffer[offset + 4] & 0xF8; // Health (2 bits) and mode (3 bits), ignoring the sub-mode.
+		allocationTable.observe(sourceId);
+		store.addConnectedId(sourceId, uptime, status); // Note: Any change to the node's metadata rebuilds the namespace, which the bus notices.
+	}
+
+}
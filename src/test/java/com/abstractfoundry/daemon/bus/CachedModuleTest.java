@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachedModuleTest {
+
+	@Test
+	public void testRevalidate() {
+		var display = new SimulatedMetadata(null)
+			.add("led_colour", FieldType.UINT, 3, 4, true);
+		var speaker = new SimulatedMetadata(null)
+			.add("data", FieldType.INT, 2, 8, true);
+		var cached = new CachedModule("display");
+		assertFalse(cached.revalidate(Namespace.EMPTY));
+		assertFalse(cached.isAvailable());
+		var namespace = Namespace.EMPTY.update(3, "display", display, null);
+		assertTrue(cached.revalidate(namespace));
+		assertEquals(3, cached.get().getId());
+		assertFalse(cached.revalidate(namespace)); // Unchanged.
+		namespace = namespace.update(4, "speaker", speaker, null);
+		assertFalse(cached.revalidate(namespace)); // Another node changed.
+		assertTrue(cached.isAvailable());
+		namespace = namespace.update(3, null, null, null);
+		assertFalse(cached.revalidate(namespace)); // Left.
+		assertFalse(cached.isAvailable());
+		assertNull(cached.get());
+		namespace = namespace.update(5, "display", display, null);
+		assertTrue(cached.revalidate(namespace)); // Returned at a different ID.
+		assertEquals(5, cached.get().getId());
+		namespace = namespace.update(5, "display", display, null);
+		assertTrue(cached.revalidate(namespace)); // Its own node was updated.
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledMetadataTest {
+
+	private static SimulatedMetadata newMetadata() {
+		return new SimulatedMetadata(null)
+			.add("led_colour", FieldType.UINT, 3, 16, true)
+			.add("show", FieldType.BOOLEAN, 1, 1, true)
+			.add("text", FieldType.UTF8_CHAR, 1, 8, true)
+			.add("level", FieldType.INT, 2, 1, false);
+	}
+
+	@Test
+	public void testLookupsMatchSource() {
+		var source = newMetadata();
+		var compiled = CompiledMetadata.compile(source);
+		assertSame(compiled, CompiledMetadata.compile(compiled));
+		assertEquals(source.keys(), compiled.keys());
+		for (var key = 0; key < 40; key++) { // Including beyond the last field.
+			var floor = source.floor(key);
+			assertEquals(floor, compiled.floor(key));
+			assertEquals(source.type(floor), compiled.type(floor));
+			assertEquals(source.size(floor), compiled.size(floor));
+			assertEquals(source.span(floor), compiled.span(floor));
+			assertEquals(source.name(floor), compiled.name(floor));
+		}
+		var buffer = new byte[128];
+		var keys = new int[] { 3, 4, 5, 16, 17, 18, 25 };
+		var values = new int[] { 0x010203, 0x040506, 7, 1, 'h', 'i', -300 };
+		var length = FlatDictionary.serialise(buffer, 0, keys, values, 0, keys.length, compiled);
+		assertEquals(length, FlatDictionary.serialise(new byte[128], 0, keys, values, 0, keys.length, source));
+		var decodedKeys = new int[8];
+		var decodedValues = new int[8];
+		assertEquals(7, FlatDictionary.deserialise(buffer, 0, length, decodedKeys, decodedValues, 0, compiled));
+		assertEquals(-300, decodedValues[6]);
+	}
+
+	@Test
+	public void testPrunedToModule() {
+		var pruned = CompiledMetadata.compile(newMetadata(), List.of(16, 17));
+		assertEquals(Set.of(16, 17), pruned.keys());
+		assertEquals(16, pruned.floor(16));
+		assertEquals(17, pruned.floor(24));
+		assertEquals(17, pruned.floor(25)); // The next field is pruned.
+		assertThrows(NoSuchElementException.class, () -> pruned.floor(15));
+	}
+
+}
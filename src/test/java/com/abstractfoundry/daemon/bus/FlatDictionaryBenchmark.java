@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the throughput of flat dictionary serialisation and deserialisation
+ * (as on every set_fields call, and every published broadcast) against the
+ * queried metadata of a display-like node, before and after compilation.
+ * <p>
+ * Run the main method from the test classpath; it is not a unit test.
+ */
+public class FlatDictionaryBenchmark {
+
+	private static final int LEDS = 192;
+	private static final int ITERATIONS = 200_000;
+
+	private static byte[] describe(int key, String name, int type, int size, int span) { // As an ENUMERATE_FIELDS response.
+		var stream = new ByteArrayOutputStream();
+		if (key > 0) {
+			stream.write(0x12);
+			stream.write(key & 0xFF);
+			stream.write(key >> 8 & 0xFF);
+		}
+		stream.write(0x01); // One field follows...
+		stream.write(0x01);
+		stream.write(0x01); // ...with name, type, size and span.
+		stream.write(0x04);
+		var bytes = name.getBytes(StandardCharsets.UTF_8);
+		stream.write(bytes.length);
+		stream.write(bytes, 0, bytes.length);
+		stream.write(type);
+		stream.write(size);
+		for (var index = 0; index < 4; index++) {
+			stream.write(span >> 8 * index & 0xFF);
+		}
+		return stream.toByteArray();
+	}
+
+	private static Metadata queryDisplay() {
+		var bootstrapMetadata = new BootstrapMetadata();
+		var builder = new RecursiveDictionary.Builder(bootstrapMetadata);
+		var key = 0;
+		var pages = new byte[][] {
+			describe(key, "led_colour", FieldType.UINT, 3, LEDS),
+			describe(key += LEDS, "show", FieldType.BOOLEAN, 1, 1),
+			describe(key += 1, "brightness", FieldType.UINT, 1, 1),
+			describe(key += 1, "gamma", FieldType.UINT, 1, 1),
+			describe(key += 1, "panel_width", FieldType.UINT, 2, 1),
+			describe(key += 1, "panel_height", FieldType.UINT, 2, 1)
+		};
+		for (var page : pages) {
+			builder.merge(RecursiveDictionary.deserialise(page, 0, page.length, bootstrapMetadata));
+		}
+		return new QueriedMetadata(builder.build());
+	}
+
+	private static long run(Metadata metadata, int[] keys, int[] values, byte[] buffer) {
+		var decodedKeys = new int[keys.length];
+		var decodedValues = new int[keys.length];
+		var checksum = 0L;
+		for (var iteration = 0; iteration < ITERATIONS; iteration++) {
+			var length = FlatDictionary.serialise(buffer, 0, keys, values, 0, keys.length, metadata);
+			var count = FlatDictionary.deserialise(buffer, 0, length, decodedKeys, decodedValues, 0, metadata);
+			checksum += decodedValues[count - 1];
+		}
+		return checksum;
+	}
+
+	private static void measure(String label, Metadata metadata, int[] keys, int[] values, byte[] buffer) {
+		run(metadata, keys, values, buffer); // Warm up.
+		var start = System.nanoTime();
+		var checksum = run(metadata, keys, values, buffer);
+		var elapsed = System.nanoTime() - start;
+		System.out.printf("%-8s %,12.0f round trips/s (%d ns each, checksum %d)%n",
+			label, ITERATIONS * 1e9 / elapsed, elapsed / ITERATIONS, checksum
+		);
+	}
+
+	public static void main(String[] arguments) {
+		var queried = queryDisplay();
+		var compiled = CompiledMetadata.compile(queried);
+		var keys = new int[LEDS + 3]; // Every LED, followed by show, brightness and gamma (separate blocks, but one run).
+		var values = new int[keys.length];
+		for (var index = 0; index < keys.length; index++) {
+			keys[index] = index;
+			values[index] = index < LEDS ? index * 0x010101 : 1;
+		}
+		var sparseKeys = new int[] { 0, 7, 64, 65, 191, LEDS, LEDS + 2 }; // Many runs, each of few values.
+		var sparseValues = new int[] { 1, 2, 3, 4, 5, 1, 1 };
+		var buffer = new byte[1024];
+		System.out.println("Contiguous (" + keys.length + " values):");
+		measure("Queried", queried, keys, values, buffer);
+		measure("Compiled", compiled, keys, values, buffer);
+		System.out.println("Sparse (" + sparseKeys.length + " values):");
+		measure("Queried", queried, sparseKeys, sparseValues, buffer);
+		measure("Compiled", compiled, sparseKeys, sparseValues, buffer);
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlatDictionaryTest {
+
+	@Test
+	public void testTypedDeserialisation() {
+		var metadata = new SimulatedMetadata(null)
+			.add("temperature", FieldType.FLOAT, 4, 1, false)
+			.add("count", FieldType.UINT, 4, 1, false)
+			.add("offset", FieldType.INT, 0, 1, false) // Variable-size.
+			.add("name", FieldType.UTF8_CHAR, 1, 4, false)
+			.add("label", FieldType.UTF8_STRING, 0, 1, false)
+			.add("level", FieldType.INT, 2, 1, false);
+		var bits = Float.floatToRawIntBits(21.5f);
+		var buffer = new byte[] {
+			0x01, 9, // Run of all nine keys.
+			(byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24),
+			(byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+			1, (byte) 0xFE, // Size-prefixed.
+			'a', 'b', 0, 0,
+			2, 'h', 'i', // Size-prefixed, so has no flat representation.
+			(byte) 0xD4, (byte) 0xFE
+		};
+		var keys = new int[16];
+		var values = new int[16];
+		var types = new byte[16];
+		var count = FlatDictionary.deserialise(buffer, 0, buffer.length, keys, values, types, 0, metadata);
+		assertEquals(8, count);
+		assertEquals(21.5, FlatDictionary.doubleValue(types[0], values[0]));
+		assertEquals(21.5f, FlatDictionary.boxedValue(types[0], values[0]));
+		assertEquals(0xFFFFFFF0L, FlatDictionary.longValue(types[1], values[1]));
+		assertEquals(0xFFFFFFF0L, FlatDictionary.boxedValue(types[1], values[1]));
+		assertEquals(-2, values[2]);
+		assertEquals(FieldType.UTF8_CHAR, types[3]);
+		assertEquals('a', values[3]);
+		assertEquals('b', values[4]);
+		assertEquals(8, keys[7]);
+		assertEquals(-300, values[7]);
+		var legacyCount = FlatDictionary.deserialise(buffer, 0, buffer.length, keys, values, 0, metadata);
+		assertEquals(8, legacyCount);
+		assertEquals(22, values[0]); // Rounded.
+	}
+
+	@Test
+	public void testWideIntegersSkipped() {
+		var metadata = new SimulatedMetadata(null)
+			.add("timestamp", FieldType.UINT, 8, 1, false)
+			.add("offset", FieldType.INT, 0, 1, false) // Variable-size.
+			.add("level", FieldType.INT, 2, 1, false);
+		var buffer = new byte[] {
+			0x01, 3, // Run of all three keys.
+			1, 2, 3, 4, 5, 6, 7, 8,
+			5, 1, 2, 3, 4, 5, // Size-prefixed, wider than a word.
+			(byte) 0xD4, (byte) 0xFE
+		};
+		var keys = new int[4];
+		var values = new int[4];
+		var types = new byte[4];
+		var count = FlatDictionary.deserialise(buffer, 0, buffer.length, keys, values, types, 0, metadata);
+		assertEquals(1, count); // Rather than wrapping, or dropping the whole payload.
+		assertEquals(2, keys[0]);
+		assertEquals(-300, values[0]);
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NamespaceTest {
+
+	@Test
+	public void testUpdateTouchesOnlyTheChangedNode() {
+		var display = new SimulatedMetadata(null)
+			.add("led_colour", FieldType.UINT, 3, 4, true)
+			.add("show", FieldType.BOOLEAN, 1, 1, true);
+		var speaker = new SimulatedMetadata(null)
+			.add("data", FieldType.INT, 2, 8, true);
+		var namespace = Namespace.EMPTY
+			.update(3, "display", display, null)
+			.update(4, "speaker", speaker, null);
+		assertEquals(Set.of("display", "speaker"), namespace.getModuleNames());
+		var displayModule = namespace.getModule("display");
+		var updated = namespace.update(4, "speaker", new SimulatedMetadata(null).add("data", FieldType.INT, 2, 16, true), null);
+		assertSame(displayModule, updated.getModule("display")); // Shared, not rebuilt.
+		assertTrue(updated.getEpoch() > namespace.getEpoch());
+		assertEquals(displayModule.getEpoch(), updated.getModule("display").getEpoch()); // So cached resolutions remain valid.
+		assertEquals(updated.getEpoch(), updated.getModule("speaker").getEpoch());
+		assertEquals(16, updated.getModule("speaker").getMetadata().span(0));
+		var removed = updated.update(4, null, null, null);
+		assertEquals(Set.of("display"), removed.getModuleNames());
+		assertEquals(namespace.getModuleNames(), Namespace.build(Map.of(3, "display", 4, "speaker"), Map.of(3, display, 4, speaker), Map.of()).getModuleNames());
+	}
+
+	@Test
+	public void testConflictingNodeIsExcluded() {
+		var metadata = new SimulatedMetadata(null)
+			.add("level", FieldType.UINT, 1, 1, false);
+		var namespace = Namespace.EMPTY
+			.update(3, "light_sensor", metadata, null)
+			.update(5, "light_sensor", metadata, null);
+		assertEquals(3, namespace.getModule("light_sensor").getId());
+		assertTrue(namespace.hasExclusions());
+		var resolved = Namespace.build(Map.of(5, "light_sensor"), Map.of(5, metadata), Map.of()); // As rebuilt once node 3 has left.
+		assertEquals(5, resolved.getModule("light_sensor").getId());
+		assertTrue(resolved.getEpoch() > namespace.getEpoch()); // Even though rebuilt from scratch.
+		assertFalse(resolved.hasExclusions());
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecursiveDictionaryTest {
+
+	@Test
+	public void testBuilderMergesPartialFields() { // As the pages of an enumeration, where a field spans two responses.
+		var metadata = new BootstrapMetadata();
+		var first = new byte[] { 0x01, 0x01, 0x01, 0x01, 0x04, 'd', 'a', 't', 'a' }; // Field 0, named "data".
+		var second = new byte[] { 0x01, 0x01, 0x11, 0x01, 0x01, 0x01, 0x03 }; // Field 0, of type 3.
+		var third = new byte[] { 0x11, 0x05, 0x01, 0x01, 0x01, 0x01, 0x04, 'f', 'l', 'a', 'g' }; // Field 5, named "flag".
+		var builder = new RecursiveDictionary.Builder(metadata);
+		RecursiveDictionary merged = null;
+		for (var page : new byte[][] { first, second, third }) {
+			var results = RecursiveDictionary.deserialise(page, 0, page.length, metadata);
+			builder.merge(results);
+			merged = merged == null ? results : merged.merge(results);
+		}
+		var built = builder.build();
+		assertEquals(Set.of(0, 5), built.keys());
+		var field = (RecursiveDictionary) built.get(0);
+		assertEquals("data", field.get(BootstrapMetadata.NAME_KEY));
+		assertEquals(3, field.get(BootstrapMetadata.TYPE_KEY));
+		assertEquals(((RecursiveDictionary) merged.get(0)).keys(), field.keys());
+		assertEquals("flag", ((RecursiveDictionary) built.get(5)).get(BootstrapMetadata.NAME_KEY));
+	}
+
+	@Test
+	public void testPrimitiveAccessors() {
+		var metadata = new BootstrapMetadata();
+		var buffer = new byte[] { 0x11, 0x02, 0x01, 0x01, 0x01, 0x03, 0x04, 'l', 'e', 'd', 's', 0x04, 0x12 }; // Field 2: named "leds", of type 4 and size 18.
+		var dictionary = RecursiveDictionary.deserialise(buffer, 0, buffer.length, metadata);
+		buffer[7] = 'x'; // The source buffer may be reused.
+		assertEquals(2, dictionary.lastKey());
+		assertEquals(2, dictionary.floor(9));
+		assertEquals(Set.of(2), dictionary.keys());
+		var field = dictionary.getDictionary(2);
+		assertEquals("leds", field.getString(BootstrapMetadata.NAME_KEY));
+		assertSame(field.getString(BootstrapMetadata.NAME_KEY), field.get(BootstrapMetadata.NAME_KEY)); // Materialised once.
+		assertEquals(4, field.getInt(BootstrapMetadata.TYPE_KEY));
+		assertEquals(18, field.getInt(BootstrapMetadata.SIZE_KEY));
+		assertFalse(field.contains(BootstrapMetadata.SPAN_KEY));
+		assertFalse(field.getBoolean(BootstrapMetadata.DEBUG_KEY));
+		var metadataView = new QueriedMetadata(dictionary);
+		assertEquals("leds", metadataView.name(2));
+		assertEquals(18, metadataView.size(2));
+		assertNull(metadataView.module(2));
+	}
+
+}
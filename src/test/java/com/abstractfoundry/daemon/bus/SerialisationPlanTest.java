@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.bus;
+
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SerialisationPlanTest {
+
+	private static SimulatedMetadata newMetadata() {
+		return new SimulatedMetadata(null)
+			.add("led_colour", FieldType.UINT, 3, 16, true)
+			.add("show", FieldType.BOOLEAN, 1, 1, true)
+			.add("text", FieldType.UTF8_CHAR, 1, 8, true)
+			.add("level", FieldType.INT, 2, 1, false)
+			.add("data", FieldType.INT, 2, 400, true);
+	}
+
+	private static void assertMatchesFlatDictionary(Metadata metadata, int[] keys, int[] values) {
+		var expected = new byte[1024];
+		var expectedLength = FlatDictionary.serialise(expected, 0, keys, values, 0, keys.length, metadata);
+		var plan = SerialisationPlan.compile(metadata, keys, 0, keys.length);
+		var actual = new byte[1024];
+		assertEquals(expectedLength, plan.getLength());
+		assertEquals(expectedLength, plan.serialise(actual, 0, values, 0));
+		assertArrayEquals(Arrays.copyOf(expected, expectedLength), Arrays.copyOf(actual, expectedLength));
+		assertTrue(plan.matches(keys, 0, keys.length));
+	}
+
+	@Test
+	public void testMatchesFlatDictionary() {
+		var metadata = newMetadata();
+		assertMatchesFlatDictionary(metadata, // Across blocks of different types within one run, then skips.
+			new int[] { 14, 15, 16, 17, 18, 19, 25 },
+			new int[] { 0x010203, 0x040506, 1, 'a', 'b', 0, -300 }
+		);
+		assertMatchesFlatDictionary(metadata, new int[] { 0 }, new int[] { 7 }); // No leading skip.
+		var keys = new int[300]; // Wide run and skip headers.
+		var values = new int[300];
+		for (var index = 0; index < keys.length; index++) {
+			keys[index] = 26 + index;
+			values[index] = index - 150;
+		}
+		assertMatchesFlatDictionary(metadata, keys, values);
+	}
+
+	@Test
+	public void testRejectsInvalidLayouts() {
+		var metadata = newMetadata();
+		assertThrows(IllegalArgumentException.class, () -> SerialisationPlan.compile(metadata, new int[] { 5, 3 }, 0, 2));
+		assertThrows(IllegalArgumentException.class, () -> SerialisationPlan.compile(metadata, new int[] { 3, 3 }, 0, 2));
+		var plan = SerialisationPlan.compile(metadata, new int[] { 3, 4 }, 0, 2);
+		assertFalse(plan.matches(new int[] { 3, 5 }, 0, 2));
+		assertThrows(IllegalArgumentException.class, () -> plan.serialise(new byte[2], 0, new int[] { 1, 2 }, 0));
+	}
+
+}
@@ -118,4 +118,29 @@ public class COBSTest {
 		}
 	}
 
+	@Test
+	public void testLongBufferWithPeriodicZeros() {
+		byte[] buffer = new byte[512];
+		for (int index = 1; index < 511; index++) {
+			buffer[index] = (index % 200 == 0) ? 0 : (byte) index;
+		}
+		byte[] original = buffer.clone();
+		COBS.encode(buffer, 0, 1, 510);
+		for (int index = 0; index < 511; index++) {
+			assertNotEquals(0, buffer[index]);
+		}
+		int counter = COBS.decode(buffer, 0, 0, 511);
+		assertEquals(0, counter);
+		assertArrayEquals(original, buffer);
+	}
+
+	@Test
+	public void testLongBufferOverflow() {
+		byte[] buffer = new byte[512];
+		for (int index = 1; index < 511; index++) {
+			buffer[index] = 1;
+		}
+		assertThrows(IllegalStateException.class, () -> COBS.encode(buffer, 0, 1, 510));
+	}
+
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.heartbeat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PendingNodesTest {
+
+	@Test
+	public void testAddSchedulesOneDrain() {
+		var scheduled = new ArrayList<Runnable>();
+		var issued = new ArrayList<Integer>();
+		var pending = new PendingNodes(scheduled::add, issued::add);
+		pending.add(5);
+		pending.add(7);
+		pending.add(5);
+		assertTrue(issued.isEmpty()); // Nothing is issued on the calling (inbox) thread.
+		assertEquals(1, scheduled.size());
+		scheduled.get(0).run();
+		assertEquals(List.of(5, 7), issued);
+		pending.add(9); // The drain has finished, so another is scheduled.
+		assertEquals(2, scheduled.size());
+	}
+
+	@Test
+	public void testRemove() {
+		var scheduled = new ArrayList<Runnable>();
+		var issued = new ArrayList<Integer>();
+		var pending = new PendingNodes(scheduled::add, issued::add);
+		pending.add(5);
+		pending.add(7);
+		pending.remove(5); // The node went offline before its request was issued.
+		scheduled.get(0).run();
+		assertEquals(List.of(7), issued);
+	}
+
+	@Test
+	public void testRejectedDrainLeftForHeartbeat() {
+		var issued = new ArrayList<Integer>();
+		var pending = new PendingNodes(runnable -> { throw new RejectedExecutionException(); }, issued::add);
+		pending.add(5);
+		assertTrue(issued.isEmpty());
+		pending.drain(); // As called by the heartbeat.
+		assertEquals(List.of(5), issued);
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.loopback;
+
+import com.abstractfoundry.daemon.bus.BootstrapMetadata;
+import com.abstractfoundry.daemon.bus.FieldType;
+import com.abstractfoundry.daemon.bus.FlatDictionary;
+import com.abstractfoundry.daemon.bus.QueriedMetadata;
+import com.abstractfoundry.daemon.bus.RecursiveDictionary;
+import com.abstractfoundry.daemon.uavcan.NodeInfo;
+import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimulatedModuleTest {
+
+	private static SimulatedModule newModule() {
+		var metadata = new SimulatedMetadata("buttons")
+			.add("led_colour", FieldType.UINT, 3, 4, true)
+			.add("show", FieldType.BOOLEAN, 1, 1, true)
+			.add("button_pressed_count", FieldType.UINT, 4, 1, false, true);
+		return new SimulatedModule(100, "com.abstractfoundry.cube", "cube", metadata, 100);
+	}
+
+	@Test
+	public void testEnumerationMatchesMetadata() { // Enumerate as QueryMetadataTask does.
+		var module = newModule();
+		var response = new byte[256];
+		var bootstrapMetadata = new BootstrapMetadata();
+		RecursiveDictionary accumulated = null;
+		var key0 = 0;
+		var key1 = 0;
+		for (var iteration = 0; ; iteration++) {
+			assertTrue(iteration < 10);
+			var query = new byte[] { 0x12, (byte) key0, (byte) (key0 >> 8), 0x01, 0x01, 0x12, (byte) key1, (byte) (key1 >> 8) };
+			var length = module.respond(TypeId.ENUMERATE_FIELDS, query, 0, query.length, response);
+			var results = RecursiveDictionary.deserialise(response, 0, length, bootstrapMetadata);
+			accumulated = accumulated == null ? results : accumulated.merge(results);
+			try {
+				key0 = results.lastKey();
+				key1 = ((RecursiveDictionary) results.get(key0)).lastKey() + 1;
+			} catch (NoSuchElementException exception) {
+				break;
+			}
+		}
+		var metadata = new QueriedMetadata(accumulated);
+		assertEquals(3, metadata.keys().size());
+		assertEquals("show", metadata.name(4));
+		assertEquals(FieldType.UINT, metadata.type(0));
+		assertEquals(3, metadata.size(0));
+		assertEquals(4, metadata.span(0));
+		assertEquals(0, metadata.floor(3));
+		assertEquals("buttons", metadata.module(5));
+	}
+
+	@Test
+	public void testSetFieldsArePublished() {
+		var module = newModule();
+		var request = new byte[64];
+		var response = new byte[256];
+		var metadata = new SimulatedMetadata("buttons")
+			.add("led_colour", FieldType.UINT, 3, 4, true)
+			.add("show", FieldType.BOOLEAN, 1, 1, true)
+			.add("button_pressed_count", FieldType.UINT, 4, 1, false, true);
+		var length = FlatDictionary.serialise(request, 0, new int[] { 1, 2, 5 }, new int[] { 0x123456, 7, 42 }, 0, 3, metadata);
+		assertEquals(0, module.respond(TypeId.SET_FIELDS + 3, request, 0, length, response));
+		assertEquals(3, module.getSetCount());
+		assertEquals(-1, module.publish(response)); // Not yet subscribed.
+		var subscription = new byte[] { 10, 100 };
+		module.respond(TypeId.SUBSCRIBE_DEFAULT_FIELDS, subscription, 0, subscription.length, response);
+		length = module.publish(response);
+		var keys = new int[8];
+		var values = new int[8];
+		assertEquals(1, FlatDictionary.deserialise(response, 0, length, keys, values, 0, metadata));
+		assertEquals(5, keys[0]);
+		assertEquals(42, values[0]);
+	}
+
+	@Test
+	public void testNodeInfo() {
+		var module = newModule();
+		var response = new byte[256];
+		var length = module.respond(TypeId.GET_NODE_INFO, new byte[0], 0, 0, response);
+		var info = NodeInfo.deserialise(response, 0, length);
+		assertEquals("com.abstractfoundry.cube", info.getName());
+		assertEquals(0, info.getHealth());
+	}
+
+}
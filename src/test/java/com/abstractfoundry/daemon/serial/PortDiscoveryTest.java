@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+import com.abstractfoundry.daemon.common.COBS;
+import com.abstractfoundry.daemon.common.CRC16;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PortDiscoveryTest {
+
+	private static byte[] encode(int... payload) { // COBS encoded frame with CRC, excluding the delimiter.
+		var frame = new byte[payload.length + 3];
+		for (var index = 0; index < payload.length; index++) {
+			frame[index + 1] = (byte) payload[index];
+		}
+		var checksum = CRC16.calculate(frame, 1, payload.length);
+		frame[payload.length + 1] = (byte) ((checksum >> 8) & 0xFF);
+		frame[payload.length + 2] = (byte) (checksum & 0xFF);
+		COBS.encode(frame, 0, 1, payload.length + 2);
+		return frame;
+	}
+
+	private static boolean isPong(byte[] frame) {
+		return PortDiscovery.isPong(Arrays.copyOf(frame, frame.length), frame.length); // Note: Decoded in place.
+	}
+
+	@Test
+	public void testValidPong() {
+		assertTrue(isPong(encode(0xFF, 1)));
+		assertTrue(isPong(encode(0xFF, 2)));
+	}
+
+	@Test
+	public void testUnsupportedVersion() {
+		assertFalse(isPong(encode(0xFF, 0)));
+	}
+
+	@Test
+	public void testOtherCommand() {
+		assertFalse(isPong(encode(0xAA, 1))); // ACKNOWLEDGE.
+		assertFalse(isPong(encode(0x00, 1)));
+	}
+
+	@Test
+	public void testTruncatedFrame() {
+		var frame = encode(0xFF);
+		assertFalse(isPong(frame)); // No version byte.
+		assertFalse(isPong(Arrays.copyOf(encode(0xFF, 1), 4)));
+	}
+
+	@Test
+	public void testCorruptedCRC() {
+		var frame = encode(0xFF, 1);
+		frame[frame.length - 1] ^= 0x01;
+		if (frame[frame.length - 1] == 0) {
+			frame[frame.length - 1] = 0x02; // Keep the frame free of NULL bytes, as if delimited.
+		}
+		assertFalse(isPong(frame));
+	}
+
+	@Test
+	public void testCorruptedCOBS() {
+		var frame = encode(0xFF, 1);
+		frame[0] = 0x7F; // Overhead byte points beyond the end of the frame.
+		assertFalse(isPong(frame));
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SerialLinkTest {
+
+	static class FakePort implements SerialPorts.Port {
+
+		private final String name;
+		private final String description;
+		boolean openable = true;
+		int openCount = 0;
+		int closeCount = 0;
+		InputStream inputStream = new ByteArrayInputStream(new byte[0]);
+		OutputStream outputStream = new ByteArrayOutputStream();
+
+		FakePort(String name, String description) {
+			this.name = name;
+			this.description = description;
+		}
+
+		@Override
+		public String getSystemPortName() {
+			return name;
+		}
+
+		@Override
+		public String getPortDescription() {
+			return description;
+		}
+
+		@Override
+		public boolean open() {
+			if (openable) {
+				openCount++;
+			}
+			return openable;
+		}
+
+		@Override
+		public void close() {
+			closeCount++;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return inputStream;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return outputStream;
+		}
+
+	}
+
+	static class FakePorts implements SerialPorts {
+
+		final Map<String, FakePort> devices = new HashMap<>(); // By path, including any stable paths.
+		final Map<String, String> stablePaths = new HashMap<>();
+		int findCount = 0;
+		int availableAfter = 0; // Number of calls to find before any device reappears.
+
+		@Override
+		public synchronized Port find(String path) {
+			return findCount++ < availableAfter ? null : devices.get(path);
+		}
+
+		@Override
+		public synchronized List<Port> list() {
+			return findCount < availableAfter ? List.of() : new ArrayList<>(devices.values());
+		}
+
+		@Override
+		public String stablePath(String systemPortName) {
+			return stablePaths.get(systemPortName);
+		}
+
+	}
+
+	@Test
+	public void testRecoverPrefersStablePath() throws InterruptedException {
+		var ports = new FakePorts();
+		var original = new FakePort("ttyUSB0", "Cube");
+		ports.stablePaths.put("ttyUSB0", "/dev/serial/by-id/usb-cube");
+		var link = new SerialLink(original, ports);
+		assertTrue(link.open());
+		var renamed = new FakePort("ttyUSB1", "Cube");
+		ports.devices.put("/dev/serial/by-id/usb-cube", renamed); // The kernel assigned a different tty after the reset.
+		ports.devices.put("ttyUSB0", new FakePort("ttyUSB0", "Other"));
+		assertEquals(1, link.recover(0));
+		assertEquals(1, original.closeCount);
+		assertEquals(1, renamed.openCount);
+		assertSame(renamed.getInputStream(), link.getInputStream());
+		assertEquals(1, link.recover(0)); // Already recovered by another thread.
+		assertEquals(1, renamed.openCount);
+	}
+
+	@Test
+	public void testRecoverFallsBackToPathThenDescription() throws InterruptedException {
+		var ports = new FakePorts();
+		var link = new SerialLink(new FakePort("ttyUSB0", "Cube"), ports); // No stable path is known.
+		var samePath = new FakePort("ttyUSB0", "Cube");
+		ports.devices.put("ttyUSB0", samePath);
+		ports.devices.put("ttyUSB1", new FakePort("ttyUSB1", "Cube"));
+		assertEquals(1, link.recover(0));
+		assertEquals(1, samePath.openCount);
+		var sameDescription = new FakePort("ttyACM3", "Cube");
+		ports.devices.clear();
+		ports.devices.put("ttyS0", new FakePort("ttyS0", "Console"));
+		ports.devices.put("ttyACM3", sameDescription);
+		assertEquals(2, link.recover(1));
+		assertEquals(1, sameDescription.openCount);
+	}
+
+	@Test
+	public void testRecoverRetriesUntilDeviceReappears() throws InterruptedException {
+		var ports = new FakePorts();
+		var link = new SerialLink(new FakePort("ttyUSB0", null), ports);
+		var port = new FakePort("ttyUSB0", null);
+		ports.devices.put("ttyUSB0", port);
+		ports.availableAfter = 2;
+		assertEquals(-1, link.lastRecoveryMilliseconds());
+		assertEquals(1, link.recover(0));
+		assertEquals(3, ports.findCount);
+		assertEquals(0, link.recoveryCount()); // Not until the handshake has completed.
+		link.restored();
+		assertEquals(1, link.recoveryCount());
+		assertTrue(link.lastRecoveryMilliseconds() >= 0); // Note: Parking may return early, so the duration is not bounded below by the retry period.
+		link.restored(); // No outstanding recovery.
+		assertEquals(1, link.recoveryCount());
+	}
+
+	@Test
+	public void testRecoverIsInterruptible() {
+		var ports = new FakePorts(); // The device never reappears.
+		var link = new SerialLink(new FakePort("ttyUSB0", null), ports);
+		Thread.currentThread().interrupt();
+		assertThrows(InterruptedException.class, () -> link.recover(0));
+		assertFalse(Thread.interrupted());
+		assertEquals(0, link.generation());
+	}
+
+}
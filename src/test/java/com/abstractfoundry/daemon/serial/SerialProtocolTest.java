@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.serial;
+
+import com.abstractfoundry.daemon.common.COBS;
+import com.abstractfoundry.daemon.common.CRC16;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Exercises the serial protocol end to end, between the driver's ingress and
+ * egress threads and a simulated counterparty (the cube), joined by pipes.
+ */
+public class SerialProtocolTest {
+
+	private static final long TIMEOUT_MILLISECONDS = 5000L;
+	private static final long SETTLE_MILLISECONDS = 50L; // Time for the egress thread to act on feedback.
+
+	private enum Mode {
+		VERSION_2, // Supports version 2.
+		REFUSE_VERSION_2, // Version 1 counterparty which answers any other version with UNINITIALISED.
+		IGNORE_VERSION_2 // Version 1 counterparty which ignores any other version.
+	}
+
+	private static class Counterparty extends Thread {
+
+		private final PipedInputStream input;
+		private final PipedOutputStream output;
+		volatile Mode mode;
+		volatile boolean dropping = false; // Neither deliver nor acknowledge any frame.
+		final Set<Integer> dropOnce = ConcurrentHashMap.newKeySet(); // Sequence numbers of frames whose first transmission is lost.
+		final int[] transmissions = new int[256]; // Per sequence number, the number of frames received.
+		final List<byte[]> received = Collections.synchronizedList(new ArrayList<>()); // Messages delivered, in order.
+		final List<Integer> codes = Collections.synchronizedList(new ArrayList<>()); // Command codes of the frames received.
+		final List<Integer> deliveredCodes = Collections.synchronizedList(new ArrayList<>()); // Command codes of the frames delivered, in order.
+		volatile int version = 0; // Negotiated for the frames we receive.
+		volatile int initialisedVersion = -1; // Answered by the driver for the frames we send.
+		volatile int pongVersion = -1;
+		volatile int acknowledgement = -1; // Cumulative sequence number, with any bitmap in bits 8 to 23.
+		volatile int acknowledgementLength = -1;
+		private int accept = 0;
+		private final byte[][] reorder = new byte[EgressThread.WINDOW_SIZE][];
+
+		Counterparty(PipedInputStream input, PipedOutputStream output, Mode mode) {
+			super("Counterparty");
+			this.input = input;
+			this.output = output;
+			this.mode = mode;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			var frame = new byte[1024];
+			var pointer = 0;
+			try {
+				int value;
+				while ((value = input.read()) >= 0) {
+					if (value != 0x00) {
+						frame[pointer++] = (byte) value;
+					} else if (pointer >= 4) {
+						if (COBS.decode(frame, 0, 0, pointer) == 0 && CRC16.calculate(frame, 1, pointer - 1) == 0) {
+							handle(frame, pointer);
+						}
+						pointer = 0;
+					}
+				}
+			} catch (IOException exception) {
+				// Interrupted, or the pipe was closed.
+			}
+		}
+
+		private void handle(byte[] frame, int length) throws IOException {
+			var code = frame[1] & 0xFF;
+			switch (code) {
+				case 0x00: // PING.
+					send(0xFF, 1);
+					break;
+				case 0xFF: // PONG.
+					pongVersion = frame[2] & 0xFF;
+					break;
+				case 0xAA: // ACKNOWLEDGE.
+					acknowledgementLength = length;
+					acknowledgement = length >= 7 ? (frame[2] & 0xFF) | (frame[3] & 0xFF) << 8 | (frame[4] & 0xFF) << 16 : frame[2] & 0xFF;
+					break;
+				case 0xB4: // INITIALISED.
+					initialisedVersion = length >= 5 ? frame[2] & 0xFF : 1;
+					break;
+				case 0x1E: // INITIALISE.
+					initialise(frame[2] & 0xFF, frame[3] & 0xFF);
+					break;
+				case 0x2D: // MESSAGE.
+				case 0x2E: // BUNDLE.
+					message(frame, length);
+					break;
+				default:
+					break;
+			}
+		}
+
+		private void initialise(int proposed, int sequence) throws IOException {
+			if (proposed > 1 && mode == Mode.REFUSE_VERSION_2) {
+				send(0xCC); // UNINITIALISED.
+				return;
+			} else if (proposed > 1 && mode == Mode.IGNORE_VERSION_2) {
+				return;
+			}
+			accept = sequence;
+			Arrays.fill(reorder, null);
+			version = Math.min(proposed, 2);
+			if (version >= 2) {
+				send(0xB4, version);
+			} else {
+				send(0xB4);
+			}
+		}
+
+		private void message(byte[] frame, int length) throws IOException {
+			var sequence = frame[length - 3] & 0xFF;
+			synchronized (transmissions) {
+				transmissions[sequence]++;
+			}
+			codes.add(frame[1] & 0xFF);
+			if (dropping || dropOnce.remove(sequence)) {
+				return;
+			}
+			if (sequence == accept) {
+				deliver(Arrays.copyOf(frame, length));
+				accept = mod(accept + 1);
+				while (reorder[accept % EgressThread.WINDOW_SIZE] != null) {
+					deliver(reorder[accept % EgressThread.WINDOW_SIZE]);
+					reorder[accept % EgressThread.WINDOW_SIZE] = null;
+					accept = mod(accept + 1);
+				}
+			} else if (version >= 2 && mod(sequence - accept) < EgressThread.WINDOW_SIZE) {
+				reorder[sequence % EgressThread.WINDOW_SIZE] = Arrays.copyOf(frame, length);
+			}
+			if (version >= 2) {
+				var bitmap = 0;
+				for (var bit = 0; bit < EgressThread.WINDOW_SIZE; bit++) {
+					if (reorder[mod(accept + bit) % EgressThread.WINDOW_SIZE] != null) {
+						bitmap |= 1 << bit;
+					}
+				}
+				send(0xAA, mod(accept - 1), bitmap & 0xFF, bitmap >> 8);
+			} else {
+				send(0xAA, mod(accept - 1));
+			}
+		}
+
+		private void deliver(byte[] frame) {
+			var end = frame.length - 3; // Excludes the sequence and CRC bytes.
+			deliveredCodes.add(frame[1] & 0xFF);
+			if ((frame[1] & 0xFF) == 0x2E) {
+				for (var offset = 2; offset < end;) {
+					var size = frame[offset] & 0xFF | (frame[offset + 1] & 0xFF) << 8;
+					received.add(Arrays.copyOfRange(frame, offset + 2, offset + 2 + size));
+					offset += 2 + size;
+				}
+			} else {
+				received.add(Arrays.copyOfRange(frame, 1, end));
+			}
+		}
+
+		void send(int... payload) throws IOException {
+			var frame = new byte[payload.length + 4];
+			for (var index = 0; index < payload.length; index++) {
+				frame[index + 1] = (byte) payload[index];
+			}
+			var checksum = CRC16.calculate(frame, 1, payload.length);
+			frame[payload.length + 1] = (byte) ((checksum >> 8) & 0xFF);
+			frame[payload.length + 2] = (byte) (checksum & 0xFF);
+			COBS.encode(frame, 0, 1, payload.length + 2);
+			frame[payload.length + 3] = 0x00; // DELIMITER.
+			synchronized (output) {
+				output.write(frame);
+				output.flush();
+			}
+		}
+
+		int transmissions(int sequence) {
+			synchronized (transmissions) {
+				return transmissions[sequence];
+			}
+		}
+
+		private static int mod(int value) {
+			return Math.floorMod(value, 256);
+		}
+
+	}
+
+	private final List<byte[]> inbox = Collections.synchronizedList(new ArrayList<>()); // Messages delivered by the driver.
+	private Counterparty counterparty;
+	private SerialDriver driver;
+
+	private void connect(Mode mode) throws IOException {
+		var driverInput = new PipedInputStream(65536);
+		var counterpartyOutput = new PipedOutputStream(driverInput);
+		var counterpartyInput = new PipedInputStream(65536);
+		var driverOutput = new PipedOutputStream(counterpartyInput);
+		counterparty = new Counterparty(counterpartyInput, counterpartyOutput, mode);
+		counterparty.start();
+		var port = new SerialLinkTest.FakePort("ttyFake", null);
+		port.inputStream = driverInput;
+		port.outputStream = driverOutput;
+		driver = new SerialDriver(this::receive, this::receive, (bytes, length) -> false, new SerialLink(port, new SerialLinkTest.FakePorts()));
+		driver.start();
+	}
+
+	private void disconnect() {
+		driver.stop();
+		counterparty.interrupt();
+	}
+
+	private void receive(DecodedFrame frame) {
+		inbox.add(Arrays.copyOfRange(frame.getBytes(), 1, frame.getLength() - 3)); // Excludes the COBS, sequence and CRC bytes.
+	}
+
+	private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+		var deadline = System.currentTimeMillis() + TIMEOUT_MILLISECONDS;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Timed out awaiting " + description + ".");
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private void handshake(int expectedVersion) throws InterruptedException {
+		await(() -> counterparty.version == expectedVersion, "handshake");
+		Thread.sleep(SETTLE_MILLISECONDS);
+	}
+
+	private static byte[] message(int index) {
+		return new byte[] { 0x2D, (byte) index, (byte) (index + 1), (byte) (index + 2) };
+	}
+
+	private void submitTogether(int count) { // Published together, so accepted by the egress thread in a single batch.
+		driver.batch((frame, sequence, argument, index) -> {
+			var bytes = message(index);
+			frame.write(bytes, 0, bytes.length);
+		}, null, count);
+	}
+
+	private void assertReceived(int count) throws InterruptedException {
+		await(() -> counterparty.received.size() >= count, count + " messages");
+		Thread.sleep(SETTLE_MILLISECONDS); // Any duplicate would have arrived by now.
+		assertEquals(count, counterparty.received.size());
+		for (var index = 0; index < count; index++) {
+			assertArrayEquals(message(index), counterparty.received.get(index));
+		}
+	}
+
+	@Test
+	public void testVersion2BundlesAndSkipsSelectivelyAcknowledgedFrames() throws Exception {
+		connect(Mode.VERSION_2);
+		try {
+			handshake(2);
+			submitTogether(3); // A single BUNDLE frame (sequence 0).
+			assertReceived(3);
+			assertEquals(List.of(0x2E), counterparty.deliveredCodes);
+			counterparty.received.clear();
+			counterparty.dropOnce.add(2); // Lose the first transmission of the second of the following frames.
+			for (var index = 0; index < 4; index++) {
+				var bytes = message(index);
+				driver.submit(bytes, 0, bytes.length);
+				Thread.sleep(5); // Accepted separately, so each is an ordinary frame.
+			}
+			assertReceived(4);
+			assertEquals(2, counterparty.transmissions(2)); // Retransmitted.
+			assertEquals(1, counterparty.transmissions(3)); // Selectively acknowledged, so not retransmitted (unlike go-back-N).
+			assertEquals(1, counterparty.transmissions(4));
+		} finally {
+			disconnect();
+		}
+	}
+
+	@Test
+	public void testVersion2IngressReordersAndUnbundles() throws Exception {
+		connect(Mode.VERSION_2);
+		try {
+			counterparty.send(0x1E, 2, 0); // INITIALISE (version 2, sequence 0).
+			await(() -> counterparty.initialisedVersion == 2, "INITIALISED");
+			counterparty.send(0x2D, 0x0B, 1); // MESSAGE (sequence 1), ahead of sequence 0.
+			await(() -> counterparty.acknowledgement == (255 | 0b10 << 8), "selective acknowledgement");
+			assertEquals(7, counterparty.acknowledgementLength);
+			assertTrue(inbox.isEmpty()); // Held until the gap is filled.
+			counterparty.send(0x2E, 2, 0, 0x2D, 0x0A, 1, 0, 0x2D, 0); // BUNDLE (sequence 0) of two messages.
+			await(() -> inbox.size() == 3, "delivery");
+			assertArrayEquals(new byte[] { 0x2D, 0x0A }, inbox.get(0));
+			assertArrayEquals(new byte[] { 0x2D }, inbox.get(1));
+			assertArrayEquals(new byte[] { 0x2D, 0x0B }, inbox.get(2));
+			await(() -> counterparty.acknowledgement == 1, "cumulative acknowledgement");
+			counterparty.send(0x00); // PING.
+			await(() -> counterparty.pongVersion == 2, "PONG echoing the negotiated version");
+		} finally {
+			disconnect();
+		}
+	}
+
+	@Test
+	public void testFallbackWhenVersion2Refused() throws Exception {
+		connect(Mode.REFUSE_VERSION_2);
+		try {
+			handshake(1);
+			submitTogether(4);
+			assertReceived(4);
+			assertEquals(List.of(0x2D, 0x2D, 0x2D, 0x2D), counterparty.deliveredCodes); // Never bundled.
+			counterparty.send(0x1E, 1, 0); // INITIALISE (version 1, sequence 0).
+			await(() -> counterparty.initialisedVersion == 1, "INITIALISED");
+			counterparty.send(0x2D, 0x0A, 0); // MESSAGE (sequence 0).
+			await(() -> counterparty.acknowledgement == 0, "acknowledgement");
+			assertEquals(5, counterparty.acknowledgementLength); // Without a bitmap.
+			counterparty.send(0x00); // PING.
+			await(() -> counterparty.pongVersion == 1, "PONG echoing the negotiated version");
+		} finally {
+			disconnect();
+		}
+	}
+
+	@Test
+	public void testFallbackWhenVersion2Ignored() throws Exception {
+		connect(Mode.IGNORE_VERSION_2);
+		try {
+			handshake(1);
+			submitTogether(4);
+			assertReceived(4);
+			assertEquals(List.of(0x2D, 0x2D, 0x2D, 0x2D), counterparty.deliveredCodes);
+		} finally {
+			disconnect();
+		}
+	}
+
+	@Test
+	public void testBundlesReencodedWhenReinitialisedAsVersion1() throws Exception {
+		connect(Mode.VERSION_2);
+		try {
+			handshake(2);
+			counterparty.dropping = true;
+			submitTogether(4);
+			await(() -> !counterparty.codes.isEmpty(), "BUNDLE");
+			assertEquals(0x2E, (int) counterparty.codes.get(0));
+			counterparty.mode = Mode.REFUSE_VERSION_2; // E.g. the cube was reflashed with older firmware, whilst the bundle was in flight.
+			counterparty.dropping = false;
+			counterparty.version = 0;
+			counterparty.send(0xCC); // UNINITIALISED.
+			handshake(1);
+			assertReceived(4);
+			assertEquals(List.of(0x2D, 0x2D, 0x2D, 0x2D), counterparty.deliveredCodes);
+		} finally {
+			disconnect();
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.server;
+
+import com.abstractfoundry.daemon.rest.development.FaultsResource;
+import com.abstractfoundry.daemon.rest.resource.ModulesResource;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebServerTest {
+
+	@Test
+	public void testFaultsAbsentByDefault() {
+		assertFalse(Boolean.getBoolean("foundry.faults"));
+		var classes = WebServer.newResourceConfig(false).getClasses();
+		assertTrue(classes.contains(ModulesResource.class));
+		assertFalse(classes.contains(FaultsResource.class));
+	}
+
+	@Test
+	public void testFaultsRegisteredWhenEnabled() {
+		var classes = WebServer.newResourceConfig(true).getClasses();
+		assertTrue(classes.contains(ModulesResource.class));
+		assertTrue(classes.contains(FaultsResource.class));
+	}
+
+}
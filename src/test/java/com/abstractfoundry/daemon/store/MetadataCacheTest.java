@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.store;
+
+import com.abstractfoundry.daemon.uavcan.NodeInfo;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetadataCacheTest {
+
+	private static final byte[] RESPONSE = new byte[] { 0x01, 0x01, 0x01, 0x01, 0x04, 'd', 'a', 't', 'a' }; // Field 0, named "data".
+
+	private static NodeInfo newInfo(int minorVersion, boolean identified) {
+		var name = "com.abstractfoundry.microphone".getBytes(StandardCharsets.US_ASCII);
+		var buffer = new byte[41 + name.length];
+		buffer[7] = 1; // Major version.
+		buffer[8] = (byte) minorVersion;
+		if (identified) {
+			buffer[9] = 0x01; // Flags.
+			buffer[10] = (byte) 0xEF; // VCS commit.
+			buffer[11] = (byte) 0xBE;
+		}
+		buffer[24] = 0x12; // UUID.
+		buffer[39] = 0x34;
+		System.arraycopy(name, 0, buffer, 41, name.length);
+		return NodeInfo.deserialise(buffer, 0, buffer.length);
+	}
+
+	@Test
+	public void testEntrySurvivesReloadUntilReflashed() throws Exception {
+		var directory = Files.createTempDirectory("metadata").toFile();
+		try {
+			var info = newInfo(2, true);
+			assertEquals("1.2-0000beef", info.getFirmware());
+			new MetadataCache(directory).put(info, "microphone", List.of(RESPONSE));
+			var entry = new MetadataCache(directory).get(info);
+			assertNotNull(entry);
+			assertEquals("microphone", entry.getName());
+			assertEquals("data", entry.getMetadata().name(0));
+			var reflashed = newInfo(3, true);
+			var cache = new MetadataCache(directory);
+			assertNull(cache.get(reflashed));
+			cache.put(reflashed, "microphone", List.of(RESPONSE));
+			assertEquals(1, directory.listFiles().length); // The previous firmware's entry is discarded.
+			assertNull(new MetadataCache(directory).get(info));
+		} finally {
+			for (var file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testUnidentifiedFirmwareNotCached() throws Exception {
+		var directory = Files.createTempDirectory("metadata").toFile();
+		try {
+			var info = newInfo(2, false);
+			assertEquals("1.2", info.getFirmware());
+			assertFalse(info.isFirmwareIdentified());
+			var cache = new MetadataCache(directory);
+			cache.put(info, "microphone", List.of(RESPONSE));
+			assertNull(cache.get(info));
+			assertEquals(0, directory.listFiles().length);
+		} finally {
+			for (var file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.store;
+
+import com.abstractfoundry.daemon.bus.FieldType;
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShadowStateTest {
+
+	private static final SimulatedMetadata METADATA = new SimulatedMetadata(null)
+		.add("led_colour", FieldType.UINT, 3, 4, true) // Keys 0 to 3.
+		.add("show", FieldType.BOOLEAN, 1, 1, true) // Key 4.
+		.add("command", FieldType.UINT, 1, 1, true); // Key 5.
+
+	@Test
+	public void testOnlyChangedIdempotentFieldsAreElided() {
+		var shadow = new ShadowState().get(7);
+		var keys = new int[] {0, 1, 2, 3, 4, 5};
+		var values = new int[] {10, 20, 30, 40, 1, 9};
+		assertEquals(6, shadow.delta(keys, values, 0, 6, METADATA)); // First request is a full refresh.
+		shadow.commit(keys, values, 0, 6, METADATA);
+		keys = new int[] {0, 1, 2, 3, 4, 5};
+		values = new int[] {10, 21, 30, 40, 1, 9};
+		assertEquals(3, shadow.delta(keys, values, 0, 6, METADATA)); // The changed colour, the show trigger and the repeated command.
+		assertArrayEquals(new int[] {1, 4, 5}, new int[] {keys[0], keys[1], keys[2]});
+		assertArrayEquals(new int[] {21, 1, 9}, new int[] {values[0], values[1], values[2]});
+		shadow.commit(keys, values, 0, 3, METADATA);
+		keys = new int[] {1, 2};
+		values = new int[] {21, 30};
+		assertEquals(0, shadow.delta(keys, values, 0, 2, METADATA));
+	}
+
+	@Test
+	public void testUncommittedAndInvalidatedFieldsAreResent() {
+		var state = new ShadowState();
+		var shadow = state.get(7);
+		var keys = new int[] {0, 1};
+		var values = new int[] {10, 20};
+		shadow.delta(keys, values, 0, 2, METADATA);
+		shadow.commit(keys, values, 0, 2, METADATA);
+		values[1] = 25;
+		assertEquals(1, shadow.delta(keys, values, 0, 2, METADATA)); // E.g. backed off, so not committed.
+		keys = new int[] {0, 1};
+		values = new int[] {10, 25};
+		assertEquals(1, shadow.delta(keys, values, 0, 2, METADATA));
+		assertEquals(2, state.get(8).delta(keys, values, 0, 2, METADATA)); // Shadows are per node.
+		state.invalidate(7); // E.g. the node rebooted.
+		assertEquals(2, shadow.delta(keys, values, 0, 2, METADATA));
+	}
+
+	@Test
+	public void testTimeoutForgetsShadow() throws Exception {
+		var state = new ShadowState();
+		var shadow = state.get(7);
+		var keys = new int[] {0, 1};
+		var values = new int[] {10, 20};
+		shadow.delta(keys, values, 0, 2, METADATA);
+		var continued = new AtomicInteger();
+		var timedOut = new AtomicInteger();
+		var first = state.guard(7, continued::incrementAndGet, timedOut::incrementAndGet);
+		shadow.commit(keys, values, 0, 2, METADATA);
+		first.getContinuationTask().run(); // Acknowledged.
+		assertEquals(0, shadow.delta(keys, values, 0, 2, METADATA));
+		var second = state.guard(7, continued::incrementAndGet, timedOut::incrementAndGet);
+		second.getTimeoutTask().run(); // Lost.
+		assertEquals(2, shadow.delta(keys, values, 0, 2, METADATA));
+		assertEquals(1, continued.get());
+		assertEquals(1, timedOut.get());
+		state.guard(7, null, null).getTimeoutTask().run(); // Without tasks, for requests which are not awaited.
+	}
+
+}
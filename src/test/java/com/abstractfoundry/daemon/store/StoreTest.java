@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.store;
+
+import com.abstractfoundry.daemon.bus.FieldType;
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoreTest {
+
+	private static final SimulatedMetadata METADATA = new SimulatedMetadata(null)
+		.add("led_colour", FieldType.UINT, 2, 4, true); // Keys 0 and 1.
+
+	private static Store newStore(List<String> events) { // Note: The Redis pool only connects on first use, which these tests avoid.
+		var store = new Store("localhost", 6379);
+		store.addNodeListener(new NodeListener() {
+			@Override
+			public void online(int id) {
+				assertTrue(store.isConnected(id)); // Notified once the store is up to date.
+				events.add("online " + id);
+			}
+			@Override
+			public void resynchronise(int id) {
+				assertTrue(store.isConnected(id));
+				events.add("resynchronise " + id);
+			}
+			@Override
+			public void offline(int id) {
+				assertFalse(store.isConnected(id));
+				assertNull(store.getPreferredName(id));
+				events.add("offline " + id);
+			}
+		});
+		return store;
+	}
+
+	@Test
+	public void testOnlineOnFirstStatus() {
+		var events = new ArrayList<String>();
+		var store = newStore(events);
+		assertTrue(store.addConnectedId(5, 10, 0));
+		assertFalse(store.addConnectedId(5, 11, 0));
+		assertFalse(store.addConnectedId(5, 11, 0)); // Uptime is only coarse, so may repeat.
+		assertTrue(store.isConnected(5));
+		assertEquals(List.of("online 5"), events);
+	}
+
+	@Test
+	public void testRebootInvalidatesAndResynchronises() {
+		var events = new ArrayList<String>();
+		var store = newStore(events);
+		store.addConnectedId(5, 100, 0);
+		store.putPreferredName(5, "display");
+		store.putMetadata(5, METADATA);
+		store.putPreferredName(6, "speaker");
+		assertNotNull(store.getNamespace().getModule("display"));
+		assertTrue(store.addConnectedId(5, 2, 0)); // Uptime went backwards.
+		assertNull(store.getPreferredName(5));
+		assertNull(store.getNamespace().getModule("display"));
+		assertEquals("speaker", store.getPreferredName(6)); // Other nodes are unaffected.
+		assertTrue(store.isConnected(5));
+		assertFalse(store.addConnectedId(5, 3, 0));
+		assertEquals(List.of("online 5", "resynchronise 5"), events);
+	}
+
+	@Test
+	public void testStatusChangeResynchronisesWithoutInvalidating() {
+		var events = new ArrayList<String>();
+		var store = newStore(events);
+		store.addConnectedId(5, 100, 0);
+		store.putPreferredName(5, "display");
+		var shadow = store.getShadowState().get(5);
+		var keys = new int[] {0, 1};
+		var values = new int[] {10, 20};
+		shadow.delta(keys, values, 0, 2, METADATA);
+		shadow.commit(keys, values, 0, 2, METADATA);
+		assertEquals(0, shadow.delta(keys, values, 0, 2, METADATA));
+		assertTrue(store.addConnectedId(5, 101, 1)); // E.g. the health changed.
+		assertEquals("display", store.getPreferredName(5));
+		assertEquals(2, shadow.delta(keys, values, 0, 2, METADATA)); // The node may have lost the values last set.
+		assertEquals(List.of("online 5", "resynchronise 5"), events);
+	}
+
+	@Test
+	public void testEvictOfflineIds() throws Exception {
+		var events = new ArrayList<String>();
+		var store = newStore(events);
+		store.addConnectedId(5, 100, 0);
+		store.addConnectedId(6, 100, 0);
+		store.putPreferredName(5, "display");
+		store.putMetadata(5, METADATA);
+		assertNotNull(store.getNamespace().getModule("display"));
+		assertTrue(store.evictOfflineIds(60000).isEmpty());
+		Thread.sleep(200);
+		store.addConnectedId(6, 101, 0); // Only node 6 is still alive.
+		assertEquals(List.of(5), store.evictOfflineIds(100));
+		assertFalse(store.isConnected(5));
+		assertTrue(store.isConnected(6));
+		assertNull(store.getPreferredName(5));
+		assertNull(store.getNamespace().getModule("display"));
+		assertTrue(store.evictOfflineIds(60000).isEmpty()); // Only evicted once.
+		assertTrue(store.addConnectedId(5, 200, 0)); // Back online, rather than rebooted.
+		assertEquals(List.of("online 5", "online 6", "offline 5", "online 5"), events);
+	}
+
+}
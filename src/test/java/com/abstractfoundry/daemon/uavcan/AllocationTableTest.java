@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.nio.file.Files;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AllocationTableTest {
+
+	private static final UUID FIRST = new UUID(1, 1);
+	private static final UUID SECOND = new UUID(2, 2);
+
+	@Test
+	public void testAllocationSurvivesReload() throws Exception {
+		var file = Files.createTempFile("allocations", ".txt").toFile();
+		try {
+			var table = new AllocationTable(file);
+			table.reserve(1);
+			table.observe(125); // Seen in use, but of unknown UUID.
+			assertEquals(124, table.allocate(FIRST, 0)); // Highest free ID.
+			assertEquals(124, table.allocate(FIRST, 0)); // Same again.
+			table.observe(30, SECOND);
+			assertEquals(0, file.length()); // Not yet flushed.
+			table.flush();
+			var reloaded = new AllocationTable(file);
+			assertEquals(124, reloaded.getNodeId(FIRST));
+			assertEquals(30, reloaded.getNodeId(SECOND));
+			assertEquals(SECOND, reloaded.getUuid(30));
+			assertFalse(reloaded.isAllocated(125)); // Only bindings are persisted.
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testObservationReplacesBinding() {
+		var table = new AllocationTable();
+		assertEquals(10, table.allocate(FIRST, 10));
+		assertEquals(11, table.allocate(SECOND, 10)); // Nearest free ID above the preference.
+		table.observe(20, FIRST); // The node has since taken another ID.
+		assertEquals(20, table.getNodeId(FIRST));
+		assertNull(table.getUuid(10));
+		assertFalse(table.isAllocated(10));
+		table.observe(11, FIRST); // ...and another, displacing the other node's binding.
+		assertEquals(0, table.getNodeId(SECOND));
+		assertEquals(11, table.getNodeId(FIRST));
+	}
+
+	@Test
+	public void testPreferenceFallsBackBelow() {
+		var table = new AllocationTable();
+		for (var id = 120; id <= AllocationTable.MAXIMUM_ALLOCATED_ID; id++) {
+			table.observe(id);
+		}
+		assertEquals(119, table.allocate(FIRST, 127));
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class BatchRequestTest {
+
+	private static final int BATCH_SIZE = 8;
+
+	private static class EchoNode extends Node { // Responds to every request immediately, on the requesting thread.
+
+		private final byte[] response = new byte[0];
+		private int sentCount = 0;
+
+		EchoNode() {
+			super(1, (sourceId, typeId, transferId, priority, buffer, offset, length) -> {});
+		}
+
+		@Override
+		protected void sendBroadcast(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		}
+
+		@Override
+		protected void sendRequest(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+			sentCount++;
+			receiveResponse(destinationId, sourceId, typeId, transferId, priority, response, 0, 0);
+		}
+
+		@Override
+		protected void sendRequests(BatchRequest batch) {
+			for (var index = 0; index < batch.getCount(); index++) {
+				var buffer = batch.getBuffer(index);
+				sendRequest(batch.getSourceId(), batch.getDestinationId(), batch.getTypeId(index), batch.getTransferId(index), batch.getPriority(), buffer.array(), buffer.position(), buffer.remaining());
+				buffer.position(buffer.limit());
+			}
+		}
+
+		@Override
+		protected void sendResponse(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		}
+
+		@Override
+		public void start() {
+		}
+
+	}
+
+	private static void requestBatches(EchoNode node, int iterations, ByteBuffer[] buffers, AtomicInteger completions, AtomicInteger timeouts) throws BackoffException {
+		Runnable continuationTask = completions::incrementAndGet;
+		Runnable timeoutTask = timeouts::incrementAndGet;
+		for (var iteration = 0; iteration < iterations; iteration++) {
+			var settled = completions.get() + timeouts.get();
+			for (var buffer : buffers) {
+				buffer.clear().limit(4);
+			}
+			node.request(3, TypeId.SET_FIELDS, 0, buffers, BATCH_SIZE, continuationTask, timeoutTask);
+			for (var buffer : buffers) {
+				assertFalse(buffer.hasRemaining());
+			}
+			while (completions.get() + timeouts.get() <= settled) {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	private static ByteBuffer[] newBuffers() {
+		var buffers = new ByteBuffer[BATCH_SIZE];
+		for (var index = 0; index < BATCH_SIZE; index++) {
+			buffers[index] = ByteBuffer.allocate(16);
+		}
+		return buffers;
+	}
+
+	@Test
+	public void testBatchedRequestsReusePooledInstances() throws BackoffException {
+		var node = new EchoNode();
+		var completions = new AtomicInteger();
+		var timeouts = new AtomicInteger();
+		var buffers = newBuffers();
+		requestBatches(node, 1_000, buffers, completions, timeouts); // Warm up.
+		var claimed = node.pooledClaimCount();
+		var constructed = node.pooledConstructedCount();
+		requestBatches(node, 10_000, buffers, completions, timeouts);
+		assertEquals(0, timeouts.get());
+		assertEquals(11_000 * BATCH_SIZE, node.sentCount);
+		assertEquals(claimed + 2 * 10_000, node.pooledClaimCount()); // A continuation and a batch for each request...
+		assertEquals(constructed, node.pooledConstructedCount()); // ...each of which was reused.
+	}
+
+	@Test
+	public void testBatchedRequestsDoNotAllocate() throws BackoffException {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		var node = new EchoNode();
+		var completions = new AtomicInteger();
+		var timeouts = new AtomicInteger();
+		var buffers = newBuffers();
+		requestBatches(node, 10_000, buffers, completions, timeouts); // Warm up.
+		var threadId = Thread.currentThread().getId();
+		var before = threads.getThreadAllocatedBytes(threadId);
+		requestBatches(node, 10_000, buffers, completions, timeouts);
+		var allocated = threads.getThreadAllocatedBytes(threadId) - before;
+		assertEquals(0, timeouts.get());
+		assertTrue(allocated < 10_000, "Allocated " + allocated + " bytes over 10000 batches."); // Allow for incidental allocation (for example by the JIT), but not per batch.
+	}
+
+}
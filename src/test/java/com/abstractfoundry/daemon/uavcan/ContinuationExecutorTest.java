@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContinuationExecutorTest {
+
+	private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+		var deadline = System.currentTimeMillis() + 5000L;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Timed out awaiting " + description + ".");
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		var executor = new ContinuationExecutor(2);
+		executor.start();
+		var completed = new AtomicInteger();
+		for (var index = 0; index < 10; index++) {
+			executor.execute(completed::incrementAndGet);
+		}
+		executor.execute(() -> { throw new IllegalStateException("Deliberate."); }); // Logged, and still counted.
+		await(() -> executor.executedCount() == 11, "execution");
+		assertEquals(10, completed.get());
+		assertTrue(executor.drainMeanLatencyMicroseconds() >= 0);
+		assertTrue(executor.drainMaximumLatencyMicroseconds() >= 0);
+		assertEquals(-1, executor.drainMeanLatencyMicroseconds()); // Drained.
+		assertEquals(0, executor.drainMaximumLatencyMicroseconds());
+		assertEquals(0, executor.blockedCount());
+		assertEquals(0, executor.backlog());
+	}
+
+	@Test
+	public void testSaturation() throws Exception {
+		var executor = new ContinuationExecutor(1);
+		executor.start();
+		var gate = new CountDownLatch(1);
+		executor.execute(() -> {
+			try {
+				gate.await(); // Hold the only worker.
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertTrue(executor.admit());
+		var total = ContinuationExecutor.CONTINUATION_SIZE + 1;
+		var submitter = new Thread(() -> {
+			for (var index = 0; index < total; index++) {
+				executor.execute(() -> {});
+			}
+		});
+		submitter.start();
+		await(() -> executor.blockedCount() > 0, "the submitter to block");
+		assertTrue(submitter.isAlive()); // Waiting for a slot, rather than running the task itself.
+		assertFalse(executor.admit()); // So new requests are refused.
+		assertFalse(executor.admit());
+		assertEquals(2, executor.refusedCount());
+		gate.countDown();
+		submitter.join();
+		await(() -> executor.executedCount() == total + 1, "the backlog to drain");
+		assertTrue(executor.admit());
+		assertEquals(2, executor.refusedCount());
+	}
+
+}
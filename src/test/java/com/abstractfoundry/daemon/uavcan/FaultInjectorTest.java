@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FaultInjectorTest {
+
+	private static final byte[] PAYLOAD = new byte[] { 1, 2, 3 };
+
+	@Test
+	public void testPassThroughWhenInactive() {
+		var injector = new FaultInjector();
+		var deliveries = new AtomicInteger();
+		assertFalse(injector.isActive());
+		injector.inject(FaultInjector.Kind.REQUEST, TypeId.SET_FIELDS, 3, PAYLOAD, 0, PAYLOAD.length, (buffer, offset, length) -> {
+			assertSame(PAYLOAD, buffer); // No copy.
+			deliveries.incrementAndGet();
+		});
+		assertEquals(1, deliveries.get());
+	}
+
+	@Test
+	public void testMostSpecificImpairmentApplies() {
+		var injector = new FaultInjector();
+		var deliveries = new AtomicInteger();
+		injector.setDefaultImpairment(new FaultInjector.Impairment(1.0, 0.0, 0.0, 0, 0)); // Drop everything...
+		injector.setTypeImpairment(FaultInjector.Kind.RESPONSE, TypeId.GET_NODE_INFO, new FaultInjector.Impairment(0.0, 1.0, 0.0, 0, 0)); // ...except duplicate these...
+		injector.setNodeImpairment(5, FaultInjector.Impairment.NONE); // ...and leave this node alone.
+		assertTrue(injector.isActive());
+		injector.inject(FaultInjector.Kind.REQUEST, TypeId.SET_FIELDS, 3, PAYLOAD, 0, PAYLOAD.length, (buffer, offset, length) -> deliveries.incrementAndGet());
+		assertEquals(0, deliveries.get());
+		injector.inject(FaultInjector.Kind.RESPONSE, TypeId.GET_NODE_INFO, 3, PAYLOAD, 0, PAYLOAD.length, (buffer, offset, length) -> deliveries.incrementAndGet());
+		assertEquals(2, deliveries.get());
+		injector.inject(FaultInjector.Kind.REQUEST, TypeId.SET_FIELDS, 5, PAYLOAD, 0, PAYLOAD.length, (buffer, offset, length) -> deliveries.incrementAndGet());
+		assertEquals(3, deliveries.get());
+		injector.clear();
+		assertFalse(injector.isActive());
+	}
+
+	@Test
+	public void testInvalidImpairment() {
+		assertThrows(IllegalArgumentException.class, () -> new FaultInjector.Impairment(1.5, 0.0, 0.0, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> new FaultInjector.Impairment(0.0, 0.0, 0.0, -1, 0));
+		var injector = new FaultInjector();
+		assertThrows(IllegalArgumentException.class, () -> injector.setNodeImpairment(0, FaultInjector.Impairment.NONE)); // Would match every outgoing broadcast.
+		assertThrows(IllegalArgumentException.class, () -> injector.setNodeImpairment(128, FaultInjector.Impairment.NONE));
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NodeTest {
+
+	private static final int DESTINATION_ID = 3;
+	private static final int TIMEOUT = 60000; // Milliseconds, i.e. nothing expires during a test.
+	private static final int CAPACITY = TypeId.SET_FIELDS_COUNT * 32; // Transfer IDs in flight to one destination, across every alias.
+
+	private static class RecordingNode extends Node { // Records every request sent, without responding.
+
+		private final ArrayList<int[]> sent = new ArrayList<>(); // Type ID and transfer ID pairs.
+
+		RecordingNode() {
+			super(1, (sourceId, typeId, transferId, priority, buffer, offset, length) -> {});
+		}
+
+		@Override
+		protected void sendBroadcast(int sourceId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		}
+
+		@Override
+		protected synchronized void sendRequest(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+			sent.add(new int[] { typeId, transferId });
+		}
+
+		@Override
+		protected void sendRequests(BatchRequest batch) {
+			for (var index = 0; index < batch.getCount(); index++) {
+				sendRequest(batch.getSourceId(), batch.getDestinationId(), batch.getTypeId(index), batch.getTransferId(index), batch.getPriority(), null, 0, 0);
+			}
+		}
+
+		@Override
+		protected void sendResponse(int sourceId, int destinationId, int typeId, int transferId, int priority, byte[] buffer, int offset, int length) {
+		}
+
+		@Override
+		public void start() {
+		}
+
+		synchronized ArrayList<int[]> drainSent() {
+			var drained = new ArrayList<>(sent);
+			sent.clear();
+			return drained;
+		}
+
+		void respond(int[] transfer) {
+			receiveResponse(DESTINATION_ID, 1, transfer[0], transfer[1], 0, new byte[0], 0, 0);
+		}
+
+	}
+
+	private static ByteBuffer[] buffers(int count) {
+		var buffers = new ByteBuffer[count];
+		for (var index = 0; index < count; index++) {
+			buffers[index] = ByteBuffer.allocate(4);
+		}
+		return buffers;
+	}
+
+	private static int nextAlias(int typeId) {
+		return TypeId.SET_FIELDS + (typeId - TypeId.SET_FIELDS + 1) % TypeId.SET_FIELDS_COUNT;
+	}
+
+	private static void assertExhausted(RecordingNode node) throws InterruptedException {
+		var future = node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, new byte[4], 0, 4, TIMEOUT);
+		var exception = assertThrows(ExecutionException.class, () -> future.get(0, TimeUnit.SECONDS));
+		assertTrue(exception.getCause() instanceof BackoffException);
+	}
+
+	@Test
+	public void testSingleRequestsRotateAliases() throws Exception {
+		var node = new RecordingNode();
+		for (var index = 0; index < TypeId.SET_FIELDS_COUNT; index++) {
+			node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, new byte[4], 0, 4, TIMEOUT);
+		}
+		var sent = node.drainSent();
+		var typeIds = new HashSet<Integer>();
+		for (var index = 0; index < sent.size(); index++) {
+			var transfer = sent.get(index);
+			assertTrue(transfer[0] >= TypeId.SET_FIELDS && transfer[0] < TypeId.SET_FIELDS + TypeId.SET_FIELDS_COUNT);
+			assertEquals(0, transfer[1]); // Each under its own alias.
+			if (index > 0) {
+				assertEquals(nextAlias(sent.get(index - 1)[0]), transfer[0]);
+			}
+			typeIds.add(transfer[0]);
+		}
+		assertEquals(TypeId.SET_FIELDS_COUNT, typeIds.size());
+		node.requestAsync(DESTINATION_ID, TypeId.GET_NODE_INFO, 0, new byte[0], 0, 0, TIMEOUT); // Services with a single type ID are never spread.
+		assertArrayEquals(new int[] { TypeId.GET_NODE_INFO, 0 }, node.drainSent().get(0));
+	}
+
+	@Test
+	public void testBatchSpillsAcrossAliases() throws Exception {
+		var node = new RecordingNode();
+		var count = 40;
+		var future = node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, buffers(count), count, TIMEOUT);
+		var sent = node.drainSent();
+		assertEquals(count, sent.size());
+		var first = sent.get(0)[0];
+		for (var index = 0; index < count; index++) {
+			var transfer = sent.get(index);
+			if (index < 32) {
+				assertArrayEquals(new int[] { first, index }, transfer); // The same alias is filled first...
+			} else {
+				assertArrayEquals(new int[] { nextAlias(first), index - 32 }, transfer); // ...before spilling into the next.
+			}
+		}
+		for (var transfer : sent) {
+			assertFalse(future.isDone());
+			node.respond(transfer);
+		}
+		future.get(5, TimeUnit.SECONDS);
+		node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, buffers(CAPACITY), CAPACITY, TIMEOUT); // Every transfer ID was released, under both aliases.
+		assertEquals(CAPACITY, node.drainSent().size());
+		assertExhausted(node);
+	}
+
+	@Test
+	public void testExhaustedBatchUnwinds() throws Exception {
+		var node = new RecordingNode();
+		var held = CAPACITY - 12;
+		node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, buffers(held), held, TIMEOUT);
+		assertEquals(held, node.drainSent().size());
+		var future = node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, buffers(20), 20, TIMEOUT);
+		var exception = assertThrows(ExecutionException.class, () -> future.get(0, TimeUnit.SECONDS));
+		assertTrue(exception.getCause() instanceof BackoffException);
+		assertTrue(node.drainSent().isEmpty());
+		node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, buffers(12), 12, TIMEOUT); // The partial claim was released.
+		var sent = node.drainSent();
+		assertEquals(12, sent.size());
+		var pairs = new HashSet<Integer>();
+		for (var transfer : sent) {
+			pairs.add(transfer[0] << 8 | transfer[1]);
+		}
+		assertEquals(12, pairs.size());
+		assertExhausted(node);
+	}
+
+	@Test
+	public void testCancelAbandonsEveryAlias() throws Exception {
+		var node = new RecordingNode();
+		var future = node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, buffers(CAPACITY), CAPACITY, TIMEOUT);
+		assertEquals(CAPACITY, node.drainSent().size());
+		assertExhausted(node);
+		assertTrue(future.cancel(false));
+		node.requestAsync(DESTINATION_ID, TypeId.SET_FIELDS, 0, buffers(CAPACITY), CAPACITY, TIMEOUT);
+		assertEquals(CAPACITY, node.drainSent().size());
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestExpiryTest {
+
+	private static void awaitExpired(RequestExpiry expiry, ServiceTable table, int count) throws InterruptedException {
+		var deadline = System.currentTimeMillis() + 1000L;
+		var expired = 0;
+		while ((expired += expiry.drainExpiredCount()) < count) { // Note: The transfer IDs are vacated before the count is incremented.
+			if (System.currentTimeMillis() > deadline) {
+				fail("Timed out awaiting expiry.");
+			}
+			Thread.sleep(1);
+		}
+		assertEquals(count, expired);
+		assertEquals(0, table.occupancyCount());
+	}
+
+	@Test
+	public void testExpiresAfterIdle() throws Exception {
+		var table = new ServiceTable(32768);
+		var expiry = new RequestExpiry(table, Runnable::run);
+		expiry.start();
+		Thread.sleep(20); // The handler is now blocked without a timeout, since the wheel is empty.
+		var deadline = System.nanoTime() + 5_000_000L;
+		var id = table.claim(7, deadline, new NullContinuation());
+		expiry.schedule(7, id, deadline);
+		awaitExpired(expiry, table, 1);
+		Thread.sleep(20); // Idle again.
+		deadline = System.nanoTime() + 5_000_000L;
+		id = table.claim(7, deadline, new NullContinuation());
+		expiry.schedule(7, id, deadline);
+		awaitExpired(expiry, table, 1);
+	}
+
+	@Test
+	public void testReleasedClaimsNotExpired() throws Exception {
+		var table = new ServiceTable(32768);
+		var expiry = new RequestExpiry(table, Runnable::run);
+		expiry.start();
+		var deadline = System.nanoTime() + 5_000_000L;
+		var released = table.claim(7, deadline, new NullContinuation());
+		expiry.schedule(7, released, deadline);
+		table.release(7, released);
+		var later = System.nanoTime() + 10_000_000L;
+		var id = table.claim(8, later, new NullContinuation());
+		expiry.schedule(8, id, later);
+		awaitExpired(expiry, table, 1);
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import com.abstractfoundry.daemon.serial.LaneSelector;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SerialConnectorTest {
+
+	private static byte[] frame(int code, int messageId, int payloadLength) { // Decoded frame, as passed to the lane selector.
+		var bytes = new byte[7 + payloadLength + 3];
+		bytes[1] = (byte) code;
+		bytes[2] = 0x05; // Transfer ID.
+		bytes[3] = (byte) (messageId & 0xFF);
+		bytes[4] = (byte) (messageId >> 8 & 0xFF);
+		bytes[5] = (byte) (messageId >> 16 & 0xFF);
+		bytes[6] = (byte) (messageId >> 24 & 0xFF);
+		return bytes; // Note: The sequence number and CRC are not inspected.
+	}
+
+	private static final Object[][] CASES = {
+		// Description, frame, length (or -1 for the whole frame), priority lane.
+		{ "request", frame(0x2D, 0x8080 | 3 | 1 << 8 | 216 << 16, 4), -1, true },
+		{ "response", frame(0x2D, 0x80 | 3 | 1 << 8 | 216 << 16, 0), -1, true },
+		{ "response to another node", frame(0x2D, 0x80 | 3 | 9 << 8 | 20 << 16, 0), -1, true },
+		{ "broadcast", frame(0x2D, 3 | 341 << 8, 7), -1, false },
+		{ "anonymous broadcast", frame(0x2D, 0 | 1 << 8, 7), -1, false },
+		{ "broadcast of type with high bit", frame(0x2D, 3 | 0x80FF << 8, 0), -1, false },
+		{ "minimal service frame", frame(0x2D, 0x80 | 3 | 1 << 8, 0), 10, true },
+		{ "short service frame", frame(0x2D, 0x80 | 3 | 1 << 8, 0), 9, false },
+		{ "truncated header", frame(0x2D, 0x80 | 3, 0), 4, false },
+		{ "empty", new byte[0], 0, false },
+		{ "bundle", frame(0x2E, 0x80 | 3 | 1 << 8, 4), -1, false },
+		{ "acknowledgement", frame(0xAA, 0x80, 0), -1, false },
+		{ "pong", frame(0xFF, 0x80, 0), -1, false },
+	};
+
+	@Test
+	public void testServiceFramesTakePriorityLane() {
+		LaneSelector selector = SerialConnector::isServiceFrame;
+		for (var testCase : CASES) {
+			var description = (String) testCase[0];
+			var bytes = (byte[]) testCase[1];
+			var length = (int) testCase[2] < 0 ? bytes.length : (int) testCase[2];
+			assertEquals(testCase[3], selector.isPriority(bytes, length), description);
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServiceTableTest {
+
+	@Test
+	public void testClaimUntilExhausted() throws Exception {
+		var table = new ServiceTable(32768);
+		var continuation = new NullContinuation();
+		for (var expected = 0; expected < 32; expected++) {
+			assertEquals(expected, table.claim(1234, 0, continuation));
+		}
+		assertEquals(32, table.occupancyCount());
+		assertThrows(ServiceTable.KeyExhaustedException.class, () -> table.claim(1234, 0, continuation));
+		assertEquals(0, table.claim(1235, 0, continuation)); // Other keys are independent.
+	}
+
+	@Test
+	public void testReleaseReturnsContinuation() throws Exception {
+		var table = new ServiceTable(32768);
+		var first = new NullContinuation();
+		var second = new NullContinuation();
+		var id0 = table.claim(7, 0, first);
+		var id1 = table.claim(7, 0, second);
+		assertSame(second, table.release(7, id1));
+		assertSame(first, table.release(7, id0));
+		assertEquals(0, table.occupancyCount());
+		assertThrows(ServiceTable.KeyUnclaimedException.class, () -> table.release(7, id0));
+		assertThrows(ServiceTable.KeyUnclaimedException.class, () -> table.release(8, 0));
+	}
+
+	@Test
+	public void testExpireOnlyMatchingDeadline() throws Exception {
+		var table = new ServiceTable(32768);
+		var first = new NullContinuation();
+		var second = new NullContinuation();
+		var id = table.claim(7, 100L, first);
+		assertNull(table.expire(7, id, 99L)); // Some other claim's deadline.
+		assertSame(first, table.release(7, id));
+		assertEquals(id, table.claim(7, 200L, second)); // Reclaimed before the original deadline fires.
+		assertNull(table.expire(7, id, 100L));
+		assertSame(second, table.expire(7, id, 200L));
+		assertEquals(0, table.occupancyCount());
+		assertThrows(ServiceTable.KeyUnclaimedException.class, () -> table.release(7, id));
+	}
+
+	@Test
+	public void testAbandonOnlyMatchingContinuation() throws Exception {
+		var table = new ServiceTable(32768);
+		var abandoned = new NullContinuation();
+		var retained = new NullContinuation();
+		table.claim(7, 0, abandoned);
+		var id = table.claim(7, 0, retained);
+		table.claim(7, 0, abandoned);
+		assertEquals(2, table.abandon(7, abandoned));
+		assertEquals(1, table.occupancyCount());
+		assertSame(retained, table.release(7, id));
+		assertEquals(0, table.abandon(8, abandoned));
+	}
+
+	@Test
+	public void testConcurrentClaimAndRelease() throws Exception {
+		var table = new ServiceTable(32768);
+		var failures = new AtomicInteger();
+		var threads = new Thread[4];
+		for (var index = 0; index < threads.length; index++) {
+			threads[index] = new Thread(() -> {
+				var continuation = new NullContinuation();
+				for (var iteration = 0; iteration < 20000; iteration++) {
+					try {
+						var id = table.claim(42, 0, continuation);
+						if (table.release(42, id) != continuation) {
+							failures.incrementAndGet();
+						}
+					} catch (ServiceTable.KeyExhaustedException | ServiceTable.KeyUnclaimedException exception) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+			threads[index].start();
+		}
+		for (var thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+		assertEquals(0, table.occupancyCount());
+	}
+
+	@Test
+	public void testConcurrentExpireNeverTakesLaterClaim() throws Exception {
+		var table = new ServiceTable(32768);
+		var continuation = new NullContinuation(); // Reused by every claim, as a pooled continuation would be.
+		var iterations = 200000;
+		var latest = new AtomicLong(-1L);
+		var expired = new boolean[iterations]; // Per deadline, whether the expiry thread aborted it.
+		var unclaimed = new boolean[iterations]; // Per deadline, whether the release lost the race.
+		var expirer = new Thread(() -> {
+			while (latest.get() < iterations - 1) {
+				var deadline = latest.get(); // Possibly stale by the time the table is read.
+				if (deadline >= 0 && table.expire(42, 0, deadline) != null) {
+					expired[(int) deadline] = true;
+				}
+			}
+		});
+		expirer.start();
+		for (var deadline = 0; deadline < iterations; deadline++) {
+			while (table.occupancyCount() != 0) {
+				Thread.onSpinWait(); // The expiry thread may not yet have vacated the transfer ID it took.
+			}
+			assertEquals(0, table.claim(42, deadline, continuation));
+			latest.set(deadline);
+			try {
+				assertSame(continuation, table.release(42, 0));
+			} catch (ServiceTable.KeyUnclaimedException exception) {
+				unclaimed[deadline] = true;
+			}
+		}
+		expirer.join();
+		for (var deadline = 0; deadline < iterations; deadline++) {
+			assertEquals(unclaimed[deadline], expired[deadline], "Deadline " + deadline);
+		}
+		assertEquals(0, table.occupancyCount());
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.uavcan;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+
+	@Test
+	public void testFiresOnceDeadlineHasElapsed() {
+		var wheel = new TimingWheel(8, 10L, 0L);
+		var fired = new IntArrayList();
+		wheel.schedule(1, 25L);
+		wheel.schedule(2, 5L);
+		assertEquals(0, wheel.advance(19L, (handle, deadline) -> fired.add(handle)));
+		assertEquals(1, wheel.advance(20L, (handle, deadline) -> fired.add(handle))); // Tick zero has elapsed.
+		assertEquals(0, wheel.advance(29L, (handle, deadline) -> fired.add(handle)));
+		assertEquals(1, wheel.advance(30L, (handle, deadline) -> fired.add(handle)));
+		assertArrayEquals(new int[] {2, 1}, fired.toIntArray());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testLaterRevolutionsAreRetained() {
+		var wheel = new TimingWheel(4, 10L, 0L);
+		var fired = new IntArrayList();
+		wheel.schedule(1, 15L); // Tick 1.
+		wheel.schedule(2, 55L); // Tick 5, which shares the bucket.
+		assertEquals(1, wheel.advance(20L, (handle, deadline) -> fired.add(handle)));
+		assertEquals(1, wheel.size());
+		assertEquals(0, wheel.advance(59L, (handle, deadline) -> fired.add(handle)));
+		assertEquals(1, wheel.advance(60L, (handle, deadline) -> fired.add(handle)));
+		assertArrayEquals(new int[] {1, 2}, fired.toIntArray());
+	}
+
+	@Test
+	public void testLongPauseFiresEverything() {
+		var wheel = new TimingWheel(4, 10L, 0L);
+		var fired = new IntArrayList();
+		for (var handle = 0; handle < 10; handle++) {
+			wheel.schedule(handle, handle * 10L);
+		}
+		assertEquals(10, wheel.advance(1000L, (handle, deadline) -> fired.add(handle)));
+		assertEquals(0, wheel.size());
+		wheel.schedule(42, 0L); // Already passed, so fires on the next tick.
+		assertEquals(0, wheel.advance(1005L, (handle, deadline) -> fired.add(handle)));
+		assertEquals(1, wheel.advance(1010L, (handle, deadline) -> fired.add(handle)));
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2022 Abstract Foundry Limited
+ */
+
+package com.abstractfoundry.daemon.utility;
+
+import com.abstractfoundry.daemon.bus.FieldType;
+import com.abstractfoundry.daemon.bus.FlatDictionary;
+import com.abstractfoundry.daemon.loopback.SimulatedMetadata;
+import com.abstractfoundry.daemon.store.Store;
+import com.abstractfoundry.daemon.uavcan.TypeId;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BroadcastBusTest {
+
+	@Test
+	public void testExclusiveRangeIsWithheld() {
+		var store = new Store("127.0.0.1", 0); // Note: Never connects, since the node has no UUID.
+		var metadata = new SimulatedMetadata(null)
+			.add("level", FieldType.UINT, 1, 1, false)
+			.add("data", FieldType.INT, 2, 4, false)
+			.add("count", FieldType.UINT, 4, 1, false);
+		store.putPreferredName(7, "microphone");
+		store.putMetadata(7, metadata);
+		var bus = new BroadcastBus(store);
+		var exclusive = new ArrayList<Integer>();
+		var remainder = new ArrayList<Integer>();
+		var statuses = new ArrayList<Integer>();
+		bus.subscribeFields("microphone", "data", BroadcastBus.Mode.INLINE, true, (sourceId, keys, values, types, offset, count) -> {
+			for (var index = offset; index < offset + count; index++) {
+				exclusive.add(keys[index]);
+			}
+		});
+		bus.subscribeFields(BroadcastBus.ANY_SOURCE, 0, Integer.MAX_VALUE, BroadcastBus.Mode.INLINE, false, (sourceId, keys, values, types, offset, count) -> {
+			for (var index = offset; index < offset + count; index++) {
+				remainder.add(keys[index]);
+			}
+		});
+		bus.subscribe(3, TypeId.NODE_STATUS, BroadcastBus.Mode.INLINE, (sourceId, typeId, buffer, offset, length) -> statuses.add(sourceId));
+		var buffer = new byte[64];
+		var length = FlatDictionary.serialise(buffer, 0, new int[] { 0, 1, 2, 3, 4, 5 }, new int[] { 1, -2, 3, -4, 5, 6 }, 0, 6, metadata);
+		bus.handle(7, TypeId.PUBLISHED_FIELDS, 0, 0, buffer, 0, length);
+		assertEquals(List.of(1, 2, 3, 4), exclusive);
+		assertEquals(List.of(0, 5), remainder);
+		bus.handle(7, TypeId.NODE_STATUS, 0, 0, buffer, 0, 7); // Wrong source.
+		bus.handle(3, TypeId.NODE_STATUS, 0, 0, buffer, 0, 7);
+		assertEquals(List.of(3), statuses);
+	}
+
+	@Test
+	public void testAllWithheldWhilstExclusiveUnresolved() {
+		var store = new Store("127.0.0.1", 0); // Note: Never connects, since the node has no UUID.
+		var metadata = new SimulatedMetadata(null)
+			.add("level", FieldType.UINT, 1, 1, false)
+			.add("data", FieldType.INT, 2, 4, false);
+		store.putMetadata(7, metadata); // Enumerated, but not yet named, so absent from the namespace.
+		var bus = new BroadcastBus(store);
+		var exclusive = new ArrayList<Integer>();
+		var remainder = new ArrayList<Integer>();
+		bus.subscribeFields("microphone", "data", BroadcastBus.Mode.INLINE, true, (sourceId, keys, values, types, offset, count) -> {
+			for (var index = offset; index < offset + count; index++) {
+				exclusive.add(keys[index]);
+			}
+		});
+		bus.subscribeFields(BroadcastBus.ANY_SOURCE, 0, Integer.MAX_VALUE, BroadcastBus.Mode.INLINE, false, (sourceId, keys, values, types, offset, count) -> {
+			for (var index = offset; index < offset + count; index++) {
+				remainder.add(keys[index]);
+			}
+		});
+		var buffer = new byte[64];
+		var length = FlatDictionary.serialise(buffer, 0, new int[] { 0, 1, 2, 3, 4 }, new int[] { 1, -2, 3, -4, 5 }, 0, 5, metadata);
+		bus.handle(7, TypeId.PUBLISHED_FIELDS, 0, 0, buffer, 0, length);
+		assertTrue(exclusive.isEmpty());
+		assertTrue(remainder.isEmpty()); // The samples might otherwise be stored.
+		store.putPreferredName(7, "microphone");
+		bus.handle(7, TypeId.PUBLISHED_FIELDS, 0, 0, buffer, 0, length);
+		assertEquals(List.of(1, 2, 3, 4), exclusive);
+		assertEquals(List.of(0), remainder);
+	}
+
+}